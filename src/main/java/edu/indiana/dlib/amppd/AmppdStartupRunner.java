@@ -5,8 +5,11 @@ import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
 
 import edu.indiana.dlib.amppd.service.AmpUserService;
+import edu.indiana.dlib.amppd.service.ContentStorageService;
 import edu.indiana.dlib.amppd.service.MgmRefreshService;
 import edu.indiana.dlib.amppd.service.PermissionRefreshService;
+import edu.indiana.dlib.amppd.service.PreprocessService;
+import edu.indiana.dlib.amppd.service.SearchIndexService;
 
 @Component
 public class AmppdStartupRunner  implements CommandLineRunner {
@@ -20,6 +23,15 @@ public class AmppdStartupRunner  implements CommandLineRunner {
 	@Autowired
 	private MgmRefreshService mgmRefreshService;
 	
+	@Autowired
+	private PreprocessService preprocessService;
+	
+	@Autowired
+	private SearchIndexService searchIndexService;
+	
+	@Autowired
+	private ContentStorageService contentStorageService;
+	
     @Override
     public void run(String...args) throws Exception {	
     	// bootstrap AMP admin user
@@ -30,6 +42,15 @@ public class AmppdStartupRunner  implements CommandLineRunner {
 
 		// initialize/refresh MGM tables
 		mgmRefreshService.refreshMgmTables();
+		
+		// populate media descriptors for assets preprocessed before they were persisted
+		preprocessService.backfillMediaDescriptors();
+		
+		// ensure search indexes exist and rebuild search entries if out of sync
+		searchIndexService.refreshSearchIndex();
+		
+		// correct reference counts of media blobs leaked by failed or cascading operations
+		contentStorageService.refreshReferenceCounts();
     }
     
 }
\ No newline at end of file
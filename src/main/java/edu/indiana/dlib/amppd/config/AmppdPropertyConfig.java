@@ -23,9 +23,16 @@ public class AmppdPropertyConfig {
 
     @NotNull private String environment;
     @NotNull private String fileStorageRoot;
+    @NotNull private boolean contentAddressedStorage;
+    @NotNull private boolean mediaStreaming;
+    @NotNull private int mediaStreamingMaxConcurrent;
     @NotNull private String dropboxRoot;
+    @NotNull private boolean dropboxIndexWatch;
+    @NotNull private int dropboxIndexRescanMinutes;
     @NotNull private String pythonPath;
     @NotNull private String mediaprobeDir;
+    @NotNull private int mediaprobeWorkers;
+    @NotNull private int preprocessTimeoutSeconds;
     @NotNull private String encryptionSecret;  
     @NotNull private String adminEmail;
     @NotNull private String username; 
@@ -37,12 +44,27 @@ public class AmppdPropertyConfig {
 //    @NotNull private String workflowEditSecret;
     @NotNull private int jwtExpireMinutes;
     @NotNull private int workflowEditMinutes;
+    @NotNull private boolean workflowEditStreaming;
+    @NotNull private String workflowEditStaticCacheDir;
+    @NotNull private int workflowEditStaticCacheMinutes;
     @NotNull private int resetPasswordMinutes;
     @NotNull private int activateAccountDays;
 //    @NotNull private int refreshResultsStatusMinutes;
     @NotNull private int refreshResultsTableMinutes;
+    @NotNull private int refreshResultsTableThreads;
     @NotNull private String refreshResultsStatusCron;
     @NotNull private String refreshResultsTableCron;
+    @NotNull private String refreshResultsIncrementalCron;
+    @NotNull private int jobSubmissionThreads;
+    @NotNull private int jobSubmissionRetentionHours;
+    @NotNull private boolean stagePrimaryfilesAfterBatch;
+    @NotNull private int batchPreprocessThreads;
+    @NotNull private int cacheMaxItems;
+    @NotNull private int cacheTimeToLive;
+    @NotNull private int cacheSweepInterval;
+    @NotNull private int workflowCacheRefreshMinutes;
+    @NotNull private int jwtCacheMaxItems;
+    @NotNull private int jwtUserCacheSeconds;
     @NotNull private List<String> supplementCategories;
     @NotNull private List<String> externalSources;
     @NotNull private List<String> taskManagers;
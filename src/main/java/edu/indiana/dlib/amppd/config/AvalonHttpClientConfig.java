@@ -0,0 +1,49 @@
+package edu.indiana.dlib.amppd.config;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Configuration for the HTTP client shared by all requests to Avalon: a pooled keep-alive Apache HttpClient with timeouts,
+ * sized to the number of concurrent deliveries. Retries are handled by the caller, as delivery requests are PUTs.
+ */
+@Configuration
+public class AvalonHttpClientConfig {
+
+	@Autowired
+	private AvalonPropertyConfig config;
+
+	@Bean(destroyMethod = "close")
+	public CloseableHttpClient avalonHttpClient() {
+		// all requests go to the same Avalon host, so the per route limit is the same as the total limit
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(config.getDeliveryThreads());
+		connectionManager.setDefaultMaxPerRoute(config.getDeliveryThreads());
+
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(config.getConnectTimeout())
+				.setConnectionRequestTimeout(config.getConnectTimeout())
+				.setSocketTimeout(config.getReadTimeout())
+				.build();
+
+		return HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.disableAutomaticRetries()
+				.disableCookieManagement()
+				.build();
+	}
+
+	@Bean
+	public RestTemplate avalonRestTemplate() {
+		return new RestTemplate(new HttpComponentsClientHttpRequestFactory(avalonHttpClient()));
+	}
+
+}
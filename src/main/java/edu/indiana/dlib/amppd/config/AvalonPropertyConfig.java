@@ -19,5 +19,10 @@ public class AvalonPropertyConfig {
 
     @NotNull private String url;
     @NotNull private String token;
+    @NotNull private Integer deliveryThreads;
+    @NotNull private Integer connectTimeout;
+    @NotNull private Integer readTimeout;
+    @NotNull private Integer maxRetries;
+    @NotNull private Long retryBackoff;
     
 }
@@ -0,0 +1,35 @@
+package edu.indiana.dlib.amppd.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import edu.indiana.dlib.amppd.util.CacheHelperCacheManager;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Configuration for application caches: enables Spring caching backed by bounded CacheHelper caches,
+ * which are listed by the actuator caches endpoint and publish cache metrics.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+	@Autowired
+	private AmppdPropertyConfig amppdPropertyConfig;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Bean
+	public CacheManager cacheManager() {
+		return new CacheHelperCacheManager(
+				amppdPropertyConfig.getCacheTimeToLive(),
+				amppdPropertyConfig.getCacheSweepInterval(),
+				amppdPropertyConfig.getCacheMaxItems(),
+				meterRegistry);
+	}
+
+}
@@ -0,0 +1,197 @@
+package edu.indiana.dlib.amppd.config;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ServiceUnavailableRetryStrategy;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import edu.indiana.dlib.amppd.util.GalaxyClientFilter;
+import edu.indiana.dlib.amppd.util.GalaxyHttpMetrics;
+import edu.indiana.dlib.amppd.util.GalaxyStaticCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Configuration for the shared HTTP client layer for all traffic to Galaxy:
+ * a pooled keep-alive Apache HttpClient with timeouts and retries, backing the RestTemplate used for direct Galaxy requests,
+ * and a Jersey client filter with the same timeouts and retries for blend4j requests; both publish per-endpoint metrics.
+ * The HTTP client is also used directly for streaming workflow edit requests, along with a local cache of Galaxy static assets.
+ */
+@Configuration
+@Slf4j
+public class GalaxyHttpClientConfig {
+
+	@Autowired
+	private GalaxyPropertyConfig config;
+
+	@Autowired
+	private AmppdPropertyConfig amppdPropertyConfig;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Bean
+	public GalaxyHttpMetrics galaxyHttpMetrics() {
+		return new GalaxyHttpMetrics(meterRegistry);
+	}
+
+	@Bean
+	public GalaxyClientFilter galaxyClientFilter() {
+		return new GalaxyClientFilter(config.getConnectTimeout(), config.getReadTimeout(), config.getMaxRetries(), config.getRetryBackoff(), galaxyHttpMetrics());
+	}
+
+	@Bean(destroyMethod = "close")
+	public CloseableHttpClient galaxyHttpClient() {
+		// all requests go to the same Galaxy host, so the per route limit is the same as the total limit
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(config.getMaxConnections());
+		connectionManager.setDefaultMaxPerRoute(config.getMaxConnections());
+		connectionManager.setValidateAfterInactivity(2000);
+
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(config.getConnectTimeout())
+				.setConnectionRequestTimeout(config.getConnectTimeout())
+				.setSocketTimeout(config.getReadTimeout())
+				.build();
+
+		long keepAliveMillis = TimeUnit.SECONDS.toMillis(config.getKeepAliveSeconds());
+		CloseableHttpClient client = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				// keep connections alive as long as Galaxy allows, or the configured time if Galaxy doesn't say
+				.setKeepAliveStrategy((response, context) -> {
+					long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+					return duration > 0 ? duration : keepAliveMillis;
+				})
+				.evictIdleConnections(config.getKeepAliveSeconds(), TimeUnit.SECONDS)
+				.evictExpiredConnections()
+				.setRetryHandler(new GalaxyRetryHandler(config.getMaxRetries(), config.getRetryBackoff()))
+				.setServiceUnavailableRetryStrategy(new GalaxyRetryStrategy(config.getMaxRetries(), config.getRetryBackoff()))
+				// Galaxy session cookies are managed explicitly by the callers
+				.disableCookieManagement()
+				.build();
+
+		log.info("Initialized Galaxy HTTP client with " + config.getMaxConnections() + " max connections, connect/read timeout "
+				+ config.getConnectTimeout() + "/" + config.getReadTimeout() + " ms, and " + config.getMaxRetries() + " max retries");
+		return client;
+	}
+
+	@Bean
+	public RestTemplate galaxyHttpRestTemplate() {
+		RestTemplate restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(galaxyHttpClient()));
+		GalaxyHttpMetrics metrics = galaxyHttpMetrics();
+
+		// record latency and outcome of each request, including those failed without response
+		restTemplate.getInterceptors().add((request, body, execution) -> {
+			String method = request.getMethodValue();
+			URI uri = request.getURI();
+			long start = System.nanoTime();
+			try {
+				ClientHttpResponse response = execution.execute(request, body);
+				metrics.record(method, uri.getPath(), response.getRawStatusCode(), System.nanoTime() - start);
+				return response;
+			}
+			catch (IOException e) {
+				metrics.record(method, uri.getPath(), GalaxyHttpMetrics.STATUS_IO_ERROR, System.nanoTime() - start);
+				throw e;
+			}
+		});
+
+		return restTemplate;
+	}
+
+	@Bean
+	public GalaxyStaticCache galaxyStaticCache() {
+		return new GalaxyStaticCache(amppdPropertyConfig.getWorkflowEditStaticCacheDir(), amppdPropertyConfig.getWorkflowEditStaticCacheMinutes() * 60);
+	}
+
+	/**
+	 * Retries idempotent requests failed with IO errors, such as connect timeouts and refused connections, with exponential backoff.
+	 * Read timeouts are not retried, as a request Galaxy couldn't respond to within the read timeout would most likely time out again,
+	 * holding the caller for several times the timeout.
+	 */
+	private static class GalaxyRetryHandler extends DefaultHttpRequestRetryHandler {
+		private final long retryBackoff;
+
+		public GalaxyRetryHandler(int maxRetries, long retryBackoff) {
+			super(maxRetries, false, Arrays.asList(UnknownHostException.class, SSLException.class, SocketTimeoutException.class));
+			this.retryBackoff = retryBackoff;
+		}
+
+		@Override
+		public boolean retryRequest(IOException exception, int executionCount, HttpContext context) {
+			if (!super.retryRequest(exception, executionCount, context)) {
+				return false;
+			}
+			log.warn("Retrying Galaxy request after IO error: " + exception.getMessage());
+			return backoff(retryBackoff, executionCount);
+		}
+	}
+
+	/**
+	 * Retries idempotent requests responded with 502/503/504 with exponential backoff.
+	 */
+	private static class GalaxyRetryStrategy implements ServiceUnavailableRetryStrategy {
+		private final int maxRetries;
+		private final long retryBackoff;
+
+		public GalaxyRetryStrategy(int maxRetries, long retryBackoff) {
+			this.maxRetries = maxRetries;
+			this.retryBackoff = retryBackoff;
+		}
+
+		@Override
+		public boolean retryRequest(HttpResponse response, int executionCount, HttpContext context) {
+			int status = response.getStatusLine().getStatusCode();
+			String method = HttpClientContext.adapt(context).getRequest().getRequestLine().getMethod();
+			if (executionCount > maxRetries || !GalaxyClientFilter.isRetriable(status) || !("GET".equals(method) || "HEAD".equals(method))) {
+				return false;
+			}
+			log.warn("Retrying Galaxy request " + method + " after status " + status);
+			return backoff(retryBackoff, executionCount);
+		}
+
+		@Override
+		public long getRetryInterval() {
+			// backoff already happened in retryRequest, as the interval depends on execution count
+			return 0;
+		}
+	}
+
+	/**
+	 * Sleep for the backoff before the retry following the given execution count, doubling on each retry;
+	 * return false if interrupted, true otherwise.
+	 */
+	private static boolean backoff(long retryBackoff, int executionCount) {
+		try {
+			Thread.sleep(retryBackoff << (executionCount - 1));
+			return true;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+}
@@ -27,6 +27,13 @@ public class GalaxyPropertyConfig {
     @NotNull private String userId;
     @NotNull private String username;
     @NotNull private String password;
+    @NotNull private Integer requestsPerSecond;	// max rate of API calls to Galaxy, 0 for unlimited
+    @NotNull private Integer maxConnections;	// max number of pooled HTTP connections to Galaxy
+    @NotNull private Integer connectTimeout;	// timeout in milliseconds for connecting to Galaxy
+    @NotNull private Integer readTimeout;		// timeout in milliseconds for waiting on response data from Galaxy
+    @NotNull private Integer keepAliveSeconds;	// how long idle connections to Galaxy are kept alive if Galaxy doesn't specify
+    @NotNull private Integer maxRetries;		// max number of retries for idempotent requests failed with IO error other than read timeout, or 502/503/504
+    @NotNull private Long retryBackoff;			// backoff in milliseconds before the first retry, doubled on each further retry
     // Below AMP WorkflowEditUser is currently not used, instead, the AMP super Galaxy user above is used for workflow edit,
     // to avoid complexity of access control in Galaxy. We can revert to use the below user as needed in the future.
 //    @NotNull private String usernameWorkflowEdit;
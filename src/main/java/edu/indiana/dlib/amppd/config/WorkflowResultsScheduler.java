@@ -26,7 +26,15 @@ public class WorkflowResultsScheduler {
 		log.debug("Finished running refresh status at " + sdf.format(new Date()));
 	}
 
-	// Runs every night at 1 am
+	// Runs every hour on the 30th minute
+	@Scheduled(cron = "${amppd.refreshResultsIncrementalCron}")
+	public void refreshUpdatedResults() {
+		log.debug("Starting refreshWorkflowResultsIncremental at " + sdf.format(new Date()));
+		workflowResultService.refreshWorkflowResultsIncremental();
+		log.debug("Finished refreshWorkflowResultsIncremental at " + sdf.format(new Date()));
+	}
+
+	// Runs every Sunday at 1 am, as a full reconcile to catch what the incremental refresh misses, such as purged datasets
 	@Scheduled(cron = "${amppd.refreshResultsTableCron}")
 	public void refreshAllResults() {
 		log.debug("Starting refreshWorkflowResultsIterative at " + sdf.format(new Date()));
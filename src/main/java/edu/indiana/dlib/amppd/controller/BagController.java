@@ -1,5 +1,9 @@
 package edu.indiana.dlib.amppd.controller;
 
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -70,6 +74,21 @@ public class BagController {
 		return bagService.getCollectionBag(collectionId);		
 	}
 	
+	/**
+	 * Streams the CollectionBag associated with the given collection as JSON, for collections too large to assemble in memory.
+	 * Errors before any ItemBag is written result in an error response as usual; an error after that, when the response could have 
+	 * been committed with status 200, ends the JSON with an "error" field and aborts the response, so the bag is never taken as complete.
+	 * @param response HttpServletResponse
+	 * @param collectionId ID of the given collection
+	 */
+	@GetMapping(path = "/bags/collection/{collectionId}/stream")
+	public void streamCollectionBag(HttpServletResponse response, @PathVariable Long collectionId) throws IOException {
+		log.info("Streaming CollectionBag for collectionId " + collectionId + " ... " );
+		response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+		response.setCharacterEncoding("UTF-8");
+		bagService.writeCollectionBag(collectionId, response.getOutputStream());		
+	}
+	
 	/**
 	 * Gets the CollectionBag associated with the given collection.
 	 * @param unitName name of the given collection's parent unit
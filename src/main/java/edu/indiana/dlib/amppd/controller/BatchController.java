@@ -1,10 +1,13 @@
 package edu.indiana.dlib.amppd.controller;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
@@ -12,6 +15,7 @@ import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
 
+import edu.indiana.dlib.amppd.config.AmppdPropertyConfig;
 import edu.indiana.dlib.amppd.exception.StorageException;
 import edu.indiana.dlib.amppd.model.AmpUser;
 import edu.indiana.dlib.amppd.model.Primaryfile;
@@ -19,6 +23,7 @@ import edu.indiana.dlib.amppd.repository.PrimaryfileRepository;
 import edu.indiana.dlib.amppd.service.AmpUserService;
 import edu.indiana.dlib.amppd.service.BatchService;
 import edu.indiana.dlib.amppd.service.BatchValidationService;
+import edu.indiana.dlib.amppd.service.JobService;
 import edu.indiana.dlib.amppd.service.PreprocessService;
 import edu.indiana.dlib.amppd.web.BatchValidationResponse;
 import io.micrometer.core.instrument.util.StringUtils;
@@ -38,6 +43,10 @@ public class BatchController {
     private PrimaryfileRepository primaryfileRepository;
 	@Autowired
     private PreprocessService preprocessService;
+	@Autowired
+	private JobService jobService;
+	@Autowired
+	private AmppdPropertyConfig amppdPropertyConfig;
 	
 	@PostMapping(path = "/batch/ingest", consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
 	public @ResponseBody BatchValidationResponse batchIngest(@RequestPart MultipartFile file, @RequestPart String unitName) {	
@@ -53,11 +62,35 @@ public class BatchController {
 			log.info("  errors:"+ response.getProcessingErrors().size());
 			response.setSuccess(batchSuccess);
 			log.info("Batch processing success : "+batchSuccess+" processing errors:"+response.getProcessingErrors());
+			
+			// pre-stage the ingested primaryfiles in Galaxy in the background if configured so
+			if (amppdPropertyConfig.isStagePrimaryfilesAfterBatch()) {
+				Set<Long> collectionIds = new HashSet<Long>();
+				response.getBatch().getBatchFiles().forEach(batchFile -> {
+					if (batchFile.getCollection() != null) {
+						collectionIds.add(batchFile.getCollection().getId());
+					}
+				});
+				jobService.stagePrimaryfilesForJobsAsync(collectionIds);
+			}
 		}
 		
 		return response;
 	}
 
+	/**
+	 * Resume the specified batch by processing again all its rows not completed yet, e.g. rows failed due to missing files or server shutdown.
+	 * @param batchId ID of the batch to resume
+	 * @return the response with the resumed batch and processing errors of rows that still failed
+	 */
+	@PostMapping(path = "/batch/{batchId}/resume", produces = MediaType.APPLICATION_JSON_VALUE)
+	public @ResponseBody BatchValidationResponse resumeBatch(@PathVariable Long batchId) {
+		AmpUser ampUser = ampUserService.getCurrentUser();
+		BatchValidationResponse response = batchService.resumeBatch(batchId, ampUser.getUsername());
+		log.info("Batch " + batchId + " resume success : " + response.isSuccess() + " processing errors:" + response.getProcessingErrors());
+		return response;
+	}
+
 	/**
 	 * Run preprocessing on existing primaryfiles missing media info due to previous failures.
 	 * @param (optional) primaryfileId, if provispecifiedded, preprocess only this primaryfile, otherwise preprocess all as needed
@@ -66,7 +99,7 @@ public class BatchController {
 	@PostMapping(path = "/batch/preprocess")
 	public List<Primaryfile> preprocessPrimaryfilesMissingMediaInfo(@RequestParam(required = false) Long primaryfileId) {
 		List<Primaryfile> primaryfiles = new ArrayList<Primaryfile>();
-		List<Primaryfile> failedPfiles = new ArrayList<Primaryfile>();
+		List<Primaryfile> failedPfiles;
 
 		// if primaryfileId is specified, add the primaryfile for processing if it's missing mediaInfo
 		if (primaryfileId != null) { 
@@ -85,18 +118,8 @@ public class BatchController {
 			log.info("Preprocessing " + primaryfiles.size() + " primaryfiles missing media info ...");
 		}
 
-		// preprocess above found primaryfiles
-		for (Primaryfile primaryfile : primaryfiles) {
-			try {
-				preprocessService.preprocess(primaryfile, true);
-				if (StringUtils.isEmpty(primaryfile.getMediaInfo())) {
-					failedPfiles.add(primaryfile);
-				}
-			}
-			catch (Exception e) {
-				failedPfiles.add(primaryfile);
-			}
-		}
+		// preprocess above found primaryfiles, probing their media concurrently
+		failedPfiles = preprocessService.preprocess(primaryfiles, true);
 
 		int success = primaryfiles.size() - failedPfiles.size();		
 		log.info("Successfully preprocessed " +  success + " primaryfiles missing media info, " + failedPfiles.size() + " primaryfiles still failed.");
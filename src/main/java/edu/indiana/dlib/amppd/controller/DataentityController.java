@@ -39,6 +39,7 @@ import edu.indiana.dlib.amppd.repository.UnitSupplementRepository;
 import edu.indiana.dlib.amppd.service.DataentityService;
 import edu.indiana.dlib.amppd.service.DropboxService;
 import edu.indiana.dlib.amppd.service.FileStorageService;
+import edu.indiana.dlib.amppd.service.SearchIndexService;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -85,6 +86,9 @@ public class DataentityController {
 	@Autowired
 	private DropboxService dropboxService;
 
+	@Autowired
+	private SearchIndexService searchIndexService;
+
 	/**
 	 * Move the given primaryfile to the given parent item.
 	 * @param itemId ID of the given item
@@ -123,6 +127,7 @@ public class DataentityController {
 			throw new RuntimeException("No media file is provided for the primaryfile to be added.");
 		}
 		primaryfile = (Primaryfile)fileStorageService.uploadAsset(primaryfile, mediaFile);
+		searchIndexService.indexEntity(primaryfile);
 		
     	log.info("Successfully added primaryfile " + primaryfile.getName() + " under item " + itemId);
     	return primaryfile;
@@ -342,6 +347,7 @@ public class DataentityController {
 
         // persist updated collection
         collectionRepository.save(collection);
+        searchIndexService.indexEntity(collection);
         
         log.info("Successfully moved collection " + collectionId + " to new unit " + unitId);
         return collection;
@@ -383,6 +389,7 @@ public class DataentityController {
     	// move item media subdir (if exists) to new subdir and update/save its parent collection
     	fileStorageService.moveEntityDir(item, collection);
     	itemRepository.save(item);
+    	searchIndexService.indexEntity(item);
 
     	log.info("Successfully moved item " + itemId + " to new collection " + collectionId);
         return item;
@@ -426,6 +433,7 @@ public class DataentityController {
     	// as the original parent would have been lost after primaryfile is saved by the latter
     	fileStorageService.moveEntityDir(primaryfile, oldItem);
         fileStorageService.moveAsset(primaryfile, true);
+        searchIndexService.indexEntity(primaryfile);
 
     	log.info("Successfully moved primaryfile " + primaryfileId + " to new item " + itemId);
         return primaryfile;
@@ -6,6 +6,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import edu.indiana.dlib.amppd.exception.StorageException;
@@ -60,12 +61,13 @@ public class DeliverController {
 	/**
 	 * Deliver final results associated with the items within the given collection to Avalon.
 	 * @param collectionId ID of the given collection
+	 * @param force if true, deliver all items, otherwise only those failed or changed since last delivery
 	 * @return the list of AvalonRelatedItems delivered
 	 */
 	@PostMapping(path = "/deliver/avalon/collection/{collectionId}", produces = MediaType.APPLICATION_JSON_VALUE)
-	public List<AvalonRelatedItems> deliverAvalonCollection(@PathVariable Long collectionId) {
+	public List<AvalonRelatedItems> deliverAvalonCollection(@PathVariable Long collectionId, @RequestParam(required = false) Boolean force) {
 		log.info("Deliver final results to Avalon for items in collection " + collectionId + " ... " );
-		return deliverService.deliverAvalonCollection(collectionId);
+		return deliverService.deliverAvalonCollection(collectionId, force);
 	}
 
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package edu.indiana.dlib.amppd.controller;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -23,6 +24,7 @@ import edu.indiana.dlib.amppd.config.GalaxyPropertyConfig;
 import edu.indiana.dlib.amppd.service.JobService;
 import edu.indiana.dlib.amppd.web.CreateJobParameters;
 import edu.indiana.dlib.amppd.web.CreateJobResponse;
+import edu.indiana.dlib.amppd.web.JobSubmission;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -120,6 +122,80 @@ public class JobController {
 		return jobService.createJobs(workflowId, inputCsv, parameterss);
 	}
 	
+	/**
+	 * Asynchronously stage in Galaxy all primaryfiles in the given collection which haven't been staged yet,
+	 * so that subsequent job submissions on them only need to invoke the workflows.
+	 * @param collectionId ID of the given collection
+	 * @return JobSubmission whose ID can be used to poll the progress of the staging
+	 */
+	@PostMapping(path = "/jobs/stage", produces = MediaType.APPLICATION_JSON_VALUE)
+	public JobSubmission stagePrimaryfilesForJobs(@RequestParam Long collectionId) {
+		log.info("Processing request to stage primaryfiles in collection " + collectionId + " for jobs ... ");
+		return jobService.stagePrimaryfilesForJobsAsync(Collections.singleton(collectionId));
+	}
+	
+	/**
+	 * Asynchronously create AMP jobs by submitting to Galaxy the given workflow against the given primaryfiles, along with the given parameterss.
+	 * @param workflowId ID of the given workflow
+	 * @param primaryfileIds IDs of the given primaryfiles
+	 * @param parameterss the dynamic parameterss to use for the steps in the workflow as a map {stepId: {paramName; paramValue}}
+	 * @return JobSubmission whose ID can be used to poll the progress of the submission
+	 */
+	@PostMapping(path = "/jobs/submitFilesAsync", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+	public JobSubmission createJobsAsync(			
+			@RequestParam String workflowId, 
+			@RequestParam Long[] primaryfileIds, 
+			@RequestBody(required = false) CreateJobParameters[] parameterss) {		
+		log.info("Processing request to submit asynchronously a workflow against primaryfiles with parameterss ... ");
+		return jobService.createJobsAsync(workflowId, primaryfileIds, parameterss);
+	}
+	
+	/**
+	 * Asynchronously create a bundle of AMP jobs, one for each primaryfile included in the given bundle, by submitting to Galaxy the given workflow 
+	 * with the given step parameterss.
+	 * @param workflowId the ID of the specified workflow 
+	 * @param bundleId the ID of the specified bundle
+	 * @param parameterss the dynamic parameterss to use for the steps in the workflow as a map {stepId: {paramName; paramValue}}
+	 * @return JobSubmission whose ID can be used to poll the progress of the submission
+	 */
+	@PostMapping(path = "/jobs/submitBundleAsync", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+	public JobSubmission createJobsAsync(
+			@RequestParam String workflowId, 
+			@RequestParam Long bundleId, 
+			@RequestBody(required = false) CreateJobParameters[] parameterss) {	
+		log.info("Processing request to submit asynchronously a workflow against a bundle of primaryfiles with parameterss ... ");
+		return jobService.createJobsAsync(workflowId, bundleId, parameterss);
+	}
+	
+	/**
+	 * Asynchronously create AMP jobs, one for each row of primaryfile and outputs specified in the given csvFile, 
+	 * by submitting to Galaxy the given workflow along with the given parameterss.
+	 * @param workflowId ID of the given workflow
+	 * @param inputCsv CSV file each row specifying the primaryfile and previous outputs to use as workflow inputs
+	 * @param parameterss the dynamic parameterss to use for the steps in the workflow as a map {stepId: {paramName; paramValue}}
+	 * @return JobSubmission whose ID can be used to poll the progress of the submission
+	 */
+	@PostMapping(path = "/jobs/submitCsvAsync", produces = MediaType.APPLICATION_JSON_VALUE)
+	public JobSubmission createJobsAsync(
+			@RequestParam String workflowId, 
+			@RequestParam MultipartFile inputCsv,
+			@RequestParam(value = "parameterss", required = false) CreateJobParameters[] parameterss) {
+		// see createJobs with inputCsv on why @RequestParam is used for parameterss
+		log.info("Processing request to submit asynchronously a workflow against an inputCsv file containing primaryfile IDs and workflow result IDs with parameterss ... ");
+		return jobService.createJobsAsync(workflowId, inputCsv, parameterss);
+	}
+	
+	/**
+	 * Get the progress of the given asynchronous job submission, along with the responses of the jobs processed so far.
+	 * @param submissionId ID of the given submission
+	 * @return JobSubmission with the current progress
+	 */
+	@GetMapping(path = "/jobs/submissions/{submissionId}", produces = MediaType.APPLICATION_JSON_VALUE)
+	public JobSubmission getJobSubmission(@PathVariable("submissionId") String submissionId) {
+		log.info("Retrieving progress of job submission " + submissionId);
+		return jobService.getJobSubmission(submissionId);
+	}
+	
 	/**
 	 * List all AMP jobs with step details, i.e. all workflow invocations submitted via AMPPD UI to Galaxy.
 	 * @return a list of Invocations each containing basic information of an AMP job.
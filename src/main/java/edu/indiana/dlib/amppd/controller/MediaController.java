@@ -3,7 +3,12 @@ package edu.indiana.dlib.amppd.controller;
 import java.net.URI;
 import java.net.URISyntaxException;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -15,6 +20,7 @@ import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
 
 import edu.indiana.dlib.amppd.service.MediaService;
+import edu.indiana.dlib.amppd.service.MediaStreamService;
 import edu.indiana.dlib.amppd.web.ItemSearchResponse;
 import lombok.extern.slf4j.Slf4j;
 
@@ -30,14 +36,23 @@ public class MediaController {
 	@Autowired
     private MediaService mediaService;
 
+	@Autowired
+    private MediaStreamService mediaStreamService;
+
 	/**
-	 * Serve the media file of the given primaryfile by redirecting the request to the AMPPD UI Apache server.
+	 * Serve the media file of the given primaryfile by redirecting the request to the AMPPD UI Apache server,
+	 * or by streaming it directly if media streaming is enabled.
 	 * @param id ID of the given primaryfile
 	 * @return the binary content of the media file
 	 */
 	@GetMapping("/primaryfiles/{id}/media")
-	public ResponseEntity<Object> servePrimaryfile(@PathVariable("id") Long id) {		
+	public ResponseEntity<Object> servePrimaryfile(@PathVariable("id") Long id, HttpServletRequest request, HttpServletResponse response) {		
     	log.info("Serving media file for primaryfile ID " + id);
+    	if (mediaStreamService.isEnabled()) {
+    		mediaStreamService.streamPrimaryfile(id, request, response);
+    		return null;
+    	}
+    	
     	String url = mediaService.getPrimaryfileSymlinkUrl(id);
     	HttpHeaders httpHeaders = new HttpHeaders();
     	try {
@@ -50,13 +65,19 @@ public class MediaController {
     }
 
 	/**
-	 * Serve the output file of the given workflowResult by redirecting the request to the AMPPD UI Apache server.
+	 * Serve the output file of the given workflowResult by redirecting the request to the AMPPD UI Apache server,
+	 * or by streaming it directly if media streaming is enabled.
 	 * @param id ID of the given workflowResult
 	 * @return the content of the output file
 	 */
 	@GetMapping("/workflow-results/{id}/output")
-	public ResponseEntity<Object> serveWorkflowOutput(@PathVariable("id") Long id) {		
+	public ResponseEntity<Object> serveWorkflowOutput(@PathVariable("id") Long id, HttpServletRequest request, HttpServletResponse response) {		
     	log.info("Serving output for workflowResult ID " + id);
+    	if (mediaStreamService.isEnabled()) {
+    		mediaStreamService.streamWorkflowOutput(id, request, response);
+    		return null;
+    	}
+    	
     	String url = mediaService.getWorkflowResultOutputSymlinkUrl(id);
     	HttpHeaders httpHeaders = new HttpHeaders();
     	try {
@@ -70,10 +91,15 @@ public class MediaController {
 		
 	@CrossOrigin(origins = "*")
 	@GetMapping(path = "/primaryfiles/search/findByItemOrFileName")
-	public @ResponseBody ItemSearchResponse searchFile(@RequestParam("keyword") String keyword, @RequestParam("mediaType") String mediaType) {	
-		log.info("Searching for items/primaryfiles: keywowrd = " + keyword + ", mediaType = " + mediaType);
-		ItemSearchResponse res = new ItemSearchResponse();
-		res = mediaService.findItemOrFile(keyword, mediaType);
+	public @ResponseBody ItemSearchResponse searchFile(
+			@RequestParam("keyword") String keyword, 
+			@RequestParam("mediaType") String mediaType,
+			@RequestParam(required = false) Integer page,
+			@RequestParam(required = false) Integer size) {	
+		log.info("Searching for items/primaryfiles: keywowrd = " + keyword + ", mediaType = " + mediaType + ", page = " + page + ", size = " + size);
+		// return all matches unless page size is specified
+		Pageable pageable = size == null ? Pageable.unpaged() : PageRequest.of(page == null ? 0 : page, size);
+		ItemSearchResponse res = mediaService.findItemOrFile(keyword, mediaType, pageable);
 		return res;
 	}
 	
@@ -1,6 +1,6 @@
 package edu.indiana.dlib.amppd.controller;
 
-
+import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpMethod;
@@ -11,6 +11,7 @@ import org.springframework.web.bind.annotation.RestController;
 import edu.indiana.dlib.amppd.model.ac.Action.ActionType;
 import edu.indiana.dlib.amppd.model.ac.Action.TargetType;
 import edu.indiana.dlib.amppd.service.PermissionService;
+import edu.indiana.dlib.amppd.web.UnitActions;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -44,4 +45,20 @@ public class PermissionController {
 		return has;
 	}
 	
+	/**
+	 * Check which of the actions with the given action types and target types the current user can perform within each of the given units.
+	 * @param actionTypes the given action types, all action types if not provided
+	 * @param targetTypes the given target types, all target types if not provided
+	 * @param unitIds IDs of the given units
+	 * @return the allowed actions for each unit
+	 */
+	@GetMapping("/permissions/allowed")
+	public List<UnitActions> getPermittedActions(
+			@RequestParam(required = false) List<ActionType> actionTypes, 
+			@RequestParam(required = false) List<TargetType> targetTypes, 
+			@RequestParam List<Long> unitIds) {
+		log.info("Checking permitted actions for actionTypes " + actionTypes + ", targetTypes " + targetTypes + ", unitIds " + unitIds);
+		return permissionService.getPermittedActions(actionTypes, targetTypes, unitIds);
+	}
+	
 }
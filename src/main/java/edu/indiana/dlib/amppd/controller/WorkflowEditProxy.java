@@ -6,15 +6,28 @@ import edu.indiana.dlib.amppd.exception.GalaxyWorkflowException;
 import edu.indiana.dlib.amppd.model.AmpUser;
 import edu.indiana.dlib.amppd.security.JwtTokenUtil;
 import edu.indiana.dlib.amppd.service.AmpUserService;
+import edu.indiana.dlib.amppd.service.WorkflowService;
+import edu.indiana.dlib.amppd.util.GalaxyHttpMetrics;
+import edu.indiana.dlib.amppd.util.GalaxyStaticCache;
 import edu.indiana.dlib.amppd.web.GalaxyLoginRequest;
 import edu.indiana.dlib.amppd.web.GalaxyUpdateWorkflowRequest;
 import edu.indiana.dlib.amppd.web.GalaxyWorkflowRequest;
 import edu.indiana.dlib.amppd.web.GalaxyWorkflowResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.http.Header;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.*;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RestClientException;
@@ -26,7 +39,15 @@ import javax.servlet.ServletContext;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpCookie;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -62,6 +83,13 @@ public class WorkflowEditProxy {
 	// workflow edit cookie name
 	public static final String WORKFLOW_EDIT_COOKIE = "workflowEdit";
 	
+	// size of the buffer for streaming each request/response body
+	public static final int STREAM_BUFFER_SIZE = 8192;
+	
+	// hop-by-hop headers, in lower case, which apply to a single connection thus are not forwarded when streaming
+	private static final List<String> HOP_BY_HOP_HEADERS = Arrays.asList(
+			"connection", "keep-alive", "proxy-authenticate", "proxy-authorization", "te", "trailer", "transfer-encoding", "upgrade");
+	
 	@Autowired
 	private AmppdPropertyConfig amppdPropertyConfig;	
 	
@@ -74,8 +102,21 @@ public class WorkflowEditProxy {
 	@Autowired
 	private ServletContext context;
 	
-//	@Autowired
-	private RestTemplate restTemplate = new RestTemplate();
+	// pooled keep-alive RestTemplate shared by all requests to Galaxy
+	@Autowired
+	@Qualifier("galaxyHttpRestTemplate")
+	private RestTemplate restTemplate;
+	
+	// the pooled HTTP client behind the above RestTemplate, used directly for streaming
+	@Autowired
+	@Qualifier("galaxyHttpClient")
+	private CloseableHttpClient httpClient;
+	
+	@Autowired
+	private GalaxyHttpMetrics galaxyHttpMetrics;
+	
+	@Autowired
+	private GalaxyStaticCache galaxyStaticCache;
 	
 	private String csrfToken = null;
 	private String galaxySession = null;
@@ -84,6 +125,9 @@ public class WorkflowEditProxy {
 	@Autowired
 	private AmpUserService ampUserService;
 
+	@Autowired
+	private WorkflowService workflowService;
+
 	/**
 	 *  Upon initialization of the controller, 
 	 *  login to galaxy as AMP workflow edit user and set up galaxy session for workflow edit.
@@ -233,6 +277,9 @@ public class WorkflowEditProxy {
 			throw new GalaxyWorkflowException("Exception while creating workflow in Galaxy", e);
 		}
 		
+		// the new workflow should show up in workflow lists
+		workflowService.invalidateWorkflow(workflowId);
+		
 		// generate the workflow edit cookie, provided the current AMP request authHeader and workflowId
 		ResponseCookie rc = generateWorkflowEditCookie(authHeader, workflowId);
 
@@ -278,6 +325,9 @@ public class WorkflowEditProxy {
 	    cookie.setHttpOnly(true);
 	    cookie.setPath(context.getContextPath() + GALAXY_ROOT);
 	    cookie.setMaxAge(0);
+	    
+	    // the workflow could have been saved during the edit session
+	    workflowService.invalidateWorkflow(workflowId);
 		
 		// send the unset cookie to AMP client to delete it
 		response.addCookie(cookie);
@@ -289,10 +339,11 @@ public class WorkflowEditProxy {
 	 * Proxy all requests sent to /rest/galaxy/**, presumably for workflow edit:
 	 * authenticate requests with valid workflow edit cookie, and validate requests parameters and payload;
 	 * send valid request to Galaxy with valid galaxy session cookie, and return response from Galaxy. 
+	 * If workflow edit streaming is enabled, the request and response are streamed, and null is returned.
 	 * @param method HTTP method of the workflow edit request
 	 * @param wfeCookie workflow edit cookie attached to the request
-	 * @param body body of the request
 	 * @param request the HttpServletRequest
+	 * @param response the HttpServletResponse
 	 * @return response from Galaxy, including error response
 	 */
 	/* Note: 
@@ -305,8 +356,8 @@ public class WorkflowEditProxy {
 			HttpMethod method,
 			@CookieValue(name = WORKFLOW_EDIT_COOKIE, required = false) String wfeCookie,
 			@RequestHeader HttpHeaders headers,
-			@RequestBody(required = false) byte[] body,
-			HttpServletRequest request) {
+			HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
 	    log.debug("Proxying workflow edit request " + method + " " + request.getRequestURL() + "...");
 	    
 		// retrieve workflow edit cookie and validate it 
@@ -354,7 +405,16 @@ public class WorkflowEditProxy {
 		// set up request to Galaxy
 		String query = StringUtils.isEmpty(request.getQueryString()) ? "" : "?" + request.getQueryString();
     	String url = galaxyPropertyConfig.getBaseUrl() + request.getRequestURI() + query;
-    	HttpEntity<byte[]> grequest = new HttpEntity<byte[]>(body, headers);    	
+    	
+    	// stream the request to Galaxy and the response back if enabled
+    	if (amppdPropertyConfig.isWorkflowEditStreaming()) {
+    		streamEdit(method, url, headers, workflowId, request, response);
+    		return null;
+    	}
+    	
+    	// otherwise buffer the whole request and response
+    	byte[] body = StreamUtils.copyToByteArray(request.getInputStream());
+    	HttpEntity<byte[]> grequest = new HttpEntity<byte[]>(body.length == 0 ? null : body, headers);    	
     	byte[] gbody;
     	HttpHeaders gheaders;
     	HttpStatus gstatus;    
@@ -366,6 +426,11 @@ public class WorkflowEditProxy {
     		gheaders = gresponse.getHeaders();
     		gstatus = gresponse.getStatusCode();
         	log.info("Successfully processed workflow edit request " + method + " " + url + " with response status " + gstatus + " and body length " + gbody.length);
+        	
+        	// PUT request saves the workflow, so its cached metadata is outdated
+        	if (method == HttpMethod.PUT) {
+        		workflowService.invalidateWorkflow(workflowId);
+        	}
     	}
     	// in case of any Galaxy client/server error return the error response as well
     	catch (HttpStatusCodeException ex) {
@@ -391,10 +456,175 @@ public class WorkflowEditProxy {
     	rheaders.remove(HttpHeaders.CONTENT_LENGTH);
 
     	// return workflow edit response
-    	ResponseEntity<byte[]> response = new ResponseEntity<byte[]>(gbody, rheaders, gstatus);    	
-		return response;
+		return new ResponseEntity<byte[]>(gbody, rheaders, gstatus);
 	}	
 	
+	/**
+	 * Stream the given workflow edit request to Galaxy at the given URL with the given headers, and stream the response from Galaxy back,
+	 * through buffers of fixed size, so that neither body is held in memory as a whole. 
+	 * Content encoding is passed through as is, and so is chunked transfer encoding, as bodies without length are chunked on either side.
+	 * Galaxy static assets are served from the local static cache, and revalidated with Galaxy by their ETags when needed.
+	 */
+	private void streamEdit(HttpMethod method, String url, HttpHeaders headers, String workflowId, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String path = StringUtils.substringAfter(request.getServletPath(), GALAXY_ROOT);
+		String query = request.getQueryString();
+		boolean isStatic = method == HttpMethod.GET && path.startsWith(GALAXY_STATIC + "/");
+		String variant = null;
+		GalaxyStaticCache.Asset asset = null;
+		
+		// serve static asset from cache if it's still fresh
+		if (isStatic) {
+			variant = GalaxyStaticCache.getVariant(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+			asset = galaxyStaticCache.get(path, variant);
+			if (asset != null && galaxyStaticCache.isFresh(asset, query)) {
+				sendStaticAsset(asset, request, response);
+				return;
+			}
+		}
+		
+		// set up request to Galaxy, the body (if any) is streamed from the client request 
+		RequestBuilder builder = RequestBuilder.create(method.name()).setUri(url).setConfig(getStreamRequestConfig());
+		headers.forEach((name, values) -> {
+			if (!HOP_BY_HOP_HEADERS.contains(name.toLowerCase()) && !name.equalsIgnoreCase(HttpHeaders.CONTENT_LENGTH)) {
+				values.forEach(value -> builder.addHeader(name, value));
+			}
+		});
+		if (isStatic) {
+			// request the whole asset in the cached encoding variant, conditional on the ETag of the cached one if any
+			builder.setHeader(HttpHeaders.ACCEPT_ENCODING, variant);
+			builder.removeHeaders(HttpHeaders.RANGE);
+			builder.removeHeaders(HttpHeaders.IF_RANGE);
+			builder.removeHeaders(HttpHeaders.IF_MODIFIED_SINCE);
+			builder.removeHeaders(HttpHeaders.IF_NONE_MATCH);
+			if (asset != null) {
+				builder.setHeader(HttpHeaders.IF_NONE_MATCH, asset.etag);
+			}
+		}
+		else if (request.getContentLengthLong() > 0 || request.getHeader(HttpHeaders.TRANSFER_ENCODING) != null) {
+			builder.setEntity(new InputStreamEntity(request.getInputStream(), request.getContentLengthLong()));
+		}
+		
+		// forward request to Galaxy and stream response from Galaxy
+		long start = System.nanoTime();
+		int gstatus = GalaxyHttpMetrics.STATUS_IO_ERROR;
+		try (CloseableHttpResponse gresponse = httpClient.execute(builder.build())) {
+			// the latency recorded is till the response headers arrive, as the time to transfer the body depends on the client
+			gstatus = gresponse.getStatusLine().getStatusCode();
+			galaxyHttpMetrics.record(method.name(), request.getRequestURI(), gstatus, System.nanoTime() - start);
+			
+			if (gstatus >= HttpServletResponse.SC_BAD_REQUEST) {
+				log.error("Failed to process workflow edit request " + method + " " + url + " with error " + gstatus);
+			}
+			else {
+				log.info("Successfully processed workflow edit request " + method + " " + url + " with response status " + gstatus);
+			}
+			
+			// PUT request saves the workflow, so its cached metadata is outdated
+			if (method == HttpMethod.PUT && gstatus < HttpServletResponse.SC_MULTIPLE_CHOICES) {
+				workflowService.invalidateWorkflow(workflowId);
+			}
+			
+			// Galaxy confirms that the cached static asset is still current
+			if (asset != null && gstatus == HttpServletResponse.SC_NOT_MODIFIED) {
+				galaxyStaticCache.validated(asset, query);
+				sendStaticAsset(asset, request, response);
+				return;
+			}
+			
+			// unlike the buffered proxy, CONTENT_LENGTH is retained, as the body is not decompressed and thus sent with the same length
+			response.setStatus(gstatus);
+			for (Header header : gresponse.getAllHeaders()) {
+				if (!HOP_BY_HOP_HEADERS.contains(header.getName().toLowerCase())) {
+					response.addHeader(header.getName(), header.getValue());
+				}
+			}
+			if (gresponse.getEntity() == null) {
+				return;
+			}
+			
+			Header etag = gresponse.getFirstHeader(HttpHeaders.ETAG);
+			try (InputStream in = gresponse.getEntity().getContent()) {
+				if (isStatic && gstatus == HttpServletResponse.SC_OK && etag != null) {
+					cacheStaticAsset(in, response.getOutputStream(), path, variant, query, etag.getValue(), 
+							response.getContentType(), response.getHeader(HttpHeaders.CONTENT_ENCODING));
+				}
+				else {
+					IOUtils.copy(in, response.getOutputStream(), STREAM_BUFFER_SIZE);
+				}
+			}
+		}
+		catch (IOException e) {
+			// no response received from Galaxy, or failed to read the request body from the client
+			if (gstatus == GalaxyHttpMetrics.STATUS_IO_ERROR) {
+				galaxyHttpMetrics.record(method.name(), request.getRequestURI(), gstatus, System.nanoTime() - start);
+				throw new GalaxyWorkflowException("Exception while processing workflow edit request " + method + " " + url + " in Galaxy", e);
+			}
+			// otherwise most likely the client has aborted, as happens when the editor is closed while loading
+			log.warn("Stopped streaming response for workflow edit request " + method + " " + url + ": " + e);
+		}
+	}
+	
+	/**
+	 * Stream the given static asset body from Galaxy to both the given client output stream and a temporary file,
+	 * and put the file into the static cache as the asset with the given path, content encoding variant, query string and response headers
+	 * once the body is completely received. 
+	 */
+	private void cacheStaticAsset(InputStream in, OutputStream out, String path, String variant, String query, String etag, String contentType, String contentEncoding) throws IOException {
+		Path tempFile = galaxyStaticCache.createTempFile();
+		try {
+			try (OutputStream fout = Files.newOutputStream(tempFile)) {
+				IOUtils.copy(in, new TeeOutputStream(out, fout), STREAM_BUFFER_SIZE);
+			}
+			galaxyStaticCache.put(path, variant, query, tempFile, etag, contentType, contentEncoding);
+			log.debug("Cached Galaxy static asset " + path + " with " + variant + " encoding and ETag " + etag);
+		}
+		finally {
+			// the temporary file no longer exists if it's been put into the cache
+			Files.deleteIfExists(tempFile);
+		}
+	}
+	
+	/**
+	 * Send the given cached static asset to the given response, or a Not Modified response if the client already has the same version.
+	 */
+	private void sendStaticAsset(GalaxyStaticCache.Asset asset, HttpServletRequest request, HttpServletResponse response) {
+		response.setHeader(HttpHeaders.ETAG, asset.etag);
+		response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		if (StringUtils.contains(request.getHeader(HttpHeaders.IF_NONE_MATCH), asset.etag)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		
+		if (asset.contentType != null) {
+			response.setContentType(asset.contentType);
+		}
+		if (asset.contentEncoding != null) {
+			response.setHeader(HttpHeaders.CONTENT_ENCODING, asset.contentEncoding);
+		}
+		try (FileChannel channel = FileChannel.open(asset.file, StandardOpenOption.READ)) {
+			// the file could have been replaced with a newer version since the asset was looked up, so the length is taken from the file opened
+			response.setContentLengthLong(channel.size());
+			IOUtils.copy(Channels.newInputStream(channel), response.getOutputStream(), STREAM_BUFFER_SIZE);
+			log.debug("Served Galaxy static asset " + asset.file + " from cache");
+		}
+		catch (IOException e) {
+			log.warn("Stopped sending cached Galaxy static asset " + asset.file + ": " + e);
+		}
+	}
+	
+	/**
+	 * Get the request config for streaming requests to Galaxy: the same timeouts as the default ones of the Galaxy HTTP client,
+	 * but without content compression, so that compressed responses are passed through instead of being decompressed.
+	 */
+	private RequestConfig getStreamRequestConfig() {
+		return RequestConfig.custom()
+				.setConnectTimeout(galaxyPropertyConfig.getConnectTimeout())
+				.setConnectionRequestTimeout(galaxyPropertyConfig.getConnectTimeout())
+				.setSocketTimeout(galaxyPropertyConfig.getReadTimeout())
+				.setContentCompressionEnabled(false)
+				.build();
+	}
+	
 	/**
 	 * Generates the workflow edit cookie for the the given AMP request authHeader and workflowId.
 	 */
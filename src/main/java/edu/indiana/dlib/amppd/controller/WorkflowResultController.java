@@ -5,12 +5,15 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -18,18 +21,17 @@ import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
-import edu.indiana.dlib.amppd.exception.StorageException;
-import edu.indiana.dlib.amppd.model.Primaryfile;
 import edu.indiana.dlib.amppd.model.WorkflowResult;
 import edu.indiana.dlib.amppd.model.projection.PrimaryfileIdName;
-import edu.indiana.dlib.amppd.repository.PrimaryfileRepository;
 import edu.indiana.dlib.amppd.repository.WorkflowResultRepository;
 import edu.indiana.dlib.amppd.service.MediaService;
 import edu.indiana.dlib.amppd.service.WorkflowResultService;
 import edu.indiana.dlib.amppd.web.GalaxyJobState;
+import edu.indiana.dlib.amppd.web.WorkflowResultFilterValues;
 import edu.indiana.dlib.amppd.web.WorkflowResultResponse;
 import edu.indiana.dlib.amppd.web.WorkflowResultSearchQuery;
 import lombok.extern.slf4j.Slf4j;
@@ -39,9 +41,6 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class WorkflowResultController {
 	
-	@Autowired
-	private PrimaryfileRepository primaryfileRepository;
-
 	@Autowired
 	private WorkflowResultRepository workflowResultRepository;
 
@@ -66,6 +65,19 @@ public class WorkflowResultController {
 		return workflowResultService.getWorkflowResults(query);
 	}
 
+	/**
+	 * Get the value sets of the given filters for the workflow results satisfying the given query. 
+	 * This allows frontend to lazily retrieve the value set of a particular filter when the filter is accessed.
+	 * @param query the search query for workflow results
+	 * @param facets names of the given filters, as the fields in WorkflowResultFilterValues; all filters if not provided
+	 * @return the WorkflowResultFilterValues with value sets populated only for the given filters
+	 */
+	@PostMapping(path = "/workflow-results/filters", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+	public WorkflowResultFilterValues getWorkflowResultFilters(@RequestBody WorkflowResultSearchQuery query, @RequestParam(required = false) List<String> facets){
+		log.info("Retrieving WorkflowResult filter values for facets " + facets + " ...");
+		return workflowResultService.getWorkflowResultFilters(query, facets);
+	}
+
 	/**
 	 * Get a list of primaryfiles with matching mediaType, keyword in name, and completed intermediate result outputs for each data type in the given outputTypes list.
 	 * @param outputTypes the given outputTypes
@@ -76,39 +88,25 @@ public class WorkflowResultController {
 			@RequestParam(required = false) String mediaType, 
 			@RequestParam(required = false) String keyword, 
 			@RequestParam List<String> outputTypes) {
-		List<PrimaryfileIdName> primaryfiles = new ArrayList<PrimaryfileIdName>();
-		
 		// ensure that keyword has a value for below query
 		// Note: when keyword is empty, any name is matched 
 		if (keyword == null) {
 			keyword = "";
 		}
-
-		// if not all given output types exist in the workflow result table, return empty list
-		int count = workflowResultRepository.countDistinctOutputTypesByOutputTypeIn(outputTypes);
-		if (count < outputTypes.size()) {
-			log.info("Retrieved none legitimate primaryfile with COMPLETE outputs for all " + outputTypes.size() + " output types.");
-			return primaryfiles;
-		}
 		
-		// otherwise retrieve the primaryfiles with outputs for all of the given types
-		List<PrimaryfileIdName> pfs = workflowResultRepository.findPrimaryfileIdNamesByOutputTypes(keyword, outputTypes);
+		// the number of distinct output types each primaryfile must have COMPLETE outputs for
+		long typeCount = new HashSet<String>(outputTypes).size();
 		
-		// if primaryfile is not used as one input or the required input media type is AV, return above primaryfiles list
+		// if primaryfile is not used as one input or the required input media type is AV, no need to match media type
 		if (mediaService.isMediaTypeAV(mediaType)) {
-			log.info("Retrieved " + pfs.size() + " primaryfiles with keyword " + keyword + " and COMPLETE outputs for all " + outputTypes.size() + " output types.");
-			return pfs;
+			List<PrimaryfileIdName> primaryfiles = workflowResultRepository.findPrimaryfileIdNamesByOutputTypes(keyword, outputTypes, typeCount);
+			log.info("Retrieved " + primaryfiles.size() + " primaryfiles with keyword " + keyword + " and COMPLETE outputs for all " + typeCount + " output types.");
+			return primaryfiles;
 		}		
 		
-		// otherwise only return primaryfiles with matching media type
-		for (PrimaryfileIdName pf : pfs) {			
-			Primaryfile primaryfile = primaryfileRepository.findById(pf.getPrimaryfileId()).orElseThrow(() -> new StorageException("Primaryfile <" + pf.getPrimaryfileId() + "> does not exist!"));
-			if (mediaService.isMediaTypeMatched(primaryfile, mediaType)) {
-				primaryfiles.add(pf);
-			}
-		}
-
-		log.info("Retrieved " + primaryfiles.size() + " primaryfiles with mediaType " + mediaType + ", keyword " + keyword + ", and COMPLETE outputs for all " + outputTypes.size() + " output types.");
+		// otherwise only retrieve primaryfiles with matching media type
+		List<PrimaryfileIdName> primaryfiles = workflowResultRepository.findPrimaryfileIdNamesByOutputTypesAndMediaType(keyword, mediaType, outputTypes, typeCount);
+		log.info("Retrieved " + primaryfiles.size() + " primaryfiles with mediaType " + mediaType + ", keyword " + keyword + ", and COMPLETE outputs for all " + typeCount + " output types.");
 		return primaryfiles;
 	}
 	
@@ -231,11 +229,17 @@ public class WorkflowResultController {
 	 * Set and export workflow result csv file as part of response
 	 * @param response HttpServletResponse
 	 * @param query WorkflowResultSearchQuery
-	 * @return the number of WorkflowResults updated
+	 * @param acceptEncoding Accept-Encoding header of the request, if it includes gzip the CSV will be gzipped
+	 * @return the number of WorkflowResults exported
 	 */	
 	@PostMapping(path = "/workflow-results/export", consumes = MediaType.APPLICATION_JSON_VALUE)
-	public int exportToCSV(HttpServletResponse response, @RequestBody WorkflowResultSearchQuery query) throws IOException {
+	public int exportToCSV(HttpServletResponse response, @RequestBody WorkflowResultSearchQuery query, 
+			@RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) throws IOException {
         response.setContentType("text/csv");
+        boolean gzip = StringUtils.containsIgnoreCase(acceptEncoding, "gzip");
+        if (gzip) {
+        	response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
         DateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss");
         String currentDateTime = dateFormatter.format(new Date());
          
@@ -244,7 +248,7 @@ public class WorkflowResultController {
         response.setHeader(headerKey, headerValue);
 
 		log.info("Exporting CSV " + headerValue);		
-		return workflowResultService.exportWorkflowResults(response, query).size();
+		return workflowResultService.exportWorkflowResults(response, query, gzip);
     }
 	
 }
@@ -0,0 +1,38 @@
+package edu.indiana.dlib.amppd.handler;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.rest.core.annotation.HandleAfterDelete;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.stereotype.Component;
+
+import edu.indiana.dlib.amppd.model.AmpUser;
+import edu.indiana.dlib.amppd.service.AmpUserService;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Event handler for AmpUser related requests,
+ * which discards the cached snapshot of a user whenever the user is updated (e.g. deactivated) or deleted.
+ */
+@RepositoryEventHandler
+@Component
+@Slf4j
+public class AmpUserHandler {
+
+	@Autowired
+	private AmpUserService ampUserService;
+
+    @HandleAfterSave
+    public void handleAfterUpdate(AmpUser ampUser) {
+    	ampUserService.invalidateCachedUser(ampUser.getUsername());
+    	log.info("Successfully updated ampUser " + ampUser.getId());
+    }
+
+    @HandleAfterDelete
+    public void handleAfterDelete(AmpUser ampUser) {
+    	ampUserService.invalidateCachedUser(ampUser.getUsername());
+    	log.info("Successfully deleted ampUser " + ampUser.getId());
+    }
+
+}
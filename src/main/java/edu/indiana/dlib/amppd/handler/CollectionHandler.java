@@ -18,6 +18,7 @@ import org.springframework.validation.annotation.Validated;
 import edu.indiana.dlib.amppd.model.Collection;
 import edu.indiana.dlib.amppd.service.DropboxService;
 import edu.indiana.dlib.amppd.service.FileStorageService;
+import edu.indiana.dlib.amppd.service.SearchIndexService;
 import edu.indiana.dlib.amppd.service.WorkflowResultService;
 import lombok.extern.slf4j.Slf4j;
 
@@ -41,6 +42,9 @@ public class CollectionHandler {
 	@Autowired
 	private DropboxService dropboxService;
 
+	@Autowired
+	private SearchIndexService searchIndexService;
+
     @HandleBeforeCreate
     public void handleBeforeCreate(@Valid Collection collection) {
         log.info("Creating collection " + collection.getName() + " ...");
@@ -51,6 +55,7 @@ public class CollectionHandler {
     
     @HandleAfterCreate
     public void handleAfterCreate(Collection collection) {
+    	searchIndexService.indexEntity(collection);
     	log.info("Successfully created collection " + collection.getId());
     }
     
@@ -81,6 +86,7 @@ public class CollectionHandler {
     	// remove all workflow results associated with the collection if it is deactivated
     	workflowResultService.deleteInactiveWorkflowResults(collection);    	
     	
+    	searchIndexService.indexEntity(collection);
     	log.info("Successfully updated collection " + collection.getId());
     }
     
@@ -100,6 +106,7 @@ public class CollectionHandler {
         
     @HandleAfterDelete
     public void handleAfterDelete(Collection collection) {
+    	searchIndexService.removeEntity(collection);
     	log.info("Successfully deleted collection " + collection.getId());           
     }
         
@@ -15,6 +15,7 @@ import org.springframework.validation.annotation.Validated;
 
 import edu.indiana.dlib.amppd.model.Item;
 import edu.indiana.dlib.amppd.service.FileStorageService;
+import edu.indiana.dlib.amppd.service.SearchIndexService;
 import lombok.extern.slf4j.Slf4j;
 
 
@@ -30,6 +31,9 @@ public class ItemHandler {
 
 	@Autowired
 	private FileStorageService fileStorageService;
+
+	@Autowired
+	private SearchIndexService searchIndexService;
     
     @HandleBeforeCreate
     public void handleBeforeCreate(@Valid Item item) {
@@ -39,6 +43,7 @@ public class ItemHandler {
 
     @HandleAfterCreate
     public void handleAfterCreate(Item item) {
+    	searchIndexService.indexEntity(item);
     	log.info("Successfully created item " + item.getId());
     }
     
@@ -58,6 +63,7 @@ public class ItemHandler {
  
     @HandleAfterSave
     public void handleAfterUpdate(Item item) {
+    	searchIndexService.indexEntity(item);
     	log.info("Successfully updated item " + item.getId());
     }
         
@@ -74,6 +80,7 @@ public class ItemHandler {
     
     @HandleAfterDelete
     public void handleAfterDelete(Item item) {
+    	searchIndexService.removeEntity(item);
     	log.info("Successfully deleted item " + item.getId());           
     }
             
@@ -0,0 +1,109 @@
+package edu.indiana.dlib.amppd.handler;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.rest.core.annotation.HandleAfterCreate;
+import org.springframework.data.rest.core.annotation.HandleAfterDelete;
+import org.springframework.data.rest.core.annotation.HandleAfterLinkDelete;
+import org.springframework.data.rest.core.annotation.HandleAfterLinkSave;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.stereotype.Component;
+
+import edu.indiana.dlib.amppd.model.ac.Action;
+import edu.indiana.dlib.amppd.model.ac.Role;
+import edu.indiana.dlib.amppd.model.ac.RoleAssignment;
+import edu.indiana.dlib.amppd.service.PermissionService;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Event handler for Role, Action and RoleAssignment related requests,
+ * which invalidates cached permissions whenever any of these, or the links between roles and actions from either side, change.
+ */
+@RepositoryEventHandler
+@Component
+@Slf4j
+public class PermissionHandler {
+
+	@Autowired
+	private PermissionService permissionService;
+
+    @HandleAfterCreate
+    public void handleAfterCreate(RoleAssignment roleAssignment) {
+    	permissionService.invalidatePermissions();
+    	log.info("Successfully created roleAssignment " + roleAssignment.getId());
+    }
+
+    @HandleAfterSave
+    public void handleAfterUpdate(RoleAssignment roleAssignment) {
+    	permissionService.invalidatePermissions();
+    	log.info("Successfully updated roleAssignment " + roleAssignment.getId());
+    }
+
+    @HandleAfterDelete
+    public void handleAfterDelete(RoleAssignment roleAssignment) {
+    	permissionService.invalidatePermissions();
+    	log.info("Successfully deleted roleAssignment " + roleAssignment.getId());
+    }
+
+    @HandleAfterCreate
+    public void handleAfterCreate(Role role) {
+    	permissionService.invalidatePermissions();
+    	log.info("Successfully created role " + role.getId());
+    }
+
+    @HandleAfterSave
+    public void handleAfterUpdate(Role role) {
+    	permissionService.invalidatePermissions();
+    	log.info("Successfully updated role " + role.getId());
+    }
+
+    @HandleAfterDelete
+    public void handleAfterDelete(Role role) {
+    	permissionService.invalidatePermissions();
+    	log.info("Successfully deleted role " + role.getId());
+    }
+
+    @HandleAfterLinkSave
+    public void handleAfterLinkSave(Role role, Object linked) {
+    	permissionService.invalidatePermissions();
+    	log.info("Successfully updated links of role " + role.getId());
+    }
+
+    @HandleAfterLinkDelete
+    public void handleAfterLinkDelete(Role role, Object linked) {
+    	permissionService.invalidatePermissions();
+    	log.info("Successfully deleted links of role " + role.getId());
+    }
+
+    @HandleAfterCreate
+    public void handleAfterCreate(Action action) {
+    	permissionService.invalidatePermissions();
+    	log.info("Successfully created action " + action.getId());
+    }
+
+    @HandleAfterSave
+    public void handleAfterUpdate(Action action) {
+    	permissionService.invalidatePermissions();
+    	log.info("Successfully updated action " + action.getId());
+    }
+
+    @HandleAfterDelete
+    public void handleAfterDelete(Action action) {
+    	permissionService.invalidatePermissions();
+    	log.info("Successfully deleted action " + action.getId());
+    }
+
+    @HandleAfterLinkSave
+    public void handleAfterLinkSave(Action action, Object linked) {
+    	permissionService.invalidatePermissions();
+    	log.info("Successfully updated links of action " + action.getId());
+    }
+
+    @HandleAfterLinkDelete
+    public void handleAfterLinkDelete(Action action, Object linked) {
+    	permissionService.invalidatePermissions();
+    	log.info("Successfully deleted links of action " + action.getId());
+    }
+
+}
@@ -15,6 +15,7 @@ import org.springframework.validation.annotation.Validated;
 
 import edu.indiana.dlib.amppd.model.Primaryfile;
 import edu.indiana.dlib.amppd.service.FileStorageService;
+import edu.indiana.dlib.amppd.service.SearchIndexService;
 import lombok.extern.slf4j.Slf4j;
 
 
@@ -30,6 +31,9 @@ public class PrimaryfileHandler {
     
 	@Autowired
 	private FileStorageService fileStorageService;	
+
+	@Autowired
+	private SearchIndexService searchIndexService;
 	
     @HandleBeforeCreate
 //    @Validated({WithReference.class, WithoutReference.class})
@@ -49,6 +53,7 @@ public class PrimaryfileHandler {
     		log.warn("No media file is provided for the primaryfile to be created.");
     	}
     	
+    	searchIndexService.indexEntity(primaryfile);
     	log.info("Successfully created primaryfile " + primaryfile.getId());
     }
 
@@ -78,6 +83,7 @@ public class PrimaryfileHandler {
     		fileStorageService.uploadAsset(primaryfile, primaryfile.getMediaFile());
     	}
     	
+    	searchIndexService.indexEntity(primaryfile);
     	log.info("Successfully updated primaryfile " + primaryfile.getId());
     }
     
@@ -95,6 +101,7 @@ public class PrimaryfileHandler {
     
     @HandleAfterDelete
     public void handleAfterDelete(Primaryfile primaryfile){
+    	searchIndexService.removeEntity(primaryfile);
     	log.info("Successfully deleted primaryfile " + primaryfile.getId());           
     }
     
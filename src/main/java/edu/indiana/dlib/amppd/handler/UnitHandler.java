@@ -16,6 +16,7 @@ import org.springframework.validation.annotation.Validated;
 import edu.indiana.dlib.amppd.model.Unit;
 import edu.indiana.dlib.amppd.service.DropboxService;
 import edu.indiana.dlib.amppd.service.FileStorageService;
+import edu.indiana.dlib.amppd.service.SearchIndexService;
 import lombok.extern.slf4j.Slf4j;
 
 
@@ -34,6 +35,9 @@ public class UnitHandler {
 
 	@Autowired
 	private DropboxService dropboxService;
+
+	@Autowired
+	private SearchIndexService searchIndexService;
 	
 	@HandleBeforeCreate
     public void handleBeforeCreate(@Valid Unit unit) {        
@@ -44,6 +48,7 @@ public class UnitHandler {
 
     @HandleAfterCreate
     public void handleAfterCreate(Unit unit) {
+    	searchIndexService.indexEntity(unit);
     	log.info("Successfully created unit " + unit.getId());
     }
     
@@ -65,6 +70,7 @@ public class UnitHandler {
     
     @HandleAfterSave
     public void handleAfterUpdate(Unit unit) {
+    	searchIndexService.indexEntity(unit);
     	log.info("Successfully updated unit " + unit.getId());
     }
     
@@ -84,6 +90,7 @@ public class UnitHandler {
     
     @HandleAfterDelete
     public void handleAfterDelete(Unit unit) {
+    	searchIndexService.removeEntity(unit);
     	log.info("Successfully deleted unit " + unit.getId());           
     }
     
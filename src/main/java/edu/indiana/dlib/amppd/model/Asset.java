@@ -4,17 +4,20 @@ import javax.persistence.Column;
 import javax.persistence.MappedSuperclass;
 import javax.persistence.Transient;
 
-import org.apache.commons.lang3.StringUtils;
 import org.hibernate.annotations.Type;
 import org.hibernate.annotations.TypeDef;
 import org.json.JSONException;
-import org.json.JSONObject;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.vladmihalcea.hibernate.type.json.JsonBinaryType;
 
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 
@@ -36,10 +39,50 @@ public abstract class Asset extends Dataentity {
     private String pathname;			// path name relative to storage root for the file associated with the asset
     private String symlink;				// the symlink under the static content directory used for serving large media file
     
+    // SHA-256 digest of the media file content if stored in content-addressed storage, 
+    // in which case the media file is a link to the MediaBlob shared by all assets with the same content
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private String contentDigest;
+    
     // Note: mediaInfo must be a valid json string
     @Type(type = "jsonb")
     @Column(columnDefinition = "jsonb")
+    @Setter(AccessLevel.NONE)
     private String mediaInfo;			// technical media information extracted from the asset file, to be stored as a JSON blob 
+    
+    // Below fields are the MediaDescriptor extracted from mediaInfo whenever it's set, 
+    // persisted as columns so that assets can be queried by media type without parsing mediaInfo JSON.
+    @Setter(AccessLevel.NONE)
+    @Getter(AccessLevel.NONE)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private String mimeType;
+    @Setter(AccessLevel.NONE)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Double mediaDuration;		// duration in seconds
+    @Setter(AccessLevel.NONE)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private String streamKinds;			// comma separated stream kinds, for ex. audio,video
+    @Setter(AccessLevel.NONE)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private String containerFormat;
+    
+    // MediaDescriptor lazily computed from the above fields, or from mediaInfo for legacy assets preprocessed before these fields existed
+    @Transient
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private MediaDescriptor mediaDescriptor;
+    
+    // whether mediaInfo has failed to be parsed into the above MediaDescriptor, so that invalid media info is not parsed again upon each call
+    @Transient
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private boolean mediaInfoInvalid;
      
     // only used for media file upload during asset creation/update, so it can be sent as part of RequestBody
     @Transient
@@ -62,32 +105,63 @@ public abstract class Asset extends Dataentity {
 //    }
     
     /**
-     * Get the MIME type of the asset based on the MIME and streams from its media info, for ex. audio/mp3, video/mp4.
+     * Set the media info JSON of the asset, and populate the media descriptor fields from it.
      */
-	public String getMimeType() {		
+    public void setMediaInfo(String mediaInfo) {
+    	this.mediaInfo = mediaInfo;
+    	MediaDescriptor descriptor = null;
+    	try {
+    		descriptor = MediaDescriptor.parse(mediaInfo);
+    	}
+    	catch (JSONException e) {
+			log.error("Invalid media info JSON for asset " + getId());
+    	}
+    	mediaDescriptor = descriptor;
+    	mediaInfoInvalid = mediaInfo != null && descriptor == null;
+    	mimeType = descriptor == null ? null : descriptor.getMimeType();
+    	mediaDuration = descriptor == null ? null : descriptor.getDuration();
+    	streamKinds = descriptor == null ? null : MediaDescriptor.joinStreamKinds(descriptor.getStreamKinds());
+    	containerFormat = descriptor == null ? null : descriptor.getContainerFormat();
+    }
+    
+    /**
+     * Get the MediaDescriptor of the asset, computed upon first call and reused afterwards.
+     * @return the MediaDescriptor, or null if the asset has no valid media info
+     */
+    @JsonIgnore
+    public MediaDescriptor getMediaDescriptor() {
+    	if (mediaDescriptor != null || mediaInfoInvalid) {
+    		return mediaDescriptor;
+    	}
+    	
 		// media info should never be null; otherwise pre-process must have failed and the asset wasn't ingested/uploaded properly
 		if (mediaInfo == null) {
 			log.error("Empty media info JSON for asset " + getId());		
 			return null;
 		}
 		
+		// use the persisted descriptor fields if populated
+    	if (mimeType != null) {
+    		mediaDescriptor = new MediaDescriptor(mimeType, mediaDuration, MediaDescriptor.splitStreamKinds(streamKinds), containerFormat);
+    		return mediaDescriptor;
+    	}
+    	
+    	// otherwise the asset was preprocessed before the descriptor fields existed, parse media info once
 		try {
-			JSONObject jsonObject = new JSONObject(mediaInfo);
-			JSONObject container = jsonObject.getJSONObject("container");
-			JSONObject streams = jsonObject.getJSONObject("streams");
-			String mime = container.getString("mime_type");
-			
-			// in case the mp4 file contains only audio but no video, correct the MIME type from video to audio
-			if (StringUtils.contains(mime, "video") && !streams.has("video") && streams.has("audio")) {
-				mime = StringUtils.replace(mime,  "video", "audio");
-			}
-			
-			// otherwise return the MIME type as identified by ffmpeg during preprocessing
-			return mime;
+			mediaDescriptor = MediaDescriptor.parse(mediaInfo);
 		} catch (JSONException e) {
+			mediaInfoInvalid = true;
 			log.error("Invalid media info JSON for asset " + getId());
-			return null;
 		}
+		return mediaDescriptor;
+    }
+    
+    /**
+     * Get the MIME type of the asset based on the MIME and streams from its media info, for ex. audio/mp3, video/mp4.
+     */
+	public String getMimeType() {		
+		MediaDescriptor descriptor = getMediaDescriptor();
+		return descriptor == null ? null : descriptor.getMimeType();
 	}
 	
 //    /**
@@ -0,0 +1,48 @@
+package edu.indiana.dlib.amppd.model;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import lombok.Data;
+
+
+/**
+ * State of the last delivery of an item's final results to the corresponding Avalon media object,
+ * used to skip items which have been delivered and haven't changed since when a collection is delivered again.
+ */
+@Entity
+@Table(indexes = {@Index(columnList = "itemId", unique = true)})
+@Data
+public class AvalonDelivery {
+	
+	public enum Status { DELIVERED, FAILED }
+	
+	@Id
+    @GeneratedValue(strategy=GenerationType.AUTO)
+	private Long id;
+
+	private Long itemId;
+	
+	private String externalId;		// Avalon media object ID delivered to
+	private String contentHash;		// hash of the related items delivered, to detect changes
+	
+	@Enumerated(EnumType.STRING)
+	private Status status;
+	
+	private int attempts;			// number of HTTP attempts made in the last delivery, including retries
+	
+	@Column(columnDefinition="text")
+	private String error;			// error of the last delivery if failed
+	
+	private Date dateDelivered;		// timestamp of the last delivery, successful or not
+	
+}
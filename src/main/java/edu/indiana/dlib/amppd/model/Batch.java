@@ -8,6 +8,8 @@ import javax.jdo.annotations.Index;
 import javax.persistence.CascadeType;
 import javax.persistence.Entity;
 import javax.persistence.EntityListeners;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
@@ -32,6 +34,9 @@ import lombok.ToString;
 @EntityListeners(AuditingEntityListener.class)
 @Data
 public class Batch {
+	
+	public enum BatchStatus { PROCESSING, COMPLETE, INCOMPLETE }
+	
 	@Id
     @GeneratedValue(strategy=GenerationType.AUTO)
 	private Long id;
@@ -56,6 +61,12 @@ public class Batch {
 	@ManyToOne
 	private Unit unit;
 	
+	// processing status of the batch, null if the batch hasn't been processed yet
+	@Enumerated(EnumType.STRING)
+	private BatchStatus status;
+	
+	private Date dateProcessed;		// timestamp when the batch was last processed, whether completely or not
+	
 	// the following info come from batch manifest
 	@OneToMany(mappedBy="batch", cascade = CascadeType.REMOVE)
 	@EqualsAndHashCode.Exclude
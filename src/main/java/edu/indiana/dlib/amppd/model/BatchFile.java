@@ -1,12 +1,15 @@
 package edu.indiana.dlib.amppd.model;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 import javax.jdo.annotations.Index;
 import javax.persistence.CascadeType;
 import javax.persistence.Entity;
 import javax.persistence.EntityListeners;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
@@ -36,7 +39,10 @@ import lombok.ToString;
 @EntityListeners(AuditingEntityListener.class)
 @Index(members={"externalSource","externalId"})
 @Data
-public class BatchFile {	
+public class BatchFile {
+	
+	public enum BatchFileStatus { COMPLETE, FAILED }
+	
 	@Id
     @GeneratedValue(strategy=GenerationType.AUTO)
 	private Long id;	
@@ -91,6 +97,18 @@ public class BatchFile {
 	@ManyToOne
 	private Batch batch;
 	
+	// processing status of the row, null if the row hasn't been processed yet; 
+	// rows not COMPLETE are processed again when the batch is resumed
+	@Enumerated(EnumType.STRING)
+	private BatchFileStatus status;
+	
+	@Type(type="text")
+	private String error;			// processing errors of the row if failed
+	
+	private Long preprocessTime;	// milliseconds spent on preprocessing media files of the row
+	private Long storeTime;			// milliseconds spent on creating entities and moving media files of the row
+	private Date dateProcessed;		// timestamp when the row was last processed
+	
 	public BatchFile() {
 		batchSupplementFiles = new ArrayList<BatchSupplementFile>();
 	}
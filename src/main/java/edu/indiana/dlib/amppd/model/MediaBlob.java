@@ -0,0 +1,36 @@
+package edu.indiana.dlib.amppd.model;
+
+import java.util.Date;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import lombok.Data;
+
+
+/**
+ * MediaBlob is a media file in the content-addressed storage, shared by all assets with the same content,
+ * whose media file pathnames are links to the blob file; the blob is removed once no asset references it.
+ * A primaryfile with the content can reuse the Galaxy dataset uploaded from the blob by any other primaryfile with the same content.
+ */
+@Entity
+@Table(indexes = {@Index(columnList = "digest", unique = true)})
+@Data
+public class MediaBlob {
+	
+	@Id
+    @GeneratedValue(strategy=GenerationType.AUTO)
+	private Long id;
+	
+	private String digest;		// SHA-256 hex digest of the content
+	private String pathname;	// path name relative to storage root of the blob file
+	private Long size;			// size of the content in bytes
+	private Integer refCount;	// number of assets referencing the blob
+	private String datasetId;	// ID of the Galaxy dataset uploaded from the blob, if any
+	private Date createdDate;
+	
+}
@@ -0,0 +1,102 @@
+package edu.indiana.dlib.amppd.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * MediaDescriptor contains the typed technical information of a media file commonly used by AMP,
+ * extracted from the media info JSON generated by MediaProbe during preprocessing.
+ * MediaDescriptor is not persisted on its own, rather, its fields are stored as columns of the asset.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MediaDescriptor {
+	
+	public static final String STREAM_AUDIO = "audio";
+	public static final String STREAM_VIDEO = "video";
+	
+	private String mimeType;			// MIME type, corrected to audio for video container without video stream, for ex. audio/mp4
+	private Double duration;			// duration in seconds, if applicable
+	private List<String> streamKinds;	// kinds of streams contained, for ex. audio, video
+	private String containerFormat;		// container format name, for ex. mov,mp4,m4a,3gp,3g2,mj2
+	
+	/**
+	 * Parse the given media info JSON into a MediaDescriptor.
+	 * @param mediaInfo the media info JSON string
+	 * @return the MediaDescriptor parsed, or null if the media info is null
+	 * @throws JSONException if the media info is not valid JSON or doesn't contain the container MIME type
+	 */
+	public static MediaDescriptor parse(String mediaInfo) throws JSONException {
+		if (mediaInfo == null) {
+			return null;
+		}
+		
+		JSONObject jsonObject = new JSONObject(mediaInfo);
+		JSONObject container = jsonObject.getJSONObject("container");
+		JSONObject streams = jsonObject.optJSONObject("streams");
+		String mime = container.getString("mime_type");
+		
+		List<String> kinds = new ArrayList<String>();
+		if (streams != null) {
+			Iterator<?> keys = streams.keys();
+			while (keys.hasNext()) {
+				kinds.add(String.valueOf(keys.next()));
+			}
+			Collections.sort(kinds);
+		}
+		
+		// in case the mp4 file contains only audio but no video, correct the MIME type from video to audio
+		if (StringUtils.contains(mime, STREAM_VIDEO) && !kinds.contains(STREAM_VIDEO) && kinds.contains(STREAM_AUDIO)) {
+			mime = StringUtils.replace(mime, STREAM_VIDEO, STREAM_AUDIO);
+		}
+
+		Double duration = container.has("duration") ? container.optDouble("duration") : null;
+		if (duration != null && duration.isNaN()) {
+			duration = null;
+		}
+		String format = container.has("format_name") ? container.optString("format_name") : container.optString("format", null);
+		
+		return new MediaDescriptor(mime, duration, kinds, format);
+	}
+	
+	/**
+	 * Join the stream kinds into a comma separated string, for persistence.
+	 */
+	public static String joinStreamKinds(List<String> streamKinds) {
+		return streamKinds == null ? null : String.join(",", streamKinds);
+	}
+	
+	/**
+	 * Split the given comma separated string into stream kinds.
+	 */
+	public static List<String> splitStreamKinds(String streamKinds) {
+		return StringUtils.isEmpty(streamKinds) ? new ArrayList<String>() : new ArrayList<String>(Arrays.asList(streamKinds.split(",")));
+	}
+	
+	/**
+	 * Return true if the media contains an audio stream.
+	 */
+	public boolean hasAudio() {
+		return streamKinds != null && streamKinds.contains(STREAM_AUDIO);
+	}
+	
+	/**
+	 * Return true if the media contains a video stream.
+	 */
+	public boolean hasVideo() {
+		return streamKinds != null && streamKinds.contains(STREAM_VIDEO);
+	}
+	
+}
@@ -1,5 +1,6 @@
 package edu.indiana.dlib.amppd.model;
 
+import java.util.Date;
 import java.util.Set;
 
 import javax.jdo.annotations.Index;
@@ -16,6 +17,7 @@ import javax.validation.constraints.NotNull;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
 import com.fasterxml.jackson.annotation.JsonBackReference;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import edu.indiana.dlib.amppd.validator.UniqueName;
 import lombok.Data;
@@ -29,7 +31,8 @@ import lombok.ToString;
  */
 @Entity
 @EntityListeners(AuditingEntityListener.class)
-@Table(uniqueConstraints = {@UniqueConstraint(name = "UniquePrimaryfileNamePerItem", columnNames = {"item_id", "name"})})
+@Table(uniqueConstraints = {@UniqueConstraint(name = "UniquePrimaryfileNamePerItem", columnNames = {"item_id", "name"})},
+		indexes = {@javax.persistence.Index(columnList = "mimeType")})
 @UniqueName(message="primaryfile name must be unique within its parent item")
 //@UniqueName(message="primaryfile name must be unique within its parent item", groups = {WithReference.class})
 @Data
@@ -49,6 +52,11 @@ public class Primaryfile extends Asset {
 	@Index(unique="true")	// historyId could be null, but it should be unique among all primaryfiles
     private String historyId;			
 
+	// Galaxy update time of the above history as of the last time WorkflowResults of this primaryfile were synced with it;
+	// it serves as the high-water mark for incremental refresh of WorkflowResults, and is internal to the refresh process.
+	@JsonIgnore
+	private Date historySynced;
+
     // Note:
 	// datasetId is moved from Asset to Primaryfile, as Supplement always input 
 	// via Supplement MGM, no need to load into Galaxy library, thus no need for datasetId.
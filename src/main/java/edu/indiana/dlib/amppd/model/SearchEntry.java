@@ -0,0 +1,62 @@
+package edu.indiana.dlib.amppd.model;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import org.hibernate.annotations.Type;
+
+import lombok.Data;
+
+
+/**
+ * SearchEntry is a denormalized row in the search index for a unit, collection, item, or primaryfile, 
+ * containing its own name and description along with the IDs and names of its ancestors, 
+ * so that keyword search can match entities and their parents without joining the entity tables.
+ * Trigram indexes on the lower-cased text columns are created upon startup, see SearchIndexService.refreshSearchIndex().
+ */
+@Entity
+@Table(indexes = {
+		@Index(columnList = "entityType, entityId", unique = true),
+		@Index(columnList = "unitId"),
+		@Index(columnList = "collectionId"),
+		@Index(columnList = "itemId")
+})
+@Data
+public class SearchEntry {
+	
+	public static final String TYPE_UNIT = "Unit";
+	public static final String TYPE_COLLECTION = "Collection";
+	public static final String TYPE_ITEM = "Item";
+	public static final String TYPE_PRIMARYFILE = "Primaryfile";
+	
+	@Id
+    @GeneratedValue(strategy=GenerationType.AUTO)
+	private Long id;
+	
+	private String entityType;		// simple class name of the indexed entity
+	private Long entityId;			// ID of the indexed entity
+	
+	@Type(type="text")
+	private String name;			// name of the indexed entity
+	
+	@Type(type="text")
+	private String description;		// description of the indexed entity
+	
+	// below are the IDs/names of the entity itself and its ancestors, whichever applicable
+	private Long unitId;
+	private Long collectionId;
+	private Long itemId;
+	
+	@Type(type="text")
+	private String collectionName;
+	
+	@Type(type="text")
+	private String itemName;
+	
+	private Boolean collectionActive;
+	
+}
@@ -83,6 +83,7 @@ public abstract class Supplement extends Asset {
 		setDescription(supplement.getDescription());
 		setOriginalFilename(supplement.getOriginalFilename());
 		setPathname(supplement.getPathname());
+		setContentDigest(supplement.getContentDigest());
 		setSymlink(supplement.getSymlink());
 		setMediaInfo(supplement.getMediaInfo());
 		setCategory(supplement.getCategory());
@@ -10,6 +10,7 @@ import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Table;
 
 import org.hibernate.annotations.Type;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
@@ -19,6 +20,7 @@ import lombok.Data;
 
 @EntityListeners(AuditingEntityListener.class)
 @Entity
+@Table(indexes = {@javax.persistence.Index(columnList = "outputType, status, primaryfileId")})
 @Data
 public class WorkflowResult {
 	@Id
@@ -0,0 +1,20 @@
+package edu.indiana.dlib.amppd.model.projection;
+
+import java.util.Date;
+
+import org.springframework.data.rest.core.config.Projection;
+
+import edu.indiana.dlib.amppd.model.Primaryfile;
+
+
+/**
+ * Projection for the Galaxy output history information of a primaryfile.
+ */
+@Projection(name = "primaryfileHistory", types = {Primaryfile.class}) 
+public interface PrimaryfileHistory {
+	
+	public Long getId();	
+	public String getHistoryId();	
+	public Date getHistorySynced();
+	
+}
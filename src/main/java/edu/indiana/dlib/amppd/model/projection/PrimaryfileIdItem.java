@@ -0,0 +1,18 @@
+package edu.indiana.dlib.amppd.model.projection;
+
+import org.springframework.data.rest.core.config.Projection;
+
+import edu.indiana.dlib.amppd.model.Primaryfile;
+
+
+/**
+ * Projection for the ID and name of a primaryfile along with its parent item ID.
+ */
+@Projection(name = "primaryfileIdItem", types = {Primaryfile.class}) 
+public interface PrimaryfileIdItem {
+	
+	public Long getId();	
+	public String getName();	
+	public Long getItemId();
+	
+}
@@ -0,0 +1,17 @@
+package edu.indiana.dlib.amppd.model.projection;
+
+import org.springframework.data.rest.core.config.Projection;
+
+import edu.indiana.dlib.amppd.model.Primaryfile;
+
+
+/**
+ * Projection for the name of a primaryfile along with its ancestor collection ID.
+ */
+@Projection(name = "primaryfileNameCollection", types = {Primaryfile.class}) 
+public interface PrimaryfileNameCollection {
+	
+	public String getName();	
+	public Long getCollectionId();
+	
+}
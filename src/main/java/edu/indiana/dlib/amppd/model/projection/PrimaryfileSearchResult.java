@@ -0,0 +1,19 @@
+package edu.indiana.dlib.amppd.model.projection;
+
+/**
+ * Projection for a primaryfile matched in search, along with information of its parent item and collection.
+ */
+public interface PrimaryfileSearchResult {
+	
+	public Long getCollectionId();	
+	public String getCollectionName();	
+	public Long getItemId();	
+	public String getItemName();	
+	public String getExternalSource();	
+	public String getExternalId();	
+	public Long getPrimaryfileId();	
+	public String getPrimaryfileName();	
+	public String getOriginalFilename();	
+	public String getMimeType();	
+	
+}
@@ -0,0 +1,17 @@
+package edu.indiana.dlib.amppd.model.projection;
+
+import org.springframework.data.rest.core.config.Projection;
+
+import edu.indiana.dlib.amppd.model.ac.Role;
+
+
+/**
+ * Projection for an action granted to a role, by their IDs.
+ */
+@Projection(name = "roleActionId", types = {Role.class}) 
+public interface RoleActionId {
+	
+	public Long getRoleId();	
+	public Long getActionId();	
+	
+}
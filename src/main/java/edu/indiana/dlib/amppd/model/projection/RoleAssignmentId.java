@@ -0,0 +1,17 @@
+package edu.indiana.dlib.amppd.model.projection;
+
+import org.springframework.data.rest.core.config.Projection;
+
+import edu.indiana.dlib.amppd.model.ac.RoleAssignment;
+
+
+/**
+ * Projection for the role and unit of a role assignment, by their IDs; the unit ID is null for global role assignment.
+ */
+@Projection(name = "roleAssignmentId", types = {RoleAssignment.class}) 
+public interface RoleAssignmentId {
+	
+	public Long getRoleId();	
+	public Long getUnitId();	
+	
+}
@@ -0,0 +1,15 @@
+package edu.indiana.dlib.amppd.repository;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+
+import edu.indiana.dlib.amppd.model.AvalonDelivery;
+
+@RepositoryRestResource(exported = false)
+public interface AvalonDeliveryRepository extends CrudRepository<AvalonDelivery, Long> {		
+	Optional<AvalonDelivery> findByItemId(Long itemId);
+	List<AvalonDelivery> findByItemIdIn(List<Long> itemIds);
+}
@@ -1,12 +1,25 @@
 package edu.indiana.dlib.amppd.repository;
 
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 
 import edu.indiana.dlib.amppd.model.BatchFile;
+import edu.indiana.dlib.amppd.model.BatchFile.BatchFileStatus;
 
 
 @RepositoryRestResource(exported = false)
 public interface BatchFileRepository extends CrudRepository<BatchFile, Long>{
 	
+	List<BatchFile> findByBatchIdOrderByRowNum(Long batchId);
+	
+	@Modifying
+	@Query(value = "update BatchFile set status = :status, error = :error, preprocessTime = :preprocessTime, storeTime = :storeTime, dateProcessed = :dateProcessed where id = :id")
+	int updateStatus(@Param("id") Long id, @Param("status") BatchFileStatus status, @Param("error") String error, @Param("preprocessTime") Long preprocessTime, @Param("storeTime") Long storeTime, @Param("dateProcessed") Date dateProcessed);
+	
 }
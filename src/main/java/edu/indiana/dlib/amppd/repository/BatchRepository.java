@@ -1,12 +1,31 @@
 package edu.indiana.dlib.amppd.repository;
 
+import java.util.Date;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 
 import edu.indiana.dlib.amppd.model.Batch;
+import edu.indiana.dlib.amppd.model.Batch.BatchStatus;
 
 
 @RepositoryRestResource(exported = false)
 public interface BatchRepository extends CrudRepository<Batch, Long>{
 	
+	@Modifying
+	@Query(value = "update Batch set status = :status, dateProcessed = :dateProcessed where id = :id")
+	int updateStatus(@Param("id") Long id, @Param("status") BatchStatus status, @Param("dateProcessed") Date dateProcessed);
+	
+	// update the status only if it's not the given status yet, so that whoever changes it first wins when it's changed concurrently
+	@Modifying
+	@Query(value = "update Batch set status = :status, dateProcessed = :dateProcessed where id = :id and (status is null or status <> :status)")
+	int updateStatusIfNot(@Param("id") Long id, @Param("status") BatchStatus status, @Param("dateProcessed") Date dateProcessed);
+	
+	@Modifying
+	@Query(value = "update Batch set status = :status where status = :oldStatus")
+	int updateStatusByStatus(@Param("oldStatus") BatchStatus oldStatus, @Param("status") BatchStatus status);
+	
 }
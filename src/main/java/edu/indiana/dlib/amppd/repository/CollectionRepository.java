@@ -13,5 +13,6 @@ public interface CollectionRepository extends ContentRepository<Collection> {
 	
 	List<Collection> findByUnitNameAndName(String unitName, String name);
 	List<Collection> findByUnitIdAndName(Long unitId, String name);
+	List<Collection> findByUnitIdAndNameIn(Long unitId, List<String> names);
 
 }
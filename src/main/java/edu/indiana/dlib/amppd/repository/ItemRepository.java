@@ -16,6 +16,7 @@ public interface ItemRepository extends ContentRepository<Item> {
 	
 	List<Item> findByCollectionUnitNameAndCollectionNameAndName(String collectionUnitName, String collectionName, String name);
 	List<Item> findByCollectionIdAndName(Long collectionId, String name);
+	List<Item> findByCollectionIdOrderById(Long collectionId);
 
 	List<Item> findByCollectionIdAndExternalSourceAndExternalId(Long collectionId, String externalSource, String externalId);
 
@@ -25,7 +26,8 @@ public interface ItemRepository extends ContentRepository<Item> {
 	//	@Query(value = "select i from Item i where lower(i.name) like %:keyword.toLowerCase()% or lower(i.description) like %:keyword.toLowerCase()%")
 	//	@Query(value = "select i from Item i where lower(i.name) like %:#{keyword.toLowerCase()}% or lower(i.description) like %:#{keyword.toLowerCase()}%")
 	
-	@Query(value = "select i from Item i where lower(i.name) like lower(concat('%', :keyword,'%')) or lower(i.description) like lower(concat('%', :keyword,'%'))")
+	// match against the trigram indexed SearchEntry table, and only look up the matched items by ID
+	@Query(value = "select i from Item i where i.id in (select s.entityId from SearchEntry s where s.entityType = 'Item' and (lower(s.name) like lower(concat('%', :keyword,'%')) or lower(s.description) like lower(concat('%', :keyword,'%'))))")
 	List<Item> findByKeyword(@Param("keyword") String keyword);		
 	
 	@Modifying
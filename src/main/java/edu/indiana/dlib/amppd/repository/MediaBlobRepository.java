@@ -0,0 +1,31 @@
+package edu.indiana.dlib.amppd.repository;
+
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+
+import edu.indiana.dlib.amppd.model.MediaBlob;
+
+
+@RepositoryRestResource(exported = false)
+public interface MediaBlobRepository extends CrudRepository<MediaBlob, Long>{
+	
+	Optional<MediaBlob> findFirstByDigest(String digest);
+	
+	@Modifying
+	@Query(value = "update MediaBlob set refCount = refCount + :delta where digest = :digest")
+	int updateRefCount(@Param("digest") String digest, @Param("delta") int delta);
+
+	@Modifying
+	@Query(value = "update MediaBlob set refCount = :refCount where digest = :digest")
+	int setRefCount(@Param("digest") String digest, @Param("refCount") int refCount);
+	
+	@Modifying
+	@Query(value = "update MediaBlob set datasetId = :datasetId where digest = :digest")
+	int updateDatasetId(@Param("digest") String digest, @Param("datasetId") String datasetId);
+	
+}
@@ -1,13 +1,18 @@
 package edu.indiana.dlib.amppd.repository;
 
+import java.util.Date;
 import java.util.List;
 
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 
 import edu.indiana.dlib.amppd.model.Primaryfile;
 import edu.indiana.dlib.amppd.model.projection.PrimaryfileBrief;
+import edu.indiana.dlib.amppd.model.projection.PrimaryfileHistory;
+import edu.indiana.dlib.amppd.model.projection.PrimaryfileIdItem;
+import edu.indiana.dlib.amppd.model.projection.PrimaryfileNameCollection;
 
 
 @RepositoryRestResource(excerptProjection = PrimaryfileBrief.class)
@@ -17,21 +22,49 @@ public interface PrimaryfileRepository extends AssetRepository<Primaryfile> {
 	List<Primaryfile> findByItemIdAndName(Long itemId, String name);
 	
 	List<Primaryfile> findByItemCollectionActiveTrueAndHistoryIdNotNull();	
+	
+	@Query(value = "select p.id from Primaryfile p where p.item.collection.active = true and p.historyId is not null order by p.id")
+	List<Long> findIdsByItemCollectionActiveTrueAndHistoryIdNotNull();	
+	
+	@Query(value = "select p.id as id, p.historyId as historyId, p.historySynced as historySynced from Primaryfile p where p.item.collection.active = true and p.historyId is not null order by p.id")
+	List<PrimaryfileHistory> findHistoriesByItemCollectionActiveTrueAndHistoryIdNotNull();	
+
+	// update the high-water mark directly, so that the primaryfile's audit fields are not touched by the sync process 
+	@Modifying
+	@Query(value = "update Primaryfile set historySynced = :historySynced where id = :id")
+	int updateHistorySynced(@Param("id") Long id, @Param("historySynced") Date historySynced);
+	
+	// update the Galaxy IDs directly, so that other fields of the primaryfile updated since it was loaded are not overwritten by the staging process
+	@Modifying
+	@Query(value = "update Primaryfile set datasetId = :datasetId, historyId = :historyId where id = :id")
+	int updateGalaxyIds(@Param("id") Long id, @Param("datasetId") String datasetId, @Param("historyId") String historyId);
+	
+	// primaryfiles in the collection not yet staged in Galaxy, i.e. without input dataset or output history
+	@Query(value = "select p.id from Primaryfile p where p.item.collection.id = :collectionId and (p.datasetId is null or p.historyId is null) order by p.id")
+	List<Long> findIdsUnstagedByCollectionId(@Param("collectionId") Long collectionId);	
+	
+	@Query(value = "select p.id as id, p.name as name, p.item.id as itemId from Primaryfile p where p.item.id in :itemIds order by p.id")
+	List<PrimaryfileIdItem> findIdItemsByItemIdIn(@Param("itemIds") List<Long> itemIds);	
+	
+	@Query(value = "select p.name as name, p.item.collection.id as collectionId from Primaryfile p where p.item.collection.id in :collectionIds")
+	List<PrimaryfileNameCollection> findNameCollectionsByCollectionIdIn(@Param("collectionIds") List<Long> collectionIds);	
+	
 	List<Primaryfile> findByHistoryIdNotNull();	
 	List<Primaryfile> findByHistoryId(String historyId); 
 	
 	List<Primaryfile> findByMediaInfoNull(); 
 
-	@Query(value = "select p from Primaryfile p where lower(p.name) like lower(concat('%', :keyword,'%')) or lower(p.description) like lower(concat('%', :keyword,'%'))")
+	// below keyword searches match against the trigram indexed SearchEntry table, and only look up the matched primaryfiles by ID
+	@Query(value = "select p from Primaryfile p where p.id in (select s.entityId from SearchEntry s where s.entityType = 'Primaryfile' and (lower(s.name) like lower(concat('%', :keyword,'%')) or lower(s.description) like lower(concat('%', :keyword,'%'))))")
 	List<Primaryfile> findByKeyword(@Param("keyword") String keyword); 
 		
-	@Query(value = "select p from Primaryfile p where ( lower(p.name) like lower(concat('%', :keyword,'%')) or lower(p.item.name) like lower(concat('%', :keyword,'%'))) order by p.item.id")
+	@Query(value = "select p from Primaryfile p where p.id in (select s.entityId from SearchEntry s where s.entityType = 'Primaryfile' and (lower(s.name) like lower(concat('%', :keyword,'%')) or lower(s.itemName) like lower(concat('%', :keyword,'%')))) order by p.item.id")
 	List<Primaryfile> findByItemOrFileName(@Param("keyword") String keyword);
 	
-	@Query(value = "select p from Primaryfile p where ( lower(p.name) like lower(concat('%', :keyword,'%')) or lower(p.item.name) like lower(concat('%', :keyword,'%')) or lower(p.item.collection.name) like lower(concat('%', :keyword,'%'))) order by p.item.id")
+	@Query(value = "select p from Primaryfile p where p.id in (select s.entityId from SearchEntry s where s.entityType = 'Primaryfile' and (lower(s.name) like lower(concat('%', :keyword,'%')) or lower(s.itemName) like lower(concat('%', :keyword,'%')) or lower(s.collectionName) like lower(concat('%', :keyword,'%')))) order by p.item.id")
 	List<Primaryfile> findByCollectionOrItemOrFileName(@Param("keyword") String keyword);
 
-	@Query(value = "select p from Primaryfile p where ( p.item.collection.active = true and (lower(p.name) like lower(concat('%', :keyword,'%')) or lower(p.item.name) like lower(concat('%', :keyword,'%')) or lower(p.item.collection.name) like lower(concat('%', :keyword,'%')))) order by p.item.id")
+	@Query(value = "select p from Primaryfile p where p.id in (select s.entityId from SearchEntry s where s.entityType = 'Primaryfile' and s.collectionActive = true and (lower(s.name) like lower(concat('%', :keyword,'%')) or lower(s.itemName) like lower(concat('%', :keyword,'%')) or lower(s.collectionName) like lower(concat('%', :keyword,'%')))) order by p.item.id")
 	List<Primaryfile> findActiveByCollectionOrItemOrFileName(@Param("keyword") String keyword);
 
 	/* TODO 
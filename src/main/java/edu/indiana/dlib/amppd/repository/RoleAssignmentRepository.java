@@ -2,9 +2,12 @@ package edu.indiana.dlib.amppd.repository;
 
 import java.util.List;
 
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 
 import edu.indiana.dlib.amppd.model.ac.RoleAssignment;
+import edu.indiana.dlib.amppd.model.projection.RoleAssignmentId;
 
 
 @RepositoryRestResource()
@@ -20,5 +23,8 @@ public interface RoleAssignmentRepository extends AmpObjectRepository<RoleAssign
 	RoleAssignment findFirstByUserIdAndRoleIdAndUnitId(Long userId, Long roleId, Long unitId);	
 	List<RoleAssignment> findByUserIdAndRoleIdAndUnitId(Long userId, Long roleId, Long unitId);
 	
+	@Query(value = "select ra.role.id as roleId, u.id as unitId from RoleAssignment ra left join ra.unit u where ra.user.username = :username")
+	List<RoleAssignmentId> findRoleAssignmentIdsByUsername(@Param("username") String username);
+	
 	
 }
@@ -2,14 +2,19 @@ package edu.indiana.dlib.amppd.repository;
 
 import java.util.List;
 
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 
 import edu.indiana.dlib.amppd.model.ac.Role;
+import edu.indiana.dlib.amppd.model.projection.RoleActionId;
 
 @RepositoryRestResource()
 public interface RoleRepository extends AmpObjectRepository<Role> {
 
 	Role findFirstByNameAndUnitId(String name, Long unitId);
 	List<Role> findByNameAndUnitId(String name, Long unitId);
+	
+	@Query(value = "select r.id as roleId, a.id as actionId from Role r join r.actions a")
+	List<RoleActionId> findRoleActionIds();
 
 }
@@ -0,0 +1,76 @@
+package edu.indiana.dlib.amppd.repository;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+
+import edu.indiana.dlib.amppd.model.SearchEntry;
+import edu.indiana.dlib.amppd.model.projection.PrimaryfileSearchResult;
+
+@RepositoryRestResource(exported = false)
+public interface SearchEntryRepository extends PagingAndSortingRepository<SearchEntry, Long> {
+	
+	Optional<SearchEntry> findFirstByEntityTypeAndEntityId(String entityType, Long entityId);
+	List<SearchEntry> findByEntityTypeAndEntityIdIn(String entityType, List<Long> entityIds);
+	
+	// find primaryfiles with the keyword in the name of itself, its item or its collection, optionally in active collections only;
+	// the keyword predicates are served by the trigram indexes on search_entry, and the joins are by primary key only 
+	// Note: when keyword is empty, any name is matched
+	@Query(value = 
+			"select s.collectionId as collectionId, s.collectionName as collectionName, s.itemId as itemId, s.itemName as itemName, " + 
+			"i.externalSource as externalSource, i.externalId as externalId, " + 
+			"s.entityId as primaryfileId, s.name as primaryfileName, p.originalFilename as originalFilename, p.mimeType as mimeType " + 
+			"from SearchEntry s, Primaryfile p, Item i " + 
+			"where s.entityType = 'Primaryfile' and p.id = s.entityId and i.id = s.itemId " + 
+			"and (s.collectionActive = true or :activeOnly = false) " + 
+			"and (lower(s.name) like lower(concat('%', :keyword,'%')) or lower(s.itemName) like lower(concat('%', :keyword,'%')) or lower(s.collectionName) like lower(concat('%', :keyword,'%'))) " +
+			"order by s.itemId, s.entityId", 
+			countQuery = 
+			"select count(s) from SearchEntry s " + 
+			"where s.entityType = 'Primaryfile' " + 
+			"and (s.collectionActive = true or :activeOnly = false) " + 
+			"and (lower(s.name) like lower(concat('%', :keyword,'%')) or lower(s.itemName) like lower(concat('%', :keyword,'%')) or lower(s.collectionName) like lower(concat('%', :keyword,'%')))"
+	)
+	Page<PrimaryfileSearchResult> findPrimaryfilesByCollectionOrItemOrFileName(@Param("keyword") String keyword, @Param("activeOnly") boolean activeOnly, Pageable pageable);
+
+	// find entries of the given type with the keyword in name or description 
+	@Query(value = "select s from SearchEntry s where s.entityType = :entityType and (lower(s.name) like lower(concat('%', :keyword,'%')) or lower(s.description) like lower(concat('%', :keyword,'%'))) order by s.entityId")
+	Page<SearchEntry> findByEntityTypeAndKeyword(@Param("entityType") String entityType, @Param("keyword") String keyword, Pageable pageable);
+	
+	@Query(value = "select count(s) from SearchEntry s where s.entityType = :entityType")
+	long countByEntityType(@Param("entityType") String entityType);
+	
+	// propagate the updated unit/name/status of a collection to the entries of its items and primaryfiles
+	@Modifying
+	@Query(value = "update SearchEntry set unitId = :unitId, collectionName = :collectionName, collectionActive = :collectionActive where collectionId = :collectionId and entityType <> 'Collection'")
+	int updateCollection(@Param("collectionId") Long collectionId, @Param("unitId") Long unitId, @Param("collectionName") String collectionName, @Param("collectionActive") Boolean collectionActive);
+
+	// propagate the updated parent/name of an item to the entries of its primaryfiles
+	@Modifying
+	@Query(value = "update SearchEntry set unitId = :unitId, collectionId = :collectionId, collectionName = :collectionName, collectionActive = :collectionActive, itemName = :itemName where itemId = :itemId and entityType = 'Primaryfile'")
+	int updateItem(@Param("itemId") Long itemId, @Param("unitId") Long unitId, @Param("collectionId") Long collectionId, @Param("collectionName") String collectionName, @Param("collectionActive") Boolean collectionActive, @Param("itemName") String itemName);
+	
+	@Modifying
+	@Query(value = "delete from SearchEntry where unitId = :unitId")
+	int deleteByUnitId(@Param("unitId") Long unitId);
+	
+	@Modifying
+	@Query(value = "delete from SearchEntry where collectionId = :collectionId")
+	int deleteByCollectionId(@Param("collectionId") Long collectionId);
+	
+	@Modifying
+	@Query(value = "delete from SearchEntry where itemId = :itemId")
+	int deleteByItemId(@Param("itemId") Long itemId);
+	
+	@Modifying
+	@Query(value = "delete from SearchEntry where entityType = :entityType and entityId = :entityId")
+	int deleteByEntityTypeAndEntityId(@Param("entityType") String entityType, @Param("entityId") Long entityId);
+
+}
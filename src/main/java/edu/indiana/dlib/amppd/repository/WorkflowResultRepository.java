@@ -16,7 +16,9 @@ public interface WorkflowResultRepository extends PagingAndSortingRepository<Wor
 		
 	List<WorkflowResult> findByPrimaryfileId(Long primaryfileId);
 	List<WorkflowResult> findByPrimaryfileIdAndIsFinalTrue(Long primaryfileId);
+	List<WorkflowResult> findByItemIdInAndIsFinalTrueOrderById(List<Long> itemIds);
 	List<WorkflowResult> findByOutputId(String outputId);
+	List<WorkflowResult> findByStatusIn(List<GalaxyJobState> statuses);
 	
 	Set<WorkflowResult> findByWorkflowStepAndOutputName(String workflowStep, String outputName);
 	Set<WorkflowResult> findByWorkflowStepIn(List<String> workflowSteps);
@@ -49,31 +51,36 @@ public interface WorkflowResultRepository extends PagingAndSortingRepository<Wor
 	// find results of the given primaryfile, outputType, and status
 	List<WorkflowResult> findByPrimaryfileIdAndOutputTypeAndStatus(Long primaryfileId, String outputType, GalaxyJobState status);
 	
-	// count the distinct output types existing in the table within the given outputTypes list
-	// Note: for some reason Spring JPA doesn't work correctly with count distinct, thus the query is provided
-	@Query(value = "select count(distinct outputType) from WorkflowResult where outputType in :outputTypes")
-	int countDistinctOutputTypesByOutputTypeIn(List<String> outputTypes);
-	
-	// find primaryfiles with existing outputs for each of the given outputTypes, if each of the outputTypes exist in the table
-	// Mote: if keyword is empty, the SQL below will ignore keyword matching, which is the desired behavior for our use case
+	// find primaryfiles with COMPLETE outputs for each of the given outputTypes, where typeCount is the number of distinct outputTypes;
+	// a primaryfile qualifies when its COMPLETE results within the outputTypes cover typeCount distinct types, which is evaluated 
+	// in one pass over the (outputType, status, primaryfileId) index, instead of correlated subqueries per primaryfile and type
+	// Note: if keyword is empty, the SQL below will ignore keyword matching, which is the desired behavior for our use case
+	@Query(value = 
+			"select w.primaryfileId as primaryfileId, max(w.primaryfileName) as primaryfileName, max(w.itemName) as itemName, max(w.collectionName) as collectionName " + 
+			"from WorkflowResult w " + 
+			"where w.outputType in :outputTypes " + 
+			"and w.status = 'COMPLETE' " + 
+			"and lower(w.primaryfileName) like lower(concat('%', :keyword,'%')) " +
+			"group by w.primaryfileId " + 
+			"having count(distinct w.outputType) = :typeCount " + 
+			"order by w.primaryfileId"
+	)
+	List<PrimaryfileIdName> findPrimaryfileIdNamesByOutputTypes(String keyword, List<String> outputTypes, long typeCount);
+
+	// same as above, but only include primaryfiles whose MIME type contains the given mediaType
 	@Query(value = 
-			"select distinct p.collectionName as collectionName, p.itemName as itemName, p.primaryfileName as primaryfileName, p.primaryfileId as primaryfileId " + 
-			"from WorkflowResult p " + 
-			"where lower(p.primaryfileName) like lower(concat('%', :keyword,'%')) " +
-			"and not exists ( " + 
-			"	select distinct o.outputType " + 
-			"	from WorkflowResult o " + 
-			"	where o.outputType in :outputTypes " +  
-			"	and not exists ( " + 
-			"		select w.id " + 
-			"		from WorkflowResult w " + 
-			"		where w.primaryfileId = p.primaryfileId " + 
-			"		and w.outputType = o.outputType " + 
-			"		and w.status = 'COMPLETE' " + 
-			"	) " + 
-			") "
+			"select w.primaryfileId as primaryfileId, max(w.primaryfileName) as primaryfileName, max(w.itemName) as itemName, max(w.collectionName) as collectionName " + 
+			"from WorkflowResult w, Primaryfile p " + 
+			"where p.id = w.primaryfileId " + 
+			"and lower(p.mimeType) like lower(concat('%', :mediaType,'%')) " + 
+			"and w.outputType in :outputTypes " + 
+			"and w.status = 'COMPLETE' " + 
+			"and lower(w.primaryfileName) like lower(concat('%', :keyword,'%')) " +
+			"group by w.primaryfileId " + 
+			"having count(distinct w.outputType) = :typeCount " + 
+			"order by w.primaryfileId"
 	)
-	List<PrimaryfileIdName> findPrimaryfileIdNamesByOutputTypes(String keyword, List<String> outputTypes);
+	List<PrimaryfileIdName> findPrimaryfileIdNamesByOutputTypesAndMediaType(String keyword, String mediaType, List<String> outputTypes, long typeCount);
 
 	
 // below query is correct in logic but won't work with JPA, which doesn't support subquery in FROM clause
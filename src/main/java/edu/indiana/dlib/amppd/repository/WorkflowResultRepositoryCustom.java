@@ -1,9 +1,34 @@
 package edu.indiana.dlib.amppd.repository;
 
+import java.util.List;
+import java.util.function.Consumer;
+
 import edu.indiana.dlib.amppd.web.WorkflowResultFilterValues;
 import edu.indiana.dlib.amppd.web.WorkflowResultResponse;
 import edu.indiana.dlib.amppd.web.WorkflowResultSearchQuery;
 
 public interface WorkflowResultRepositoryCustom {
 	public WorkflowResultResponse findByQuery(WorkflowResultSearchQuery searchQuery);
-}
\ No newline at end of file
+	
+	/**
+	 * Get the value sets of the given filters for WorkflowResults satisfying the given query, 
+	 * where each filter's value set is computed without its own current filter values.
+	 * @param searchQuery the given query
+	 * @param facets names of the given filters, as the fields in WorkflowResultFilterValues; all filters if null or empty
+	 * @return the WorkflowResultFilterValues with value sets populated only for the given filters
+	 */
+	public WorkflowResultFilterValues findFilterValues(WorkflowResultSearchQuery searchQuery, List<String> facets);
+	
+	/**
+	 * Scroll through all WorkflowResults satisfying the given query in its sort order, with a forward-only cursor 
+	 * fetching the given number of rows at a time, and pass the values of the given properties of each row to the given consumer.
+	 * No entity is loaded into the persistence context, so the memory usage doesn't grow with the number of rows.
+	 * This must be called within a transaction for the cursor to take effect.
+	 * @param searchQuery the given query, of which pagination and filterOnly are ignored
+	 * @param properties the given properties of WorkflowResult to retrieve
+	 * @param fetchSize the given number of rows to fetch at a time
+	 * @param consumer the given consumer of property values of each row
+	 * @return the number of rows scrolled
+	 */
+	public int scrollByQuery(WorkflowResultSearchQuery searchQuery, String[] properties, int fetchSize, Consumer<Object[]> consumer);
+}
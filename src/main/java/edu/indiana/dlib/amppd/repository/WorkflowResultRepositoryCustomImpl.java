@@ -1,13 +1,27 @@
 package edu.indiana.dlib.amppd.repository;
 
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
@@ -15,6 +29,17 @@ import javax.persistence.criteria.Order;
 import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import edu.indiana.dlib.amppd.model.WorkflowResult;
 import edu.indiana.dlib.amppd.web.GalaxyJobState;
@@ -26,11 +51,180 @@ import edu.indiana.dlib.amppd.web.WorkflowResultFilterValues;
 import edu.indiana.dlib.amppd.web.WorkflowResultResponse;
 import edu.indiana.dlib.amppd.web.WorkflowResultSearchQuery;
 import edu.indiana.dlib.amppd.web.WorkflowResultSortRule;
+import lombok.AllArgsConstructor;
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class WorkflowResultRepositoryCustomImpl implements WorkflowResultRepositoryCustom {
 	public static String DATE_PROPERTY = "dateCreated";
+	public static final String ID_PROPERTY = "id";
+	public static final String SEARCH_TERMS = "searchTerms";
+	
+	// max number of rows to count when estimating total count of a filtered query
+	public static final int ESTIMATE_COUNT_LIMIT = 10000;
+	
+	/**
+	 * A column to sort WorkflowResults by, along with its direction. 
+	 */
+	@Data
+	@AllArgsConstructor
+	private static class SortColumn {
+		private String name;
+		private boolean descending;
+		
+		@Override
+		public String toString() {
+			return name + (descending ? " desc" : " asc");
+		}
+	}
+	
+	// value columns of all facets, in the order of the fields in the facet value classes
+	private static final String[] FACET_COLUMNS = {
+			"unit_id", "unit_name", "collection_id", "collection_name", "item_id", "item_name", "external_id", "external_source",
+			"primaryfile_id", "primaryfile_name", "submitter", "workflow_name", "workflow_step", "output_name", "output_type", "status"};
+	
+	// columns to sort facet values by, within each facet, the null columns not belonging to the facet don't affect the order
+	private static final String[] FACET_ORDER_COLUMNS = {
+			"unit_name", "collection_name", "item_name", "primaryfile_name", "submitter", "external_id", 
+			"workflow_name", "workflow_step", "output_name", "output_type", "status"};
+	
+	/**
+	 * Facets of WorkflowResult filters, each named after its field in WorkflowResultFilterValues, 
+	 * with the columns of its values, and the column and parameter name of its filter.
+	 */
+	private enum Facet {
+		UNITS("units", "unit_id", "units", 0, 2),
+		COLLECTIONS("collections", "collection_id", "collections", 0, 4),
+		ITEMS("items", "item_id", "items", 0, 8),
+		FILES("files", "primaryfile_id", "files", 0, 10),
+		SUBMITTERS("submitters", "submitter", "submitters", 10, 11),
+		EXTERNAL_IDS("externalIds", "external_id", "externalIds", 6, 7),
+		WORKFLOWS("workflows", "workflow_name", "workflows", 11, 12),
+		STEPS("steps", "workflow_step", "steps", 12, 13),
+		OUTPUTS("outputs", "output_name", "outputs", 13, 14),
+		TYPES("types", "output_type", "types", 14, 15),
+		STATUSES("statuses", "status", "statuses", 15, 16),
+		DATES("dateFilter", "date_created", null, 0, 0);
+		
+		private final String field;
+		private final String filterColumn;
+		private final String filterParam;
+		private final int fromColumn;	// index of the first value column in FACET_COLUMNS
+		private final int toColumn;		// index after the last value column in FACET_COLUMNS
+		
+		private Facet(String field, String filterColumn, String filterParam, int fromColumn, int toColumn) {
+			this.field = field;
+			this.filterColumn = filterColumn;
+			this.filterParam = filterParam;
+			this.fromColumn = fromColumn;
+			this.toColumn = toColumn;
+		}
+		
+		/**
+		 * Return the facet with the given field name.
+		 */
+		public static Facet of(String name) {
+			for (Facet facet : values()) {
+				if (facet.field.equals(name)) {
+					return facet;
+				}
+			}
+			throw new IllegalArgumentException("Invalid WorkflowResult filter name: " + name);
+		}
+		
+		/**
+		 * Return the bit of this facet in the mask of failed facet filters.
+		 */
+		public int getMask() {
+			return 1 << ordinal();
+		}
+		
+		/**
+		 * Return the value columns of this facet.
+		 */
+		public List<String> getColumns() {
+			return Arrays.asList(FACET_COLUMNS).subList(fromColumn, toColumn);
+		}
+		
+		/**
+		 * Return the value of the SQL grouping function over the given grouped columns for rows of this facet's grouping set,
+		 * in which the bit for each column not in the set is 1, with the last column as the least significant bit.
+		 */
+		public int getGrouping(Set<String> groupedColumns) {
+			int grouping = 0;
+			List<String> columns = getColumns();
+			for (String column : groupedColumns) {
+				grouping = (grouping << 1) | (columns.contains(column) ? 0 : 1);
+			}
+			return grouping;
+		}
+		
+		/**
+		 * Return the SQL condition for this facet's filter in the given wrsq, or null if it's not filtered; 
+		 * and add its parameters to the given map.
+		 */
+		public String getCondition(WorkflowResultSearchQuery wrsq, Map<String, Object> params) {
+			Object[] filter;
+			switch (this) {
+			case UNITS: filter = wrsq.getFilterByUnits(); break;
+			case COLLECTIONS: filter = wrsq.getFilterByCollections(); break;
+			case ITEMS: filter = wrsq.getFilterByItems(); break;
+			case FILES: filter = wrsq.getFilterByFiles(); break;
+			case SUBMITTERS: filter = wrsq.getFilterBySubmitters(); break;
+			case EXTERNAL_IDS: filter = wrsq.getFilterByExternalIds(); break;
+			case WORKFLOWS: filter = wrsq.getFilterByWorkflows(); break;
+			case STEPS: filter = wrsq.getFilterBySteps(); break;
+			case OUTPUTS: filter = wrsq.getFilterByOutputs(); break;
+			case TYPES: filter = wrsq.getFilterByTypes(); break;
+			case STATUSES: filter = wrsq.getFilterByStatuses(); break;
+			default: filter = wrsq.getFilterByDates(); break;
+			}
+			if (filter.length == 0) {
+				return null;
+			}
+			
+			if (this == DATES) {
+				params.put("dateFrom", filter[0]);
+				params.put("dateTo", filter[1]);
+				return filterColumn + " >= :dateFrom and " + filterColumn + " <= :dateTo";
+			}
+			
+			List<Object> values = new ArrayList<Object>();
+			for (Object value : filter) {
+				// status is stored as the enum name
+				values.add(value instanceof GalaxyJobState ? ((GalaxyJobState)value).name() : value);
+			}
+			params.put(filterParam, values);
+			return filterColumn + " in (:" + filterParam + ")";
+		}
+		
+		/**
+		 * Return the value of this facet from the given row of the facet query.
+		 */
+		public Object getValue(Object[] row) {
+			switch (this) {
+			case UNITS: 
+				return new WorkflowResultFilterUnit(toLong(row[0]), (String)row[1]);
+			case COLLECTIONS: 
+				return new WorkflowResultFilterCollection(toLong(row[0]), (String)row[1], toLong(row[2]), (String)row[3]);
+			case ITEMS: 
+				return new WorkflowResultFilterItem(toLong(row[0]), (String)row[1], toLong(row[2]), (String)row[3], 
+						toLong(row[4]), (String)row[5], (String)row[6], (String)row[7]);
+			case FILES: 
+				return new WorkflowResultFilterFile(toLong(row[0]), (String)row[1], toLong(row[2]), (String)row[3], 
+						toLong(row[4]), (String)row[5], (String)row[6], (String)row[7], toLong(row[8]), (String)row[9]);
+			case STATUSES:
+				return row[fromColumn] == null ? null : GalaxyJobState.valueOf((String)row[fromColumn]);
+			default:
+				return row[fromColumn];
+			}
+		}
+		
+		private static Long toLong(Object value) {
+			return value == null ? null : ((Number)value).longValue();
+		}
+	}
 	
 	@PersistenceContext
     EntityManager em;
@@ -39,22 +233,28 @@ public class WorkflowResultRepositoryCustomImpl implements WorkflowResultReposit
         // Format the response
         WorkflowResultResponse response = new WorkflowResultResponse();
         
-        // retrieve filter value sets
-        WorkflowResultFilterValues filters = getFilterValues(wrsq);
+        // retrieve filter value sets;
+        // frontend can also retrieve value sets for particular filters via findFilterValues upon accessing the filters
+        WorkflowResultFilterValues filters = findFilterValues(wrsq, null);
         response.setFilters(filters);
-        
-        // TODO: 
-        // To reduce query overhead, instead of updating all value sets for all filters with each query, we can 
-        // add separate API to return value set for a particular filter, so frontend can call the API upon accessing a filter.
 
         // When filterOnly is true, do not retrieve results, also,
     	// pageNum, resultsPerPage and sortRule will be ignored, and rows won't be populated.  
         // This is useful when frontend only is searching on possible filter values.
         if (! wrsq.isFilterOnly()) {
-            int count = getTotalCount(wrsq);        
-            List<WorkflowResult> rows = getWorkflowResultRows(wrsq);       
-	        response.setTotalResults(count);
-	        response.setRows(rows);
+        	if (wrsq.isEstimateCount()) {
+        		setEstimatedCount(wrsq, response);
+        	}
+        	else {
+        		response.setTotalResults(getTotalCount(wrsq));
+        	}
+        	
+        	if (wrsq.isKeyset()) {
+        		getWorkflowResultRowsKeyset(wrsq, response);
+        	}
+        	else {
+        		response.setRows(getWorkflowResultRows(wrsq));
+        	}
         }
         
         return response;
@@ -68,32 +268,7 @@ public class WorkflowResultRepositoryCustomImpl implements WorkflowResultReposit
 
         // add predicates (where statements)
         addPredicates(wrsq, cb, cq, root);
-        
-        WorkflowResultSortRule sort = wrsq.getSortRule();
-        if(sort!=null && !sort.getColumnName().isEmpty()) {
-        	if(sort.getColumnName().equals("outputName")) {
-    			List<Order> orderList = new ArrayList<Order>();
-        		if(sort.isOrderByDescending()) {        			
-        			orderList.add(cb.desc(root.get("outputName")));
-        			orderList.add(cb.asc(root.get("workflowStep")));
-            		orderList.add(cb.asc(root.get("workflowName")));
-        			orderList.add(cb.desc(root.get(DATE_PROPERTY)));
-        		}
-            	else {
-            		orderList.add(cb.asc(root.get("outputName")));
-            		orderList.add(cb.asc(root.get("workflowStep")));
-            		orderList.add(cb.asc(root.get("workflowName")));
-            		orderList.add(cb.desc(root.get(DATE_PROPERTY)));
-            	}
-        		cq.orderBy(orderList);
-        	}
-        	else if(sort.isOrderByDescending()) {
-                cq.orderBy(cb.desc(root.get(sort.getColumnName())));
-        	}
-        	else {
-                cq.orderBy(cb.asc(root.get(sort.getColumnName())));
-        	}
-        }
+        cq.orderBy(getOrders(getSortColumns(wrsq), cb, root));
 
         // Get the actual rows
         TypedQuery<WorkflowResult> query = em.createQuery(cq);
@@ -104,209 +279,432 @@ public class WorkflowResultRepositoryCustomImpl implements WorkflowResultReposit
         return query.getResultList();
 	}
 	
-	private int getTotalCount(WorkflowResultSearchQuery wrsq) {
+	/**
+	 * Retrieve the page of rows for the specified wrsq using keyset pagination, i.e. the rows right after the position 
+	 * in the continuation token of wrsq, or the first page if the token is empty; and populate the rows in the given response,
+	 * along with the continuation token for the next page, or null if this is the last page. 
+	 * Unlike offset pagination, the cost of retrieving a page doesn't grow with its depth.
+	 */
+	private void getWorkflowResultRowsKeyset(WorkflowResultSearchQuery wrsq, WorkflowResultResponse response) {
+		List<SortColumn> sortColumns = getSortColumns(wrsq);
         CriteriaBuilder cb = em.getCriteriaBuilder();
-        CriteriaQuery<Long> cq = cb.createQuery(Long.class);
+        CriteriaQuery<WorkflowResult> cq = cb.createQuery(WorkflowResult.class);
         Root<WorkflowResult> root = cq.from(WorkflowResult.class);
-        cq.select(cb.count(root));
 
-        // add predicates (where statements)
-        addPredicates(wrsq, cb, cq, root);
+        // add predicates (where statements), plus the one to seek past the last row of previous page
+        List<Predicate> predicates = new ArrayList<Predicate>(Arrays.asList(addPredicates(wrsq, cb, cq, root)));
+        if (StringUtils.isNotEmpty(wrsq.getContinuationToken())) {
+        	predicates.add(getSeekPredicate(decodeContinuationToken(wrsq.getContinuationToken(), sortColumns, root), sortColumns, cb, root));
+        }
+        cq.where(predicates.toArray(new Predicate[0]));        
+        cq.orderBy(getOrders(sortColumns, cb, root));
+
+        // retrieve one more row than the page size to tell if there are more pages
+        TypedQuery<WorkflowResult> query = em.createQuery(cq);
+        log.trace("=======>>>>KEYSET QUERY IS:"+query.unwrap(org.hibernate.Query.class).getQueryString()  );
+        int pageSize = wrsq.getResultsPerPage();
+        query.setMaxResults(pageSize == Integer.MAX_VALUE ? pageSize : pageSize + 1);
+        List<WorkflowResult> rows = query.getResultList();
         
-        Long count = em.createQuery(cq).getSingleResult();        
-        return count.intValue();
+        if (rows.size() > pageSize) {
+        	rows = rows.subList(0, pageSize);
+        	response.setContinuationToken(encodeContinuationToken(rows.get(pageSize - 1), sortColumns));
+        }
+        response.setRows(rows);
 	}
 	
-	private WorkflowResultFilterValues getFilterValues(WorkflowResultSearchQuery wrsq) {
+	/**
+	 * @see edu.indiana.dlib.amppd.repository.WorkflowResultRepositoryCustom.scrollByQuery(WorkflowResultSearchQuery, String[], int, Consumer<Object[]>)
+	 */
+	@Override
+	public int scrollByQuery(WorkflowResultSearchQuery wrsq, String[] properties, int fetchSize, Consumer<Object[]> consumer) {
         CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Object[]> cq = cb.createQuery(Object[].class);
+        Root<WorkflowResult> root = cq.from(WorkflowResult.class);
         
-        // Note: Filters are context-dependent, 
-        // i.e. each filter's possible value set is dependent on other currently selected filters.
-        // Thus, when querying possible value set for a particular filter, 
-        // we need to exclude all of its own current search values from the query predicates.
-        // TODO: Avoid calling addPredicates for each filter, If there is an easy way to remove predicates for that filter. 
-
-        // orderBy list for entity filters
-		List<Order> orders = new ArrayList<Order>();
-
-        // unit filter
-        CriteriaQuery<WorkflowResultFilterUnit> cqUnit = cb.createQuery(WorkflowResultFilterUnit.class);
-        Root<WorkflowResult> rtUnit = cqUnit.from(WorkflowResult.class);
-        Long[] fbUnits = wrsq.getFilterByUnits();
-        if (fbUnits.length > 0) {
-            wrsq.setFilterByUnits(new Long[0]);
-            addPredicates(wrsq, cb, cqUnit, rtUnit); 
-        	wrsq.setFilterByUnits(fbUnits);
-        }
-        else {
-        	addPredicates(wrsq, cb, cqUnit, rtUnit); 
+        // select only the given properties instead of whole entities
+        List<Selection<?>> selections = new ArrayList<Selection<?>>();
+        for (String property : properties) {
+        	selections.add(root.get(property));
         }
-		orders.add(cb.asc(rtUnit.get("unitName")));
-        cqUnit.orderBy(orders);
-        List<WorkflowResultFilterUnit> units = em.createQuery(cqUnit.multiselect(
-        		rtUnit.get("unitId"),
-        		rtUnit.get("unitName")
-        		).distinct(true)).getResultList();
+        cq.multiselect(selections);
         
-        // collection filter
-        CriteriaQuery<WorkflowResultFilterCollection> cqCollection = cb.createQuery(WorkflowResultFilterCollection.class);
-        Root<WorkflowResult> rtCollection = cqCollection.from(WorkflowResult.class);
-        Long[] fbCollections = wrsq.getFilterByCollections();
-        if (fbCollections.length > 0) {
-            wrsq.setFilterByCollections(new Long[0]);
-            addPredicates(wrsq, cb, cqCollection, rtCollection); 
-        	wrsq.setFilterByCollections(fbCollections);
-        }
-        else {
-        	addPredicates(wrsq, cb, cqCollection, rtCollection); 
+        // add predicates (where statements)
+        addPredicates(wrsq, cb, cq, root);
+        cq.orderBy(getOrders(getSortColumns(wrsq), cb, root));
+        
+        // use forward-only cursor with limited fetch size so that rows are streamed instead of loaded all at once
+        @SuppressWarnings("unchecked")
+        org.hibernate.query.Query<Object[]> query = em.createQuery(cq).unwrap(org.hibernate.query.Query.class);
+        query.setFetchSize(fetchSize);
+        query.setReadOnly(true);
+        
+        int count = 0;
+        try (ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY)) {
+        	while (results.next()) {
+        		consumer.accept(results.get());
+        		count++;
+        	}
         }
-		orders.add(cb.asc(rtCollection.get("collectionName")));
-        cqCollection.orderBy(orders);
-        List<WorkflowResultFilterCollection> collections = em.createQuery(cqCollection.multiselect(
-        		rtCollection.get("unitId"),
-        		rtCollection.get("unitName"),
-        		rtCollection.get("collectionId"),
-        		rtCollection.get("collectionName")
-        		).distinct(true)).getResultList();        
+        
+        log.info("Successfully scrolled through " + count + " WorkflowResults with fetch size " + fetchSize);
+        return count;
+	}
 
-        // item filter
-        CriteriaQuery<WorkflowResultFilterItem> cqItem = cb.createQuery(WorkflowResultFilterItem.class);
-        Root<WorkflowResult> rtItem = cqItem.from(WorkflowResult.class);
-        Long[] fbItems = wrsq.getFilterByItems();
-        if (fbItems.length > 0) {
-            wrsq.setFilterByItems(new Long[0]);
-            addPredicates(wrsq, cb, cqItem, rtItem); 
-        	wrsq.setFilterByItems(fbItems);
-        }
-        else {
-        	addPredicates(wrsq, cb, cqItem, rtItem); 
+	/**
+	 * Get the columns to sort by for the specified wrsq, always ending with ID to make the order deterministic.
+	 */
+	private List<SortColumn> getSortColumns(WorkflowResultSearchQuery wrsq) {
+		List<SortColumn> columns = new ArrayList<SortColumn>();
+        WorkflowResultSortRule sort = wrsq.getSortRule();
+        if(sort!=null && sort.getColumnName() != null && !sort.getColumnName().isEmpty()) {
+        	if(sort.getColumnName().equals("outputName")) {
+        		columns.add(new SortColumn("outputName", sort.isOrderByDescending()));
+        		columns.add(new SortColumn("workflowStep", false));
+        		columns.add(new SortColumn("workflowName", false));
+        		columns.add(new SortColumn(DATE_PROPERTY, true));
+        	}
+        	else if (!sort.getColumnName().equals(ID_PROPERTY)) {
+        		columns.add(new SortColumn(sort.getColumnName(), sort.isOrderByDescending()));
+        	}
+        	else {
+        		columns.add(new SortColumn(ID_PROPERTY, sort.isOrderByDescending()));
+        		return columns;
+        	}
         }
-		orders.add(cb.asc(rtItem.get("itemName")));
-        cqItem.orderBy(orders);
-        List<WorkflowResultFilterItem> items = em.createQuery(cqItem.multiselect(
-        		rtItem.get("unitId"),
-        		rtItem.get("unitName"),
-        		rtItem.get("collectionId"),
-        		rtItem.get("collectionName"),
-        		rtItem.get("itemId"),
-        		rtItem.get("itemName"),
-        		rtItem.get("externalId"),
-        		rtItem.get("externalSource")
-        		).distinct(true)).getResultList();
+		columns.add(new SortColumn(ID_PROPERTY, false));
+		return columns;
+	}
+	
+	/**
+	 * Get the orderBy list for the given sort columns.
+	 */
+	private List<Order> getOrders(List<SortColumn> columns, CriteriaBuilder cb, Root<WorkflowResult> root) {
+		List<Order> orders = new ArrayList<Order>();
+		for (SortColumn column : columns) {
+			orders.add(column.isDescending() ? cb.desc(root.get(column.getName())) : cb.asc(root.get(column.getName())));
+		}
+		return orders;
+	}
+	
+	/**
+	 * Get the predicate for rows positioned after the given values of the given sort columns, following PostgreSQL ordering,
+	 * in which nulls are sorted last in ascending order and first in descending order, i.e. nulls are treated as the largest.
+	 */
+	private Predicate getSeekPredicate(Object[] values, List<SortColumn> columns, CriteriaBuilder cb, Root<WorkflowResult> root) {
+		// row is after the position if for some column i, it equals the position on all columns before i, and is after it on column i
+		List<Predicate> ors = new ArrayList<Predicate>();
+		List<Predicate> equals = new ArrayList<Predicate>();
+		for (int i = 0; i < columns.size(); i++) {
+			Path<Comparable<Object>> path = root.get(columns.get(i).getName());
+			@SuppressWarnings("unchecked")
+			Comparable<Object> value = (Comparable<Object>)values[i];
+			
+			Predicate after;
+			if (columns.get(i).isDescending()) {
+				after = value == null ? cb.isNotNull(path) : cb.lessThan(path, value);
+			}
+			else {
+				after = value == null ? cb.disjunction() : cb.or(cb.greaterThan(path, value), cb.isNull(path));
+			}
+			
+			List<Predicate> ands = new ArrayList<Predicate>(equals);
+			ands.add(after);
+			ors.add(cb.and(ands.toArray(new Predicate[0])));
+			equals.add(value == null ? cb.isNull(path) : cb.equal(path, value));
+		}
+		return cb.or(ors.toArray(new Predicate[0]));
+	}
+	
+	/**
+	 * Encode the continuation token for the position of the given row in the given sort columns.
+	 */
+	private String encodeContinuationToken(WorkflowResult row, List<SortColumn> columns) {
+		BeanWrapper wrapper = new BeanWrapperImpl(row);
+		Map<String, Object> token = new LinkedHashMap<String, Object>();
+		for (SortColumn column : columns) {
+			Object value = wrapper.getPropertyValue(column.getName());
+			// dates are encoded as ISO instants with full precision, as timestamps in DB have microseconds; enums as names
+			token.put(column.toString(), value instanceof Date ? (Object)toInstant((Date)value).toString() : value instanceof Enum ? ((Enum<?>)value).name() : value);
+		}
+		try {
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(new ObjectMapper().writeValueAsBytes(token));
+		}
+		catch (JsonProcessingException e) {
+			throw new RuntimeException("Failed to encode continuation token for WorkflowResult " + row.getId(), e);
+		}
+	}
+	
+	/**
+	 * Decode the given continuation token into values of the given sort columns, converted to the types of the columns.
+	 */
+	private Object[] decodeContinuationToken(String continuationToken, List<SortColumn> columns, Root<WorkflowResult> root) {
+		Map<String, Object> token;
+		try {
+			token = new ObjectMapper().readValue(Base64.getUrlDecoder().decode(continuationToken), new TypeReference<LinkedHashMap<String, Object>>() {});
+		}
+		catch (IOException | IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid continuation token: " + continuationToken, e);
+		}
+		
+		// the token must be generated with the same sort columns as the current query
+		List<String> names = new ArrayList<String>();
+		for (SortColumn column : columns) {
+			names.add(column.toString());
+		}
+		if (!names.equals(new ArrayList<String>(token.keySet()))) {
+			throw new IllegalArgumentException("Continuation token doesn't match the current sort rule: " + continuationToken);
+		}
+		
+		Object[] values = new Object[columns.size()];
+		try {
+			for (int i = 0; i < columns.size(); i++) {
+				Object value = token.get(names.get(i));
+				Class<?> type = root.get(columns.get(i).getName()).getJavaType();
+				if (value == null) {
+					values[i] = null;
+				}
+				else if (Date.class.isAssignableFrom(type)) {
+					values[i] = Timestamp.from(Instant.parse((String)value));
+				}
+				else if (type == Long.class) {
+					values[i] = ((Number)value).longValue();
+				}
+				else if (type == GalaxyJobState.class) {
+					values[i] = GalaxyJobState.valueOf((String)value);
+				}
+				else {
+					values[i] = value;
+				}
+			}
+		}
+		catch (ClassCastException | DateTimeParseException e) {
+			throw new IllegalArgumentException("Invalid continuation token: " + continuationToken, e);
+		}
+		return values;
+	}
+	
+	/**
+	 * Convert the given date to an instant, keeping the nanoseconds if it's a timestamp.
+	 */
+	private Instant toInstant(Date date) {
+		return date instanceof Timestamp ? ((Timestamp)date).toInstant() : Instant.ofEpochMilli(date.getTime());
+	}
+	
+	/**
+	 * Set the total count for the specified wrsq in the given response without scanning all matching rows:
+	 * without any filter, use PostgreSQL's statistics on the table size if the table has been analyzed; 
+	 * otherwise count up to ESTIMATE_COUNT_LIMIT, beyond which the limit is returned as the lower bound.
+	 * The count is flagged as estimated unless it's exact.
+	 */
+	private void setEstimatedCount(WorkflowResultSearchQuery wrsq, WorkflowResultResponse response) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Long> cq = cb.createQuery(Long.class);
+        Root<WorkflowResult> root = cq.from(WorkflowResult.class);
+        cq.select(root.get(ID_PROPERTY));
         
-        // primaryfile filter
-        CriteriaQuery<WorkflowResultFilterFile> cqFile = cb.createQuery(WorkflowResultFilterFile.class);
-        Root<WorkflowResult> rtFile = cqFile.from(WorkflowResult.class);
-        Long[] fbFiles = wrsq.getFilterByFiles();
-        if (fbFiles.length > 0) {
-            wrsq.setFilterByFiles(new Long[0]);
-            addPredicates(wrsq, cb, cqFile, rtFile); 
-        	wrsq.setFilterByFiles(fbFiles);
-        }
-        else {
-        	addPredicates(wrsq, cb, cqFile, rtFile); 
-        }
-		orders.add(cb.asc(rtFile.get("primaryfileName")));
-		cqFile.orderBy(orders);
-        List<WorkflowResultFilterFile> files = em.createQuery(cqFile.multiselect(
-        		rtFile.get("unitId"),
-        		rtFile.get("unitName"),
-        		rtFile.get("collectionId"),
-        		rtFile.get("collectionName"),
-        		rtFile.get("itemId"),
-        		rtFile.get("itemName"),
-        		rtFile.get("externalId"),
-        		rtFile.get("externalSource"),
-        		rtFile.get("primaryfileId"),
-        		rtFile.get("primaryfileName")
-        		).distinct(true)).getResultList();
+        // add predicates (where statements)
+        Predicate[] predicates = addPredicates(wrsq, cb, cq, root);
         
-        // create-date filter
-        CriteriaQuery<Object[]> cqDate = cb.createQuery(Object[].class);
-        Root<WorkflowResult> rtDate = cqDate.from(WorkflowResult.class);
-        Date[] fbDates = wrsq.getFilterByDates();
-        if (fbDates.length > 0) {
-            wrsq.setFilterByDates(new Date[0]);
-            addPredicates(wrsq, cb, cqDate, rtDate); 
-        	wrsq.setFilterByDates(fbDates);
-        }
-        else {
-        	addPredicates(wrsq, cb, cqDate, rtDate); 
-        }
-        // retrieve min/max dates based on current other filters, which is more useful than distinct dates,
-        // as frontend can use the date range to allow selection for further filtering;
-        // also, this can avoid returning many individual dates when the result row size is big, 
-        // as each result is likely to have different timestamps.
-        Object[] minmaxdts = em.createQuery(cqDate.multiselect(
-        		cb.least(rtDate.<Date>get(DATE_PROPERTY)), 
-        		cb.greatest(rtDate.<Date>get(DATE_PROPERTY))
-        		)).getSingleResult();
-        List<Date> dates = new ArrayList<Date>();
-        dates.add((Date)minmaxdts[0]);
-        dates.add((Date)minmaxdts[1]);        
-    	
-        // job status filter
-        CriteriaQuery<GalaxyJobState> cqStatus = cb.createQuery(GalaxyJobState.class);
-        Root<WorkflowResult> rtStatus = cqStatus.from(WorkflowResult.class);
-        GalaxyJobState[] fbStatuses = wrsq.getFilterByStatuses();
-        if (fbStatuses.length > 0) {
-            wrsq.setFilterByStatuses(new GalaxyJobState[0]);
-            addPredicates(wrsq, cb, cqStatus, rtStatus); 
-        	wrsq.setFilterByStatuses(fbStatuses);
-        }
-        else {
-        	addPredicates(wrsq, cb, cqStatus, rtStatus); 
+        // reltuples is -1 if the table has never been analyzed, in which case it tells nothing about the table size
+        if (predicates.length == 0) {
+        	Object estimate = em.createNativeQuery("select reltuples from pg_class where relname = 'workflow_result'").getSingleResult();
+        	if (((Number)estimate).intValue() >= 0) {
+        		response.setTotalResults(((Number)estimate).intValue());
+        		response.setTotalResultsEstimated(true);
+        		return;
+        	}
         }
-        List<GalaxyJobState> statuses = em.createQuery(cqStatus.select(rtStatus.get("status")).distinct(true)).getResultList();
+        
+        // the count is exact if below the limit, otherwise it's only the lower bound
+        List<Long> ids = em.createQuery(cq).setMaxResults(ESTIMATE_COUNT_LIMIT).getResultList();
+        response.setTotalResults(ids.size());
+        response.setTotalResultsEstimated(ids.size() >= ESTIMATE_COUNT_LIMIT);
+	}
+	
+	private int getTotalCount(WorkflowResultSearchQuery wrsq) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Long> cq = cb.createQuery(Long.class);
+        Root<WorkflowResult> root = cq.from(WorkflowResult.class);
+        cq.select(cb.count(root));
 
-        // String type filters
-        List<String> submitters = getFilterValues("submitter", wrsq, cb);
-        List<String> externalIds = getFilterValues("externalId", wrsq, cb); 
-        List<String> workflows = getFilterValues("workflowName", wrsq, cb);
-        List<String> steps = getFilterValues("workflowStep", wrsq, cb);
-        List<String> outputs = getFilterValues("outputName", wrsq, cb);
-        List<String> types = getFilterValues("outputType", wrsq, cb);
+        // add predicates (where statements)
+        addPredicates(wrsq, cb, cq, root);
+        
+        Long count = em.createQuery(cq).getSingleResult();        
+        return count.intValue();
+	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.repository.WorkflowResultRepositoryCustom.findFilterValues(WorkflowResultSearchQuery, List<String>)
+	 */
+	public WorkflowResultFilterValues findFilterValues(WorkflowResultSearchQuery wrsq, List<String> facets) {
+		// resolve the requested facets, searchTerms is derived from the collections, items and files facets
+		Set<Facet> requested = EnumSet.noneOf(Facet.class);
+		if (facets == null || facets.isEmpty()) {
+			requested = EnumSet.allOf(Facet.class);
+		}
+		else {
+			for (String name : facets) {
+				if (SEARCH_TERMS.equals(name)) {
+					requested.addAll(EnumSet.of(Facet.COLLECTIONS, Facet.ITEMS, Facet.FILES));
+				}
+				else {
+					requested.add(Facet.of(name));
+				}
+			}
+		}
+		
+		WorkflowResultFilterValues filters = getFilterValues(wrsq, requested);
+		if (facets == null || facets.isEmpty() || facets.contains(SEARCH_TERMS)) {
+			filters.setSearchTerms(unionTerms(filters.getCollections(), filters.getItems(), filters.getFiles()));
+		}
+		return filters;
+	}
+	
+	/**
+	 * Get the value sets of the given facets for the specified wrsq in one grouped query.
+	 */
+	private WorkflowResultFilterValues getFilterValues(WorkflowResultSearchQuery wrsq, Set<Facet> requested) {
+        // Note: Filters are context-dependent, 
+        // i.e. each filter's possible value set is dependent on other currently selected filters.
+        // Thus, when querying possible value set for a particular filter, we need to exclude its own current search values.
+		// Instead of running one query per filter, we compute in one pass for each row a bit mask of the facet filters it fails,
+		// and only keep rows failing at most one filter; then group the rows by each facet's columns along with the mask, 
+		// using grouping sets; a facet value is valid if it comes from rows failing no filter or only the facet's own filter.
+		Map<String, Object> params = new HashMap<String, Object>();
+		String where = getCommonConditions(wrsq, params);
+		String failed = getFailedFacetsMask(wrsq, params);
+		
+		// only the columns of the requested facets can be selected, grouped, and sorted; the others are selected as null
+		Set<String> groupedColumns = new LinkedHashSet<String>();
+		for (Facet facet : requested) {
+			groupedColumns.addAll(facet.getColumns());
+		}
+		List<String> selectColumns = new ArrayList<String>();
+		for (String column : FACET_COLUMNS) {
+			selectColumns.add(groupedColumns.contains(column) ? column : "null");
+		}
+		List<String> orderColumns = new ArrayList<String>(Arrays.asList(FACET_ORDER_COLUMNS));
+		orderColumns.retainAll(groupedColumns);
+		
+		List<String> groupingSets = new ArrayList<String>();
+		Map<Integer, Facet> groupingFacets = new HashMap<Integer, Facet>();
+		for (Facet facet : requested) {
+			List<String> columns = new ArrayList<String>(facet.getColumns());
+			columns.add(0, "failed");
+			groupingSets.add("(" + String.join(", ", columns) + ")");
+			groupingFacets.put(facet.getGrouping(groupedColumns), facet);
+		}
+		
+		String grouping = groupedColumns.isEmpty() ? "0" : "grouping(" + String.join(", ", groupedColumns) + ")";
+		String sql = "select " + String.join(", ", selectColumns) + ", min(date_created), max(date_created), failed, " + grouping + " "
+				+ "from (select *, " + failed + " as failed from workflow_result" + where + ") r "
+				+ "where failed & (failed - 1) = 0 "
+				+ "group by grouping sets (" + String.join(", ", groupingSets) + ")"
+				+ (orderColumns.isEmpty() ? "" : " order by " + String.join(", ", orderColumns));
+        Query query = em.createNativeQuery(sql);
+        for (Map.Entry<String, Object> param : params.entrySet()) {
+        	query.setParameter(param.getKey(), param.getValue());
+        }
+        log.trace("=======>>>>FACET QUERY IS:" + sql);
+		@SuppressWarnings("unchecked")
+		List<Object[]> rows = query.getResultList();
         
-        // search terms
-        List<String> searchTerms = unionTerms(collections, items, files);
+		// distribute the grouped rows to the facets they belong to, in the sorted order, without duplicates
+		Map<Facet, Set<Object>> values = new EnumMap<Facet, Set<Object>>(Facet.class);
+		for (Facet facet : requested) {
+			values.put(facet, new LinkedHashSet<Object>());
+		}
+		Date minDate = null, maxDate = null;
+		for (Object[] row : rows) {
+			Facet facet = groupingFacets.get(((Number)row[FACET_COLUMNS.length + 3]).intValue());
+			int mask = ((Number)row[FACET_COLUMNS.length + 2]).intValue();
+			if (facet == null || (mask != 0 && mask != facet.getMask())) continue;
+			
+			if (facet == Facet.DATES) {
+				// retrieve min/max dates based on current other filters, which is more useful than distinct dates,
+				// as frontend can use the date range to allow selection for further filtering;
+				// also, this can avoid returning many individual dates when the result row size is big, 
+				// as each result is likely to have different timestamps.
+				Date min = (Date)row[FACET_COLUMNS.length];
+				Date max = (Date)row[FACET_COLUMNS.length + 1];
+				minDate = minDate == null || (min != null && min.before(minDate)) ? min : minDate;
+				maxDate = maxDate == null || (max != null && max.after(maxDate)) ? max : maxDate;
+			}
+			else {
+				values.get(facet).add(facet.getValue(row));
+			}
+		}
 
 		WorkflowResultFilterValues filters = new WorkflowResultFilterValues();		
-        filters.setDateFilter(dates);
-        filters.setSubmitters(submitters);
-        filters.setUnits(units);
-        filters.setCollections(collections);
-        filters.setItems(items);
-        filters.setFiles(files);
-        filters.setExternalIds(externalIds);
-        filters.setWorkflows(workflows);
-        filters.setSteps(steps);
-        filters.setOutputs(outputs);
-        filters.setTypes(types);
-        filters.setStatuses(statuses);
-        filters.setSearchTerms(searchTerms);        
-        return filters;        
+		if (requested.contains(Facet.DATES)) {
+	        List<Date> dates = new ArrayList<Date>();
+	        dates.add(minDate);
+	        dates.add(maxDate);        
+	        filters.setDateFilter(dates);
+		}
+		filters.setSubmitters(getValues(values, Facet.SUBMITTERS));
+		filters.setUnits(getValues(values, Facet.UNITS));
+		filters.setCollections(getValues(values, Facet.COLLECTIONS));
+		filters.setItems(getValues(values, Facet.ITEMS));
+		filters.setFiles(getValues(values, Facet.FILES));
+		filters.setExternalIds(getValues(values, Facet.EXTERNAL_IDS));
+		filters.setWorkflows(getValues(values, Facet.WORKFLOWS));
+		filters.setSteps(getValues(values, Facet.STEPS));
+		filters.setOutputs(getValues(values, Facet.OUTPUTS));
+		filters.setTypes(getValues(values, Facet.TYPES));
+		filters.setStatuses(getValues(values, Facet.STATUSES));
+		return filters;        
 	}
 	
 	/**
-	 * Get the allowed filter value set for the specified field of String type.
+	 * Get the list of values for the given facet from the given facet value map, or null if the facet is not requested.
 	 */
-	private List<String> getFilterValues(String field, WorkflowResultSearchQuery wrsq, CriteriaBuilder cb) {
-        CriteriaQuery<String> cq = cb.createQuery(String.class);
-        Root<WorkflowResult> rt = cq.from(WorkflowResult.class);
-        String[] fbs = wrsq.getFilterByField(field);
-        
-        if (fbs.length > 0) {
-            wrsq.setFilterByField(field, new String[0]);
-            addPredicates(wrsq, cb, cq, rt); 
-        	wrsq.setFilterByField(field, fbs);
+	@SuppressWarnings("unchecked")
+	private <T> List<T> getValues(Map<Facet, Set<Object>> values, Facet facet) {
+		Set<Object> set = values.get(facet);
+		return set == null ? null : new ArrayList<T>((Set<T>)set);
+	}
+	
+	/**
+	 * Get the SQL where clause for the conditions in the specified wrsq that are not facet filters, and add their parameters to the given map.
+	 */
+	private String getCommonConditions(WorkflowResultSearchQuery wrsq, Map<String, Object> params) {
+		List<String> conditions = new ArrayList<String>();
+		
+		String[] terms = wrsq.getFilterBySearchTerms();
+		for (int i = 0; i < terms.length; i++) {
+			String param = "term" + i;
+			params.put(param, "%" + terms[i].toLowerCase() + "%");
+			conditions.add("(lower(collection_name) like :" + param + " or lower(item_name) like :" + param 
+					+ " or lower(primaryfile_name) like :" + param + " or lower(external_source) like :" + param + ")");
+		}
+		
+        if (wrsq.isFilterByRelevant()) {
+        	conditions.add("relevant = true");
         }
-        else {
-        	addPredicates(wrsq, cb, cq, rt); 
+
+        if (wrsq.isFilterByFinal()) {
+        	conditions.add("is_final = true");
         }
         
-        cq.orderBy(cb.asc(rt.get(field)));
-        List<String> values = em.createQuery(cq.select(rt.get(field)).distinct(true)).getResultList();
-        return values;		
+        return conditions.isEmpty() ? "" : " where " + String.join(" and ", conditions);
+	}
+	
+	/**
+	 * Get the SQL expression computing the bit mask of the facet filters in the specified wrsq failed by a row, 
+	 * and add the filter parameters to the given map.
+	 */
+	private String getFailedFacetsMask(WorkflowResultSearchQuery wrsq, Map<String, Object> params) {
+		List<String> cases = new ArrayList<String>();
+		for (Facet facet : Facet.values()) {
+			String condition = facet.getCondition(wrsq, params);
+			if (condition != null) {
+				cases.add("(case when " + condition + " then 0 else " + facet.getMask() + " end)");
+			}
+		}
+		return cases.isEmpty() ? "0" : String.join(" + ", cases);
 	}
 	
 	/**
@@ -3,8 +3,11 @@ package edu.indiana.dlib.amppd.security;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
+import javax.annotation.PostConstruct;
+
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,9 +16,14 @@ import org.springframework.stereotype.Component;
 import edu.indiana.dlib.amppd.config.AmppdPropertyConfig;
 import edu.indiana.dlib.amppd.model.AmpUser;
 import edu.indiana.dlib.amppd.service.AmpUserService;
+import edu.indiana.dlib.amppd.util.CacheHelper;
+import edu.indiana.dlib.amppd.util.CacheHelperMeterBinder;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 
 @Component
@@ -29,6 +37,13 @@ public class JwtTokenUtil {
 	// claim fields for workflow edit token
 	public static final String CLAIM_JWT = "jwt";
 	public static final String CLAIM_WORKFLOW = "workflow";	
+
+	// cache of validated AMP authentication tokens, and timer of token validation tagged by result
+	public static final String TOKEN_CACHE = "jwtTokens";
+	public static final String METRIC_NAME = "amppd.jwt.validation";
+	public static final String RESULT_HIT = "hit";
+	public static final String RESULT_MISS = "miss";
+	public static final String RESULT_INVALID = "invalid";
 	
 	@Autowired
 	private AmppdPropertyConfig amppdPropertyConfig;	
@@ -36,6 +51,40 @@ public class JwtTokenUtil {
 	@Autowired
 	private AmpUserService ampUserService;	
 	
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	// validated AMP authentication tokens, by signature
+	private CacheHelper tokenCache;
+	
+	// timers of token validation, by result, registered once upon initialization
+	private Map<String, Timer> validationTimers = new HashMap<String, Timer>();
+	
+	/*
+	 * An AMP authentication token that has passed validation, along with the username it's issued for.
+	 */
+	private static class ValidatedToken {
+		String token;
+		String username;
+		
+		ValidatedToken(String token, String username) {
+			this.token = token;
+			this.username = username;
+		}
+	}
+	
+	@PostConstruct
+	public void init() {
+		tokenCache = new CacheHelper(TOKEN_CACHE, amppdPropertyConfig.getJwtExpireMinutes() * 60, amppdPropertyConfig.getCacheSweepInterval(), amppdPropertyConfig.getJwtCacheMaxItems());
+		new CacheHelperMeterBinder(tokenCache, Tags.empty()).bindTo(meterRegistry);
+		for (String result : new String[] {RESULT_HIT, RESULT_MISS, RESULT_INVALID}) {
+			validationTimers.put(result, Timer.builder(METRIC_NAME)
+				.description("Latency of AMP authentication JWT validation")
+				.tag("result", result)
+				.register(meterRegistry));
+		}
+	}
+	
 	private Claims getAllClaimsFromToken(String token) {
 		return Jwts.parser().setSigningKey(amppdPropertyConfig.getJwtSecret()).parseClaimsJws(token).getBody();
 	}
@@ -142,10 +191,47 @@ public class JwtTokenUtil {
 
 	/**
 	 * Validate the given JWT token for AMP user authentication. 
+	 * A token that passed validation is cached by its signature until it expires, so that subsequent requests with the same token
+	 * are neither parsed nor verified again; the user is then retrieved from the user snapshot cache, so no DB query is needed either.
 	 * @param token the given AMP authentication token
 	 * @return AMP user for the JWT if token is valid; null otherwise
 	 */
 	public AmpUser validateToken(String token) {
+		long start = System.nanoTime();
+		String result = RESULT_HIT;
+		
+		try {
+			// the signature is unique per token, so it serves as a short key; the whole token is still compared to rule out forgery
+			String signature = token == null ? null : StringUtils.substringAfterLast(token, ".");
+			ValidatedToken validated = StringUtils.isEmpty(signature) ? null : (ValidatedToken)tokenCache.get(signature, false);
+			if (validated == null || !validated.token.equals(token)) {
+				result = RESULT_MISS;
+				validated = parseToken(token);
+				if (validated == null) {
+					result = RESULT_INVALID;
+					return null;
+				}
+			}
+			
+			// user by username shall exist in AMP
+			AmpUser user = ampUserService.getCachedUser(validated.username);
+			if (user == null) {
+				log.error("AMP authentication JWT validation failed: non-existing user");
+				tokenCache.remove(signature);
+				result = RESULT_INVALID;
+			}		
+			return user;
+		}
+		finally {
+			validationTimers.get(result).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/*
+	 * Parse and verify the given AMP authentication token, and cache it until it expires if valid.
+	 * @return the validated token, or null if the token is invalid
+	 */
+	private ValidatedToken parseToken(String token) {
 		// get all claims to avoid parsing the token for each claim, and also ensure token is a valid JWT
 		Claims claims = null;
 		try {
@@ -164,13 +250,6 @@ public class JwtTokenUtil {
 			return null;
 		}
 
-		// user by username shall exist in AMP
-		AmpUser user = ampUserService.getUser(username);
-		if (user == null) {
-			log.error("AMP authentication JWT validation failed: non-existing user");
-			return null;
-		}		
-
 		// issuer shall be AMP Auth
 		if (!isClaimsIssuedBy(claims, ISSUER_AMP_AUTH)) {
 			log.error("AMP authentication JWT validation failed: invalid issuer");
@@ -183,7 +262,14 @@ public class JwtTokenUtil {
 //			return null;
 //		}
 
-		return user;
+		// don't refresh the entry on access, so that it expires along with the token
+		ValidatedToken validated = new ValidatedToken(token, username);
+		Date expiration = getExpirationDateFromClaims(claims);
+		long ttl = expiration == null ? 0 : TimeUnit.MILLISECONDS.toSeconds(expiration.getTime() - System.currentTimeMillis());
+		if (ttl > 0) {
+			tokenCache.put(StringUtils.substringAfterLast(token, "."), validated, ttl);
+		}
+		return validated;
 	}
 		
 	/**
@@ -77,7 +77,22 @@ public interface AmpUserService {
 	 * @return AmpUser or null, depending on whether the user was found or not
 	 */
 	public AmpUser getUser(String username);
-	
+
+	/**
+	 * Gets a snapshot of the amp user by username from the user cache, loading it from DB if not cached or expired.
+	 * The snapshot is kept for a short time and discarded upon account changes, so it's meant for authenticating requests only.
+	 * Each call returns a new copy of the snapshot without role assignments, which is not attached to any persistence context.
+	 * @param username
+	 * @return AmpUser or null, depending on whether the user was found or not
+	 */
+	public AmpUser getCachedUser(String username);
+
+	/**
+	 * Discards the cached snapshot of the amp user with the given username, if any.
+	 * @param username
+	 */
+	public void invalidateCachedUser(String username);
+
 	/**
 	 * Gets an AMP user by Id. whether or not user is approved.
 	 * Will throw Exception  if the AMP user is not found.
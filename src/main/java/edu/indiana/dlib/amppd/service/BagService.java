@@ -1,5 +1,7 @@
 package edu.indiana.dlib.amppd.service;
 
+import java.io.OutputStream;
+
 import edu.indiana.dlib.amppd.model.CollectionBag;
 import edu.indiana.dlib.amppd.model.ItemBag;
 import edu.indiana.dlib.amppd.model.PrimaryfileBag;
@@ -47,4 +49,15 @@ public interface BagService {
 	 */
 	public CollectionBag getCollectionBag(String unitName, String collectionName);
 
+	/**
+	 * Writes the CollectionBag associated with the given collection as JSON to the given output stream,
+	 * streaming ItemBags as they are assembled, instead of holding the whole bag in memory.
+	 * If assembling fails after some ItemBags are written, the JSON is ended with an "error" field following the partial ItemBags,
+	 * and the exception is rethrown, so that the caller can abort the response.
+	 * @param collectionId ID of the given collection
+	 * @param out the output stream to write to, which is not closed
+	 * @return the number of ItemBags written
+	 */
+	public int writeCollectionBag(Long collectionId, OutputStream out);
+
 }
@@ -19,4 +19,14 @@ public interface BatchService {
 	 * @return
 	 */
 	BatchValidationResponse processBatch(BatchValidationResponse batchValidation, String username);
+	
+	/**
+	 * Resume processing of a previously processed batch, by processing again all its rows that are not completed yet,
+	 * i.e. rows that failed or were not reached due to server shutdown. A batch that is being processed can't be resumed.
+	 * 
+	 * @param batchId ID of the batch to resume
+	 * @param username
+	 * @return the response with the resumed batch and processing errors of rows that still failed
+	 */
+	BatchValidationResponse resumeBatch(Long batchId, String username);
 }
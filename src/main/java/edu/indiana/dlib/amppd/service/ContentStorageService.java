@@ -0,0 +1,65 @@
+package edu.indiana.dlib.amppd.service;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+
+import edu.indiana.dlib.amppd.model.MediaBlob;
+
+/**
+ * Service for content-addressed storage of media files: each distinct content is stored once as a MediaBlob,
+ * keyed by its SHA-256 digest and reference counted, and asset media file pathnames are links to the blob file.
+ */
+public interface ContentStorageService {
+	
+	/**
+	 * Returns true if media files shall be stored in content-addressed storage, as configured.
+	 */
+	public boolean isEnabled();
+	
+	/**
+	 * Store the content of the given input stream as a blob, hashing it while it's being written in a single pass,
+	 * reuse the existing blob if the content has been stored before, and link the given target pathname to the blob.
+	 * @param inputStream the given input stream
+	 * @param targetPathname the target file path name relative to the storage root
+	 * @return the digest of the content
+	 */
+	public String store(InputStream inputStream, String targetPathname);
+	
+	/**
+	 * Move the given source file into a blob, or delete it if the content has been stored before, 
+	 * and link the given target pathname to the blob. The source file can be the target file itself, which is then replaced by the link.
+	 * @param sourcePath path of the source file
+	 * @param targetPathname the target file path name relative to the storage root
+	 * @return the digest of the content
+	 */
+	public String storeFile(Path sourcePath, String targetPathname);
+	
+	/**
+	 * Release one reference to the blob with the given digest, and delete the blob if it's no longer referenced.
+	 * If called within a transaction, the release happens after the transaction commits, and not at all if it rolls back.
+	 * @param digest the given digest
+	 */
+	public void release(String digest);
+	
+	/**
+	 * Get the blob with the given digest.
+	 * @param digest the given digest
+	 * @return the blob found, or null if not found
+	 */
+	public MediaBlob getBlob(String digest);
+	
+	/**
+	 * Save the given Galaxy dataset ID uploaded from the blob with the given digest, so it can be reused by other primaryfiles with the same content.
+	 * @param digest the given digest
+	 * @param datasetId the given dataset ID
+	 */
+	public void setDatasetId(String digest, String datasetId);
+	
+	/**
+	 * Recompute reference counts of all blobs from the assets referencing them, and delete blobs no longer referenced,
+	 * in case references have been leaked, for ex. by entities deleted along with their parents.
+	 * @return the number of blobs updated or deleted
+	 */
+	public int refreshReferenceCounts();
+	
+}
@@ -21,11 +21,14 @@ public interface DeliverService {
 	public AvalonRelatedItems deliverAvalonItem(Long itemId, String collectionExternalId);
 	
 	/**
-	 * Deliver final results associated with the items within the given collection to target system Avalon.
+	 * Deliver final results associated with the items within the given collection to target system Avalon, concurrently.
+	 * The state of each item delivery is recorded, and unless forced, items which have been delivered and haven't changed since are skipped,
+	 * so that rerunning the delivery only sends failed or changed items.
 	 * @param collectionId ID of the given collection
+	 * @param force if true, deliver all items regardless of their previous delivery state; false by default
 	 * @return the list of AvalonRelatedItems delivered
 	 */
-	public List<AvalonRelatedItems> deliverAvalonCollection(Long collectionId);
+	public List<AvalonRelatedItems> deliverAvalonCollection(Long collectionId, Boolean force);
 	
 	/**
 	 * Put (link) the AMP outputs contained in the AvalonRelatedItems to the Avalon media object corresponding to the given AMP item.
@@ -1,9 +1,11 @@
 package edu.indiana.dlib.amppd.service;
 
 import java.nio.file.Path;
+import java.util.Map;
 
 import edu.indiana.dlib.amppd.model.Collection;
 import edu.indiana.dlib.amppd.model.Unit;
+import edu.indiana.dlib.amppd.util.DropboxIndex.FileInfo;
 
 /**
  * Service for operations related to dropbox, including creating, updating, deleting dropbox sub-directories.
@@ -97,6 +99,33 @@ public interface DropboxService {
 	 * Create dropbox sub-directories as needed for all existing collections.
 	 */
 	public void createCollectionSubdirs();
+
+	/**
+	 * Lists the files in the dropbox sub-directory for the given unit and collection names from the dropbox index, 
+	 * rescanning the sub-directory if it's not indexed yet.
+	 * @param unitName name of the unit
+	 * @param collectionName name of the collection
+	 * @return map of filenames relative to the sub-directory to their size and last modified time, or null if the sub-directory doesn't exist
+	 */
+	public Map<String, FileInfo> listFiles(String unitName, String collectionName);
+
+	/**
+	 * Checks whether the file with the given filename exists in the dropbox sub-directory for the given unit and collection names,
+	 * as confirmed on the file system, and updates the dropbox index if it's out of date for the file;
+	 * returns false without touching the file system if the sub-directory doesn't exist.
+	 * @param unitName name of the unit
+	 * @param collectionName name of the collection
+	 * @param filename filename relative to the sub-directory
+	 * @return true if the file exists
+	 */
+	public boolean fileExists(String unitName, String collectionName, String filename);
+
+	/**
+	 * Updates the dropbox index for the file or directory at the given path after it's been added, changed or removed;
+	 * if the path is not within the dropbox, do nothing.
+	 * @param path path of the file or directory
+	 */
+	public void updateIndex(Path path);
 	
 	// TODO more methods can be added to handle update/delete dropbox subdirs as needed later.
 }
@@ -3,6 +3,7 @@ package edu.indiana.dlib.amppd.service;
 import com.github.jmchilton.blend4j.galaxy.GalaxyInstance;
 
 import edu.indiana.dlib.amppd.model.galaxy.GalaxyUser;
+import edu.indiana.dlib.amppd.util.RateLimiter;
 
 /**
  * Service to provide convenient application level helpers to access Galaxy REST API.  
@@ -28,5 +29,11 @@ public interface GalaxyApiService {
 	 * @return
 	 */
 	public String getApiKey();
+	
+	/**
+	 * Returns the rate limiter shared by all AMP processes sending bulk requests to Galaxy.
+	 * Each such process should acquire a permit from the limiter before each Galaxy API call.
+	 */
+	public RateLimiter getRateLimiter();
 		
 }
@@ -1,7 +1,12 @@
 package edu.indiana.dlib.amppd.service;
 
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
 import com.github.jmchilton.blend4j.galaxy.HistoriesClient;
 import com.github.jmchilton.blend4j.galaxy.LibrariesClient;
+import com.github.jmchilton.blend4j.galaxy.beans.Dataset;
 import com.github.jmchilton.blend4j.galaxy.beans.GalaxyObject;
 import com.github.jmchilton.blend4j.galaxy.beans.History;
 import com.github.jmchilton.blend4j.galaxy.beans.Library;
@@ -45,6 +50,31 @@ public interface GalaxyDataService {
 	 */
 	public History getHistory(String name);
 
+	/**
+	 * Return all datasets, including hidden and deleted ones, contained in the given history, retrieved in one Galaxy request.
+	 * Each dataset includes the fields needed for refreshing WorkflowResults, i.e. state, visibility, deleted/purged flags,
+	 * file name, and create/update time.
+	 * @param historyId ID of the given history
+	 * @return the list of datasets in the history
+	 */
+	public List<Dataset> showHistoryDatasets(String historyId);
+
+	/**
+	 * Return the datasets contained in the given history which have been updated after the given time, retrieved in one Galaxy request.
+	 * Deleted and purged datasets are included as long as they are updated after the given time.
+	 * @param historyId ID of the given history
+	 * @param updatedAfter the given time, null for all datasets in the history
+	 * @return the list of datasets updated after the given time in the history
+	 */
+	public List<Dataset> showHistoryDatasets(String historyId, Date updatedAfter);
+
+	/**
+	 * Return the update time of all histories of the current Galaxy user, retrieved in one Galaxy request.
+	 * A history's update time changes whenever any of its contents is created, updated or deleted.
+	 * @return the map of history ID to history update time
+	 */
+	public Map<String, Date> showHistoriesUpdateTime();
+
 //	/**
 //	 * Create output history for the given primaryfile, if not existing yet.
 //	 * @param ID of the the given primaryfile.
@@ -2,6 +2,7 @@ package edu.indiana.dlib.amppd.service;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.springframework.web.multipart.MultipartFile;
 
@@ -14,6 +15,7 @@ import com.github.jmchilton.blend4j.galaxy.beans.WorkflowDetails;
 import edu.indiana.dlib.amppd.model.Primaryfile;
 import edu.indiana.dlib.amppd.web.CreateJobParameters;
 import edu.indiana.dlib.amppd.web.CreateJobResponse;
+import edu.indiana.dlib.amppd.web.JobSubmission;
 
 
 /**
@@ -114,6 +116,62 @@ public interface JobService {
 	 */
 	public List<CreateJobResponse> createJobs(String workflowId, MultipartFile inputCsv, CreateJobParameters[] parameterss);
 
+	/**
+	 * Stage in Galaxy all primaryfiles in the given collection which haven't been staged yet, i.e. upload their media as datasets
+	 * and create their output histories, so that subsequent job submissions on them only need to invoke the workflows.
+	 * The primaryfiles are staged in parallel, with the rate of requests to Galaxy capped.
+	 * @param collectionId ID of the given collection
+	 * @return the number of primaryfiles successfully staged
+	 */
+	public int stagePrimaryfilesForJobs(Long collectionId);
+	
+	/**
+	 * Asynchronously stage the primaryfiles in the given collections as in stagePrimaryfilesForJobs; the primaryfiles are staged in the background 
+	 * in parallel, and the returned submission, with one response for each primaryfile, can be polled for progress via getJobSubmission.
+	 * @param collectionIds IDs of the given collections
+	 * @return JobSubmission for tracking the progress of the staging
+	 */
+	public JobSubmission stagePrimaryfilesForJobsAsync(Set<Long> collectionIds);
+	
+	/**
+	 * Asynchronously create AMP jobs to invoke the given workflow in Galaxy on the given primaryfiles, along with the given parameters.
+	 * The jobs are created in the background in parallel, and the returned submission can be polled for progress via getJobSubmission.
+	 * @param workflowId ID of the given workflow
+	 * @param primaryfileIds IDs of the given primaryfiles
+	 * @param parameters the dynamic parameters to use for the steps in the workflow as a map {stepId: {paramName; paramValue}}
+	 * @return JobSubmission for tracking the progress of the jobs
+	 */
+	public JobSubmission createJobsAsync(String workflowId, Long[] primaryfileIds, CreateJobParameters[] parameterss);
+	
+	/**
+	 * Asynchronously create a bundle of AMP jobs, one for each primaryfile included in the given bundle, to invoke the given workflow in Galaxy, 
+	 * with the given step parameters. The jobs are created in the background in parallel, and the returned submission can be polled for 
+	 * progress via getJobSubmission.
+	 * @param workflowId the ID of the specified workflow 
+	 * @param bundleId the ID of the specified bundle
+	 * @param parameters the dynamic parameters to use for the steps in the workflow as a map {stepId: {paramName; paramValue}}
+	 * @return JobSubmission for tracking the progress of the jobs
+	 */
+	public JobSubmission createJobsAsync(String workflowId, Long bundleId, CreateJobParameters[] parameterss);
+	
+	/**
+	 * Asynchronously create AMP jobs, one for each row of primaryfile and outputs specified in the given inputCsv, to invoke the given workflow 
+	 * in Galaxy along with the given parameters. The jobs are created in the background in parallel, and the returned submission can be polled 
+	 * for progress via getJobSubmission.
+	 * @param workflowId ID of the given workflow
+	 * @param inputCsv CSV file each row specifying the primaryfile and previous outputs to use as workflow inputs
+	 * @param parameters the dynamic parameters to use for the steps in the workflow as a map {stepId: {paramName; paramValue}}
+	 * @return JobSubmission for tracking the progress of the jobs
+	 */
+	public JobSubmission createJobsAsync(String workflowId, MultipartFile inputCsv, CreateJobParameters[] parameterss);
+	
+	/**
+	 * Get the asynchronous job submission with the given ID, which is only visible to the user who submitted it.
+	 * @param submissionId ID of the given submission
+	 * @return the JobSubmission with its current progress and responses of jobs processed so far
+	 */
+	public JobSubmission getJobSubmission(String submissionId);
+	
 	/**
 	 * List all AMP jobs run on the specified workflow against the specified primaryfile.
 	 * @param workflowId ID of the given workflow
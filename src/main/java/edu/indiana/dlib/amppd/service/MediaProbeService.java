@@ -0,0 +1,28 @@
+package edu.indiana.dlib.amppd.service;
+
+import java.util.List;
+
+import edu.indiana.dlib.amppd.model.Asset;
+import edu.indiana.dlib.amppd.web.MediaProbeResult;
+
+/**
+ * Service for probing media files with MediaProbe.
+ */
+public interface MediaProbeService {
+	
+	/**
+	 * Probe the given media file with MediaProbe, save the media info into the json file next to it, and return the media info.
+	 * @param pathname pathname of the given media file
+	 * @return the media info JSON
+	 */
+	public String probe(String pathname);
+	
+	/**
+	 * Probe the media files of the given assets concurrently, without updating the assets. 
+	 * Failure on one asset doesn't affect others, instead the error is reported in its result.
+	 * @param assets the given assets
+	 * @return the probe results in the same order as the given assets
+	 */
+	public List<MediaProbeResult> probe(List<? extends Asset> assets);
+	
+}
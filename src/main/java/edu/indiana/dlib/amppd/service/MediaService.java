@@ -2,6 +2,8 @@ package edu.indiana.dlib.amppd.service;
 
 import java.nio.file.Path;
 
+import org.springframework.data.domain.Pageable;
+
 import edu.indiana.dlib.amppd.model.Asset;
 import edu.indiana.dlib.amppd.model.Primaryfile;
 import edu.indiana.dlib.amppd.model.Supplement.SupplementType;
@@ -147,4 +149,14 @@ public interface MediaService {
 	 */
 	public ItemSearchResponse findItemOrFile(String keyword, String mediaType);
 	
+	/**
+	 * Find items and/or primaryfiles with names containing the given keyword, and with media of the given media type, 
+	 * returning the given page of matched primaryfiles grouped by item; an item's primaryfiles may span adjacent pages. 
+	 * @param keyword the given keyword
+	 * @param mediaType the given media type
+	 * @param pageable the page of primaryfiles requested
+	 * @return an instance of ItemSearchResponse containing information of the found items/primaryfiles
+	 */
+	public ItemSearchResponse findItemOrFile(String keyword, String mediaType, Pageable pageable);
+	
 }
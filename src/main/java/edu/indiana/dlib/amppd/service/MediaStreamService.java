@@ -0,0 +1,33 @@
+package edu.indiana.dlib.amppd.service;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Service for streaming media files of primaryfiles and outputs of workflowResults directly from AMPPD,
+ * as an alternative to redirecting to the symlinks served by AMPPD-UI Apache server.
+ */
+public interface MediaStreamService {
+
+	/**
+	 * Returns true if media files shall be streamed by AMPPD instead of being redirected to AMPPD-UI Apache server.
+	 */
+	public boolean isEnabled();
+
+	/**
+	 * Stream the media file of the given primaryfile to the given response, honoring Range and conditional headers of the given request.
+	 * @param id ID of the given primaryfile
+	 * @param request the HTTP request
+	 * @param response the HTTP response
+	 */
+	public void streamPrimaryfile(Long id, HttpServletRequest request, HttpServletResponse response);
+
+	/**
+	 * Stream the output file of the given workflowResult to the given response, honoring Range and conditional headers of the given request.
+	 * @param id ID of the given workflowResult
+	 * @param request the HTTP request
+	 * @param response the HTTP response
+	 */
+	public void streamWorkflowOutput(Long id, HttpServletRequest request, HttpServletResponse response);
+
+}
@@ -1,10 +1,13 @@
 package edu.indiana.dlib.amppd.service;
 
+import java.util.List;
+
 import org.springframework.http.HttpMethod;
 
 import edu.indiana.dlib.amppd.model.ac.Action;
 import edu.indiana.dlib.amppd.model.ac.Action.ActionType;
 import edu.indiana.dlib.amppd.model.ac.Action.TargetType;
+import edu.indiana.dlib.amppd.web.UnitActions;
 
 /**
  * Service for access control permission checking related operations.
@@ -18,4 +21,18 @@ public interface PermissionService {
 	
 	public boolean hasPermission(Action action, Long unitId);
 	
+	/**
+	 * Check which of the actions with the given action types and target types the current user can perform within each of the given units.
+	 * @param actionTypes the given action types, or null for all action types
+	 * @param targetTypes the given target types, or null for all target types
+	 * @param unitIds IDs of the given units
+	 * @return the allowed actions for each unit, in the same order as the given units
+	 */
+	public List<UnitActions> getPermittedActions(List<ActionType> actionTypes, List<TargetType> targetTypes, List<Long> unitIds);
+	
+	/**
+	 * Invalidate all permissions cached in memory, to be called when roles, actions, role actions or role assignments are changed.
+	 */
+	public void invalidatePermissions();
+	
 }
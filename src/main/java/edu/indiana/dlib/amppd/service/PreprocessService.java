@@ -1,6 +1,9 @@
 package edu.indiana.dlib.amppd.service;
 
+import java.util.List;
+
 import edu.indiana.dlib.amppd.model.Asset;
+import edu.indiana.dlib.amppd.web.PreprocessedMedia;
 
 /**
  * Service for pre-processing media files upon ingestion.
@@ -47,6 +50,39 @@ public interface PreprocessService {
 	 */
 	public Asset preprocess(Asset asset, boolean persist);
 
+	/**
+	 * Pre-process the given assets as preprocess(Asset, boolean) would do on each, except that media info are retrieved concurrently.
+	 * Failure on one asset doesn't affect others.
+	 * @param assets the given assets
+	 * @param persist if true, save the updated assets to DB; otherwise, do not save yet 
+	 * @return the assets failed to be pre-processed
+	 */
+	public <T extends Asset> List<T> preprocess(List<T> assets, boolean persist);
+
+	/**
+	 * Pre-process the given media file by converting flac to wav and retrieving media info, without updating any asset,
+	 * so that media files can be pre-processed ahead of and in parallel with creation of their assets.
+	 * @param pathname pathname of the given media file
+	 * @return the pre-processed media
+	 */
+	public PreprocessedMedia preprocessMedia(String pathname);
+	
+	/**
+	 * Apply the given pre-processed media to the given asset as preprocess(Asset, boolean) would have done, and persist the updated asset if indicated.
+	 * @param asset the given asset, whose pathname must be the source pathname of the pre-processed media
+	 * @param media the given pre-processed media
+	 * @param persist if true, save the updated asset to DB; otherwise, do not save yet 
+	 * @return the pre-processed asset
+	 */
+	public Asset applyPreprocessedMedia(Asset asset, PreprocessedMedia media, boolean persist);
+	
+	/**
+	 * Populate the media descriptor fields from the media info for all assets preprocessed before these fields existed.
+	 * This method should be called upon application startup, and is a no-op once all assets have been backfilled.
+	 * @return the number of assets backfilled
+	 */
+	public int backfillMediaDescriptors();
+	
 	/**
 	 * Get the media info json file pathname for the given media file
 	 * @param mediaPathname pathname of the given media file
@@ -0,0 +1,63 @@
+package edu.indiana.dlib.amppd.service;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+import edu.indiana.dlib.amppd.model.Dataentity;
+import edu.indiana.dlib.amppd.model.SearchEntry;
+import edu.indiana.dlib.amppd.model.projection.PrimaryfileSearchResult;
+
+/**
+ * Service for maintaining and querying the search index of units, collections, items and primaryfiles.
+ */
+public interface SearchIndexService {
+
+	/**
+	 * Add or update the search entry for the given dataentity, and propagate its name/parent changes to the entries of its descendants.
+	 * This method should be called after a unit, collection, item or primaryfile is created or updated; other dataentities are ignored.
+	 * @param dataentity the given dataentity
+	 * @return the search entry indexed, or null if the dataentity is not searchable
+	 */
+	public SearchEntry indexEntity(Dataentity dataentity);
+	
+	/**
+	 * Remove the search entries for the given dataentity and all of its descendants.
+	 * This method should be called after a unit, collection, item or primaryfile is deleted; other dataentities are ignored.
+	 * @param dataentity the given dataentity
+	 * @return the number of entries removed
+	 */
+	public int removeEntity(Dataentity dataentity);
+	
+	/**
+	 * Ensure the trigram indexes on search entries exist, and rebuild the search index if it's out of sync with the dataentities.
+	 * This method should be called upon application startup.
+	 * @return the number of entries rebuilt, or 0 if no rebuild is needed
+	 */
+	public int refreshSearchIndex();
+	
+	/**
+	 * Rebuild the search index for all units, collections, items and primaryfiles, updating existing entries in place 
+	 * and removing those of deleted dataentities, so that search remains available during the rebuild.
+	 * @return the number of entries rebuilt
+	 */
+	public int rebuildSearchIndex();
+	
+	/**
+	 * Search for primaryfiles with the given keyword in its own name, or the name of its parent item or collection.
+	 * @param keyword the given keyword, empty to match any name
+	 * @param activeOnly if true, only include primaryfiles in active collections
+	 * @param pageable the page requested
+	 * @return the page of primaryfiles found, ordered by item and primaryfile
+	 */
+	public Page<PrimaryfileSearchResult> searchPrimaryfiles(String keyword, boolean activeOnly, Pageable pageable);
+	
+	/**
+	 * Search for dataentities of the given type with the given keyword in name or description.
+	 * @param entityType the given entity type, i.e. Unit, Collection, Item or Primaryfile
+	 * @param keyword the given keyword, empty to match any name
+	 * @param pageable the page requested
+	 * @return the page of search entries found, ordered by entity ID
+	 */
+	public Page<SearchEntry> searchEntities(String entityType, String keyword, Pageable pageable);
+	
+}
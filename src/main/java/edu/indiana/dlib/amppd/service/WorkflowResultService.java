@@ -12,6 +12,7 @@ import com.github.jmchilton.blend4j.galaxy.beans.Workflow;
 import edu.indiana.dlib.amppd.model.Collection;
 import edu.indiana.dlib.amppd.model.Primaryfile;
 import edu.indiana.dlib.amppd.model.WorkflowResult;
+import edu.indiana.dlib.amppd.web.WorkflowResultFilterValues;
 import edu.indiana.dlib.amppd.web.WorkflowResultResponse;
 import edu.indiana.dlib.amppd.web.WorkflowResultSearchQuery;
 
@@ -23,6 +24,14 @@ public interface WorkflowResultService {
 	 */
 	public WorkflowResultResponse getWorkflowResults(WorkflowResultSearchQuery query);
 	
+	/**
+	 * Get the value sets of the given filters for the workflow results satisfying the given query.
+	 * @param query the search query for workflow results
+	 * @param facets names of the given filters, as the fields in WorkflowResultFilterValues; all filters if null or empty
+	 * @return the WorkflowResultFilterValues with value sets populated only for the given filters
+	 */
+	public WorkflowResultFilterValues getWorkflowResultFilters(WorkflowResultSearchQuery query, List<String> facets);
+	
 	/***
 	 * Get all final results for the specified primaryfile.
 	 * @param primaryfileId ID of the specified primaryfile
@@ -30,6 +39,13 @@ public interface WorkflowResultService {
 	 */
 	public List<WorkflowResult> getFinalWorkflowResults(Long primaryfileId);
 	
+	/***
+	 * Get all final results for the primaryfiles in the specified items, with a single query.
+	 * @param itemIds IDs of the specified items
+	 * @return the list of final results for the specified items
+	 */
+	public List<WorkflowResult> getFinalWorkflowResultsByItems(List<Long> itemIds);
+	
 	/**
 	 * Adds initial results for the given invocation upon submitting the given primaryfile to the give workflow.
 	 * @param invocation the given invocation
@@ -54,10 +70,21 @@ public interface WorkflowResultService {
 	/**
 	 * Refreshes WorkflowResults table iteratively by retrieving and processing workflow invocations per primaryfile.
 	 * Use this method instead of refreshWorkflowResultsLumpsum if request to Galaxy tends to timeout due to large amount of records.
+	 * Primaryfiles are refreshed in parallel by a bounded pool of workers, each primaryfile in its own transaction,
+	 * with the Galaxy calls throttled by the shared Galaxy rate limiter. If another refresh is in progress, waits for it to finish first.
 	 * @return the list of WorkflowResults refreshed
 	 */
 	public List<WorkflowResult> refreshWorkflowResultsIterative();
 
+	/**
+	 * Refreshes WorkflowResults table incrementally, only for primaryfiles whose Galaxy history has been updated since last sync,
+	 * and within those, only for outputs whose datasets have been updated since then, based on the high-water mark recorded per history.
+	 * Results of deleted/purged datasets updated since the mark are deleted; but results of datasets purged otherwise are left
+	 * to the periodic full refresh by refreshWorkflowResultsIterative. Skipped if another refresh is in progress.
+	 * @return the list of WorkflowResults refreshed, or an empty list if skipped
+	 */
+	public List<WorkflowResult> refreshWorkflowResultsIncremental();
+
 	/**
 	 * Refreshes WorkflowResults table by retrieving and processing all workflow invocations at once.
 	 * Use this method only if invocations in Galaxy are within a limited volume that can be retrieved in a lump sum manner.
@@ -111,11 +138,12 @@ public interface WorkflowResultService {
 	public WorkflowResult deleteWorkflowResult(Long workflowResultId);
 
 	/**
-	 * Set and export workflow result csv file as part of reponse
+	 * Set and export workflow result csv file as part of reponse, streaming rows directly to the response output.
 	 * @param response HttpServletResponse
-	 * @param query WorkflowResultSearchQuery
-	 * @return the list of WorkflowResults updated
+	 * @param query WorkflowResultSearchQuery, of which pagination is ignored
+	 * @param gzip whether to gzip the CSV content
+	 * @return the number of WorkflowResults exported
 	 */
-	public List<WorkflowResult> exportWorkflowResults(HttpServletResponse response, WorkflowResultSearchQuery query);
+	public int exportWorkflowResults(HttpServletResponse response, WorkflowResultSearchQuery query, boolean gzip);
 	
 }
@@ -83,8 +83,15 @@ public interface WorkflowService {
 	public Integer workflowNamesCacheSize();
 
 	/**
-	 * @see edu.indiana.dlib.amppd.service.WorkflowService.clearWorkflowsCache()
+	 * Clear up the workflow lists and workflow details caches.
 	 */
 	public void clearWorkflowsCache();
 
+	/**
+	 * Invalidate all cached metadata of the specified workflow, as well as the cached workflow lists,
+	 * to be called when the workflow is created or edited.
+	 * @param workflowId ID of the specified workflow, or null if only the workflow lists shall be invalidated
+	 */
+	public void invalidateWorkflow(String workflowId);
+
 }
@@ -23,6 +23,8 @@ import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import edu.indiana.dlib.amppd.config.AmppdPropertyConfig;
 import edu.indiana.dlib.amppd.config.AmppdUiPropertyConfig;
@@ -32,8 +34,12 @@ import edu.indiana.dlib.amppd.model.TimedToken;
 import edu.indiana.dlib.amppd.repository.AmpUserRepository;
 import edu.indiana.dlib.amppd.repository.TimedTokenRepository;
 import edu.indiana.dlib.amppd.service.AmpUserService;
+import edu.indiana.dlib.amppd.util.CacheHelper;
+import edu.indiana.dlib.amppd.util.CacheHelperMeterBinder;
 import edu.indiana.dlib.amppd.util.MD5Encryption;
 import edu.indiana.dlib.amppd.web.AuthResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -48,6 +54,7 @@ public class AmpUserServiceImpl implements AmpUserService, UserDetailsService {
 	  public static final int MIN_NAME_LENGTH = 1;
 	  public static final String ADMIN_FIRST_NAME = "ADMIN";
 	  public static final String ADMIN_LAST_NAME = "AMP";	  
+	  public static final String USER_CACHE = "jwtUsers";
 
 	  @Autowired
 	  private AmppdPropertyConfig amppdPropertyConfig;		
@@ -64,8 +71,14 @@ public class AmpUserServiceImpl implements AmpUserService, UserDetailsService {
 	  @Autowired
 	  private JavaMailSender mailSender;
 
+	  @Autowired
+	  private MeterRegistry meterRegistry;
+
 	  private String adminEmail ;
 	  private String uiUrl ;	  
+
+	  // short-lived snapshots of users authenticated by JWT, by username
+	  private CacheHelper userCache;
 	  
 	  @PostConstruct
 	  public void init() {
@@ -73,6 +86,9 @@ public class AmpUserServiceImpl implements AmpUserService, UserDetailsService {
 		  log.trace("Fetched AMP admin email id from property file:"+adminEmail);
 		  uiUrl = amppdUiPropertyConfig.getUrl();
 		  
+		  userCache = new CacheHelper(USER_CACHE, amppdPropertyConfig.getJwtUserCacheSeconds(), amppdPropertyConfig.getCacheSweepInterval(), amppdPropertyConfig.getJwtCacheMaxItems());
+		  new CacheHelperMeterBinder(userCache, Tags.empty()).bindTo(meterRegistry);
+		  
 		  // Note: bootstrap of AMP admin user is now moved to AmppdStartupRunner.run;
 	  } 
 
@@ -200,6 +216,7 @@ public class AmpUserServiceImpl implements AmpUserService, UserDetailsService {
 	    if(!response.hasErrors()) {
 			  String new_encrypted_pswd = MD5Encryption.getMd5(new_password);
 			  int rows = ampUserRepository.updatePassword(user.getUsername(), new_encrypted_pswd, user.getId()); 
+			  invalidateCachedUser(user.getUsername());
 			  log.error("Errors occurred in the password reset process");
 			  if(rows > 0){
 				  response.setSuccess(true);
@@ -235,6 +252,7 @@ public class AmpUserServiceImpl implements AmpUserService, UserDetailsService {
 				return response;
 			}
 			int rows = ampUserRepository.updateStatus(userId, user.getStatus());
+			invalidateCachedUser(user.getUsername());
 			if(rows > 0){
 				response.setSuccess(true);
 			}
@@ -322,6 +340,7 @@ public class AmpUserServiceImpl implements AmpUserService, UserDetailsService {
 						log.info("Corresponding amp user was found.");
 						try {
 							ampUserRepository.updateStatus(user.getId(), AmpUser.State.ACTIVATED);
+							invalidateCachedUser(user.getUsername());
 							response.setSuccess(true);
 							log.info("User activated successfully");
 						}
@@ -449,6 +468,70 @@ public class AmpUserServiceImpl implements AmpUserService, UserDetailsService {
 		
 		return null;
 	}
+
+	/**
+	 * @see edu.indiana.dlib.amppd.service.AmpUserService.getCachedUser(String)
+	 */
+	@Override
+	public AmpUser getCachedUser(String username) {
+		// don't refresh on access, so that a snapshot never outlives its time-to-live
+		AmpUser user = (AmpUser)userCache.get(username, false);
+		if (user != null) {
+			return copyUser(user);
+		}
+		
+		// non-existing users are not cached, so that newly registered users are found right away
+		user = getUser(username);
+		if (user == null) {
+			return null;
+		}
+		
+		// cache a snapshot detached from the loaded entity, and hand out a separate copy of it for each request, 
+		// so that neither changes to the entity nor to a request's principal leak into other requests
+		AmpUser snapshot = copyUser(user);
+		userCache.put(username, snapshot);
+		return copyUser(snapshot);
+	}
+	
+	/*
+	 * Copy the fields of the given user, except for its role assignments, which are lazily loaded and not needed for authentication.
+	 */
+	private AmpUser copyUser(AmpUser user) {
+		AmpUser copy = new AmpUser();
+		copy.setId(user.getId());
+		copy.setCreatedDate(user.getCreatedDate());
+		copy.setModifiedDate(user.getModifiedDate());
+		copy.setCreatedBy(user.getCreatedBy());
+		copy.setModifiedBy(user.getModifiedBy());
+		copy.setUsername(user.getUsername());
+		copy.setEmail(user.getEmail());
+		copy.setPassword(user.getPassword());
+		copy.setFirstName(user.getFirstName());
+		copy.setLastName(user.getLastName());
+		copy.setStatus(user.getStatus());
+		copy.setRole(user.getRole());
+		return copy;
+	}
+
+	/**
+	 * @see edu.indiana.dlib.amppd.service.AmpUserService.invalidateCachedUser(String)
+	 */
+	@Override
+	public void invalidateCachedUser(String username) {
+		userCache.remove(username);
+		
+		// if called within a transaction, a snapshot could be reloaded with the old data before the change is committed
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					userCache.remove(username);
+				}
+			});
+		}
+		log.debug("Invalidated cached snapshot of user " + username);
+	}
+	
 	@Override
 	public AmpUser getUserById(Long userId) {
 		 AmpUser user= ampUserRepository.findById(userId).orElseThrow(() -> new StorageException("User not found: " + userId));
@@ -467,8 +550,10 @@ public class AmpUserServiceImpl implements AmpUserService, UserDetailsService {
 	public boolean activateUser(String username) {
 		try {
 			AmpUser user = ampUserRepository.findByUsername(username).orElseThrow(() -> new RuntimeException("User not found: " + username));
-			if(user!=null)
+			if(user!=null) {
 				ampUserRepository.updateStatus(user.getId(), AmpUser.State.ACTIVATED);
+				invalidateCachedUser(username);
+			}
 		}
 		catch(Exception ex) {
 			  System.out.println(ex.toString());
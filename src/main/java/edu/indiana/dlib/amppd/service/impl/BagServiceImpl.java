@@ -1,12 +1,22 @@
 package edu.indiana.dlib.amppd.service.impl;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import edu.indiana.dlib.amppd.exception.StorageException;
 import edu.indiana.dlib.amppd.model.BagContent;
 import edu.indiana.dlib.amppd.model.Collection;
@@ -16,6 +26,7 @@ import edu.indiana.dlib.amppd.model.Item;
 import edu.indiana.dlib.amppd.model.ItemBag;
 import edu.indiana.dlib.amppd.model.Primaryfile;
 import edu.indiana.dlib.amppd.model.PrimaryfileBag;
+import edu.indiana.dlib.amppd.model.projection.PrimaryfileIdItem;
 import edu.indiana.dlib.amppd.repository.CollectionRepository;
 import edu.indiana.dlib.amppd.repository.ItemRepository;
 import edu.indiana.dlib.amppd.repository.PrimaryfileRepository;
@@ -32,6 +43,9 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class BagServiceImpl implements BagService {
 
+	// number of items whose primaryfiles and results are loaded together when assembling bags for multiple items
+	public static final int ITEM_BATCH_SIZE = 500;
+	
 	@Autowired
 	private PrimaryfileRepository primaryfileRepository;
 	
@@ -46,40 +60,19 @@ public class BagServiceImpl implements BagService {
 		
 	@Autowired
 	private WorkflowResultService workflowResultService;
+	
+	@Autowired
+	private ObjectMapper objectMapper;
 		
 	/**
 	 * @see edu.indiana.dlib.amppd.service.BagService.getPrimaryfileBag(Long)
 	 */
 	public PrimaryfileBag getPrimaryfileBag(Long primaryfileId) {
-		PrimaryfileBag pbag = new PrimaryfileBag();			
 		Primaryfile primaryfile = primaryfileRepository.findById(primaryfileId).orElseThrow(() -> new StorageException("primaryfile <" + primaryfileId + "> does not exist!"));    
-		
-		pbag.setPrimaryfileId(primaryfileId);
-		pbag.setPrimaryfileName(primaryfile.getName());
-		List<BagContent> bcontents = new ArrayList<BagContent>();
-		pbag.setBagContents(bcontents);		
 		List<WorkflowResult> results = workflowResultService.getFinalWorkflowResults(primaryfileId);
+		PrimaryfileBag pbag = createPrimaryfileBag(primaryfileId, primaryfile.getName(), results);
 		
-		for (WorkflowResult result : results) {
-			BagContent bcontent = new BagContent();
-			bcontent.setResultId(result.getId());
-			bcontent.setSubmitter(result.getSubmitter());
-			bcontent.setDateCreated(result.getDateCreated());
-			bcontent.setDateUpdated(result.getDateUpdated());
-			bcontent.setWorkflowId(result.getWorkflowId());
-			bcontent.setInvocationId(result.getInvocationId());
-			bcontent.setStepId(result.getStepId());
-			bcontent.setOutputId(result.getOutputId());	
-			bcontent.setWorkflowName(result.getWorkflowName());
-			bcontent.setWorkflowStep(result.getWorkflowStep()); 
-			bcontent.setToolInfo(result.getToolInfo());	 
-			bcontent.setOutputName(result.getOutputName());
-			bcontent.setOutputType(result.getOutputType());			
-			bcontent.setOutputUrl(mediaService.getWorkflowResultOutputUrl(result.getId()));	
-			bcontents.add(bcontent);
-		}
-		
-		log.info("Successfully retrieved PrimaryfileBag for primaryfileId " + primaryfileId + " with " + bcontents.size() + " BagContents.");
+		log.info("Successfully retrieved PrimaryfileBag for primaryfileId " + primaryfileId + " with " + pbag.getBagContents().size() + " BagContents.");
 		return pbag;
 	}
 	
@@ -87,23 +80,12 @@ public class BagServiceImpl implements BagService {
 	 * @see edu.indiana.dlib.amppd.service.BagService.getItemBag(Long)
 	 */
 	public ItemBag getItemBag(Long itemId) {
-		ItemBag ibag = new ItemBag();			
 		Item item = itemRepository.findById(itemId).orElseThrow(() -> new StorageException("item <" + itemId + "> does not exist!"));    
+		List<ItemBag> ibags = new ArrayList<ItemBag>();
+		assembleItemBags(Collections.singletonList(item), ibags::add);
+		ItemBag ibag = ibags.get(0);
 		
-		ibag.setItemId(itemId);
-		ibag.setItemName(item.getName());
-		ibag.setExternalSource(item.getExternalSource());
-		ibag.setExternalId(item.getExternalId());
-		List<PrimaryfileBag> pbags = new ArrayList<PrimaryfileBag>();
-		ibag.setPrimaryfileBags(pbags);		
-		Set<Primaryfile> primaryfiles = item.getPrimaryfiles();
-		
-		for (Primaryfile primaryfile : primaryfiles) {
-			PrimaryfileBag pbag = getPrimaryfileBag(primaryfile.getId());
-			pbags.add(pbag);
-		}
-		
-		log.info("Successfully retrieved ItemBag for itemId " + itemId + " with " + pbags.size() + " PrimaryfileBags.");
+		log.info("Successfully retrieved ItemBag for itemId " + itemId + " with " + ibag.getPrimaryfileBags().size() + " PrimaryfileBags.");
 		return ibag;
 	}
 	
@@ -127,20 +109,11 @@ public class BagServiceImpl implements BagService {
 	 * @see edu.indiana.dlib.amppd.service.BagService.getCollectionBag(Long)
 	 */
 	public CollectionBag getCollectionBag(Long collectionId) {
-		CollectionBag cbag = new CollectionBag();			
 		Collection collection = collectionRepository.findById(collectionId).orElseThrow(() -> new StorageException("collection <" + collectionId + "> does not exist!"));    
-		
-		cbag.setCollectionId(collectionId);
-		cbag.setCollectionName(collection.getName());
-		cbag.setUnitName(collection.getUnit().getName());
+		CollectionBag cbag = createCollectionBag(collection);
 		List<ItemBag> ibags = new ArrayList<ItemBag>();
 		cbag.setItemBags(ibags);		
-		Set<Item> items = collection.getItems();
-		
-		for (Item item : items) {
-			ItemBag ibag = getItemBag(item.getId());
-			ibags.add(ibag);
-		}
+		assembleItemBags(itemRepository.findByCollectionIdOrderById(collectionId), ibags::add);
 		
 		log.info("Successfully retrieved CollectionBag for collectionId " + collectionId + " with " + ibags.size() + " ItemBags.");
 		return cbag;
@@ -162,5 +135,155 @@ public class BagServiceImpl implements BagService {
 		return cbag;
 	}
 	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.BagService.writeCollectionBag(Long, OutputStream)
+	 */
+	public int writeCollectionBag(Long collectionId, OutputStream out) {
+		Collection collection = collectionRepository.findById(collectionId).orElseThrow(() -> new StorageException("collection <" + collectionId + "> does not exist!"));    
+		CollectionBag cbag = createCollectionBag(collection);
+		List<Item> items = itemRepository.findByCollectionIdOrderById(collectionId);
+		
+		try {
+			// the generator doesn't close the output stream, which is owned by the caller
+			JsonGenerator generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			generator.writeStartObject();
+			generator.writeObjectField("collectionId", cbag.getCollectionId());
+			generator.writeStringField("collectionName", cbag.getCollectionName());
+			generator.writeStringField("unitName", cbag.getUnitName());
+			generator.writeArrayFieldStart("itemBags");
+			
+			// write each ItemBag as soon as it's assembled, and flush after each batch,
+			// so that only one batch of items is held in memory and the client receives the bag progressively
+			int[] count = {0};
+			try {
+				assembleItemBags(items, ibag -> {
+					try {
+						generator.writeObject(ibag);
+						if (++count[0] % ITEM_BATCH_SIZE == 0) {
+							generator.flush();
+						}
+					}
+					catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			}
+			catch (RuntimeException e) {
+				writeError(generator, "Failed to write CollectionBag for collectionId " + collectionId + " after " + count[0] + " ItemBags: " + e.getMessage(), e);
+				throw e;
+			}
+			
+			generator.writeEndArray();
+			generator.writeEndObject();
+			generator.close();
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException("Failed to write CollectionBag for collectionId " + collectionId, e);
+		}
+		
+		log.info("Successfully wrote CollectionBag for collectionId " + collectionId + " with " + items.size() + " ItemBags.");
+		return items.size();
+	}
+	
+	/**
+	 * Upon failure in the middle of the ItemBags written by the given generator, end the JSON with the given error message 
+	 * in the "error" field, so that clients can tell a failed bag from a complete one even though the response could have been 
+	 * committed with status 200 already; if that fails too, for ex because the output itself is broken, the failure is
+	 * added to the given exception as suppressed.
+	 */
+	private void writeError(JsonGenerator generator, String error, RuntimeException e) {
+		log.error(error, e);
+		if (!generator.getOutputContext().inArray()) {
+			// failed in the middle of an ItemBag, there is no way to end the JSON properly
+			return;
+		}
+		try {
+			generator.writeEndArray();
+			generator.writeStringField("error", error);
+			generator.writeEndObject();
+			generator.close();
+		}
+		catch (IOException ioe) {
+			e.addSuppressed(ioe);
+		}
+	}
+	
+	/**
+	 * Assemble ItemBags for the given items in batches, and pass each ItemBag to the given consumer in the order of the items.
+	 * For each batch, the primaryfiles and their final results are loaded with one query each,
+	 * instead of querying per item, primaryfile and result.
+	 */
+	private void assembleItemBags(List<Item> items, Consumer<ItemBag> consumer) {
+		for (int i = 0; i < items.size(); i += ITEM_BATCH_SIZE) {
+			List<Item> batch = items.subList(i, Math.min(i + ITEM_BATCH_SIZE, items.size()));
+			List<Long> itemIds = batch.stream().map(Item::getId).collect(Collectors.toList());
+			
+			Map<Long, List<PrimaryfileIdItem>> itemPrimaryfiles = primaryfileRepository.findIdItemsByItemIdIn(itemIds)
+					.stream().collect(Collectors.groupingBy(PrimaryfileIdItem::getItemId));
+			Map<Long, List<WorkflowResult>> primaryfileResults = workflowResultService.getFinalWorkflowResultsByItems(itemIds)
+					.stream().collect(Collectors.groupingBy(WorkflowResult::getPrimaryfileId));
+			
+			for (Item item : batch) {
+				ItemBag ibag = new ItemBag();			
+				ibag.setItemId(item.getId());
+				ibag.setItemName(item.getName());
+				ibag.setExternalSource(item.getExternalSource());
+				ibag.setExternalId(item.getExternalId());
+				List<PrimaryfileBag> pbags = new ArrayList<PrimaryfileBag>();
+				ibag.setPrimaryfileBags(pbags);		
+				
+				for (PrimaryfileIdItem primaryfile : itemPrimaryfiles.getOrDefault(item.getId(), Collections.emptyList())) {
+					List<WorkflowResult> results = primaryfileResults.getOrDefault(primaryfile.getId(), Collections.emptyList());
+					pbags.add(createPrimaryfileBag(primaryfile.getId(), primaryfile.getName(), results));
+				}
+				
+				consumer.accept(ibag);
+			}
+		}
+	}
+	
+	/**
+	 * Create a CollectionBag for the given collection, without ItemBags.
+	 */
+	private CollectionBag createCollectionBag(Collection collection) {
+		CollectionBag cbag = new CollectionBag();			
+		cbag.setCollectionId(collection.getId());
+		cbag.setCollectionName(collection.getName());
+		cbag.setUnitName(collection.getUnit().getName());
+		return cbag;
+	}
+	
+	/**
+	 * Create a PrimaryfileBag for the primaryfile with the given ID and name, containing the given final results.
+	 */
+	private PrimaryfileBag createPrimaryfileBag(Long primaryfileId, String primaryfileName, List<WorkflowResult> results) {
+		PrimaryfileBag pbag = new PrimaryfileBag();			
+		pbag.setPrimaryfileId(primaryfileId);
+		pbag.setPrimaryfileName(primaryfileName);
+		List<BagContent> bcontents = new ArrayList<BagContent>();
+		pbag.setBagContents(bcontents);		
+		
+		for (WorkflowResult result : results) {
+			BagContent bcontent = new BagContent();
+			bcontent.setResultId(result.getId());
+			bcontent.setSubmitter(result.getSubmitter());
+			bcontent.setDateCreated(result.getDateCreated());
+			bcontent.setDateUpdated(result.getDateUpdated());
+			bcontent.setWorkflowId(result.getWorkflowId());
+			bcontent.setInvocationId(result.getInvocationId());
+			bcontent.setStepId(result.getStepId());
+			bcontent.setOutputId(result.getOutputId());	
+			bcontent.setWorkflowName(result.getWorkflowName());
+			bcontent.setWorkflowStep(result.getWorkflowStep()); 
+			bcontent.setToolInfo(result.getToolInfo());	 
+			bcontent.setOutputName(result.getOutputName());
+			bcontent.setOutputType(result.getOutputType());			
+			bcontent.setOutputUrl(mediaService.getWorkflowResultOutputUrl(result.getId()));	
+			bcontents.add(bcontent);
+		}
+		
+		return pbag;
+	}
 	
 }
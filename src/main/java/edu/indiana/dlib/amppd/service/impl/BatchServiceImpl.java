@@ -6,17 +6,32 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import edu.indiana.dlib.amppd.config.AmppdPropertyConfig;
+import edu.indiana.dlib.amppd.exception.StorageException;
+import edu.indiana.dlib.amppd.model.Asset;
 import edu.indiana.dlib.amppd.model.Batch;
+import edu.indiana.dlib.amppd.model.Batch.BatchStatus;
 import edu.indiana.dlib.amppd.model.BatchFile;
+import edu.indiana.dlib.amppd.model.BatchFile.BatchFileStatus;
 import edu.indiana.dlib.amppd.model.BatchSupplementFile;
 import edu.indiana.dlib.amppd.model.Collection;
 import edu.indiana.dlib.amppd.model.CollectionSupplement;
@@ -26,6 +41,8 @@ import edu.indiana.dlib.amppd.model.Primaryfile;
 import edu.indiana.dlib.amppd.model.PrimaryfileSupplement;
 import edu.indiana.dlib.amppd.model.Supplement.SupplementType;
 import edu.indiana.dlib.amppd.model.Unit;
+import edu.indiana.dlib.amppd.repository.BatchFileRepository;
+import edu.indiana.dlib.amppd.repository.BatchRepository;
 import edu.indiana.dlib.amppd.repository.CollectionRepository;
 import edu.indiana.dlib.amppd.repository.CollectionSupplementRepository;
 import edu.indiana.dlib.amppd.repository.ItemRepository;
@@ -33,21 +50,42 @@ import edu.indiana.dlib.amppd.repository.ItemSupplementRepository;
 import edu.indiana.dlib.amppd.repository.PrimaryfileRepository;
 import edu.indiana.dlib.amppd.repository.PrimaryfileSupplementRepository;
 import edu.indiana.dlib.amppd.service.BatchService;
+import edu.indiana.dlib.amppd.service.ContentStorageService;
 import edu.indiana.dlib.amppd.service.DropboxService;
 import edu.indiana.dlib.amppd.service.FileStorageService;
 import edu.indiana.dlib.amppd.service.PreprocessService;
+import edu.indiana.dlib.amppd.service.SearchIndexService;
 import edu.indiana.dlib.amppd.web.BatchValidationResponse;
+import edu.indiana.dlib.amppd.web.PreprocessedMedia;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * Implementation of BatchService.
+ * A batch is ingested in two stages: media files of the rows are preprocessed (flac conversion and media info retrieval)
+ * by a bounded pool of worker threads ahead of the rows being stored; each row is then stored in its own transaction,
+ * i.e. its entities are created and its files moved from the dropbox to the file storage, so that a failed row
+ * doesn't affect other rows, and can be processed again when the batch is resumed.
  */ 
 @Service
 @Slf4j
 public class BatchServiceImpl implements BatchService {
+	public static final String METRIC_NAME = "amppd.batch.rows";
+	
+	// number of rows to preprocess ahead of the row being stored, per preprocess thread
+	public static final int PREPROCESS_LOOKAHEAD = 2;
+	
+	// seconds to wait for the preprocessing in progress to finish once the rows of a batch are processed
+	public static final int PREPROCESS_TERMINATION_SECONDS = 600;
+	
 	@Autowired
 	private AmppdPropertyConfig propertyConfig;
 	
+	@Autowired
+	private BatchRepository batchRepository;
+	@Autowired
+	private BatchFileRepository batchFileRepository;
 	@Autowired
 	private ItemRepository itemRepository;
 	@Autowired
@@ -65,38 +103,261 @@ public class BatchServiceImpl implements BatchService {
 	@Autowired
 	private FileStorageService fileStorageService;
 	@Autowired
+	private ContentStorageService contentStorageService;
+	@Autowired
 	private PreprocessService preprocessService;
+	@Autowired
+	private SearchIndexService searchIndexService;
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+	@Autowired
+	private MeterRegistry meterRegistry;
 	
-	int currRow;
+	/*
+	 * State of a batch row being processed; kept per row rather than on this singleton service, 
+	 * so that concurrent batches don't interfere with each other.
+	 */
+	private static class BatchRow {
+		private final int rowNum;
+		private final List<String> errors = new ArrayList<String>();
+		private final Map<String, Future<PreprocessedMedia>> media = new HashMap<String, Future<PreprocessedMedia>>();	// preprocessed media keyed by dropbox pathname
+		private final List<Path[]> links = new ArrayList<Path[]>();	// source/target of files moved so far
+		private final List<String> digests = new ArrayList<String>();	// digests of blobs referenced so far in content-addressed storage
+		private long preprocessTime;	// total milliseconds spent on preprocessing media of the row
+		
+		private BatchRow(int rowNum) {
+			this.rowNum = rowNum;
+		}
+	}
 	
-	@Transactional
+	/**
+	 * Mark the batches left as being processed, i.e. by a shutdown during processing, as incomplete, 
+	 * since no batch can be processing upon startup, so that they can be resumed.
+	 */
+	@PostConstruct
+	public void init() {
+		int count = transactionTemplate.execute(status -> batchRepository.updateStatusByStatus(BatchStatus.PROCESSING, BatchStatus.INCOMPLETE));
+		if (count > 0) {
+			log.warn("BATCH PROCESSING : Marked " + count + " batches left in processing as incomplete");
+		}
+	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.BatchService.processBatch(BatchValidationResponse, String)
+	 */
+	@Override
 	public BatchValidationResponse processBatch(BatchValidationResponse batchValidation, String username) {
-		List<String> errors = new ArrayList<String>();
 		Batch batch = batchValidation.getBatch();
-
-		for(BatchFile batchFile : batch.getBatchFiles()) {
-			errors = new ArrayList<String>();
-			currRow = batchFile.getRowNum();
+		transactionTemplate.executeWithoutResult(status -> claimBatch(batch));
+		processBatchFiles(batch, batch.getBatchFiles(), batchValidation, username);
+		return batchValidation;
+	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.BatchService.resumeBatch(Long, String)
+	 */
+	@Override
+	public BatchValidationResponse resumeBatch(Long batchId, String username) {
+		// claim the batch before loading all its rows not completed yet, including their supplement files, 
+		// so that rows being processed by another run of the batch are never processed again
+		BatchValidationResponse batchValidation = new BatchValidationResponse();
+		List<BatchFile> batchFiles = transactionTemplate.execute(status -> {
+			Batch batch = batchRepository.findById(batchId).orElseThrow(() -> new StorageException("Batch <" + batchId + "> does not exist!"));
+			claimBatch(batch);
+			batchValidation.setBatch(batch);
+			List<BatchFile> bfs = batchFileRepository.findByBatchIdOrderByRowNum(batchId).stream()
+					.filter(batchFile -> batchFile.getStatus() != BatchFileStatus.COMPLETE).collect(Collectors.toList());
+			bfs.forEach(batchFile -> batchFile.getBatchSupplementFiles().size());
+			return bfs;
+		});
+		
+		log.info("BATCH PROCESSING : Resuming batch " + batchId + " with " + batchFiles.size() + " rows not completed yet");
+		processBatchFiles(batchValidation.getBatch(), batchFiles, batchValidation, username);
+		batchValidation.setSuccess(!batchValidation.hasProcessingErrors());
+		return batchValidation;
+	}
+	
+	/*
+	 * Mark the given batch as being processed, both in DB and in memory, unless it's already being processed, in which case throw exception.
+	 * This must be called within a transaction.
+	 */
+	private void claimBatch(Batch batch) {
+		Date now = new Date();
+		if (batch.getId() != null && batchRepository.updateStatusIfNot(batch.getId(), BatchStatus.PROCESSING, now) == 0) {
+			throw new StorageException("Batch <" + batch.getId() + "> is already being processed!");
+		}
+		batch.setStatus(BatchStatus.PROCESSING);
+		batch.setDateProcessed(now);
+	}
+	
+	/*
+	 * Process the given rows of the given batch, which has been claimed for processing, adding errors of failed rows into the given batchValidation.
+	 * Media files of upcoming rows are preprocessed in parallel while the current row is being stored, 
+	 * and each row is stored in its own transaction with its status persisted, so that a failed row can be resumed.
+	 */
+	private void processBatchFiles(Batch batch, List<BatchFile> batchFiles, BatchValidationResponse batchValidation, String username) {
+		long start = System.currentTimeMillis();
+		
+		// preprocess media files at most a bounded number of rows ahead, so that preprocessed results don't pile up in memory
+		int nthreads = Math.max(1, Math.min(propertyConfig.getBatchPreprocessThreads(), batchFiles.size()));
+		int lookahead = nthreads * PREPROCESS_LOOKAHEAD;
+		ExecutorService executor = Executors.newFixedThreadPool(nthreads);
+		List<BatchRow> rows = new ArrayList<BatchRow>();
+		Map<String, Future<PreprocessedMedia>> futures = new HashMap<String, Future<PreprocessedMedia>>();
+		int failed = 0;
+		BatchStatus status = BatchStatus.INCOMPLETE;
+		
+		try {
+			for (int i = 0; i < batchFiles.size(); i++) {
+				// stage 1: submit media files of rows up to the lookahead for preprocessing
+				for (int j = rows.size(); j < Math.min(batchFiles.size(), i + lookahead + 1); j++) {
+					rows.add(submitPreprocess(batch.getUnit(), batchFiles.get(j), executor, futures));
+				}
+				
+				// stage 2: store the current row, once its media files are preprocessed
+				BatchFile batchFile = batchFiles.get(i);
+				BatchRow row = rows.get(i);
+				rows.set(i, null);
+				if (!storeRow(batch.getUnit(), batchFile, username, row)) {
+					failed++;
+					batchValidation.addProcessingErrors(row.errors);
+				}
+				
+				// the row's media have been consumed, so drop them from the submitted ones to keep memory bounded by the lookahead;
+				// upcoming rows sharing the same media files keep their own references
+				row.media.forEach(futures::remove);
+			}
+			status = failed == 0 ? BatchStatus.COMPLETE : BatchStatus.INCOMPLETE;
+		}
+		finally {
+			// cancel the preprocessing not started yet, in case of unexpected errors, but let those in progress finish rather than interrupting them,
+			// so that no media conversion is left half done; the batch is released, even if incomplete, so that it can be resumed
+			futures.values().forEach(future -> future.cancel(false));
+			executor.shutdown();
 			try {
-				createItem(batch.getUnit(), batchFile, username, errors);
-				if(errors.size()>0) {
-					batchValidation.addProcessingErrors(errors);
+				if (!executor.awaitTermination(PREPROCESS_TERMINATION_SECONDS, TimeUnit.SECONDS)) {
+					log.warn("BATCH PROCESSING : Preprocessing for batch " + batch.getId() + " is still in progress after " + PREPROCESS_TERMINATION_SECONDS + " seconds");
 				}
 			}
-			catch(Exception ex) {
-				log.error("BATCH PROCESSING : Batch processing exception: " + ex);
-				batchValidation.addProcessingError("Error processing file #" + batchFile.getRowNum() + ". " + ex.toString());
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}
-		}	
+			updateBatchStatus(batch, status);
+		}
 		
-		log.info("BATCH PROCESSING : Check if there were processing errors");	
-		return batchValidation;
+		log.info("BATCH PROCESSING : Batch " + batch.getId() + " is " + status + " with " + (batchFiles.size() - failed) + " rows succeeded and " 
+				+ failed + " rows failed, in " + (System.currentTimeMillis() - start) + " ms");
+	}
+	
+	/*
+	 * Submit the media files of the given row to be preprocessed by the given executor, unless already submitted for a previous row.
+	 */
+	private BatchRow submitPreprocess(Unit unit, BatchFile batchFile, ExecutorService executor, Map<String, Future<PreprocessedMedia>> futures) {
+		BatchRow row = new BatchRow(batchFile.getRowNum());
+		
+		try {
+			String sourceDir = getSourceDir(unit, batchFile.getCollection());
+			List<String> filenames = new ArrayList<String>();
+			if (batchFile.getSupplementType() == SupplementType.PRIMARYFILE || batchFile.getSupplementType() == null) {
+				filenames.add(batchFile.getPrimaryfileFilename());
+			}
+			if (batchFile.getSupplementType() != null) {
+				batchFile.getBatchSupplementFiles().forEach(bsf -> filenames.add(bsf.getSupplementFilename()));
+			}
+			
+			for (String filename : filenames) {
+				if (filename != null && !filename.isBlank()) {
+					String pathname = Paths.get(sourceDir, filename).toString();
+					row.media.put(pathname, futures.computeIfAbsent(pathname, p -> executor.submit(() -> preprocessService.preprocessMedia(p))));
+				}
+			}
+		}
+		catch (Exception e) {
+			// the row will preprocess its media files itself when stored
+			log.warn("BATCH PROCESSING : Failed to submit media files of row " + row.rowNum + " for preprocessing: " + e);
+		}
+		
+		return row;
+	}
+	
+	/*
+	 * Store the given row in its own transaction and persist its status; in case of any error, roll back the transaction,
+	 * move the files back to the dropbox, and mark the row as failed.
+	 * @return true if the row succeeded; false otherwise 
+	 */
+	private boolean storeRow(Unit unit, BatchFile batchFile, String username, BatchRow row) {
+		long start = System.currentTimeMillis();
+		boolean success = false;
+		
+		try {
+			success = transactionTemplate.execute(status -> {
+				try {
+					createItem(unit, batchFile, username, row);
+				}
+				catch (Exception e) {
+					throw new CompletionException(e);
+				}
+				
+				if (!row.errors.isEmpty()) {
+					status.setRollbackOnly();
+					return false;
+				}
+				if (batchFile.getId() != null) {
+					batchFileRepository.updateStatus(batchFile.getId(), BatchFileStatus.COMPLETE, null, row.preprocessTime, System.currentTimeMillis() - start, new Date());
+				}
+				return true;
+			});
+		}
+		catch (Exception ex) {
+			Throwable e = ex instanceof CompletionException ? ex.getCause() : ex;
+			log.error("BATCH PROCESSING : Batch processing exception: " + e);
+			row.errors.add("Error processing file #" + row.rowNum + ". " + e.toString());
+		}
+		
+		long elapsed = System.currentTimeMillis() - start;
+		if (!success) {
+			undoMoveFiles(row);
+			if (batchFile.getId() != null) {
+				String error = String.join("\n", row.errors);
+				transactionTemplate.executeWithoutResult(status -> batchFileRepository.updateStatus(batchFile.getId(), BatchFileStatus.FAILED, error, row.preprocessTime, elapsed, new Date()));
+			}
+		}
+		
+		String outcome = success ? BatchFileStatus.COMPLETE.toString() : BatchFileStatus.FAILED.toString();
+		recordRowTime("preprocess", outcome, row.preprocessTime);
+		recordRowTime("store", outcome, elapsed);
+		batchFile.setStatus(success ? BatchFileStatus.COMPLETE : BatchFileStatus.FAILED);
+		return success;
+	}
+	
+	/*
+	 * Record the time spent on the given stage of a batch row with the given outcome.
+	 */
+	private void recordRowTime(String stage, String outcome, long millis) {
+		Timer.builder(METRIC_NAME)
+			.description("Time spent on each stage of processing batch rows")
+			.tag("stage", stage)
+			.tag("outcome", outcome)
+			.register(meterRegistry)
+			.record(millis, TimeUnit.MILLISECONDS);
+	}
+	
+	/*
+	 * Update the processing status of the given batch, both in DB and in memory.
+	 */
+	private void updateBatchStatus(Batch batch, BatchStatus status) {
+		Date now = new Date();
+		if (batch.getId() != null) {
+			transactionTemplate.executeWithoutResult(s -> batchRepository.updateStatus(batch.getId(), status, now));
+		}
+		batch.setStatus(status);
+		batch.setDateProcessed(now);
 	}
 	
 	/*
 	 * Create an item with the appropriate primaryfiles, supplemental files, etc.
 	 */
-	private void createItem(Unit unit, BatchFile batchFile, String username, List<String> errors) throws Exception {
+	private void createItem(Unit unit, BatchFile batchFile, String username, BatchRow row) throws Exception {
 		// Get the collection
 		log.info("BATCH PROCESSING : getting the updated collection");
 		Collection collection = getUpdatedCollection(batchFile.getCollection().getId());
@@ -117,30 +378,30 @@ public class BatchServiceImpl implements BatchService {
 		if(batchFile.getSupplementType()==SupplementType.PRIMARYFILE || batchFile.getSupplementType()==null) {
 			// Either get an existing or create a primaryfile
 			log.info("BATCH PROCESSING : Get an existing primaryfile otherwise create a new one");
-			Primaryfile primaryfile = createPrimaryfile(collection, item, batchFile, username, sourceDir, errors);
-			if (errors.size()>0)
+			Primaryfile primaryfile = createPrimaryfile(collection, item, batchFile, username, sourceDir, row);
+			if (row.errors.size()>0)
 				return;
 	    	
 			if(batchFile.getSupplementType()==SupplementType.PRIMARYFILE) {
 				// For each primaryfile supplememnt, create the object and then move the file to it's destination
 				log.info("BATCH PROCESSING : For each primaryfile supplememnt, create the object and then move the file to it's destination");
 				for(BatchSupplementFile batchSupplementFile : batchFile.getBatchSupplementFiles()) {
-					createPrimaryfileSupplement(primaryfile, batchSupplementFile, username, sourceDir, errors);
-					if(errors.size()>0 )
+					createPrimaryfileSupplement(primaryfile, batchSupplementFile, username, sourceDir, row);
+					if(row.errors.size()>0 )
 						break;
 				}
 			}
 		}
-		else if(batchFile.getSupplementType()==SupplementType.COLLECTION && errors.size()==0 ) {
+		else if(batchFile.getSupplementType()==SupplementType.COLLECTION && row.errors.size()==0 ) {
 			log.info("BATCH PROCESSING : For each collection supplememnt, create the object and then move the file to it's destination");
 			for(BatchSupplementFile batchSupplementFile : batchFile.getBatchSupplementFiles()) {
-				createCollectionSupplement(collection, batchSupplementFile, username, sourceDir, errors);
+				createCollectionSupplement(collection, batchSupplementFile, username, sourceDir, row);
 			}
 		}
-		else if(batchFile.getSupplementType()==SupplementType.ITEM && errors.size()==0 ) {
+		else if(batchFile.getSupplementType()==SupplementType.ITEM && row.errors.size()==0 ) {
 			log.info("BATCH PROCESSING : For each item supplememnt, create the object and then move the file to it's destination");
 			for(BatchSupplementFile batchSupplementFile : batchFile.getBatchSupplementFiles()) {
-				createItemSupplement(item, batchSupplementFile, username, sourceDir, errors);
+				createItemSupplement(item, batchSupplementFile, username, sourceDir, row);
 			}
 		}				
 	}
@@ -148,13 +409,13 @@ public class BatchServiceImpl implements BatchService {
 	/*
 	 * Create a primaryfile, store it in the database, move it to it's destination in amppd storage, log that the file was created
 	 */
-	private Primaryfile createPrimaryfile(Collection batchfileCollection, Item item, BatchFile batchFile, String username, String sourceDir, List<String> errors) throws Exception {		
+	private Primaryfile createPrimaryfile(Collection batchfileCollection, Item item, BatchFile batchFile, String username, String sourceDir, BatchRow row) throws Exception {		
 		try {			
-			Primaryfile primaryfile = getPrimaryfile(batchfileCollection, item, batchFile, username, errors);
+			Primaryfile primaryfile = getPrimaryfile(batchfileCollection, item, batchFile, username, row);
 			
 			// ingest a new primaryfile only if not previously existing, and return the saved primaryfile; otherwise, 
 			// this batchFile is for ingesting PrimaryfileSupplement only, in which case the existing primaryfile is returned
-			if(errors.size()==0 && primaryfile.getId() == null) {
+			if(row.errors.size()==0 && primaryfile.getId() == null) {
 				primaryfile.setItem(item);
 				Set<Primaryfile> primaryfilesSet = item.getPrimaryfiles();
 				if(primaryfilesSet == null) {
@@ -168,9 +429,9 @@ public class BatchServiceImpl implements BatchService {
 				Path existingFile = Paths.get(sourceDir, batchFile.getPrimaryfileFilename());	
 				primaryfile.setPathname(existingFile.toString());
 				
-				// preprocess (and save if success) the primaryfile before moving files, i.e. while it's still in dropbox, 
+				// apply the preprocessed media (and save if success) to the primaryfile before moving files, i.e. while it's still in dropbox, 
 				// so that in case preprocess fails, no primaryfile will be created with empty media info
-				preprocessService.preprocess(primaryfile, true);
+				applyPreprocessedMedia(primaryfile, row);
 				
 				log.debug("BATCH PROCESSING : Move the primaryfile from the dropbox to amppd file storage");
 				String targetDir = fileStorageService.getDirPathname(item);	
@@ -180,10 +441,11 @@ public class BatchServiceImpl implements BatchService {
 				// need to use originalFilename instead of batchFile.getPrimaryfileFilename() for source filename,
 				// as the latter might have been converted from flac to wav during preprocess,
 				// while the former would have been updated to the generated wav file in this case
-				Path targetPath = moveFile(sourceDir, targetDir, primaryfile.getOriginalFilename(), primaryfile.getPathname());
+				Path targetPath = moveFile(sourceDir, targetDir, primaryfile, row);
 				
 				// save primaryfile after files are moved
 		    	primaryfile = primaryfileRepository.save(primaryfile);
+		    	searchIndexService.indexEntity(primaryfile);
 		    	
 		    	logFileCreated(primaryfile, targetPath);	    					
 			}
@@ -198,27 +460,27 @@ public class BatchServiceImpl implements BatchService {
 	/*
 	 * Create a primaryfile supplement, store it in the database, move it to it's destination in amppd storage, log that the file was created
 	 */
-	private void createPrimaryfileSupplement(Primaryfile primaryfile, BatchSupplementFile batchSupplementFile, String username, String sourceDir, List<String> errors) throws Exception {
+	private void createPrimaryfileSupplement(Primaryfile primaryfile, BatchSupplementFile batchSupplementFile, String username, String sourceDir, BatchRow row) throws Exception {
 		try {
 			String targetDir = fileStorageService.getDirPathname(primaryfile);
-			PrimaryfileSupplement supplement = createPrimaryfileSupplement(primaryfile, batchSupplementFile, username, errors);
+			PrimaryfileSupplement supplement = createPrimaryfileSupplement(primaryfile, batchSupplementFile, username, row);
 			
-			if(errors.size()==0 && supplement != null) {
+			if(row.errors.size()==0 && supplement != null) {
 				// set supplement pathname to the absolute pathname of the file to be ingested,
 				// so that pre-process can resolve the path correctly without using media's root dir 
 				Path existingFile = Paths.get(sourceDir, batchSupplementFile.getSupplementFilename());	
 				supplement.setPathname(existingFile.toString());
 				
-				// preprocess (and save if success) the supplement before moving files, i.e. while it's still in dropbox
+				// apply the preprocessed media (and save if success) to the supplement before moving files, i.e. while it's still in dropbox
 				// so that in case preprocess fails, no supplement will be created with empty media info
-				preprocessService.preprocess(supplement, true);
+				applyPreprocessedMedia(supplement, row);
 				
 				// Move the file from the dropbox to amppd file storage:
 				// need to use originalFilename instead of batchFile.getPrimaryfileFilename() for source filename,
 				// as the latter might have been converted from flac to wav during preprocess,
 				// while the former would have been updated to the generated wav file in this case
 				supplement.setPathname(fileStorageService.getFilePathname(supplement));				
-				Path targetSuppPath = moveFile(sourceDir, targetDir, supplement.getOriginalFilename(), supplement.getPathname());
+				Path targetSuppPath = moveFile(sourceDir, targetDir, supplement, row);
 
 				// save supplement after files are moved
 				primaryfileSupplementRepository.save(supplement);
@@ -235,28 +497,28 @@ public class BatchServiceImpl implements BatchService {
 	/*
 	 * Create a collection file supplement, store it in the database, move it to it's destination in amppd storage, log that the file was created
 	 */
-	private void createCollectionSupplement(Collection collection, BatchSupplementFile batchSupplementFile, String username, String sourceDir, List<String> errors) throws Exception {
+	private void createCollectionSupplement(Collection collection, BatchSupplementFile batchSupplementFile, String username, String sourceDir, BatchRow row) throws Exception {
 		try {
 			// For collection supplements, create supplements and then move the files to their destination
 			String targetDir = fileStorageService.getDirPathname(collection);			
-			CollectionSupplement supplement = getCollectionSupplement(collection, batchSupplementFile, username, errors);
+			CollectionSupplement supplement = getCollectionSupplement(collection, batchSupplementFile, username, row);
 			
-			if(supplement != null && errors.size()==0) {
+			if(supplement != null && row.errors.size()==0) {
 				// set supplement pathname to the absolute pathname of the file to be ingested,
 				// so that pre-process can resolve the path correctly without using media's root dir 
 				Path existingFile = Paths.get(sourceDir, batchSupplementFile.getSupplementFilename());	
 				supplement.setPathname(existingFile.toString());
 				
-				// preprocess (and save if success) the supplement before moving files, i.e. while it's still in dropbox
+				// apply the preprocessed media (and save if success) to the supplement before moving files, i.e. while it's still in dropbox
 				// so that in case preprocess fails, no supplement will be created with empty media info
-				preprocessService.preprocess(supplement, true);
+				applyPreprocessedMedia(supplement, row);
 				
 				// Move the file from the dropbox to amppd file storage:
 				// need to use originalFilename instead of batchFile.getPrimaryfileFilename() for source filename,
 				// as the latter might have been converted from flac to wav during preprocess,
 				// while the former would have been updated to the generated wav file in this case
 				supplement.setPathname(fileStorageService.getFilePathname(supplement));				
-				Path targetSuppPath = moveFile(sourceDir, targetDir, supplement.getOriginalFilename(), supplement.getPathname());
+				Path targetSuppPath = moveFile(sourceDir, targetDir, supplement, row);
 
 				// save supplement after files are moved
 				collectionSupplementRepository.save(supplement);
@@ -273,27 +535,27 @@ public class BatchServiceImpl implements BatchService {
 	/*
 	 * Create a item file supplement, store it in the database, move it to it's destination in amppd storage, log that the file was created
 	 */
-	private void createItemSupplement(Item item, BatchSupplementFile batchSupplementFile, String username, String sourceDir, List<String> errors) throws Exception {
+	private void createItemSupplement(Item item, BatchSupplementFile batchSupplementFile, String username, String sourceDir, BatchRow row) throws Exception {
 		try {
 			String targetDir = fileStorageService.getDirPathname(item);
-			ItemSupplement supplement = getItemSupplement(item, batchSupplementFile, username, errors);
+			ItemSupplement supplement = getItemSupplement(item, batchSupplementFile, username, row);
 			
-			if(supplement != null && errors.size()==0) {
+			if(supplement != null && row.errors.size()==0) {
 				// set supplement pathname to the absolute pathname of the file to be ingested,
 				// so that pre-process can resolve the path correctly without using media's root dir 
 				Path existingFile = Paths.get(sourceDir, batchSupplementFile.getSupplementFilename());	
 				supplement.setPathname(existingFile.toString());
 				
-				// preprocess (and save if success) the supplement before moving files, i.e. while it's still in dropbox
+				// apply the preprocessed media (and save if success) to the supplement before moving files, i.e. while it's still in dropbox
 				// so that in case preprocess fails, no supplement will be created with empty media info
-				preprocessService.preprocess(supplement, true);
+				applyPreprocessedMedia(supplement, row);
 				
 				// Move the file from the dropbox to amppd file storage:
 				// need to use originalFilename instead of batchFile.getPrimaryfileFilename() for source filename,
 				// as the latter might have been converted from flac to wav during preprocess,
 				// while the former would have been updated to the generated wav file in this case
 				supplement.setPathname(fileStorageService.getFilePathname(supplement));				
-				Path targetSuppPath = moveFile(sourceDir, targetDir, supplement.getOriginalFilename(), supplement.getPathname());
+				Path targetSuppPath = moveFile(sourceDir, targetDir, supplement, row);
 
 				// save supplement after files are moved
 				itemSupplementRepository.save(supplement);
@@ -310,14 +572,14 @@ public class BatchServiceImpl implements BatchService {
 	/*
 	 * Create an item supplememt if it does not already exists
 	 */
-	private ItemSupplement getItemSupplement(Item item, BatchSupplementFile batchSupplementFile, String username, List<String>errors){
+	private ItemSupplement getItemSupplement(Item item, BatchSupplementFile batchSupplementFile, String username, BatchRow row){
 		ItemSupplement itemSupplement = null;
 		if(item.getSupplements() != null) {
 			log.info("BATCH PROCESSING : looping through the existing item supplement");
 			for(ItemSupplement is : item.getSupplements()) {
 				if(is.getName() != null && is.getName().contentEquals(batchSupplementFile.getSupplementName())) {
 					log.error("BATCH PROCESSING : item supplement name already exists");
-					errors.add("ERROR: In row "+currRow+" item supplement name already exists");
+					row.errors.add("ERROR: In row "+row.rowNum+" item supplement name already exists");
 					itemSupplement = is;
 					break;
 				}
@@ -343,7 +605,7 @@ public class BatchServiceImpl implements BatchService {
 	/*
 	 * Create a collection supplement if it does not already exists
 	 */
-	private CollectionSupplement getCollectionSupplement(Collection collection, BatchSupplementFile batchSupplementFile, String username, List<String>errors){
+	private CollectionSupplement getCollectionSupplement(Collection collection, BatchSupplementFile batchSupplementFile, String username, BatchRow row){
 		//check if the supplement exists
 		CollectionSupplement collectionSupplement = null;
 		if(collection.getSupplements() != null) {
@@ -351,7 +613,7 @@ public class BatchServiceImpl implements BatchService {
 			for(CollectionSupplement cs : collection.getSupplements()) {
 				if(cs.getName() != null && cs.getName().contentEquals(batchSupplementFile.getSupplementName())) {
 					log.error("BATCH PROCESSING : collection supplement name already exists");
-					errors.add("ERROR: In row "+ currRow +" collection supplement name already exists"); 
+					row.errors.add("ERROR: In row "+row.rowNum+" collection supplement name already exists"); 
 					collectionSupplement = cs;
 					break;
 				}
@@ -378,7 +640,7 @@ public class BatchServiceImpl implements BatchService {
 	/*
 	 * Create a primaryfile supplement
 	 */
-	private PrimaryfileSupplement createPrimaryfileSupplement(Primaryfile primaryfile, BatchSupplementFile batchSupplementFile, String username, List<String> errors){
+	private PrimaryfileSupplement createPrimaryfileSupplement(Primaryfile primaryfile, BatchSupplementFile batchSupplementFile, String username, BatchRow row){
 		//check if the supplement exists
 		PrimaryfileSupplement primaryfileSupplement = null;
 		if(primaryfile.getSupplements() != null) {
@@ -386,7 +648,7 @@ public class BatchServiceImpl implements BatchService {
 			for(PrimaryfileSupplement ps : primaryfile.getSupplements()) {
 				if(ps.getName() != null && ps.getName().contentEquals(batchSupplementFile.getSupplementFilename())) {
 					log.error("BATCH PROCESSING : primaryfile supplement name already exists");
-					errors.add("ERROR: In row "+currRow+" primaryfile supplement name already exists");
+					row.errors.add("ERROR: In row "+row.rowNum+" primaryfile supplement name already exists");
 					primaryfileSupplement = ps;
 					break;
 				}
@@ -412,7 +674,7 @@ public class BatchServiceImpl implements BatchService {
 	/*
 	 * Either create a primaryfile or get an existing one 
 	 */
-	private Primaryfile getPrimaryfile(Collection batchfileCollection, Item item, BatchFile batchFile, String username, List<String> errors) {
+	private Primaryfile getPrimaryfile(Collection batchfileCollection, Item item, BatchFile batchFile, String username, BatchRow row) {
 		Primaryfile primaryfile =null;
 		boolean found = false;
 		Set <Primaryfile> primaryfiles = item.getPrimaryfiles();
@@ -425,7 +687,7 @@ public class BatchServiceImpl implements BatchService {
 					// report duplicate error only if ingesting primaryfile, but not if only ingesting a supplement for it
 					if (!batchFile.getPrimaryfileFilename().isBlank()) {
 						log.error("BATCH PROCESSING : primaryfile name already exists");
-						errors.add("ERROR: In row "+currRow+" primaryfile name already exists");
+						row.errors.add("ERROR: In row "+row.rowNum+" primaryfile name already exists");
 					}		
 					found = true;
 					primaryfile = p;
@@ -439,7 +701,7 @@ public class BatchServiceImpl implements BatchService {
 			// if this is ingesting primaryfile supplment only, we need an existing primaryfile
 			if (batchFile.getSupplementType()==SupplementType.PRIMARYFILE && batchFile.getPrimaryfileFilename().isBlank()) {
 				log.error("BATCH PROCESSING : primaryfile does't exist for ingesting primaryfile supplment only");
-				errors.add("ERROR: In row "+currRow+" primaryfile does't exist for ingesting primaryfile supplment only");				
+				row.errors.add("ERROR: In row "+row.rowNum+" primaryfile does't exist for ingesting primaryfile supplment only");				
 			}
 			// otherwise create a new Primaryfile	
 			else {					
@@ -483,13 +745,17 @@ public class BatchServiceImpl implements BatchService {
 							log.info("BATCH PROCESSING : External Item id already exists");
 							if(itemRepository.findByCollectionIdAndName(collection.getId(), itemName).size() == 0){
 								itemRepository.updateName(itemName,i.getId());
+								i.setName(itemName);
+								searchIndexService.indexEntity(i);
 							} else if(itemRepository.findByCollectionIdAndName(collection.getId(), expectedName).size() == 0){
 								itemRepository.updateName(expectedName,i.getId());
+								i.setName(expectedName);
+								searchIndexService.indexEntity(i);
 							} else {
 								log.error("BATCH PROCESSING : Item with same names " + itemName +" and " + expectedName +" already existed");
 								return null;
 							}
-							//batchValidationResponse.addProcessingError("ERROR: In row "+currRow+" Item name already exists")
+							//batchValidationResponse.addProcessingError("ERROR: In row "+row.rowNum+" Item name already exists")
 
 						}
 					} else if(i.getName().contentEquals(itemName) && !externalSource.isBlank()) {
@@ -498,7 +764,7 @@ public class BatchServiceImpl implements BatchService {
 				}
 				else if(i.getName().contentEquals(itemName)) {
 					log.info("BATCH PROCESSING : Item name already exists"); 
-					//batchValidationResponse.addProcessingError("ERROR: In row "+currRow+" Item name already exists");
+					//batchValidationResponse.addProcessingError("ERROR: In row "+row.rowNum+" Item name already exists");
 					found = true;
 					item = i;
 				}
@@ -524,6 +790,7 @@ public class BatchServiceImpl implements BatchService {
 			item.setCollection(collection);
 			if(itemRepository.findByCollectionIdAndName(collection.getId(), newItemName).size() == 0){
 				itemRepository.save(item);
+				searchIndexService.indexEntity(item);
 			} else {
 				log.error("BATCH PROCESSING : Item with same name (" + newItemName +") already existed");
 				return null;
@@ -536,29 +803,85 @@ public class BatchServiceImpl implements BatchService {
 	}
 	
 	/*
-	 * Move the file using hard links
+	 * Move the file using hard links, and record the links in the given row so that they can be undone if the row fails
 	 */
-	private Path moveFile(String sourceDir, String targetDir, String sourceFilename, String targetFilename) throws IOException {		
+	private Path moveFile(String sourceDir, String targetDir, Asset asset, BatchRow row) throws IOException {		
 		// Check to see if the folder exists on the file system.  If not, create it.
 		if(!Files.exists(Paths.get(propertyConfig.getFileStorageRoot(), targetDir))){
 			Files.createDirectories(Paths.get(propertyConfig.getFileStorageRoot(), targetDir));
 		}
 		
 		// Create paths from /{root}/{unit}/{collection}/{filename}
-		Path existingFile = Paths.get(sourceDir, sourceFilename);	
-		Path newLink = Paths.get(propertyConfig.getFileStorageRoot(), targetFilename);	
+		Path existingFile = Paths.get(sourceDir, asset.getOriginalFilename());	
+		Path newLink = Paths.get(propertyConfig.getFileStorageRoot(), asset.getPathname());	
 		
 		String existingJson = preprocessService.getMediaInfoJsonPath(existingFile.toString());
 		String newJson = preprocessService.getMediaInfoJsonPath(newLink.toString());
 		
 		// Move/link the files
-		// Note: if the original file is .flac, the converted .wav file will be moved instead
-		fileStorageService.linkFile(existingFile, newLink);
+		// Note: if the original file is .flac, the converted .wav file will be moved instead;
+		// in content-addressed storage, the media file is moved into the blob with the same content, unless it already exists
+		if (contentStorageService.isEnabled()) {
+			asset.setContentDigest(contentStorageService.storeFile(existingFile, asset.getPathname()));
+			row.digests.add(asset.getContentDigest());
+		}
+		else {
+			fileStorageService.linkFile(existingFile, newLink);
+		}
+		row.links.add(new Path[] {existingFile, newLink});
 		fileStorageService.linkFile(Paths.get(existingJson), Paths.get(newJson));
+		row.links.add(new Path[] {Paths.get(existingJson), Paths.get(newJson)});
+		
+		// the moved files are gone from the dropbox
+		dropboxService.updateIndex(existingFile);
+		dropboxService.updateIndex(Paths.get(existingJson));
 		
 		return newLink;
 	}
 	
+	/*
+	 * Move the files moved for the given failed row back to the dropbox, in reverse order, so that the row can be processed again upon resume
+	 */
+	private void undoMoveFiles(BatchRow row) {
+		for (int i = row.links.size() - 1; i >= 0; i--) {
+			Path[] link = row.links.get(i);
+			try {
+				fileStorageService.linkFile(link[1], link[0]);
+				dropboxService.updateIndex(link[0]);
+			}
+			catch (Exception e) {
+				log.error("BATCH PROCESSING : Failed to move file " + link[1] + " back to " + link[0] + " for row " + row.rowNum, e);
+			}
+		}
+		row.links.clear();
+		
+		// the references to blobs were added in their own transactions, thus not rolled back along with the row
+		row.digests.forEach(digest -> contentStorageService.release(digest));
+		row.digests.clear();
+	}
+	
+	/*
+	 * Get the preprocessed media for the given dropbox file from the preprocess stage, waiting for it if not done yet, 
+	 * and apply it to the given asset, whose pathname must have been set to the dropbox file
+	 */
+	private void applyPreprocessedMedia(Asset asset, BatchRow row) throws Exception {
+		PreprocessedMedia media;
+		Future<PreprocessedMedia> future = row.media.get(asset.getPathname());
+		try {
+			// the file might not have been submitted for preprocess if it isn't named as expected in the manifest
+			media = future != null ? future.get() : preprocessService.preprocessMedia(asset.getPathname());
+		}
+		catch (ExecutionException e) {
+			throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw e;
+		}
+		row.preprocessTime += media.getPreprocessTime();
+		preprocessService.applyPreprocessedMedia(asset, media, true);
+	}
+	
 	/*
 	 * Methods for logging when a file was created
 	 */
@@ -589,7 +912,7 @@ public class BatchServiceImpl implements BatchService {
 	// TODO 
 	// The duplicate name checking logic in all the get*** methods in this class should be done with DB Repository.
 	// Note that the processBatch loop check error on each row, but continue on following rows, 
-	// which means a batch can be partially ingested.
+	// which means a batch can be partially ingested; failed rows can be processed again by resumeBatch.
 	
 	
 }
\ No newline at end of file
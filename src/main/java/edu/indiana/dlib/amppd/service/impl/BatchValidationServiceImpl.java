@@ -2,18 +2,19 @@ package edu.indiana.dlib.amppd.service.impl;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
-import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -21,14 +22,13 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
 import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
 
 import edu.indiana.dlib.amppd.model.AmpUser;
 import edu.indiana.dlib.amppd.model.Batch;
 import edu.indiana.dlib.amppd.model.BatchFile;
 import edu.indiana.dlib.amppd.model.BatchSupplementFile;
 import edu.indiana.dlib.amppd.model.Collection;
-import edu.indiana.dlib.amppd.model.Item;
-import edu.indiana.dlib.amppd.model.Primaryfile;
 import edu.indiana.dlib.amppd.model.Supplement;
 import edu.indiana.dlib.amppd.model.Supplement.SupplementType;
 import edu.indiana.dlib.amppd.model.Unit;
@@ -36,13 +36,18 @@ import edu.indiana.dlib.amppd.repository.BatchFileRepository;
 import edu.indiana.dlib.amppd.repository.BatchRepository;
 import edu.indiana.dlib.amppd.repository.BatchSupplementFileRepository;
 import edu.indiana.dlib.amppd.repository.CollectionRepository;
+import edu.indiana.dlib.amppd.repository.PrimaryfileRepository;
 import edu.indiana.dlib.amppd.repository.UnitRepository;
 import edu.indiana.dlib.amppd.service.BatchValidationService;
 import edu.indiana.dlib.amppd.service.DropboxService;
+import edu.indiana.dlib.amppd.util.DropboxIndex.FileInfo;
 import edu.indiana.dlib.amppd.web.BatchValidationResponse;
 
 /**
  * Implementation of BatchValidationService.
+ * The manifest is read row by row into batch files without keeping the raw CSV in memory; the unit, collections and existing primaryfile names referenced by the manifest are loaded upfront in a few queries,
+ * duplicates are checked against hash indexes of the manifest rows, and the drop box of each collection is listed once, 
+ * so that validation is linear in the number of rows.
  */ 
 @Service
 public class BatchValidationServiceImpl implements BatchValidationService {
@@ -52,6 +57,9 @@ public class BatchValidationServiceImpl implements BatchValidationService {
 	
 	@Autowired
     private CollectionRepository collectionRepository;
+
+	@Autowired
+    private PrimaryfileRepository primaryfileRepository;
 		
 	@Autowired
     private BatchRepository batchRepository;
@@ -65,31 +73,42 @@ public class BatchValidationServiceImpl implements BatchValidationService {
 	@Autowired
 	private DropboxService dropboxService;
 
+	/*
+	 * Lookup tables of the batch being validated, so that each row is validated without querying the DB or scanning other rows.
+	 */
+	private static class BatchIndex {
+		// collections referenced by the manifest, by name
+		Map<String, Collection> collections = new HashMap<String, Collection>();
+		// names of primaryfiles already existing in each collection
+		Map<Long, Set<String>> existingPrimaryfileNames = new HashMap<Long, Set<String>>();
+		// files in the drop box of each collection, null if the drop box doesn't exist
+		Map<Long, Map<String, FileInfo>> dropboxFiles = new HashMap<Long, Map<String, FileInfo>>();
+		// number of rows with each primaryfile name within an item identified by its external ID
+		Map<String, Integer> primaryfileExternalIdCounts = new HashMap<String, Integer>();
+		// number of rows with each primaryfile name within an item identified by its name, among all rows or only rows without external ID
+		Map<String, Integer> primaryfileItemNameCounts = new HashMap<String, Integer>();
+		Map<String, Integer> primaryfileItemNameNoExternalIdCounts = new HashMap<String, Integer>();
+		// number of supplements with each name among rows with supplement type
+		Map<String, Integer> supplementNameCounts = new HashMap<String, Integer>();
+	}
+	
 	@Transactional	
 	public BatchValidationResponse validateBatch(String unitName, AmpUser user, MultipartFile file) {
-		BatchValidationResponse response;
-		StringBuilder textBuilder = new StringBuilder();
-		try (InputStream inputStream = file.getInputStream()) {
-		    try (Reader reader = new BufferedReader(new InputStreamReader
-		      (inputStream, Charset.forName(StandardCharsets.UTF_8.name())))) {
-		        int c = 0;
-		        while ((c = reader.read()) != -1) {
-		            textBuilder.append((char) c);
-		        }
-		    }
-		   
-		} catch (IOException e) {
-			response = new BatchValidationResponse();
+		// parse the CSV directly from the uploaded stream
+		try (Reader reader = new BufferedReader(new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8))) {
+			return validate(unitName, file.getOriginalFilename(), user, reader);
+		} 
+		catch (IOException e) {
+			BatchValidationResponse response = new BatchValidationResponse();
 			response.addError("Unable to parse CSV file");
 			return response;
 		}
-		return validate(unitName, file.getOriginalFilename(), user, textBuilder.toString());
 	}
 	
 	/*
-	 * Create a batch object based on the parsed lines of the CSV
+	 * Create a batch object based on the CSV read row by row from the given reader
 	 */
-	private Batch createBatch(String unitName, String filename, AmpUser user, List<String[]> lines) {
+	private Batch createBatch(String unitName, String filename, AmpUser user, Reader csvReader, BatchIndex index) throws IOException, CsvValidationException {
 		Batch batch = new Batch();
 		batch.setManifestFilename(filename);
 		batch.setSubmitUser(user);
@@ -101,111 +120,144 @@ public class BatchValidationServiceImpl implements BatchValidationService {
 			batch.setUnit(units.get(0));
 		}
 		
-		// For each row in the CSV
-        for(int rowNum = 1; rowNum < lines.size(); rowNum++) {
-        	
-        	// Create a new Batch File
-        	BatchFile batchFile = new BatchFile();	
-        	batchFile.setBatch(batch);
-        	batchFile.setRowNum(rowNum);
-        	batch.addBatchFile(batchFile);
-        	
-        	String[] line = lines.get(rowNum);
-        	
-        	// If we don't have enough values in this line, try the next line
-        	if(line.length < 7) continue;
-        	
-        	// Get the collection
-        	List<Collection> collections = collectionRepository.findByName(line[0]);
-        	if(collections!=null && collections.size()>0) {
-        		batchFile.setCollection(collections.get(0));
-        	}
-        	//Get the collection name
-        	if(line[0] != null)
-        		batchFile.setCollectionName(line[0]);
-        	// Get the source and item        	
-        	batchFile.setExternalSource(line[1]);
-        	batchFile.setExternalId(line[2]);
-        	batchFile.setItemName(line[3]);
-        	batchFile.setItemDescription(line[4]);
-        	        	
-        	// Get the primaryfile info
-        	batchFile.setPrimaryfileFilename(line[5]);
-        	batchFile.setPrimaryfileName(line[6]);
-        	
-        	// Description is optional.  Verify the array is long enough before continuing
-        	if(line.length>=8) {
-        		batchFile.setPrimaryfileDescription(line[7]);
-        	}
-        	else {
-        		continue;
-        	}
-        	
-        	// Process supplements
-        	SupplementType supplementType = null;
-        	
-        	// If a supplement type is supplied, get the enum value for the textual value
-        	if(line.length>8) {
-        		supplementType = Supplement.getSupplementType(line[8]);
-        	}
-        	
-        	batchFile.setSupplementType(supplementType);
-        	
-        	// Iterate through the supplements.  There can be variable number of supplements
-        	if(line.length>9) {
-        		int supplementNum = 1;
-        		for(int c = 9; c < line.length; c++) {
-        			BatchSupplementFile supplement = new BatchSupplementFile();
-        			supplement.setBatchFile(batchFile);
-        			supplement.setSupplementNum(supplementNum);
-        			supplement.setSupplementFilename(line[c]);
-        			c++;
-        			if(c < line.length) {
-        				supplement.setSupplementName(line[c]);
-        			}
-        			c++;
-        			if(c < line.length) {
-        				supplement.setSupplementDescription(line[c]);
-        			}
-        			// If the values are blank, don't add them
-        			if(supplement.getSupplementName()!=null && supplement.getSupplementName().isBlank() && supplement.getSupplementFilename().isBlank()) continue;        	
-        			batchFile.addSupplement(supplement);
-                	supplementNum++;
-        		}
-        	}
-        }
+		// For each row in the CSV after the header, only the batch file created from it is kept, not the raw row
+		try (CSVReader reader = new CSVReader(csvReader)) {
+			if(reader.readNext() != null) {
+				String[] line;
+				for(int rowNum = 1; (line = reader.readNext()) != null; rowNum++) {
+					createBatchFile(batch, rowNum, line);
+				}
+			}
+		}
+		
+		// Get all collections referenced in the CSV within the unit at once
+		if (batch.getUnit() != null && batch.getBatchFiles() != null) {
+			List<String> collectionNames = batch.getBatchFiles().stream().map(BatchFile::getCollectionName).filter(Objects::nonNull).distinct().collect(Collectors.toList());
+			if (!collectionNames.isEmpty()) {
+				for (Collection collection : collectionRepository.findByUnitIdAndNameIn(batch.getUnit().getId(), collectionNames)) {
+					index.collections.put(collection.getName(), collection);
+				}
+			}
+			for (BatchFile batchFile : batch.getBatchFiles()) {
+				batchFile.setCollection(index.collections.get(batchFile.getCollectionName()));
+			}
+		}
+		
         return batch;
 	}
 	
+	/*
+	 * Create a batch file for the given row of the CSV and add it to the given batch
+	 */
+	private BatchFile createBatchFile(Batch batch, int rowNum, String[] line) {
+    	// Create a new Batch File
+    	BatchFile batchFile = new BatchFile();	
+    	batchFile.setBatch(batch);
+    	batchFile.setRowNum(rowNum);
+    	batch.addBatchFile(batchFile);
+    	
+    	// If we don't have enough values in this line, try the next line
+    	if(line.length < 7) return batchFile;
+    	
+    	//Get the collection name
+    	if(line[0] != null)
+    		batchFile.setCollectionName(line[0]);
+    	// Get the source and item        	
+    	batchFile.setExternalSource(line[1]);
+    	batchFile.setExternalId(line[2]);
+    	batchFile.setItemName(line[3]);
+    	batchFile.setItemDescription(line[4]);
+    	        	
+    	// Get the primaryfile info
+    	batchFile.setPrimaryfileFilename(line[5]);
+    	batchFile.setPrimaryfileName(line[6]);
+    	
+    	// Description is optional.  Verify the array is long enough before continuing
+    	if(line.length>=8) {
+    		batchFile.setPrimaryfileDescription(line[7]);
+    	}
+    	else {
+    		return batchFile;
+    	}
+    	
+    	// Process supplements
+    	SupplementType supplementType = null;
+    	
+    	// If a supplement type is supplied, get the enum value for the textual value
+    	if(line.length>8) {
+    		supplementType = Supplement.getSupplementType(line[8]);
+    	}
+    	
+    	batchFile.setSupplementType(supplementType);
+    	
+    	// Iterate through the supplements.  There can be variable number of supplements
+    	if(line.length>9) {
+    		int supplementNum = 1;
+    		for(int c = 9; c < line.length; c++) {
+    			BatchSupplementFile supplement = new BatchSupplementFile();
+    			supplement.setBatchFile(batchFile);
+    			supplement.setSupplementNum(supplementNum);
+    			supplement.setSupplementFilename(line[c]);
+    			c++;
+    			if(c < line.length) {
+    				supplement.setSupplementName(line[c]);
+    			}
+    			c++;
+    			if(c < line.length) {
+    				supplement.setSupplementDescription(line[c]);
+    			}
+    			// If the values are blank, don't add them
+    			if(supplement.getSupplementName()!=null && supplement.getSupplementName().isBlank() && supplement.getSupplementFilename().isBlank()) continue;        	
+    			batchFile.addSupplement(supplement);
+            	supplementNum++;
+    		}
+    	}
+    	return batchFile;
+	}
+	
 	/*
 	 * Validate the CSV
 	 */
 	public BatchValidationResponse validate(String unitName, String filename, AmpUser user, String fileContent) {
+		return validate(unitName, filename, user, new StringReader(fileContent));
+	}
+	
+	/*
+	 * Validate the CSV read from the given reader
+	 */
+	private BatchValidationResponse validate(String unitName, String filename, AmpUser user, Reader csvReader) {
 		BatchValidationResponse response = new BatchValidationResponse();
 		
-		// Turn the string into a list of string arrays representing rows
-		List<String[]> lines = parse(fileContent);
+		BatchIndex index = new BatchIndex();
+		Batch batch;
+		try {
+			batch = createBatch(unitName, filename, user, csvReader, index);
+		}
+		catch (IOException | CsvValidationException e) {
+			response.addError("Unable to parse CSV file");
+			return response;
+		}
 		
 		// If we have no rows, quit now
-		if(lines.size()<=1) {
+		if(batch.getBatchFiles()==null) {
 			response.addError("Invalid file. No rows supplied.");
 			return response;
 		}
-
-		Batch batch = createBatch(unitName, filename, user, lines);
 		
 		// Validate supplied unit name
-		List<String> unitErrors = validateUnit(batch.getUnit());
+		List<String> unitErrors = validateUnit(unitName, batch.getUnit());
     	response.addErrors(unitErrors);
 		
     	// If we have an invalid unit, no point on continuing with validation
 		if(unitErrors.size()>0) {
 			return response;
 		}
+		
+		indexBatch(batch, index);
 				
         for(BatchFile batchFile : batch.getBatchFiles()) {        	
     		// Validate supplied collection name
-    		List<String> collectionNameErrors = validateCollection(batch.getUnit(), batchFile.getCollection(), batchFile.getRowNum(), batchFile.getCollectionName());
+    		List<String> collectionNameErrors = validateCollection(batch.getUnit(), batchFile.getCollection(), batchFile.getRowNum(), batchFile.getCollectionName(), index);
         	response.addErrors(collectionNameErrors);
 
         	// If we have an invalid collection, no point on continuing with validation
@@ -223,22 +275,22 @@ public class BatchValidationServiceImpl implements BatchValidationService {
 			response.addErrors(externalSrcIdErrors);
         	
         	// validate primaryfile fields
-        	List<String> primaryfileErrors = validatePrimaryfile(batch.getUnit(), batchFile.getCollection(), batchFile.getPrimaryfileFilename(), batchFile.getPrimaryfileName(), batchFile.getSupplementType(), batchFile.getRowNum());
+        	List<String> primaryfileErrors = validatePrimaryfile(batch.getUnit(), batchFile.getCollection(), batchFile.getPrimaryfileFilename(), batchFile.getPrimaryfileName(), batchFile.getSupplementType(), batchFile.getRowNum(), index);
         	response.addErrors(primaryfileErrors);
         	
         	// Check for duplicate primaryfiles if ingesting primaryfile
         	SupplementType supplementType = batchFile.getSupplementType();
         	if(supplementType == null || (supplementType==SupplementType.PRIMARYFILE && !batchFile.getPrimaryfileFilename().isBlank())) {
-            	List<String> duplicatePrimaryfileErrors = validateUniquePrimaryfile(batch, batchFile);
+            	List<String> duplicatePrimaryfileErrors = validateUniquePrimaryfile(batchFile, index);
             	response.addErrors(duplicatePrimaryfileErrors);
         	}
         	
         	// For each supplement, validate the values and make sure there are no duplicates
     		for(BatchSupplementFile supplement : batchFile.getBatchSupplementFiles()) {
-    			List<String> supplementErrors = validateSupplement(batch.getUnit(), batchFile.getCollection(),  supplement.getSupplementFilename(), supplement.getSupplementName(), batchFile.getSupplementType(), batchFile.getRowNum());
+    			List<String> supplementErrors = validateSupplement(batch.getUnit(), batchFile.getCollection(),  supplement.getSupplementFilename(), supplement.getSupplementName(), batchFile.getSupplementType(), batchFile.getRowNum(), index);
     			response.addErrors(supplementErrors);
     			
-    			List<String> duplicateSupplementErrors = validateUniqueSupplement(batch, batchFile, supplement);
+    			List<String> duplicateSupplementErrors = validateUniqueSupplement(batchFile, supplement, index);
     			response.addErrors(duplicateSupplementErrors);
     		}
         }
@@ -247,10 +299,7 @@ public class BatchValidationServiceImpl implements BatchValidationService {
         if(!response.hasErrors()) {
         	batchRepository.save(batch);
         	batchFileRepository.saveAll(batch.getBatchFiles());
-        	
-        	for(BatchFile batchFile : batch.getBatchFiles()) {
-        		batchSupplementFileRepository.saveAll(batchFile.getBatchSupplementFiles());
-        	}
+        	batchSupplementFileRepository.saveAll(batch.getBatchFiles().stream().flatMap(batchFile -> batchFile.getBatchSupplementFiles().stream()).collect(Collectors.toList()));
         	
         	response.setBatch(batch);        	
         	response.setSuccess(true);
@@ -260,19 +309,43 @@ public class BatchValidationServiceImpl implements BatchValidationService {
 	}
 	
 	/*
-	 * Turn the string into a list of arrays representing lines
+	 * Populate the given index with existing primaryfile names of all collections referenced by the given batch, 
+	 * and the number of occurrences of primaryfile and supplement names among its rows.
 	 */
-	private List<String[]> parse(String csvString) {
-		List<String[]> lines = new ArrayList<String[]>();
-        CSVReader reader = null;
-        try {
-            reader = new CSVReader(new StringReader(csvString));
-            lines = reader.readAll();
-            reader.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return lines;
+	private void indexBatch(Batch batch, BatchIndex index) {
+		// Get names of existing primaryfiles in all referenced collections at once
+		List<Long> collectionIds = index.collections.values().stream().map(Collection::getId).collect(Collectors.toList());
+		if (!collectionIds.isEmpty()) {
+			primaryfileRepository.findNameCollectionsByCollectionIdIn(collectionIds).forEach(p -> 
+				index.existingPrimaryfileNames.computeIfAbsent(p.getCollectionId(), id -> new HashSet<String>()).add(p.getName()));
+		}
+		
+		for(BatchFile row : batch.getBatchFiles()) {
+			String name = row.getPrimaryfileName();
+			if (name != null) {
+				if (!row.getExternalId().isEmpty()) {
+					index.primaryfileExternalIdCounts.merge(primaryfileKey(name, row.getExternalId()), 1, Integer::sum);
+				}
+				else {
+					index.primaryfileItemNameNoExternalIdCounts.merge(primaryfileKey(name, row.getItemName()), 1, Integer::sum);
+				}
+				index.primaryfileItemNameCounts.merge(primaryfileKey(name, row.getItemName()), 1, Integer::sum);
+			}
+			
+			if(row.getSupplementType() == null) continue;
+			for(BatchSupplementFile supplement : row.getBatchSupplementFiles()) {
+				if (supplement.getSupplementName() != null) {
+					index.supplementNameCounts.merge(supplement.getSupplementName(), 1, Integer::sum);
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Key of the given primaryfile name within the item identified by the given external ID or item name.
+	 */
+	private String primaryfileKey(String primaryfileName, String itemKey) {
+		return primaryfileName + "\u0000" + itemKey;
 	}
 	
 	/*
@@ -296,7 +369,7 @@ public class BatchValidationServiceImpl implements BatchValidationService {
 	/*
 	 * Make sure primaryfiles are unique to this file
 	 */
-	private List<String> validateUniquePrimaryfile(Batch batch, BatchFile batchFile) {
+	private List<String> validateUniquePrimaryfile(BatchFile batchFile, BatchIndex index) {
 		List<String> errors = new ArrayList<String>();
 		
 		// check duplicate only if we are ingesting primaryfile
@@ -310,7 +383,17 @@ public class BatchValidationServiceImpl implements BatchValidationService {
 //    		errors.add(String.format("Row: %s: Duplicate primaryfile filename %s", batchFile.getRowNum(), batchFile.getPrimaryfileFilename()));
 //		}
 		
-		if(batch.isDuplicatePrimaryfileName(batchFile.getPrimaryfileName(), batchFile.getExternalId(), batchFile.getItemName(), batchFile.getRowNum())) {
+		// Primaryfile names need to be unique within an item
+		// Uniqueness of items is determined by source ID if provided, OR item name when source ID is not provided.
+		// So a row with source ID duplicates other rows with the same source ID, or without source ID but with the same item name;
+		// while a row without source ID duplicates any other row with the same item name.
+		String name = batchFile.getPrimaryfileName();
+		String itemNameKey = primaryfileKey(name, batchFile.getItemName());
+		boolean duplicate = batchFile.getExternalId().isEmpty() ?
+				index.primaryfileItemNameCounts.getOrDefault(itemNameKey, 0) > 1 :
+				index.primaryfileExternalIdCounts.getOrDefault(primaryfileKey(name, batchFile.getExternalId()), 0) > 1 || 
+				index.primaryfileItemNameNoExternalIdCounts.getOrDefault(itemNameKey, 0) > 0;
+		if(duplicate) {
     		errors.add(String.format("Row: %s: Duplicate primaryfile name %s", batchFile.getRowNum(), batchFile.getPrimaryfileName()));
 		}
 		
@@ -320,21 +403,16 @@ public class BatchValidationServiceImpl implements BatchValidationService {
 	/*
 	 * Make sure supplements are unique to this file
 	 */
-	private List<String> validateUniqueSupplement(Batch batch, BatchFile batchFile, BatchSupplementFile batchSupplementFile) {
+	private List<String> validateUniqueSupplement(BatchFile batchFile, BatchSupplementFile batchSupplementFile, BatchIndex index) {
 		List<String> errors = new ArrayList<String>();
-		for(BatchFile testRow : batch.getBatchFiles()) {
-			if(testRow.getSupplementType() == null) continue;
-			
-			// below rule should not be used, we should allow multiple supplements share same physical filename
-			// especially, these files may even come from different collection directories
-//			if(testRow.containsSupplementFilename(batchSupplementFile.getSupplementFilename(), batchFile.getRowNum(), batchSupplementFile.getSupplementNum())){
-//	    		errors.add(String.format("Row: %s: Duplicate supplement file %s", batchFile.getRowNum(), batchSupplementFile.getSupplementFilename()));
-//			}
-			
-			if(testRow.containsSupplementName(batchSupplementFile.getSupplementName(), batchFile.getRowNum(), batchSupplementFile.getSupplementNum())){
-	    		errors.add(String.format("Row: %s: Duplicate supplement name %s", batchFile.getRowNum(), batchSupplementFile.getSupplementName()));
-			}
-			if(errors.size()>0) break;
+		
+		// note: we allow multiple supplements share same physical filename, 
+		// especially, these files may even come from different collection directories;
+		// only supplements of rows with supplement type are counted, which includes the given one if its row has supplement type
+		int count = index.supplementNameCounts.getOrDefault(batchSupplementFile.getSupplementName(), 0);
+		if(batchFile.getSupplementType() != null) count--;
+		if(count > 0){
+    		errors.add(String.format("Row: %s: Duplicate supplement name %s", batchFile.getRowNum(), batchSupplementFile.getSupplementName()));
 		}
 		
     	return errors;
@@ -343,7 +421,7 @@ public class BatchValidationServiceImpl implements BatchValidationService {
 	/*
 	 * Validate the primaryfile values
 	 */
-	private List<String> validatePrimaryfile(Unit unit, Collection collection, String primaryfileFilename, String primaryfileName, SupplementType supplementType, int lineNum){
+	private List<String> validatePrimaryfile(Unit unit, Collection collection, String primaryfileFilename, String primaryfileName, SupplementType supplementType, int lineNum, BatchIndex index){
 		List<String> errors = new ArrayList<String>();
 
 		// If no supplement is supplied, i.e. this is for primaryfile, make sure primaryfile values are supplied
@@ -353,11 +431,11 @@ public class BatchValidationServiceImpl implements BatchValidationService {
 			}
 
 			// Check to see if file exists in database
-			boolean primaryfileExists = primaryfileExistsInCollection(collection, primaryfileName);
+			boolean primaryfileExists = primaryfileExistsInCollection(collection, primaryfileName, index);
 
 			// If not - new file - Make sure it exists on file system
 			if(!primaryfileExists) {
-				if(!primaryfileFilename.isBlank() && !fileExists(unit.getName(), collection.getName(), primaryfileFilename)) {
+				if(!primaryfileFilename.isBlank() && !fileExists(unit, collection, primaryfileFilename, index)) {
 					errors.add(String.format("Row: %s: Primaryfile %s does not exist in the dropbox", lineNum, primaryfileFilename));
 				}
 			}			
@@ -382,29 +460,15 @@ public class BatchValidationServiceImpl implements BatchValidationService {
 	/*
 	 * Check to see if this primaryfile exists in a collection already
 	 */
-	// TODO this search should be done with PrimaryfileRepository, more efficient than java code
-	private boolean primaryfileExistsInCollection(Collection collection, String name) {
-		if(collection.getItems() == null) {
-			return false;
-		}
-		
-		for(Item item : collection.getItems()) {
-			if(item.getPrimaryfiles()==null) {
-				continue;
-			}
-			for(Primaryfile primaryfile : item.getPrimaryfiles()) {
-				if(primaryfile.getName().equals(name)) {
-					return true;
-				}
-			}
-		}
-		return false;
+	private boolean primaryfileExistsInCollection(Collection collection, String name, BatchIndex index) {
+		Set<String> names = index.existingPrimaryfileNames.get(collection.getId());
+		return names != null && names.contains(name);
 	}
 	
 	/*
 	 * Validate the supplement
 	 */
-	private List<String> validateSupplement(Unit unit, Collection collection, String supplementFilename, String supplementName, SupplementType supplementType, int lineNum){
+	private List<String> validateSupplement(Unit unit, Collection collection, String supplementFilename, String supplementName, SupplementType supplementType, int lineNum, BatchIndex index){
 		List<String> errors = new ArrayList<String>();
 		if(supplementType==null && supplementFilename.isBlank() && supplementName.isBlank()) {
 			return errors;
@@ -425,17 +489,17 @@ public class BatchValidationServiceImpl implements BatchValidationService {
 				errors.add(String.format("Row: %s: Supplement filename not supplied for supplement type %s", lineNum, supplementType));
 			}
 			else if(supplementType==SupplementType.PRIMARYFILE) {
-				if(!fileExists(unit.getName(), collection.getName(), supplementFilename)) {
+				if(!fileExists(unit, collection, supplementFilename, index)) {
 		    		errors.add(String.format("Row: %s: Primaryfile Supplement file %s does not exist in the dropbox", lineNum, supplementFilename));
 				}				
 			}
 			else if(supplementType==SupplementType.ITEM){
-				if(!fileExists(unit.getName(), collection.getName(), supplementFilename)) {
+				if(!fileExists(unit, collection, supplementFilename, index)) {
 		    		errors.add(String.format("Row: %s: Item Supplement file %s does not exist in the dropbox", lineNum, supplementFilename));
 				}
 			}
 			else if(supplementType==SupplementType.COLLECTION){
-				if(!fileExists(unit.getName(), collection.getName(), supplementFilename)) {
+				if(!fileExists(unit, collection, supplementFilename, index)) {
 			    	errors.add(String.format("Row: %s: Collection Supplement file %s does not exist in the dropbox", lineNum, supplementFilename));
 				}
 			}
@@ -448,13 +512,12 @@ public class BatchValidationServiceImpl implements BatchValidationService {
 	/*
 	 * Validate the unit
 	 */
-	private List<String> validateUnit(Unit unit){
-		String unitName = unit!=null ? unit.getName() : "";
+	private List<String> validateUnit(String unitName, Unit unit){
 		List<String> errors = new ArrayList<String>();
 		if(unitName==null || unitName.isBlank()) {
     		errors.add("Missing unit name");
 		}
-		else if(!unitExists(unitName)) {
+		else if(unit == null) {
 			errors.add(String.format("Invalid unit name supplied %s", unitName));
 		}
 		return errors;
@@ -463,7 +526,7 @@ public class BatchValidationServiceImpl implements BatchValidationService {
 	/*
 	 * Validate the collection
 	 */
-	private List<String> validateCollection(Unit unit, Collection collection, int lineNum, String collectionNameFromManifest){
+	private List<String> validateCollection(Unit unit, Collection collection, int lineNum, String collectionNameFromManifest, BatchIndex index){
 		List<String> errors = new ArrayList<String>();
 		String collectionName = collection!=null ? collection.getName() : "";
 		if(collectionNameFromManifest == null || collectionNameFromManifest.isBlank()) {
@@ -472,10 +535,7 @@ public class BatchValidationServiceImpl implements BatchValidationService {
 		else if((collectionName==null || collectionName.isBlank()) ) {
 			errors.add(String.format("Row %s: Collection does not exist", lineNum));
  		}
-		else if(!collectionExists(collectionName)) {
-			errors.add(String.format("Row %s: Invalid collection name supplied %s", lineNum, collectionNameFromManifest));
-		}
-		else if(!dropBoxExists(unit.getName(), collectionName)) {
+		else if(listDropbox(unit, collection, index) == null) {
 			errors.add(String.format("Row %s: Invalid drop box %s", lineNum, collection.getName()));
 		}
 		else if(!collection.getActive()) {
@@ -485,39 +545,25 @@ public class BatchValidationServiceImpl implements BatchValidationService {
 	}
 
 	/*
-	 * Verify the drop box exists fot this collection
+	 * List the files in the drop box of this collection from the dropbox index, or null if the drop box doesn't exist; 
+	 * the listing is done once per collection and cached in the given index.
 	 */
-	private boolean dropBoxExists(String unit, String collection) {
-		Path path = getCollectionPath(unit, collection);
-		return Files.exists(path);
+	private Map<String, FileInfo> listDropbox(Unit unit, Collection collection, BatchIndex index) {
+		if (index.dropboxFiles.containsKey(collection.getId())) {
+			return index.dropboxFiles.get(collection.getId());
+		}
+		
+		Map<String, FileInfo> files = dropboxService.listFiles(unit.getName(), collection.getName());
+		index.dropboxFiles.put(collection.getId(), files);
+		return files;
 	}
+	
 	/*
 	 * Verify the file exists in the drop box
 	 */
-	private boolean fileExists(String unit, String collection, String filename) {
-		Path collectionPath = getCollectionPath(unit, collection);
-		Path path = Paths.get(collectionPath.toString(), filename);
-		return Files.exists(path);
-	}
-	/*
-	 * Get the collection path in the drop box
-	 */
-	private Path getCollectionPath(String unit, String collection) {
-		return dropboxService.getSubDirPath(unit, collection);
-	}
-	/*
-	 * Verify the unit exists in the database 
-	 */
-	private boolean unitExists(String unitName) {
-		List<Unit> units = unitRepository.findByName(unitName);
-		return units!=null && units.size()>0;
-	}
-	/*
-	 * Verify the collection exists in the database
-	 */
-	private boolean collectionExists(String collectionName) {
-		List<Collection> collections = collectionRepository.findByName(collectionName);
-		return collections!=null && collections.size()>0;
+	private boolean fileExists(Unit unit, Collection collection, String filename, BatchIndex index) {
+		// the drop box listing is cached per collection, while each file is confirmed on the file system by the dropbox service
+		return listDropbox(unit, collection, index) != null && dropboxService.fileExists(unit.getName(), collection.getName(), filename);
 	}
 
 	private List<String> validateExternalSrcAndId(String externalSrc, String externalId, int lineNum) {
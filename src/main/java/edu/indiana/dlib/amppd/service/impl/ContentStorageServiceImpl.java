@@ -0,0 +1,351 @@
+package edu.indiana.dlib.amppd.service.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FilenameUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import edu.indiana.dlib.amppd.config.AmppdPropertyConfig;
+import edu.indiana.dlib.amppd.exception.StorageException;
+import edu.indiana.dlib.amppd.model.CollectionSupplement;
+import edu.indiana.dlib.amppd.model.ItemSupplement;
+import edu.indiana.dlib.amppd.model.MediaBlob;
+import edu.indiana.dlib.amppd.model.Primaryfile;
+import edu.indiana.dlib.amppd.model.PrimaryfileSupplement;
+import edu.indiana.dlib.amppd.model.UnitSupplement;
+import edu.indiana.dlib.amppd.repository.MediaBlobRepository;
+import edu.indiana.dlib.amppd.service.ContentStorageService;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Implementation of ContentStorageService.
+ * Blob files are stored under the blobs directory of the storage root as blobs/<first 2 digits of digest>/<digest>.<extension>,
+ * the extension being that of the first file stored with the content, as MGMs might rely on it to detect the media format.
+ * Asset media files are hard links to the blob file, or symbolic links if hard links are not supported.
+ * Blob references are updated in their own transactions while holding a lock on the digest, so that concurrent stores of
+ * the same content don't create duplicate blobs; references are released only once the caller's transaction commits, so that
+ * a rolled back removal doesn't leave its asset linked to a deleted blob; references leaked by rolled back or failed operations
+ * are corrected by refreshReferenceCounts upon startup.
+ */
+@Service
+@Slf4j
+public class ContentStorageServiceImpl implements ContentStorageService {
+
+	public static final String BLOB_DIR = "blobs";
+	public static final String DIGEST_ALGORITHM = "SHA-256";
+
+	// number of locks to stripe digests over
+	public static final int LOCK_STRIPES = 64;
+
+	// all asset types which could reference blobs
+	private static final List<Class<?>> ASSET_TYPES = List.of(Primaryfile.class, UnitSupplement.class, CollectionSupplement.class, ItemSupplement.class, PrimaryfileSupplement.class);
+
+	@Autowired
+	private AmppdPropertyConfig amppdPropertyConfig;
+
+	@Autowired
+	private MediaBlobRepository mediaBlobRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	// transaction for updating blob references, independent of any transaction of the caller
+	private TransactionTemplate transactionTemplate;
+
+	private final Object[] locks = new Object[LOCK_STRIPES];
+	private Path root;
+
+	@PostConstruct
+	public void init() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			locks[i] = new Object();
+		}
+		root = Paths.get(amppdPropertyConfig.getFileStorageRoot());
+	}
+
+	/**
+	 * @see edu.indiana.dlib.amppd.service.ContentStorageService.isEnabled()
+	 */
+	@Override
+	public boolean isEnabled() {
+		return amppdPropertyConfig.isContentAddressedStorage();
+	}
+
+	/**
+	 * @see edu.indiana.dlib.amppd.service.ContentStorageService.store(InputStream, String)
+	 */
+	@Override
+	public String store(InputStream inputStream, String targetPathname) {
+		Path tmpPath = null;
+		try {
+			// write into a temporary file under the blob directory, so that it can be renamed into the blob once the digest is known
+			Path blobDir = root.resolve(BLOB_DIR);
+			Files.createDirectories(blobDir);
+			tmpPath = Files.createTempFile(blobDir, "upload", ".tmp");
+
+			MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+			long size;
+			try (InputStream din = new DigestInputStream(inputStream, md)) {
+				size = Files.copy(din, tmpPath, StandardCopyOption.REPLACE_EXISTING);
+			}
+
+			String digest = Hex.encodeHexString(md.digest());
+			storeBlob(tmpPath, digest, size, targetPathname);
+			return digest;
+		}
+		catch (IOException | NoSuchAlgorithmException e) {
+			throw new StorageException("Failed to store content to " + targetPathname, e);
+		}
+		finally {
+			deleteQuietly(tmpPath);
+		}
+	}
+
+	/**
+	 * @see edu.indiana.dlib.amppd.service.ContentStorageService.storeFile(Path, String)
+	 */
+	@Override
+	public String storeFile(Path sourcePath, String targetPathname) {
+		try {
+			MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+			byte[] buffer = new byte[64 * 1024];
+			try (InputStream din = new DigestInputStream(Files.newInputStream(sourcePath), md)) {
+				while (din.read(buffer) != -1);
+			}
+
+			String digest = Hex.encodeHexString(md.digest());
+			// the source file could be the target itself, in which case it's been replaced by the link to the blob
+			Path targetPath = root.resolve(targetPathname);
+			boolean inPlace = sourcePath.toAbsolutePath().normalize().equals(targetPath.toAbsolutePath().normalize());
+			storeBlob(sourcePath, digest, Files.size(sourcePath), targetPathname);
+			if (!inPlace) {
+				deleteQuietly(sourcePath);
+			}
+			return digest;
+		}
+		catch (IOException | NoSuchAlgorithmException e) {
+			throw new StorageException("Failed to store content from " + sourcePath + " to " + targetPathname, e);
+		}
+	}
+
+	/**
+	 * @see edu.indiana.dlib.amppd.service.ContentStorageService.release(String)
+	 */
+	@Override
+	public void release(String digest) {
+		if (digest == null) {
+			return;
+		}
+
+		// the caller's transaction could still roll back, leaving its asset referencing the blob, so only release upon commit
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					try {
+						releaseBlob(digest);
+					}
+					catch (Exception e) {
+						// the caller's changes are already committed; the leaked reference will be corrected by refreshReferenceCounts
+						log.error("Failed to release media blob " + digest + " after commit", e);
+					}
+				}
+			});
+		}
+		else {
+			releaseBlob(digest);
+		}
+	}
+
+	/*
+	 * Release one reference to the blob with the given digest in its own transaction, and delete the blob if it's no longer referenced.
+	 */
+	private void releaseBlob(String digest) {
+		synchronized (lockFor(digest)) {
+			MediaBlob blob = transactionTemplate.execute(status -> {
+				mediaBlobRepository.updateRefCount(digest, -1);
+				return mediaBlobRepository.findFirstByDigest(digest).orElse(null);
+			});
+			if (blob != null && blob.getRefCount() <= 0) {
+				deleteBlob(blob);
+			}
+		}
+	}
+
+	/**
+	 * @see edu.indiana.dlib.amppd.service.ContentStorageService.getBlob(String)
+	 */
+	@Override
+	public MediaBlob getBlob(String digest) {
+		return digest == null ? null : mediaBlobRepository.findFirstByDigest(digest).orElse(null);
+	}
+
+	/**
+	 * @see edu.indiana.dlib.amppd.service.ContentStorageService.setDatasetId(String, String)
+	 */
+	@Override
+	public void setDatasetId(String digest, String datasetId) {
+		transactionTemplate.executeWithoutResult(status -> mediaBlobRepository.updateDatasetId(digest, datasetId));
+	}
+
+	/**
+	 * @see edu.indiana.dlib.amppd.service.ContentStorageService.refreshReferenceCounts()
+	 */
+	@Override
+	public int refreshReferenceCounts() {
+		if (mediaBlobRepository.count() == 0) {
+			log.info("No media blob exists, no need to refresh reference counts.");
+			return 0;
+		}
+
+		// count references from each asset type
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (Class<?> type : ASSET_TYPES) {
+			List<Object[]> rows = entityManager.createQuery(
+					"select a.contentDigest, count(a) from " + type.getSimpleName() + " a where a.contentDigest is not null group by a.contentDigest", Object[].class)
+					.getResultList();
+			for (Object[] row : rows) {
+				counts.merge((String)row[0], ((Number)row[1]).intValue(), Integer::sum);
+			}
+		}
+
+		int updated = 0;
+		for (MediaBlob blob : mediaBlobRepository.findAll()) {
+			String digest = blob.getDigest();
+			int count = counts.getOrDefault(digest, 0);
+			if (blob.getRefCount() != null && blob.getRefCount() == count) {
+				continue;
+			}
+
+			synchronized (lockFor(digest)) {
+				if (count == 0) {
+					deleteBlob(blob);
+				}
+				else {
+					transactionTemplate.executeWithoutResult(status -> mediaBlobRepository.setRefCount(digest, count));
+				}
+			}
+			log.warn("Corrected reference count of media blob " + digest + ": " + blob.getRefCount() + " -> " + count);
+			updated++;
+		}
+
+		log.info("Refreshed reference counts of media blobs, " + updated + " blobs updated or deleted.");
+		return updated;
+	}
+
+	/*
+	 * Add a reference to the blob with the given digest, creating it from the given content file if it doesn't exist yet,
+	 * then link the given target pathname to the blob. The content file is moved into the blob if needed, otherwise left intact.
+	 */
+	private void storeBlob(Path contentPath, String digest, long size, String targetPathname) throws IOException {
+		Path blobPath;
+
+		synchronized (lockFor(digest)) {
+			MediaBlob blob = mediaBlobRepository.findFirstByDigest(digest).orElse(null);
+			if (blob == null) {
+				blob = new MediaBlob();
+				blob.setDigest(digest);
+				blob.setPathname(getBlobPathname(digest, targetPathname));
+				blob.setSize(size);
+				blob.setRefCount(1);
+				blob.setCreatedDate(new Date());
+			}
+
+			// the blob file could be missing if the blob was created in a rolled back operation
+			blobPath = root.resolve(blob.getPathname());
+			if (!Files.exists(blobPath)) {
+				Files.createDirectories(blobPath.getParent());
+				Files.move(contentPath, blobPath, StandardCopyOption.REPLACE_EXISTING);
+				log.info("Stored new media blob " + digest + " with " + size + " bytes");
+			}
+			else {
+				log.info("Reused existing media blob " + digest + " with " + size + " bytes");
+			}
+
+			MediaBlob saved = blob;
+			transactionTemplate.executeWithoutResult(status -> {
+				if (saved.getId() == null) {
+					mediaBlobRepository.save(saved);
+				}
+				else {
+					// increment in DB rather than on the entity, which could be stale or managed by the caller's transaction
+					mediaBlobRepository.updateRefCount(digest, 1);
+				}
+			});
+		}
+
+		// replace the target with a link to the blob; note that the target mustn't be written in place, as that would modify the blob
+		Path targetPath = root.resolve(targetPathname);
+		Files.createDirectories(targetPath.getParent());
+		Files.deleteIfExists(targetPath);
+		try {
+			Files.createLink(targetPath, blobPath);
+		}
+		catch (IOException | UnsupportedOperationException e) {
+			log.warn("Failed to create hard link from " + targetPathname + " to media blob " + digest + ", creating symbolic link instead: " + e);
+			Files.createSymbolicLink(targetPath, blobPath.toAbsolutePath());
+		}
+	}
+
+	/*
+	 * Delete the given blob along with its file; must be called while holding the lock on its digest.
+	 */
+	private void deleteBlob(MediaBlob blob) {
+		transactionTemplate.executeWithoutResult(status -> mediaBlobRepository.deleteById(blob.getId()));
+		deleteQuietly(root.resolve(blob.getPathname()));
+		log.info("Deleted media blob " + blob.getDigest() + " no longer referenced");
+	}
+
+	/*
+	 * Get the blob pathname for the given digest, with the extension of the given target pathname.
+	 */
+	private String getBlobPathname(String digest, String targetPathname) {
+		String extension = FilenameUtils.getExtension(targetPathname);
+		String filename = extension.isEmpty() ? digest : digest + "." + extension;
+		return Paths.get(BLOB_DIR, digest.substring(0, 2), filename).toString();
+	}
+
+	private Object lockFor(String digest) {
+		return locks[(digest.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+	}
+
+	private void deleteQuietly(Path path) {
+		try {
+			if (path != null) {
+				Files.deleteIfExists(path);
+			}
+		}
+		catch (IOException e) {
+			log.warn("Failed to delete " + path + ": " + e);
+		}
+	}
+
+}
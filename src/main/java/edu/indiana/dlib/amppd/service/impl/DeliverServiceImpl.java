@@ -2,9 +2,22 @@ package edu.indiana.dlib.amppd.service.impl;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
@@ -12,16 +25,20 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 import edu.indiana.dlib.amppd.config.AvalonPropertyConfig;
 import edu.indiana.dlib.amppd.exception.StorageException;
+import edu.indiana.dlib.amppd.model.AvalonDelivery;
 import edu.indiana.dlib.amppd.model.BagContent;
 import edu.indiana.dlib.amppd.model.Collection;
-import edu.indiana.dlib.amppd.model.Item;
+import edu.indiana.dlib.amppd.model.CollectionBag;
 import edu.indiana.dlib.amppd.model.ItemBag;
 import edu.indiana.dlib.amppd.model.PrimaryfileBag;
+import edu.indiana.dlib.amppd.repository.AvalonDeliveryRepository;
 import edu.indiana.dlib.amppd.repository.CollectionRepository;
 import edu.indiana.dlib.amppd.service.BagService;
 import edu.indiana.dlib.amppd.service.DeliverService;
@@ -29,6 +46,8 @@ import edu.indiana.dlib.amppd.service.MediaService;
 import edu.indiana.dlib.amppd.web.AvalonMediaObject;
 import edu.indiana.dlib.amppd.web.AvalonRelatedItems;
 import edu.indiana.dlib.amppd.web.AvalonRelatedItems.AvalonRelatedItemsFields;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.micrometer.core.instrument.util.StringUtils;
 import lombok.extern.slf4j.Slf4j;
 
@@ -49,23 +68,123 @@ public class DeliverServiceImpl implements DeliverService {
 	// Avalon API key header
 	public static final String AVALON_API_KEY = "Avalon-Api-Key"; 
 	
+	// metric for latency and outcome of item deliveries to Avalon
+	public static final String METRIC_NAME = "avalon.deliveries";
+	
 	@Autowired
 	private AvalonPropertyConfig avalonPropertyConfig;
 	
 	@Autowired
 	private CollectionRepository collectionRepository;
 	
+	@Autowired
+	private AvalonDeliveryRepository avalonDeliveryRepository;
+	
 	@Autowired
 	private BagService bagService;
 
 	@Autowired
 	private MediaService mediaService;
 	
+	@Autowired
+	private MeterRegistry meterRegistry;
+	
+	// pooled RestTemplate shared by all requests to Avalon
+	@Autowired
+	@Qualifier("avalonRestTemplate")
+	private RestTemplate restTemplate;
+	
 	/**
 	 * @see edu.indiana.dlib.amppd.service.DeliverService.deliverAvalonItem(Long, String)
 	 */
 	public AvalonRelatedItems deliverAvalonItem(Long itemId, String collectionExternalId) {
 		ItemBag itemBag = bagService.getItemBag(itemId);		
+		AvalonDelivery delivery = avalonDeliveryRepository.findByItemId(itemId).orElseGet(() -> newAvalonDelivery(itemId));
+		return deliverAvalonItemBag(itemBag, collectionExternalId, delivery, true);
+	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.DeliverService.deliverAvalonCollection(Long, Boolean)
+	 */
+	public List<AvalonRelatedItems> deliverAvalonCollection(Long collectionId, Boolean force) {
+		Collection collection = collectionRepository.findById(collectionId).orElseThrow(() -> new StorageException("collection <" + collectionId + "> does not exist!"));    
+		boolean all = force != null && force;
+
+		// verify that the collection has a valid externalId for Avalon
+		String collectionExternalId = collection.getExternalId();    
+		if (!DeliverServiceImpl.AVALON.equalsIgnoreCase(collection.getExternalSource()) || StringUtils.isEmpty(collectionExternalId)) {
+			throw new RuntimeException("Collection " + collection.getId() + " has invalid external source or ID for Avalon");
+		}
+		
+		// assemble bags for all items and retrieve their last delivery states at once
+		List<ItemBag> itemBags = bagService.getCollectionBag(collectionId).getItemBags();
+		List<Long> itemIds = itemBags.stream().map(ItemBag::getItemId).collect(Collectors.toList());
+		Map<Long, AvalonDelivery> deliveries = avalonDeliveryRepository.findByItemIdIn(itemIds).stream()
+				.collect(Collectors.toMap(AvalonDelivery::getItemId, Function.identity()));
+
+		// deliver items concurrently, so that one slow Avalon response doesn't stall the whole collection;
+		// concurrency is bounded by the number of threads, which is also the size of the connection pool
+		long start = System.currentTimeMillis();
+		int nthreads = Math.max(1, Math.min(avalonPropertyConfig.getDeliveryThreads(), itemBags.size()));
+		ExecutorService executor = Executors.newFixedThreadPool(nthreads);
+		List<Future<AvalonRelatedItems>> futures = new ArrayList<Future<AvalonRelatedItems>>();
+		for (ItemBag itemBag : itemBags) {
+			AvalonDelivery delivery = deliveries.computeIfAbsent(itemBag.getItemId(), itemId -> newAvalonDelivery(itemId));
+			futures.add(executor.submit(() -> deliverAvalonItemBag(itemBag, collectionExternalId, delivery, all)));
+		}
+		executor.shutdown();
+		
+		List<AvalonRelatedItems> ariss = new ArrayList<AvalonRelatedItems>();
+		int failed = 0;
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				AvalonRelatedItems aris = futures.get(i).get();
+				if (aris != null) {
+					ariss.add(aris);
+				}
+				else if (deliveries.get(itemBags.get(i).getItemId()).getStatus() == AvalonDelivery.Status.FAILED) {
+					// skipped items must have been delivered before, so a failed state means it failed in this run
+					failed++;
+				}
+			}
+			catch (InterruptedException e) {
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while delivering collection " + collectionId + " to Avalon", e);
+			}
+			catch (ExecutionException e) {
+				failed++;
+				log.error("Failed to deliver final results for item " + itemBags.get(i).getItemId() + " to Avalon", e.getCause());
+			}
+		}
+		
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		int skipped = itemBags.size() - ariss.size() - failed;
+		log.info("Successfully delivered final results for " + ariss.size() + " items in collection " + collectionId + " to Avalon collection " + collectionExternalId
+				+ ", skipped " + skipped + " unchanged items, in " + elapsed + " ms (" + String.format("%.2f", ariss.size() * 1000.0 / elapsed) + " items/s)");
+		if (failed > 0) {
+			log.error("Failed to deliver final results for " + failed + " items in collection " + collectionId + " to Avalon collection " + collectionExternalId);
+		}
+		return ariss;
+	}
+	
+	/**
+	 * Create a new AvalonDelivery for the given item which hasn't been delivered before.
+	 */
+	private AvalonDelivery newAvalonDelivery(Long itemId) {
+		AvalonDelivery delivery = new AvalonDelivery();
+		delivery.setItemId(itemId);
+		return delivery;
+	}
+	
+	/**
+	 * Deliver final results in the given ItemBag to Avalon, providing the given externalID of the collection containing the item,
+	 * and record the delivery state into the given AvalonDelivery.
+	 * Unless forced, skip the item if it has been delivered with the same related items to the same media object.
+	 * @return the AvalonRelatedItems delivered, or null if skipped or failed to deliver
+	 */
+	private AvalonRelatedItems deliverAvalonItemBag(ItemBag itemBag, String collectionExternalId, AvalonDelivery delivery, boolean force) {
+		Long itemId = itemBag.getItemId();
 		List<String> urls = new ArrayList<String>();		
 		List<String> labels = new ArrayList<String>();	
 		AvalonRelatedItems aris = new AvalonRelatedItems(collectionExternalId, new AvalonRelatedItemsFields(urls, labels));	
@@ -87,55 +206,94 @@ public class DeliverServiceImpl implements DeliverService {
 //				labels.add("AMP " + bc.getOutputType().toUpperCase() + " - " + pb.getPrimaryfileName() + " - " + bc.getDateCreated());
 			}
 		}
+		
+		// skip the item if its related items haven't changed since last successful delivery to the same media object
+		String contentHash = DigestUtils.sha256Hex(collectionExternalId + "\n" + String.join("\n", urls) + "\n" + String.join("\n", labels));
+		if (!force && delivery.getStatus() == AvalonDelivery.Status.DELIVERED 
+				&& contentHash.equals(delivery.getContentHash()) && Objects.equals(itemBag.getExternalId(), delivery.getExternalId())) {
+			log.info("Skipped delivering unchanged final results for item " + itemId + " to Avalon media object " + itemBag.getExternalId());
+			meterRegistry.counter(METRIC_NAME + ".skipped").increment();
+			return null;
+		}
 				
 		// call Avalon API to link related items to the corresponding media object
-		AvalonMediaObject amo = putAvalonRelatedItems(itemBag.getExternalId(), aris);
+		long start = System.nanoTime();
+		int[] attempts = {0};
+		String error = null;
+		AvalonMediaObject amo = null;
+		try {
+			amo = putAvalonRelatedItems(itemBag.getExternalId(), aris, attempts);
+		}
+		catch (RestClientException e) {
+			error = e.getMessage();
+		}
+		catch (RuntimeException e) {
+			// any other error, such as failure to convert the request or response, still fails the delivery rather than leaving it unrecorded
+			log.error("Exception while delivering final results for item " + itemId + " to Avalon media object " + itemBag.getExternalId(), e);
+			error = e.toString();
+		}
+		long elapsed = System.nanoTime() - start;
+		
+		// record the delivery state 
+		delivery.setExternalId(itemBag.getExternalId());
+		delivery.setContentHash(contentHash);
+		delivery.setAttempts(attempts[0]);
+		delivery.setDateDelivered(new Date());
+		delivery.setStatus(amo != null ? AvalonDelivery.Status.DELIVERED : AvalonDelivery.Status.FAILED);
+		delivery.setError(amo != null ? null : error != null ? error : "Invalid response from Avalon");
+		saveAvalonDelivery(delivery);
+		Timer.builder(METRIC_NAME)
+			.description("Latency of deliveries of item final results to Avalon, including retries")
+			.tag("outcome", delivery.getStatus().toString())
+			.register(meterRegistry)
+			.record(elapsed, TimeUnit.NANOSECONDS);
+		
 		if (amo != null) {
 			log.info("Successfully delivered " + labels.size() + " final results for item " + itemId + " to Avalon media object " + amo.getId());
 			return aris;
 		}
 		else {
-			log.error("Failed to deliver " + labels.size() + " final results for item " + itemId + " to Avalon media object " + itemBag.getExternalId());			
+			log.error("Failed to deliver " + labels.size() + " final results for item " + itemId + " to Avalon media object " + itemBag.getExternalId() + ": " + delivery.getError());			
 			return null;
 		}
-		
 	}
-	
+
 	/**
-	 * @see edu.indiana.dlib.amppd.service.DeliverService.deliverAvalonCollection(Long)
+	 * Save the given AvalonDelivery; if it's new but another delivery of the same item has concurrently created the row,
+	 * update that row instead, as there can only be one delivery state per item.
 	 */
-	public List<AvalonRelatedItems> deliverAvalonCollection(Long collectionId) {
-		List<AvalonRelatedItems> ariss = new ArrayList<AvalonRelatedItems>();
-		Collection collection = collectionRepository.findById(collectionId).orElseThrow(() -> new StorageException("collection <" + collectionId + "> does not exist!"));    
-
-		// verify that the collection has a valid externalId for Avalon
-		String collectionExternalId = collection.getExternalId();    
-		if (!DeliverServiceImpl.AVALON.equalsIgnoreCase(collection.getExternalSource()) || StringUtils.isEmpty(collectionExternalId)) {
-			throw new RuntimeException("Collection " + collection.getId() + " has invalid external source or ID for Avalon");
+	private void saveAvalonDelivery(AvalonDelivery delivery) {
+		try {
+			avalonDeliveryRepository.save(delivery);
 		}
-
-		// deliver final results for each item in the collection to Avalon
-		for (Item item : collection.getItems()) {
-			AvalonRelatedItems aris = deliverAvalonItem(item.getId(), collectionExternalId);
-			if (aris != null) {
-				ariss.add(aris);
-			}
+		catch (DataIntegrityViolationException e) {
+			AvalonDelivery existing = avalonDeliveryRepository.findByItemId(delivery.getItemId()).orElseThrow(() -> e);
+			log.warn("AvalonDelivery for item " + delivery.getItemId() + " has been created concurrently, updating it instead");
+			delivery.setId(existing.getId());
+			avalonDeliveryRepository.save(delivery);
 		}
-		
-		log.info("Successfully delivered final results for " + ariss.size() + " items in collection " + collectionId + " to Avalon collection " + collectionExternalId);
-		int failed = collection.getItems().size() - ariss.size();
-		if (failed > 0) {
-			log.error("Failed to deliver final results for " + failed + " items in collection " + collectionId + " to Avalon collection " + collectionExternalId);
-		}
-		return ariss;
 	}
 
 	/**
 	 * @see edu.indiana.dlib.amppd.service.DeliverService.putAvalonRelatedItems(String, AvalonRelatedItems)
 	 */
 	public AvalonMediaObject putAvalonRelatedItems(String externalId, AvalonRelatedItems aris) {		
-		RestTemplate restTemplate = new RestTemplate();
-		
+		try {
+			return putAvalonRelatedItems(externalId, aris, new int[1]);
+		}
+		catch(RestClientException e) {
+			log.error("Exception while putting Avalon related items into media object " + externalId, e);
+			return null;
+		}		
+	}
+	
+	/**
+	 * Put the AvalonRelatedItems to the Avalon media object with the given externalId, retrying with exponential backoff
+	 * upon 5xx response or IO error including timeout; the number of attempts made is recorded into the given array.
+	 * @return the updated AvalonMediaObject, or null if Avalon responded with invalid media object
+	 * @throws RestClientException if the request failed after all retries, or failed with a non-retriable error 
+	 */
+	private AvalonMediaObject putAvalonRelatedItems(String externalId, AvalonRelatedItems aris, int[] attempts) {		
 		// get API url
 		String url = getAvalonMediaObjectUrl(externalId);
 		
@@ -148,9 +306,23 @@ public class DeliverServiceImpl implements DeliverService {
 		// set up request with body and headers
 		HttpEntity<AvalonRelatedItems> request = new HttpEntity<AvalonRelatedItems>(aris, headers);
 		
-		// send put request to update related items of the media object
-		try {
-			ResponseEntity<AvalonMediaObject> response = restTemplate.exchange(url, HttpMethod.PUT, request, AvalonMediaObject.class);
+		// send put request to update related items of the media object;
+		// updating related items is idempotent, so it's safe to retry
+		for (int attempt = 0; ; attempt++) {
+			attempts[0] = attempt + 1;
+			ResponseEntity<AvalonMediaObject> response;
+			try {
+				response = restTemplate.exchange(url, HttpMethod.PUT, request, AvalonMediaObject.class);
+			}
+			catch (HttpServerErrorException | ResourceAccessException e) {
+				if (attempt >= avalonPropertyConfig.getMaxRetries()) {
+					throw e;
+				}
+				log.warn("Retrying putting Avalon related items into media object " + externalId + " after error: " + e.getMessage());
+				backoff(attempt);
+				continue;
+			}
+			
 			HttpStatus status = response.getStatusCode();
 			AvalonMediaObject amo = response.getBody();
 			if (status.is2xxSuccessful() && amo != null && StringUtils.isNotEmpty(amo.getId())) {
@@ -164,10 +336,19 @@ public class DeliverServiceImpl implements DeliverService {
 				return null;				
 			}
 		}
-		catch(RestClientException e) {
-			log.error("Exception while putting Avalon related items into media object " + externalId, e);
-			return null;
-		}		
+	}
+	
+	/**
+	 * Sleep for the backoff before the retry following the given attempt, doubling on each attempt.
+	 */
+	private void backoff(int attempt) {
+		try {
+			Thread.sleep(avalonPropertyConfig.getRetryBackoff() << attempt);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ResourceAccessException("Interrupted while waiting to retry Avalon request");
+		}
 	}
 	
 	/**
@@ -1,13 +1,18 @@
 package edu.indiana.dlib.amppd.service.impl;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.util.FileSystemUtils;
@@ -20,6 +25,8 @@ import edu.indiana.dlib.amppd.repository.CollectionRepository;
 import edu.indiana.dlib.amppd.repository.UnitRepository;
 import edu.indiana.dlib.amppd.service.DataentityService;
 import edu.indiana.dlib.amppd.service.DropboxService;
+import edu.indiana.dlib.amppd.util.DropboxIndex;
+import edu.indiana.dlib.amppd.util.DropboxIndex.FileInfo;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -28,6 +35,8 @@ import lombok.extern.slf4j.Slf4j;
  * The sub-directories are organized in the same hierarchy as the asset contents, i.e. one directory per unit, 
  * under which one directory per collection. The names of the directories are encoded based on the unit/collection
  * name, respectively, with special characters replaced to avoid conflicts with OS directory naming rules.
+ * The files in the dropbox are kept in an in-memory index, so that batch validation and ingest don't need to scan the sub-directories;
+ * individual files reported as existing are still confirmed on the file system, as the index may lag behind changes made elsewhere.
  * @author yingfeng dfische3
  */
 @Service
@@ -46,6 +55,22 @@ public class DropboxServiceImpl implements DropboxService {
 	@Autowired
 	private AmppdPropertyConfig config; 	
 
+	// in-memory index of the files in the dropbox
+	private DropboxIndex dropboxIndex;
+	
+	@PostConstruct
+	public void init() {
+		dropboxIndex = new DropboxIndex(Paths.get(config.getDropboxRoot()), config.isDropboxIndexWatch(), config.getDropboxIndexRescanMinutes() * 60L);
+	}
+	
+	/**
+	 * Stop maintaining the dropbox index upon destruction of the bean.
+	 */
+	@PreDestroy
+	public void destroy() throws IOException {
+		dropboxIndex.close();
+	}
+
 	/**
 	 * @see edu.indiana.dlib.amppd.service.DropboxService.encodeUri(String)
 	 */
@@ -173,6 +198,7 @@ public class DropboxServiceImpl implements DropboxService {
 			// if previous subdir doesn't exist for collection, create the new one with warning	
 			if (!Files.exists(oldPath) && forCollection) {
 				Files.createDirectories(path); 
+				dropboxIndex.update(path);
 				log.warn("Dropbox sub-directory " + oldPath + " doesn't exit, created the new one " + path + " for " + entity + id);
 				return path;
 			}
@@ -192,6 +218,8 @@ public class DropboxServiceImpl implements DropboxService {
 				Files.createDirectories(path.getParent());
 			}				
 			Files.move(oldPath,  path, StandardCopyOption.REPLACE_EXISTING);  	
+			dropboxIndex.update(oldPath);
+			dropboxIndex.update(path);
 			
 			log.info("Successfully moved dropbox sub-directory " + oldPath + " to " + path + " for " + entity + id);
 			return path;
@@ -210,6 +238,7 @@ public class DropboxServiceImpl implements DropboxService {
 		
 		try {
 			FileSystemUtils.deleteRecursively(path);
+			dropboxIndex.update(path);
 			log.info("Dropbox sub-directory " + path + " has been deleted for unit " + unit.getId());
 			return path;
 		}
@@ -227,6 +256,7 @@ public class DropboxServiceImpl implements DropboxService {
 		
 		try {
 			FileSystemUtils.deleteRecursively(path);
+			dropboxIndex.update(path);
 			log.info("Dropbox sub-directory " + path + " has been deleted for collection " + collection.getId());
 			return path;
 		}
@@ -245,6 +275,7 @@ public class DropboxServiceImpl implements DropboxService {
 		try {
 			// directory is only created if not pre-existing
 			Files.createDirectories(path); 
+			dropboxIndex.update(path);
 			log.info("Dropbox sub-directory " + path + " for collection " + collection.getName() + " has been created." );
 			return path;
 		}
@@ -266,9 +297,54 @@ public class DropboxServiceImpl implements DropboxService {
 		// meanwhile, admin can fix whatever causing the exception and rerun this process, 
 		// in which case the creation will continue where it's stopped before
 		
+		// sub-directories already in the dropbox index exist, no need to touch the file system for them
 		for (Collection collection : collections) {
-			createSubdir(collection);
+			if (dropboxIndex.getFiles(encodeUri(collection.getUnit().getName()), encodeUri(collection.getName())) == null) {
+				createSubdir(collection);
+			}
+		}
+	}
+
+	/**
+	 * @see edu.indiana.dlib.amppd.service.DropboxService.listFiles(String, String)
+	 */
+	@Override
+	public Map<String, FileInfo> listFiles(String unitName, String collectionName) {
+		String unitDir = encodeUri(unitName);
+		String collectionDir = encodeUri(collectionName);
+		Map<String, FileInfo> files = dropboxIndex.getFiles(unitDir, collectionDir);
+		
+		// the sub-directory might have been created after the last refresh of the index, e.g. on another NFS client
+		return files != null ? files : dropboxIndex.refresh(unitDir, collectionDir);
+	}
+
+	/**
+	 * @see edu.indiana.dlib.amppd.service.DropboxService.fileExists(String, String, String)
+	 */
+	@Override
+	public boolean fileExists(String unitName, String collectionName, String filename) {
+		Map<String, FileInfo> files = listFiles(unitName, collectionName);
+		if (files == null) {
+			return false;
 		}
+		
+		// the index might be stale, e.g. the file was dropped or removed on another NFS client since the last refresh,
+		// so the file system has the final say; the cost is a single stat per file, and the index is fixed if it disagrees
+		boolean indexed = files.containsKey(filename.replace(File.separatorChar, '/'));
+		Path path = getSubDirPath(unitName, collectionName).resolve(filename);
+		boolean exists = Files.exists(path);
+		if (exists != indexed) {
+			dropboxIndex.update(path);
+		}
+		return exists;
+	}
+
+	/**
+	 * @see edu.indiana.dlib.amppd.service.DropboxService.updateIndex(Path)
+	 */
+	@Override
+	public void updateIndex(Path path) {
+		dropboxIndex.update(path);
 	}
 
 	// TODO add cleanupCollectionSubdirs() do remove all unused subdirs due to inconsistent manual operations
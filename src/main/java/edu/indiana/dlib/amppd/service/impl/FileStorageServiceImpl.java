@@ -35,6 +35,7 @@ import edu.indiana.dlib.amppd.model.Supplement.SupplementType;
 import edu.indiana.dlib.amppd.model.Unit;
 import edu.indiana.dlib.amppd.model.UnitSupplement;
 import edu.indiana.dlib.amppd.repository.WorkflowResultRepository;
+import edu.indiana.dlib.amppd.service.ContentStorageService;
 import edu.indiana.dlib.amppd.service.DataentityService;
 import edu.indiana.dlib.amppd.service.FileStorageService;
 import edu.indiana.dlib.amppd.service.MediaService;
@@ -65,6 +66,9 @@ public class FileStorageServiceImpl implements FileStorageService {
 	@Autowired
 	private DataentityService dataentityService;
 	
+	@Autowired
+	private ContentStorageService contentStorageService;
+	
 	private AmppdPropertyConfig config; 	
 	private Path root;
 
@@ -194,7 +198,19 @@ public class FileStorageServiceImpl implements FileStorageService {
     	asset.setOriginalFilename(StringUtils.cleanPath(file.getOriginalFilename()));	
     	String targetPathname = getFilePathname(asset);    	    	
     	asset.setPathname(targetPathname);
-    	store(file, targetPathname);  
+    	if (contentStorageService.isEnabled() && "flac".equalsIgnoreCase(FilenameUtils.getExtension(targetPathname))) {
+    		// a flac file is converted into a wav file, which then serves as the asset media, so it's the wav file 
+    		// to be stored into content-addressed storage, as in batch ingest; the flac file is kept as a regular file
+    		store(file, targetPathname);
+    		preprocessService.convertFlac(asset);
+    		storeContent(asset, resolve(asset.getPathname()));
+    	}
+    	else if (contentStorageService.isEnabled()) {
+    		storeContent(asset, file, targetPathname);
+    	}
+    	else {
+    		store(file, targetPathname);  
+    	}
     	
     	// preprocess asset and save to DB
     	asset = preprocessService.preprocess(asset, true);
@@ -204,6 +220,47 @@ public class FileStorageServiceImpl implements FileStorageService {
     	return asset;
 	}	
 
+	/*
+	 * Store the given media file of the given asset into content-addressed storage, linked from the given target pathname,
+	 * and release the content previously referenced by the asset, if any.
+	 */
+	private void storeContent(Asset asset, MultipartFile file, String targetPathname) {
+		validate(file, targetPathname);
+		String oldDigest = asset.getContentDigest();
+		
+		try (InputStream inputStream = file.getInputStream()) {
+			asset.setContentDigest(contentStorageService.store(inputStream, targetPathname));
+		}
+		catch (IOException e) {
+			throw new StorageException("Failed to store file " + file.getOriginalFilename() + " to " + targetPathname, e);
+		}
+		
+		releaseContent(asset, oldDigest);
+		log.debug("Stored file " + file.getOriginalFilename() + " to " + targetPathname + " with content " + asset.getContentDigest());
+	}
+
+	/*
+	 * Store the given media file of the given asset, already at its pathname, into content-addressed storage in place,
+	 * and release the content previously referenced by the asset, if any.
+	 */
+	private void storeContent(Asset asset, Path path) {
+		String oldDigest = asset.getContentDigest();
+		asset.setContentDigest(contentStorageService.storeFile(path, asset.getPathname()));
+		releaseContent(asset, oldDigest);
+		log.debug("Stored file " + path + " with content " + asset.getContentDigest());
+	}
+
+	/*
+	 * Release the given content previously referenced by the given asset, which has been stored with new content.
+	 */
+	private void releaseContent(Asset asset, String oldDigest) {
+		// the Galaxy dataset of a primaryfile is no longer valid once its content changed
+		if (asset instanceof Primaryfile && !asset.getContentDigest().equals(oldDigest)) {
+			((Primaryfile)asset).setDatasetId(null);
+		}
+		contentStorageService.release(oldDigest);
+	}
+
 	/**
 	 * @see edu.indiana.dlib.amppd.service.FileStorageService.moveEntityDir(Dataentity, Dataentity)
 	 */
@@ -363,6 +420,9 @@ public class FileStorageServiceImpl implements FileStorageService {
         	log.error("No need to unload non-existing asset " + asset.getId() + " media info file " + jsonPathname);
         }
         
+        // release the shared content if the media file is stored in content-addressed storage
+        contentStorageService.release(asset.getContentDigest());
+        
         return mediaPathname;
 	}
 	
@@ -372,14 +432,7 @@ public class FileStorageServiceImpl implements FileStorageService {
 	@Override
 	public Path store(MultipartFile file, String targetPathname) {
 		String originalFilename = file.getOriginalFilename();
-
-		if (file.isEmpty()) {
-			throw new StorageException("Cannot store empty file "  + originalFilename + " to " + targetPathname);
-		}
-		if (originalFilename.startsWith("..")) {
-			// This is a security check
-			throw new StorageException("Cannot store file " + originalFilename + " with relative path outside current directory to " + targetPathname);
-		}
+		validate(file, targetPathname);
 		
 		try (InputStream inputStream = file.getInputStream()) {
 			// TODO: consider FileAttributes for access control
@@ -399,6 +452,21 @@ public class FileStorageServiceImpl implements FileStorageService {
 		}
 	}
 	
+	/*
+	 * Validate the given file to be stored to the given target pathname.
+	 */
+	private void validate(MultipartFile file, String targetPathname) {
+		String originalFilename = file.getOriginalFilename();
+
+		if (file.isEmpty()) {
+			throw new StorageException("Cannot store empty file "  + originalFilename + " to " + targetPathname);
+		}
+		if (originalFilename.startsWith("..")) {
+			// This is a security check
+			throw new StorageException("Cannot store file " + originalFilename + " with relative path outside current directory to " + targetPathname);
+		}
+	}
+	
 	/**
 	 * @see edu.indiana.dlib.amppd.service.FileStorageService.move(String, String)
 	 */    
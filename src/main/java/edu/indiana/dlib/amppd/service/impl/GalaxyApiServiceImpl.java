@@ -1,5 +1,7 @@
 package edu.indiana.dlib.amppd.service.impl;
 
+import javax.annotation.PostConstruct;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -9,6 +11,8 @@ import com.github.jmchilton.blend4j.galaxy.GalaxyInstanceFactory;
 import edu.indiana.dlib.amppd.config.GalaxyPropertyConfig;
 import edu.indiana.dlib.amppd.model.galaxy.GalaxyUser;
 import edu.indiana.dlib.amppd.service.GalaxyApiService;
+import edu.indiana.dlib.amppd.util.GalaxyClientFilter;
+import edu.indiana.dlib.amppd.util.RateLimiter;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -24,6 +28,23 @@ public class GalaxyApiServiceImpl implements GalaxyApiService {
 	@Autowired
 	private GalaxyPropertyConfig config;
 	
+	@Autowired
+	private GalaxyClientFilter galaxyClientFilter;
+	
+	private RateLimiter rateLimiter;
+	
+	// the Galaxy instance shared by all blend4j clients
+	private GalaxyInstance galaxyInstance;
+	
+	/**
+	 * Initialize the GalaxyApiServiceImpl bean.
+	 */
+	@PostConstruct
+	public void init() {
+		rateLimiter = new RateLimiter(config.getRequestsPerSecond());
+		log.info("Initialized Galaxy rate limiter at " + config.getRequestsPerSecond() + " requests per second (0 for unlimited)");
+	}
+	
 	/**
 	 * @see edu.indiana.dlib.amppd.service.GalaxyApiService.getApiKey()
 	 */
@@ -51,19 +72,29 @@ public class GalaxyApiServiceImpl implements GalaxyApiService {
 			return user.getInstance();
 		}		
 		
-		// otherwise create a new Galaxy instance using user's credentials and store it for the current user
-		GalaxyInstance instance = null;
-		try {
-			instance = GalaxyInstanceFactory.getFromCredentials(config.getBaseUrl(), user.getUsername(), user.getPassword());
-		}
-		catch (Exception e) {
-			String msg = "Unable to acquire Galaxy instance for user " + user.getUsername() + " at " + config.getBaseUrl();
-			log.error(msg);
-			throw new RuntimeException(msg, e);
+		// otherwise create a new Galaxy instance using user's credentials and store it for the current user;
+		// since the current user is always the AMP super Galaxy user for now, the instance is created only once and shared,
+		// so that all blend4j clients reuse its connections, and the API key is not looked up again on each call
+		synchronized (this) {
+			if (galaxyInstance == null) {
+				try {
+					galaxyInstance = GalaxyInstanceFactory.getFromCredentials(config.getBaseUrl(), user.getUsername(), user.getPassword());
+				}
+				catch (Exception e) {
+					String msg = "Unable to acquire Galaxy instance for user " + user.getUsername() + " at " + config.getBaseUrl();
+					log.error(msg);
+					throw new RuntimeException(msg, e);
+				}
+				
+				// apply timeouts, retries and metrics to all requests sent via the instance, 
+				// including those from blend4j clients created afterwards, as they inherit the filter 
+				galaxyInstance.getWebResource().addFilter(galaxyClientFilter);
+				log.info("Successfully acquired Galaxy instance for user " + user.getUsername() + " at " + config.getBaseUrl());
+			}
 		}
 		
-		user.setInstance(instance);
-		return instance;
+		user.setInstance(galaxyInstance);
+		return galaxyInstance;
 	}
 	
 	/**
@@ -81,5 +112,12 @@ public class GalaxyApiServiceImpl implements GalaxyApiService {
 		user.setApiKey(key);
 		return key;
 	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.GalaxyApiService.getRateLimiter()
+	 */
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
 
 }
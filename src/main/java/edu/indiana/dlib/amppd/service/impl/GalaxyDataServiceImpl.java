@@ -1,6 +1,11 @@
 package edu.indiana.dlib.amppd.service.impl;
 
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.PostConstruct;
 
@@ -10,11 +15,14 @@ import org.springframework.stereotype.Service;
 import com.github.jmchilton.blend4j.galaxy.GalaxyInstance;
 import com.github.jmchilton.blend4j.galaxy.HistoriesClient;
 import com.github.jmchilton.blend4j.galaxy.LibrariesClient;
+import com.github.jmchilton.blend4j.galaxy.beans.Dataset;
 import com.github.jmchilton.blend4j.galaxy.beans.FilesystemPathsLibraryUpload;
 import com.github.jmchilton.blend4j.galaxy.beans.GalaxyObject;
 import com.github.jmchilton.blend4j.galaxy.beans.History;
 import com.github.jmchilton.blend4j.galaxy.beans.Library;
 import com.github.jmchilton.blend4j.galaxy.beans.LibraryContent;
+import com.sun.jersey.api.client.GenericType;
+import com.sun.jersey.api.client.WebResource;
 
 import edu.indiana.dlib.amppd.exception.GalaxyDataException;
 import edu.indiana.dlib.amppd.service.GalaxyApiService;
@@ -34,6 +42,7 @@ public class GalaxyDataServiceImpl implements GalaxyDataService {
 	
 	public static final String SHARED_LIBARY_NAME = "Amppd Library";
 	public static final String SHARED_HISTORY_NAME = "Amppd History";
+	public static final String HISTORY_DATASET_KEYS = "id,name,state,visible,deleted,purged,file_name,file_ext,create_time,update_time";
 	
 	@Autowired
 	private GalaxyApiService galaxyApiService;
@@ -138,6 +147,80 @@ public class GalaxyDataServiceImpl implements GalaxyDataService {
 		return matchingHistory;
 	}
 	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.GalaxyDataService.showHistoryDatasets(String)
+	 */
+	public List<Dataset> showHistoryDatasets(String historyId) {
+		return showHistoryDatasets(historyId, null);
+	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.GalaxyDataService.showHistoryDatasets(String, Date)
+	 */
+	public List<Dataset> showHistoryDatasets(String historyId, Date updatedAfter) {
+		// blend4j HistoriesClient.showHistoryContents only returns summary fields of each content, 
+		// so we call the dev view of history contents API directly, asking for the dataset fields we need 
+		try {
+			WebResource resource = galaxyInstance.getWebResource()
+					.path("histories").path(historyId).path("contents")
+					.queryParam("v", "dev")
+					.queryParam("types", "dataset")
+					.queryParam("keys", HISTORY_DATASET_KEYS);
+			
+			// let Galaxy filter by update time, so that the comparison is done in Galaxy's own time zone and precision
+			if (updatedAfter != null) {
+				resource = resource.queryParam("q", "update_time-gt").queryParam("qv", formatGalaxyTime(updatedAfter));
+			}
+			
+			List<Dataset> datasets = resource.get(new GenericType<List<Dataset>>() {});
+			log.debug("Retrieved " + datasets.size() + " datasets in history " + historyId + (updatedAfter == null ? "" : " updated after " + updatedAfter));
+			return datasets;
+		}
+		catch (Exception e) {
+			String msg = "Failed to retrieve datasets in history " + historyId;
+			log.error(msg);
+			throw new GalaxyDataException(msg, e);
+		}		
+	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.GalaxyDataService.showHistoriesUpdateTime()
+	 */
+	public Map<String, Date> showHistoriesUpdateTime() {
+		try {
+			List<Map<String, Object>> histories = galaxyInstance.getWebResource()
+					.path("histories")
+					.queryParam("keys", "id,update_time")
+					.get(new GenericType<List<Map<String, Object>>>() {});
+			
+			Map<String, Date> updateTimes = new HashMap<String, Date>();
+			for (Map<String, Object> history : histories) {
+				updateTimes.put((String)history.get("id"), parseGalaxyTime((String)history.get("update_time")));
+			}
+			log.debug("Retrieved update time for " + updateTimes.size() + " histories");
+			return updateTimes;
+		}
+		catch (Exception e) {
+			String msg = "Failed to retrieve update time of histories";
+			log.error(msg);
+			throw new GalaxyDataException(msg, e);
+		}		
+	}
+	
+	/**
+	 * Parse the given Galaxy timestamp, which is in ISO format without time zone and always in UTC.
+	 */
+	protected Date parseGalaxyTime(String time) {
+		return time == null ? null : Date.from(LocalDateTime.parse(time).toInstant(ZoneOffset.UTC));
+	}
+
+	/**
+	 * Format the given date into Galaxy timestamp, i.e. in ISO format without time zone in UTC.
+	 */
+	protected String formatGalaxyTime(Date date) {
+		return LocalDateTime.ofInstant(date.toInstant(), ZoneOffset.UTC).toString();
+	}
+	
 //	/**
 //	 * @see edu.indiana.dlib.amppd.service.GalaxyDataService.createHistory(Long)
 //	 */
@@ -1,21 +1,44 @@
 package edu.indiana.dlib.amppd.service.impl;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 
 import org.apache.commons.lang3.StringUtils;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import com.github.jmchilton.blend4j.galaxy.HistoriesClient;
@@ -33,17 +56,20 @@ import com.github.jmchilton.blend4j.galaxy.beans.WorkflowOutputs;
 import com.opencsv.CSVReader;
 import com.opencsv.CSVReaderBuilder;
 
+import edu.indiana.dlib.amppd.config.AmppdPropertyConfig;
 import edu.indiana.dlib.amppd.exception.GalaxyDataException;
 import edu.indiana.dlib.amppd.exception.GalaxyWorkflowException;
 import edu.indiana.dlib.amppd.exception.ParserException;
 import edu.indiana.dlib.amppd.exception.StorageException;
 import edu.indiana.dlib.amppd.model.Bundle;
+import edu.indiana.dlib.amppd.model.MediaBlob;
 import edu.indiana.dlib.amppd.model.Primaryfile;
 import edu.indiana.dlib.amppd.model.WorkflowResult;
 import edu.indiana.dlib.amppd.repository.BundleRepository;
 import edu.indiana.dlib.amppd.repository.PrimaryfileRepository;
 import edu.indiana.dlib.amppd.repository.WorkflowResultRepository;
 import edu.indiana.dlib.amppd.service.AmpUserService;
+import edu.indiana.dlib.amppd.service.ContentStorageService;
 import edu.indiana.dlib.amppd.service.FileStorageService;
 import edu.indiana.dlib.amppd.service.GalaxyApiService;
 import edu.indiana.dlib.amppd.service.GalaxyDataService;
@@ -53,6 +79,7 @@ import edu.indiana.dlib.amppd.service.WorkflowResultService;
 import edu.indiana.dlib.amppd.service.WorkflowService;
 import edu.indiana.dlib.amppd.web.CreateJobParameters;
 import edu.indiana.dlib.amppd.web.CreateJobResponse;
+import edu.indiana.dlib.amppd.web.JobSubmission;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
@@ -89,6 +116,9 @@ public class JobServiceImpl implements JobService {
 	@Autowired
     private FileStorageService fileStorageService;	
 
+	@Autowired
+    private ContentStorageService contentStorageService;	
+
 	@Autowired
 	private GalaxyApiService galaxyApiService;
 	
@@ -112,6 +142,36 @@ public class JobServiceImpl implements JobService {
 		
 	@Getter
 	private HistoriesClient historiesClient;
+	
+	@Autowired
+	private AmppdPropertyConfig amppdPropertyConfig;
+	
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+	
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+	
+	@PersistenceContext
+	private EntityManager entityManager;
+	
+	// transaction for reading and saving the Galaxy IDs of staged primaryfiles, committed independently of any transaction of the caller
+	private TransactionTemplate stagingTransactionTemplate;
+	
+	// striped locks guarding the check and claim of each primaryfile to be staged, so that it's never uploaded to Galaxy more than once
+	private final Object[] stagingLocks = new Object[ContentStorageServiceImpl.LOCK_STRIPES];
+	
+	// primaryfiles being staged by their IDs, each with a future completed once its staging finishes 
+	private final Map<Long, CompletableFuture<Void>> stagings = new ConcurrentHashMap<Long, CompletableFuture<Void>>();
+	
+	// bounded executor shared by all asynchronous job submissions
+	private ExecutorService submissionExecutor;
+	
+	// bounded executor shared by all staging of primaryfiles
+	private ExecutorService stagingExecutor;
+	
+	// asynchronous job submissions by their IDs
+	private Map<String, JobSubmission> submissions = new ConcurrentHashMap<String, JobSubmission>();
 		
 	/**
 	 * Initialize the JobServiceImpl bean.
@@ -120,17 +180,102 @@ public class JobServiceImpl implements JobService {
 	public void init() {
 		workflowsClient = galaxyApiService.getGalaxyInstance().getWorkflowsClient();
 		historiesClient = galaxyApiService.getGalaxyInstance().getHistoriesClient();
+		submissionExecutor = Executors.newFixedThreadPool(amppdPropertyConfig.getJobSubmissionThreads());
+		stagingExecutor = Executors.newFixedThreadPool(amppdPropertyConfig.getJobSubmissionThreads());
+		stagingTransactionTemplate = new TransactionTemplate(transactionManager);
+		stagingTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		for (int i = 0; i < stagingLocks.length; i++) {
+			stagingLocks[i] = new Object();
+		}
 	}	
 	
+	/**
+	 * Shut down the job submission and staging executors upon destruction of the bean.
+	 */
+	@PreDestroy
+	public void destroy() {
+		submissionExecutor.shutdownNow();
+		stagingExecutor.shutdownNow();
+	}
+	
 	/**
 	 * Prepare the given primaryfile for AMP jobs, i.e. to run on a workflow in Galaxy: 
 	 * if this is the first time it's ever run on any workflow, 
 	 * - upload its media file to Galaxy using the symbolic link option and save the dataset ID into the primaryfile;
 	 * - create a history for all workflow outputs associated with it and save the history ID into the primaryfile; 
+	 * Concurrent preparations of the same primaryfile are serialized, and the IDs are committed before the next one starts.
 	 * @param primaryfile the given primaryfile
 	 * @return true if the primaryfile has been updated; false otherwise.
 	 */
 	protected Boolean preparePrimaryfileForJobs(Primaryfile primaryfile) {	
+		Long primaryfileId = primaryfile.getId();
+		CompletableFuture<Void> staging = new CompletableFuture<Void>();
+		
+		// claim the staging of the primaryfile, unless it's already staged; if another thread is staging it, 
+		// wait for that to finish outside of the lock and check again, so unrelated primaryfiles never wait on each other's uploads
+		while (true) {
+			CompletableFuture<Void> ongoing;
+			synchronized (lockFor(primaryfileId)) {
+				loadGalaxyIds(primaryfile);
+				if (primaryfile.getDatasetId() != null && primaryfile.getHistoryId() != null) {
+					return false;
+				}
+				ongoing = stagings.putIfAbsent(primaryfileId, staging);
+			}
+			if (ongoing == null) {
+				break;
+			}
+			
+			try {
+				ongoing.get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new GalaxyDataException("Interrupted while waiting for the staging of primaryfile " + primaryfileId, e);
+			}
+			catch (ExecutionException e) {
+				// the other staging failed, so try it again here
+			}
+		}
+		
+		// the IDs are committed before the claim is released, so that whoever checks next will find them
+		try {
+			return doPreparePrimaryfileForJobs(primaryfile);
+		}
+		finally {
+			synchronized (lockFor(primaryfileId)) {
+				stagings.remove(primaryfileId);
+			}
+			staging.complete(null);
+		}
+	}
+	
+	/*
+	 * Load into the given primaryfile the Galaxy IDs committed since it was loaded, if it's not yet staged as far as it knows;
+	 * a primaryfile managed in the caller's transaction is reloaded, rather than updated, so that the IDs are not saved again as its changes upon commit.
+	 */
+	private void loadGalaxyIds(Primaryfile primaryfile) {
+		if (primaryfile.getDatasetId() != null && primaryfile.getHistoryId() != null) {
+			return;
+		}
+		
+		if (entityManager.contains(primaryfile)) {
+			entityManager.refresh(primaryfile);
+			return;
+		}
+		stagingTransactionTemplate.executeWithoutResult(status -> primaryfileRepository.findById(primaryfile.getId()).ifPresent(saved -> {
+			primaryfile.setDatasetId(saved.getDatasetId());
+			primaryfile.setHistoryId(saved.getHistoryId());
+		}));
+	}
+	
+	/*
+	 * Prepare the given primaryfile for AMP jobs as in preparePrimaryfileForJobs, with its staging claimed.
+	 */
+	private Boolean doPreparePrimaryfileForJobs(Primaryfile primaryfile) {	
+		// the IDs are kept aside until committed, as any flush of the primaryfile in the caller's transaction would lock its row
+		String datasetId = primaryfile.getDatasetId();
+		String historyId = primaryfile.getHistoryId();
 		Boolean save = false;
 
 		/* Note: 
@@ -138,32 +283,47 @@ public class JobServiceImpl implements JobService {
     	 * rather than when the primaryfile is uploaded to Amppd.
     	 * The pros is that we won't upload to Galaxy unnecessarily if the primaryfile is never going to be processed through workflow;
     	 * the cons is that it might slow down workflow execution when running in batch.
+    	 * To avoid the latter, primaryfiles can be pre-staged in parallel via stagePrimaryfilesForJobs, i.e. after batch ingest or on demand.
 		 * Furthermore, we only do this upload once, i.e. if the primaryfile has never been uploaded to Galaxy. 
 		 * Later invocation of workflows on this primaryfile will just reuse the result from the first upload in Galaxy.
 		 */
-		if (primaryfile.getDatasetId() == null) {    	
+		if (datasetId == null) {    	
 	    	// at this point the primaryfile shall have been created and its media file uploaded into Amppd file system
 	    	if (primaryfile.getPathname() == null || primaryfile.getPathname().isEmpty()) {
 	    		throw new StorageException("Primaryfile " + primaryfile.getId() + " hasn't been uploaded to AMPPD file system");
 	    	}
 	    	
-	    	// upload the primaryfile into Galaxy data library, the returned result is a GalaxyObject containing the ID and URL of the dataset uploaded
-	    	String pathname = fileStorageService.absolutePathName(primaryfile.getPathname());
-	    	GalaxyObject go = galaxyDataService.uploadFileToGalaxy(pathname);	
+	    	// if the media is stored in content-addressed storage, reuse the dataset uploaded for any primaryfile with the same content
+	    	MediaBlob blob = getMediaBlob(primaryfile);
+	    	if (blob != null && blob.getDatasetId() != null) {
+	    		datasetId = blob.getDatasetId();
+	    		log.info("Reused Galaxy dataset " + blob.getDatasetId() + " of media blob " + blob.getDigest() + " for primaryfile " + primaryfile.getId());
+	    	}
+	    	else {
+	    		// upload the primaryfile into Galaxy data library, the returned result is a GalaxyObject containing the ID and URL of the dataset uploaded;
+	    		// upload from the blob if any, so that the dataset stays valid as long as the content is referenced by any primaryfile
+	    		String pathname = fileStorageService.absolutePathName(blob != null ? blob.getPathname() : primaryfile.getPathname());
+	    		galaxyApiService.getRateLimiter().acquire();
+	    		GalaxyObject go = galaxyDataService.uploadFileToGalaxy(pathname);	
+	    		datasetId = go.getId();
+	    		if (blob != null) {
+	    			contentStorageService.setDatasetId(blob.getDigest(), go.getId());
+	    		}
+	    	}
 	    	
 	    	// set flag to save the dataset ID in primaryfile for future reuse
-	    	primaryfile.setDatasetId(go.getId());
 	    	save = true;
 		}
 		
 		// if the output history hasn't been created for this primaryfile, i.e. it's the first time any workflow is run against it, create a new history for it
-		if (primaryfile.getHistoryId() == null) {   
+		if (historyId == null) {   
 			// since we use primaryfile ID in the output history name, we can assume that the name is unique, 
 			// thus, if the historyId is null, it means the output history for this primaryfile doesn't exist in Galaxy yet, and vice versa
 			History history = new History(primaryfile.getId() + ": " + primaryfile.getName());
 			try {
+				galaxyApiService.getRateLimiter().acquire();
 				history = galaxyDataService.getHistoriesClient().create(history);
-		    	primaryfile.setHistoryId(history.getId());		
+		    	historyId = history.getId();		
 		    	save = true;
 				log.info("Initialized the Galaxy output history " + history.getId() + " for primaryfile " + primaryfile.getId());
 			}
@@ -172,17 +332,125 @@ public class JobServiceImpl implements JobService {
 			}		
 		}			
 		else {
-			log.info("The Galaxy output history " + primaryfile.getHistoryId() + " for Primaryfile " + primaryfile.getId() + " already exists.");			
+			log.info("The Galaxy output history " + historyId + " for Primaryfile " + primaryfile.getId() + " already exists.");			
 		}
 
-		// if dataset or history IDs have been changed in primaryfile, persist it in DB 
+		// if dataset or history IDs have been changed in primaryfile, persist them in DB;
+		// the IDs are committed right away, so that they are seen by whoever prepares the primaryfile next, even if the caller's transaction is rolled back;
+		// only the IDs are updated, so that other fields updated concurrently are not overwritten with the ones loaded earlier
 		if (save) {
-			primaryfileRepository.save(primaryfile);
+			String savedDatasetId = datasetId;
+			String savedHistoryId = historyId;
+			stagingTransactionTemplate.executeWithoutResult(status -> primaryfileRepository.updateGalaxyIds(primaryfile.getId(), savedDatasetId, savedHistoryId));
+			if (entityManager.contains(primaryfile)) {
+				entityManager.refresh(primaryfile);
+			}
+			else {
+				primaryfile.setDatasetId(datasetId);
+				primaryfile.setHistoryId(historyId);
+			}
 			return true;
 		}
 		return false;
 	}
 	
+	/*
+	 * Get the media blob the given primaryfile's media file is linked to, or null if it's not stored in content-addressed storage;
+	 * a blob whose content doesn't match the media file, as for flac files converted after being stored in earlier versions, is not used.
+	 */
+	private MediaBlob getMediaBlob(Primaryfile primaryfile) {
+		MediaBlob blob = contentStorageService.getBlob(primaryfile.getContentDigest());
+		if (blob == null) {
+			return null;
+		}
+		
+		try {
+			if (Files.isSameFile(Paths.get(fileStorageService.absolutePathName(primaryfile.getPathname())), Paths.get(fileStorageService.absolutePathName(blob.getPathname())))) {
+				return blob;
+			}
+		}
+		catch (IOException e) {
+			log.warn("Failed to check media blob " + blob.getDigest() + " for primaryfile " + primaryfile.getId() + ": " + e);
+		}
+		log.warn("Media file " + primaryfile.getPathname() + " of primaryfile " + primaryfile.getId() + " doesn't match media blob " + blob.getDigest() + ", will upload the media file itself");
+		return null;
+	}
+	
+	/*
+	 * Get the lock for preparing the primaryfile with the given ID.
+	 */
+	private Object lockFor(Long primaryfileId) {
+		return stagingLocks[(primaryfileId.hashCode() & 0x7fffffff) % stagingLocks.length];
+	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.JobService.stagePrimaryfilesForJobs(Long)
+	 */
+	@Override
+	public int stagePrimaryfilesForJobs(Long collectionId) {
+		List<Long> primaryfileIds = primaryfileRepository.findIdsUnstagedByCollectionId(collectionId);
+		log.info("Staging " + primaryfileIds.size() + " primaryfiles in collection " + collectionId + " for jobs ...");
+		long start = System.currentTimeMillis();
+		
+		// each primaryfile is staged independently, so one failure doesn't stop the others;
+		// failed ones will just be staged lazily upon job submission as before
+		List<Future<CreateJobResponse>> futures = new ArrayList<Future<CreateJobResponse>>();
+		for (Long primaryfileId : primaryfileIds) {
+			futures.add(stagingExecutor.submit(() -> transactionTemplate.execute(status -> stagePrimaryfileForJobs(primaryfileId))));
+		}
+		
+		int nStaged = 0;
+		for (Future<CreateJobResponse> future : futures) {
+			try {
+				if (future.get().getSuccess()) {
+					nStaged++;
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				futures.forEach(f -> f.cancel(false));
+				throw new RuntimeException("Interrupted while staging primaryfiles in collection " + collectionId, e);
+			}
+			catch (ExecutionException e) {
+				log.error("Failed to stage primaryfile for jobs", e);
+			}
+		}
+		
+		log.info("Successfully staged " + nStaged + " out of " + primaryfileIds.size() + " primaryfiles in collection " + collectionId + " in " + (System.currentTimeMillis() - start) + " ms");
+		return nStaged;
+	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.JobService.stagePrimaryfilesForJobsAsync(Set<Long>)
+	 */
+	@Override
+	public JobSubmission stagePrimaryfilesForJobsAsync(Set<Long> collectionIds) {
+		List<Long> primaryfileIds = new ArrayList<Long>();
+		for (Long collectionId : collectionIds) {
+			primaryfileIds.addAll(primaryfileRepository.findIdsUnstagedByCollectionId(collectionId));
+		}
+		log.info("Staging " + primaryfileIds.size() + " primaryfiles in collections " + collectionIds + " for jobs asynchronously ...");
+		return submitJobs(stagingExecutor, null, primaryfileIds.size(), primaryfileIds::get, i -> stagePrimaryfileForJobs(primaryfileIds.get(i)));
+	}
+	
+	/*
+	 * Stage the primaryfile with the given ID for jobs, and return the staging status in a CreateJobResponse without outputs.
+	 */
+	private CreateJobResponse stagePrimaryfileForJobs(Long primaryfileId) {
+		CreateJobResponse response = new CreateJobResponse(primaryfileId);
+		try {
+			Primaryfile primaryfile = primaryfileRepository.findById(primaryfileId).orElseThrow(() -> new StorageException("Primaryfile <" + primaryfileId + "> does not exist!"));
+			response.setNames(primaryfile);
+			preparePrimaryfileForJobs(primaryfile);
+			response.setStatus(true, "", null);
+		}
+		catch (Exception e) {
+			response.setStatus(false, "Failed to stage primaryfile " + primaryfileId + " for jobs: " + e.getMessage(), null);
+			log.error("Failed to stage primaryfile " + primaryfileId + " for jobs", e);
+		}
+		return response;
+	}
+	
 	/**
 	 * Check whether the given workflow results outputs are valid to be used as inputs for the given workflow, i.e. 
 	 * the number of result inputs match that specified in the workflow;
@@ -581,6 +849,7 @@ public class JobServiceImpl implements JobService {
 					outputIds, parameters);
     		populateMgmParameters(workflowDetails, primaryfile, winputs.getParameters());
     		msg_param = ", parameters (system updated): " + winputs.getParameters();
+    		galaxyApiService.getRateLimiter().acquire();
     		WorkflowOutputs woutputs = workflowsClient.runWorkflow(winputs);    		
     		
     		// add workflow results to the table for the newly created invocation
@@ -772,6 +1041,131 @@ public class JobServiceImpl implements JobService {
 		return createJobs(workflowId, resultIdss, parameterss); 
 	}
 
+	/**
+	 * @see edu.indiana.dlib.amppd.service.JobService.createJobsAsync(String, Long[], CreateJobParameters[])
+	 */
+	@Override
+	public JobSubmission createJobsAsync(String workflowId, Long[] primaryfileIds, CreateJobParameters[] parameterss) {
+		log.info("Submitting a list of AMP jobs asynchronously for: workflowId: " + workflowId + ", primaryfileIds: " + primaryfileIds + ", parameterss: " + parameterss);		
+		WorkflowDetails workflowDetails = workflowService.showWorkflow(workflowId, null, false, true);
+		
+		// remove redundant and null primaryfile IDs, so that no two jobs in the submission prepare the same primaryfile concurrently
+		Set<Long> pidset = primaryfileIds == null ? new LinkedHashSet<Long>() : new LinkedHashSet<Long>(Arrays.asList(primaryfileIds));
+		pidset.remove(null);
+		List<Long> pids = new ArrayList<Long>(pidset);
+		
+		return submitJobs(submissionExecutor, workflowId, pids.size(), pids::get, i -> createJob(workflowDetails, pids.get(i), getParameters(parameterss, i)));
+	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.JobService.createJobsAsync(String, Long, CreateJobParameters[])
+	 */
+	@Override
+	public JobSubmission createJobsAsync(String workflowId, Long bundleId, CreateJobParameters[] parameterss) {
+		log.info("Submitting a bundle of AMP jobs asynchronously for: workflowId: " + workflowId + ", bundleId: " + bundleId + ", parameterss: " + parameterss);
+		WorkflowDetails workflowDetails = workflowService.showWorkflow(workflowId, null, false, true);
+		
+		// retrieve the bundle's primaryfile IDs within the request, as the primaryfiles collection can't be lazy-loaded from the background threads
+		Bundle bundle = bundleRepository.findById(bundleId).orElseThrow(() -> new StorageException("Bundle <" + bundleId + "> does not exist!"));  
+		List<Long> pids = new ArrayList<Long>();
+		if (bundle.getPrimaryfiles() != null) {
+			bundle.getPrimaryfiles().forEach(primaryfile -> pids.add(primaryfile.getId()));
+		}
+		
+		return submitJobs(submissionExecutor, workflowId, pids.size(), pids::get, i -> createJob(workflowDetails, pids.get(i), getParameters(parameterss, i)));
+	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.JobService.createJobsAsync(String, MultipartFile, CreateJobParameters[])
+	 */
+	@Override
+	public JobSubmission createJobsAsync(String workflowId, MultipartFile inputCsv, CreateJobParameters[] parameterss) {
+		log.info("Submitting AMP jobs asynchronously for: workflowId: " + workflowId + ", inputCsv: " + inputCsv.getOriginalFilename() + ", parameterss: " + parameterss);
+		WorkflowDetails workflowDetails = workflowService.showWorkflow(workflowId, null, false, true);
+		
+		// parse the input CSV within the request, so that invalid CSV is reported right away
+		List<Long[]> resultIdss = parseInputCsv(inputCsv);
+		
+		return submitJobs(submissionExecutor, workflowId, resultIdss.size(), i -> null, i -> createJob(workflowDetails, null, resultIdss.get(i), getParameters(parameterss, i)));
+	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.JobService.getJobSubmission(String)
+	 */
+	@Override
+	public JobSubmission getJobSubmission(String submissionId) {
+		JobSubmission submission = submissions.get(submissionId);
+		// a submission is only visible to the user who submitted it, to others it's as if it doesn't exist
+		if (submission == null || !Objects.equals(submission.getSubmittedBy(), ampUserService.getCurrentUsername())) {
+			throw new StorageException("Job submission <" + submissionId + "> does not exist!");
+		}
+		return submission;
+	}
+	
+	/**
+	 * Submit the given number of jobs for the given workflow, or null if the jobs only stage primaryfiles, to run in the background, 
+	 * where the ith job is created by the given function;
+	 * the jobs are run in parallel by the given shared bounded executor, with the rate of their requests to Galaxy capped by the shared
+	 * Galaxy rate limiter; the current user's security context is carried over to the background threads, and each job runs within its own 
+	 * transaction, so that associations of the entities it loads can be lazily fetched as they would be within the request.
+	 * @param executor the given executor
+	 * @param workflowId ID of the given workflow
+	 * @param total the given number of jobs
+	 * @param primaryfileId the given function returning the primaryfile ID of the ith job, or null if unknown before the job is created
+	 * @param job the given function creating the ith job and returning its response
+	 * @return JobSubmission for tracking the progress of the jobs
+	 */
+	protected JobSubmission submitJobs(ExecutorService executor, String workflowId, int total, IntFunction<Long> primaryfileId, IntFunction<CreateJobResponse> job) {
+		purgeJobSubmissions();
+		JobSubmission submission = new JobSubmission(UUID.randomUUID().toString(), workflowId, ampUserService.getCurrentUsername(), total);
+		submissions.put(submission.getId(), submission);
+		
+		SecurityContext securityContext = SecurityContextHolder.getContext();
+		for (int i = 0; i < total; i++) {
+			int index = i;
+			executor.execute(DelegatingSecurityContextRunnable.create(() -> {
+				CreateJobResponse[] created = new CreateJobResponse[1];
+				CreateJobResponse response;
+				try {
+					transactionTemplate.executeWithoutResult(status -> created[0] = job.apply(index));
+					response = created[0];
+				}
+				catch (Exception e) {
+					// createJob catches all exceptions, so the failure most likely comes from committing the transaction, e.g. as it's been marked 
+					// rollback-only upon the error the job has already reported, in which case keep that error rather than the rollback hiding it;
+					// otherwise make sure each job always produces a response, with its primaryfile ID if known, or an invalid one as in createJob
+					if (created[0] != null) {
+						response = created[0];
+					}
+					else {
+						Long pid = primaryfileId.apply(index);
+						response = new CreateJobResponse(pid == null ? 0l : pid);
+					}
+					if (!Boolean.FALSE.equals(response.getSuccess())) {
+						response.setStatus(false, e.toString(), response.getOutputs());
+					}
+					log.error("Failed to create job " + index + " in submission " + submission.getId(), e);
+				}
+				submission.addResponse(response);
+				if (submission.isFinished()) {
+					log.info("Successfully finished job submission " + submission.getId() + ": " + submission.getSucceeded() + " succeeded, " + submission.getFailed() + " failed, in " 
+							+ (submission.getDateFinished().getTime() - submission.getDateSubmitted().getTime()) + " ms");
+				}
+			}, securityContext));
+		}
+		
+		log.info("Successfully submitted " + total + " AMP jobs asynchronously in submission " + submission.getId() + " for workflow " + workflowId);
+		return submission;
+	}
+	
+	/**
+	 * Remove finished job submissions that are older than the retention period.
+	 */
+	protected void purgeJobSubmissions() {
+		long expired = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(amppdPropertyConfig.getJobSubmissionRetentionHours());
+		submissions.values().removeIf(submission -> submission.isFinished() && submission.getDateFinished().getTime() < expired);
+	}
+	
 	/**
 	 * @see edu.indiana.dlib.amppd.service.JobService.parseInputCsv(MultipartFile)
 	 */
@@ -0,0 +1,376 @@
+package edu.indiana.dlib.amppd.service.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+
+import edu.indiana.dlib.amppd.config.AmppdPropertyConfig;
+import edu.indiana.dlib.amppd.exception.PreprocessException;
+import edu.indiana.dlib.amppd.model.Asset;
+import edu.indiana.dlib.amppd.service.FileStorageService;
+import edu.indiana.dlib.amppd.service.MediaProbeService;
+import edu.indiana.dlib.amppd.web.MediaProbeResult;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Implementation of MediaProbeService.
+ * Media files are probed by a pool of long-lived python workers, each running MediaProbe in-process for one file at a time,
+ * so that the interpreter startup and module imports are not repeated for every file; a worker that times out or dies is
+ * discarded, and if workers can't be used at all, MediaProbe is run as a one-off process for each file as a fallback.
+ */
+@Service
+@Slf4j
+public class MediaProbeServiceImpl implements MediaProbeService {
+
+	// classpath of the python script run by each worker
+	public static final String WORKER_SCRIPT = "mediaprobe/probe_worker.py";
+
+	// prefix of the response lines written by workers, as opposed to any other output
+	public static final String RESPONSE_MARKER = "@@MEDIAPROBE@@ ";
+
+	@Autowired
+	private AmppdPropertyConfig amppdPropertyConfig;
+
+	@Autowired
+    private FileStorageService fileStorageService;
+
+	// idle workers available for probing
+	private final Deque<ProbeWorker> idleWorkers = new ConcurrentLinkedDeque<ProbeWorker>();
+
+	// bounds the number of concurrent probes, thus the number of workers
+	private Semaphore permits;
+
+	private String workerScript;
+	private long timeoutMillis;
+
+	// set when workers fail upon startup, in which case each file is probed by a one-off process instead
+	private volatile boolean workersDisabled;
+
+	/*
+	 * Exit status and outputs of MediaProbe on a media file.
+	 */
+	private static class ProbeOutput {
+		private final int status;
+		private final String output;
+		private final String error;
+
+		private ProbeOutput(int status, String output, String error) {
+			this.status = status;
+			this.output = output;
+			this.error = error;
+		}
+	}
+
+	/*
+	 * A long-lived python process running MediaProbe for one file at a time, upon requests written to its stdin.
+	 * Responses are collected from its stdout by a daemon thread, so that waiting for a response can time out.
+	 */
+	private class ProbeWorker {
+		private final Process process;
+		private final BufferedWriter writer;
+		private final BlockingQueue<String> responses = new LinkedBlockingQueue<String>();
+		private int probes;		// number of files probed by the worker
+		private boolean ended;		// whether the worker has ended its output, i.e. died
+		private boolean timedOut;	// whether the worker timed out on the last probe
+
+		private ProbeWorker() throws IOException {
+			ProcessBuilder pb = new ProcessBuilder(amppdPropertyConfig.getPythonPath(), "-u", "-c", workerScript, getMediaProbeScript());
+			addLocalBinPath(pb);
+			pb.redirectErrorStream(true);
+			process = pb.start();
+			writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+
+			Thread reader = new Thread(this::readResponses, "mediaprobe-worker-" + process.pid());
+			reader.setDaemon(true);
+			reader.start();
+			log.info("Started MediaProbe worker " + process.pid());
+		}
+
+		/*
+		 * Read responses from the process stdout until it ends, then add an empty response to signal the end.
+		 */
+		private void readResponses() {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.startsWith(RESPONSE_MARKER)) {
+						responses.add(line.substring(RESPONSE_MARKER.length()));
+					}
+					else {
+						log.debug("MediaProbe worker " + process.pid() + ": " + line);
+					}
+				}
+			}
+			catch (IOException e) {
+				log.debug("MediaProbe worker " + process.pid() + " output closed: " + e);
+			}
+			responses.add("");
+		}
+
+		/*
+		 * Probe the given media file, waiting for the response up to the timeout.
+		 * @return the probe output, or null if the worker timed out or died, in which case it must be destroyed
+		 */
+		private ProbeOutput probe(String filepath) throws InterruptedException, JSONException {
+			try {
+				JSONObject request = new JSONObject();
+				request.put("path", filepath);
+				writer.write(request.toString());
+				writer.newLine();
+				writer.flush();
+			}
+			catch (IOException e) {
+				log.warn("Failed to send request to MediaProbe worker " + process.pid() + ": " + e);
+				return null;
+			}
+
+			String line = responses.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+			timedOut = line == null;
+			ended = line != null && line.isEmpty();
+			if (line == null || ended) {
+				log.warn("MediaProbe worker " + process.pid() + (line == null ? " timed out" : " died") + " while probing " + filepath);
+				return null;
+			}
+
+			probes++;
+			JSONObject response = new JSONObject(line);
+			return new ProbeOutput(response.getInt("status"), response.optString("output"), response.optString("error"));
+		}
+
+		private void destroy() {
+			process.destroyForcibly();
+			log.info("Destroyed MediaProbe worker " + process.pid() + " after probing " + probes + " files");
+		}
+	}
+
+	/**
+	 * Initialize the worker pool.
+	 */
+	@PostConstruct
+	public void init() throws IOException {
+		permits = new Semaphore(Math.max(1, amppdPropertyConfig.getMediaprobeWorkers()), true);
+		timeoutMillis = TimeUnit.SECONDS.toMillis(amppdPropertyConfig.getPreprocessTimeoutSeconds());
+		workersDisabled = amppdPropertyConfig.getMediaprobeWorkers() <= 0;
+		workerScript = StreamUtils.copyToString(new ClassPathResource(WORKER_SCRIPT).getInputStream(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Destroy all idle workers upon destruction of the bean.
+	 */
+	@PreDestroy
+	public void destroy() {
+		ProbeWorker worker;
+		while ((worker = idleWorkers.poll()) != null) {
+			worker.destroy();
+		}
+	}
+
+	/**
+	 * @see edu.indiana.dlib.amppd.service.MediaProbeService.probe(String)
+	 */
+	@Override
+	public String probe(String pathname) {
+		String filepath = fileStorageService.absolutePathName(pathname);
+		ProbeOutput output = null;
+
+		try {
+			permits.acquire();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PreprocessException("Interrupted while waiting to retrieve media info for " + pathname, e);
+		}
+
+		try {
+			if (!workersDisabled) {
+				output = probeByWorker(filepath);
+			}
+			if (output == null) {
+				output = probeByProcess(filepath);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PreprocessException("Interrupted while retrieving media info for " + pathname, e);
+		}
+		catch (IOException | JSONException e) {
+			throw new PreprocessException("Error while retrieving media info for " + pathname, e);
+		}
+		finally {
+			permits.release();
+		}
+
+		if (output.status != 0) {
+			// capture the error outputs into log
+			log.error(output.output + output.error);
+			throw new PreprocessException("Error while retrieving media info for " + pathname + ": MediaProbe exited with status " + output.status);
+		}
+
+		log.info("Retrieved media info for " + pathname);
+		return output.output;
+	}
+
+	/**
+	 * @see edu.indiana.dlib.amppd.service.MediaProbeService.probe(List<Asset>)
+	 */
+	@Override
+	public List<MediaProbeResult> probe(List<? extends Asset> assets) {
+		List<MediaProbeResult> results = new ArrayList<MediaProbeResult>();
+		if (assets.isEmpty()) {
+			return results;
+		}
+
+		// probes are bounded by the worker permits anyways, so there is no point having more threads than workers
+		long start = System.currentTimeMillis();
+		int nthreads = Math.min(Math.max(1, amppdPropertyConfig.getMediaprobeWorkers()), assets.size());
+		ExecutorService executor = Executors.newFixedThreadPool(nthreads);
+		List<Future<MediaProbeResult>> futures = new ArrayList<Future<MediaProbeResult>>();
+		for (Asset asset : assets) {
+			futures.add(executor.submit(() -> {
+				long pstart = System.currentTimeMillis();
+				String mediaInfo = probe(asset.getPathname());
+				return new MediaProbeResult(asset, mediaInfo, null, System.currentTimeMillis() - pstart);
+			}));
+		}
+		executor.shutdown();
+
+		int failed = 0;
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				results.add(futures.get(i).get());
+			}
+			catch (InterruptedException e) {
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+				throw new PreprocessException("Interrupted while retrieving media info for " + assets.size() + " assets", e);
+			}
+			catch (ExecutionException e) {
+				failed++;
+				Throwable cause = e.getCause();
+				log.error("Failed to retrieve media info for asset " + assets.get(i).getId(), cause);
+				results.add(new MediaProbeResult(assets.get(i), null, cause.getMessage() != null ? cause.getMessage() : cause.toString(), 0));
+			}
+		}
+
+		log.info("Retrieved media info for " + (assets.size() - failed) + " assets, failed for " + failed + " assets, in " + (System.currentTimeMillis() - start) + " ms");
+		return results;
+	}
+
+	/*
+	 * Probe the given media file by an idle worker, or a new one if none is idle, and return the worker to the pool afterwards.
+	 * @return the probe output, or null if no worker could complete the probe, in which case the caller shall fall back to a one-off process
+	 */
+	private ProbeOutput probeByWorker(String filepath) throws InterruptedException, JSONException {
+		ProbeWorker worker = idleWorkers.poll();
+		if (worker == null) {
+			try {
+				worker = new ProbeWorker();
+			}
+			catch (IOException e) {
+				log.warn("Failed to start MediaProbe worker, falling back to one-off process: " + e);
+				return null;
+			}
+		}
+
+		// a worker failing with an exception is in an unknown state and can't be reused, thus must not be leaked either
+		ProbeOutput output;
+		try {
+			output = worker.probe(filepath);
+		}
+		catch (InterruptedException | JSONException | RuntimeException e) {
+			worker.destroy();
+			throw e;
+		}
+		if (output != null) {
+			idleWorkers.add(worker);
+			return output;
+		}
+
+		// a file timing out on a worker would time out on a one-off process as well
+		worker.destroy();
+		if (worker.timedOut) {
+			throw new PreprocessException("Error while retrieving media info for " + filepath + ": MediaProbe timed out after " + timeoutMillis + " ms");
+		}
+		
+		// a worker failing on its first probe most likely can't run MediaProbe at all, so stop using workers
+		if (worker.probes == 0 && worker.ended) {
+			workersDisabled = true;
+			log.error("MediaProbe worker failed upon startup, all media files will be probed by one-off processes from now on");
+		}
+		return null;
+	}
+
+	/*
+	 * Probe the given media file by a one-off MediaProbe process.
+	 */
+	private ProbeOutput probeByProcess(String filepath) throws IOException, InterruptedException {
+		ProcessBuilder pb = new ProcessBuilder(amppdPropertyConfig.getPythonPath(), getMediaProbeScript(), "--json", filepath);
+		addLocalBinPath(pb);
+
+		// redirect outputs into temporary files, so that neither can block the process while we wait for it with timeout
+		File outFile = File.createTempFile("mediaprobe", ".out");
+		File errFile = File.createTempFile("mediaprobe", ".err");
+		pb.redirectOutput(outFile);
+		pb.redirectError(errFile);
+
+		try {
+			Process process = pb.start();
+			if (!process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				process.destroyForcibly();
+				throw new PreprocessException("Error while retrieving media info for " + filepath + ": MediaProbe timed out after " + timeoutMillis + " ms");
+			}
+			return new ProbeOutput(process.exitValue(), Files.readString(outFile.toPath()), Files.readString(errFile.toPath()));
+		}
+		finally {
+			outFile.delete();
+			errFile.delete();
+		}
+	}
+
+	/*
+	 * Get the path of the MediaProbe script.
+	 */
+	private String getMediaProbeScript() {
+		return amppdPropertyConfig.getMediaprobeDir() + "/media_probe.py";
+	}
+
+	/*
+	 * This is a hack to allow ProcessBuilder running on operating systems using /usr/local/bin to find ffprobe and pdfinfo for MediaProbe.
+	 */
+	private void addLocalBinPath(ProcessBuilder pb) {
+		Map<String, String> env = pb.environment();
+		String path = env.get("PATH");
+		if (path != null && !path.contains("/usr/local/bin")) {
+			env.put("PATH", path.concat(":/usr/local/bin"));
+		}
+	}
+
+}
@@ -16,6 +16,8 @@ import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.FileSystemUtils;
@@ -28,6 +30,7 @@ import edu.indiana.dlib.amppd.model.Primaryfile;
 import edu.indiana.dlib.amppd.model.Supplement;
 import edu.indiana.dlib.amppd.model.Supplement.SupplementType;
 import edu.indiana.dlib.amppd.model.WorkflowResult;
+import edu.indiana.dlib.amppd.model.projection.PrimaryfileSearchResult;
 import edu.indiana.dlib.amppd.repository.CollectionSupplementRepository;
 import edu.indiana.dlib.amppd.repository.ItemSupplementRepository;
 import edu.indiana.dlib.amppd.repository.PrimaryfileRepository;
@@ -37,6 +40,7 @@ import edu.indiana.dlib.amppd.repository.WorkflowResultRepository;
 import edu.indiana.dlib.amppd.service.DataentityService;
 import edu.indiana.dlib.amppd.service.FileStorageService;
 import edu.indiana.dlib.amppd.service.MediaService;
+import edu.indiana.dlib.amppd.service.SearchIndexService;
 import edu.indiana.dlib.amppd.web.ItemSearchResponse;
 import edu.indiana.dlib.amppd.web.ItemSearchResult;
 import lombok.extern.slf4j.Slf4j;
@@ -88,6 +92,9 @@ public class MediaServiceImpl implements MediaService {
 	
 	@Autowired
 	private DataentityService dataentityService;
+
+	@Autowired
+	private SearchIndexService searchIndexService;
 	
 	@Autowired
 	private AmppdPropertyConfig amppdPropertyConfig;
@@ -443,67 +450,53 @@ public class MediaServiceImpl implements MediaService {
 	 */
 	@Override
 	public ItemSearchResponse findItemOrFile(String keyword, String mediaType) {
+		return findItemOrFile(keyword, mediaType, Pageable.unpaged());
+	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.MediaService.findItemOrFile(String, String, Pageable)
+	 */
+	@Override
+	public ItemSearchResponse findItemOrFile(String keyword, String mediaType, Pageable pageable) {
 		ItemSearchResponse response = new ItemSearchResponse();
 		ArrayList<ItemSearchResult> rows = new ArrayList<ItemSearchResult>();
 		
 		try {
-			List<Primaryfile> matchedFiles = primaryfileRepository.findActiveByCollectionOrItemOrFileName(keyword);
-			ItemSearchResult result = new ItemSearchResult();;
-			Map <String, Object>primaryfileinfo;
-			ArrayList<Map> primaryfilerows = new ArrayList<Map>();
-			long curr_item_id = 0;
-			for(Primaryfile p : matchedFiles) {
-				//reset if the current item is a new entry
-				primaryfileinfo = new HashMap<String, Object>();
-				if(p.getItem().getId() != curr_item_id && primaryfilerows.size()>0) {
-					log.trace("Now new item id:"+p.getItem().getId()+" curr item id:"+curr_item_id);
+			// matched primaryfiles come ordered by item, along with their parents' info, so no entity needs to be loaded
+			Page<PrimaryfileSearchResult> matchedFiles = searchIndexService.searchPrimaryfiles(keyword, true, pageable);
+			ItemSearchResult result = null;
+			ArrayList<Map> primaryfilerows = null;
+			
+			for (PrimaryfileSearchResult p : matchedFiles) {
+				// start a new result if the current primaryfile belongs to a new item
+				if (result == null || !result.getItemId().equals(p.getItemId())) {
+					result = new ItemSearchResult();
+					result.setCollectionId(p.getCollectionId());
+					result.setCollectionName(p.getCollectionName());
+					result.setItemId(p.getItemId());
+					result.setItemName(p.getItemName());
+					result.setExternalSource(p.getExternalSource());
+					result.setExternalId(p.getExternalId());
+					primaryfilerows = new ArrayList<Map>();
 					result.setPrimaryfiles(primaryfilerows);
 					rows.add(result);
-					result = new ItemSearchResult();
-					primaryfilerows = new ArrayList<Map>();					
 				}
-				String mime_type = p.getMimeType();
-//				if(mime_type!=null && !mediaType.contentEquals("000"))
-//				{
-//					if((mime_type.contains("audio") && mediaType.substring(0, 1).contentEquals("1"))
-//							|| (mime_type.contains("video") && mediaType.substring(1, 2).contentEquals("1"))
-//							|| (!mime_type.contains("video") && !mime_type.contains("audio") && mediaType.contentEquals("001"))){
-						curr_item_id = p.getItem().getId();
-						result.setCollectionId(p.getItem().getCollection().getId());
-						result.setCollectionName(p.getItem().getCollection().getName());
-						result.setItemId(p.getItem().getId());
-						result.setItemName(p.getItem().getName());
-						result.setExternalSource(p.getItem().getExternalSource());
-						result.setExternalId(p.getItem().getExternalId());
-						primaryfileinfo.put("id", p.getId()); 
-						primaryfileinfo.put("name",p.getName());
-						primaryfileinfo.put("mediaType",mime_type);
-						primaryfileinfo.put("originalFilename",p.getOriginalFilename());
-						primaryfilerows.add(primaryfileinfo);
-//					}
-//				}
-//				else {
-//					curr_item_id = p.getItem().getId();
-//					result.setItemName(p.getItem().getName());
-//					result.setExternalSource(p.getItem().getExternalSource());
-//					result.setExternalId(p.getItem().getExternalId());
-//					result.setCollectionName(p.getItem().getCollection().getName());
-//					primaryfileinfo.put("id", p.getId());
-//					primaryfileinfo.put("name",p.getName());
-//					primaryfileinfo.put("mediaType",mime_type);
-//					primaryfileinfo.put("originalFilename",p.getOriginalFilename());
-//					primaryfilerows.add(primaryfileinfo);
-//				}
+				
+				Map<String, Object> primaryfileinfo = new HashMap<String, Object>();
+				primaryfileinfo.put("id", p.getPrimaryfileId()); 
+				primaryfileinfo.put("name", p.getPrimaryfileName());
+				primaryfileinfo.put("mediaType", p.getMimeType());
+				primaryfileinfo.put("originalFilename", p.getOriginalFilename());
+				primaryfilerows.add(primaryfileinfo);
 			}
-			//add the last item to the rows
-			if(primaryfilerows.size()>0) {
-				result.setPrimaryfiles(primaryfilerows);
-				rows.add(result);
+			
+			if (rows.size() > 0) {
 				response.setRows(rows);
 			}
 			else {
 				response.setError("No primary file found");
 			}
+			response.setTotal(matchedFiles.getTotalElements());
 			response.setSuccess(true);
 			log.info("Successfully found " + rows.size() + " items containing primaryfiles: keywowrd = " + keyword + ", mediaType = " + mediaType);			
 		} catch (Exception e) {
@@ -0,0 +1,289 @@
+package edu.indiana.dlib.amppd.service.impl;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+
+import edu.indiana.dlib.amppd.config.AmppdPropertyConfig;
+import edu.indiana.dlib.amppd.exception.StorageException;
+import edu.indiana.dlib.amppd.exception.StorageFileNotFoundException;
+import edu.indiana.dlib.amppd.model.Primaryfile;
+import edu.indiana.dlib.amppd.model.WorkflowResult;
+import edu.indiana.dlib.amppd.repository.PrimaryfileRepository;
+import edu.indiana.dlib.amppd.repository.WorkflowResultRepository;
+import edu.indiana.dlib.amppd.service.FileStorageService;
+import edu.indiana.dlib.amppd.service.MediaService;
+import edu.indiana.dlib.amppd.service.MediaStreamService;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Implementation of MediaStreamService.
+ * Single byte ranges are served as partial content; multiple ranges are not supported and result in the full content.
+ * When the servlet container supports sendfile (as Tomcat's NIO connector does), the transfer is handed over to the container,
+ * which sends the file zero-copy without holding the request thread; otherwise the file is transferred on the request thread
+ * via FileChannel.transferTo, with the number of such concurrent transfers bounded, beyond which requests are rejected with 503.
+ */
+@Service
+@Slf4j
+public class MediaStreamServiceImpl implements MediaStreamService {
+
+	// Tomcat request attributes for sendfile
+	public static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+	public static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	public static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	public static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+	// seconds for clients to wait before retrying when all transfer slots are taken
+	public static final String RETRY_AFTER_SECONDS = "5";
+
+	@Autowired
+	private AmppdPropertyConfig amppdPropertyConfig;
+
+	@Autowired
+	private PrimaryfileRepository primaryfileRepository;
+
+	@Autowired
+	private WorkflowResultRepository workflowResultRepository;
+
+	@Autowired
+	private FileStorageService fileStorageService;
+
+	@Autowired
+	private MediaService mediaService;
+
+	// permits for transfers on request threads
+	private Semaphore permits;
+
+	@PostConstruct
+	public void init() {
+		permits = new Semaphore(Math.max(1, amppdPropertyConfig.getMediaStreamingMaxConcurrent()));
+	}
+
+	/**
+	 * @see edu.indiana.dlib.amppd.service.MediaStreamService.isEnabled()
+	 */
+	@Override
+	public boolean isEnabled() {
+		return amppdPropertyConfig.isMediaStreaming();
+	}
+
+	/**
+	 * @see edu.indiana.dlib.amppd.service.MediaStreamService.streamPrimaryfile(Long, HttpServletRequest, HttpServletResponse)
+	 */
+	@Override
+	public void streamPrimaryfile(Long id, HttpServletRequest request, HttpServletResponse response) {
+		Primaryfile primaryfile = primaryfileRepository.findById(id).orElseThrow(() -> new StorageException("Primaryfile <" + id + "> does not exist!"));
+		if (primaryfile.getPathname() == null) {
+			throw new StorageException("Can't stream media for primaryfile " + id + ": its media file hasn't been uploaded.");
+		}
+
+		Path path = fileStorageService.resolve(primaryfile.getPathname());
+		String contentType = primaryfile.getMimeType();
+		if (StringUtils.isEmpty(contentType)) {
+			contentType = getContentType(path.getFileName().toString());
+		}
+		stream(path, contentType, request, response);
+	}
+
+	/**
+	 * @see edu.indiana.dlib.amppd.service.MediaStreamService.streamWorkflowOutput(Long, HttpServletRequest, HttpServletResponse)
+	 */
+	@Override
+	public void streamWorkflowOutput(Long id, HttpServletRequest request, HttpServletResponse response) {
+		WorkflowResult workflowResult = workflowResultRepository.findById(id).orElseThrow(() -> new StorageException("workflowResultId <" + id + "> does not exist!"));
+		if (workflowResult.getOutputPath() == null) {
+			throw new StorageException("Can't stream output for workflowResult " + id + ": its output file path is null.");
+		}
+
+		// Galaxy dataset files have no meaningful extension, so the content type is decided by the output data type
+		Path path = Paths.get(workflowResult.getOutputPath());
+		String contentType = getContentType("output." + mediaService.getWorkflowResultOutputExtension(workflowResult));
+		stream(path, contentType, request, response);
+	}
+
+	/*
+	 * Stream the given file with the given content type to the given response, according to the Range and conditional headers of the given request.
+	 */
+	private void stream(Path path, String contentType, HttpServletRequest request, HttpServletResponse response) {
+		long length, lastModified;
+		try {
+			// resolve links, so that the real file is sent and validated by the container
+			path = path.toRealPath();
+			length = Files.size(path);
+			// HTTP dates have second precision
+			lastModified = Files.getLastModifiedTime(path).toMillis() / 1000 * 1000;
+		}
+		catch (IOException e) {
+			throw new StorageFileNotFoundException("Can't stream file " + path + ": it doesn't exist or can't be read", e);
+		}
+		String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+
+		// acquire a transfer permit first if the transfer will happen on the request thread, so that no header is set on rejection
+		boolean head = "HEAD".equals(request.getMethod());
+		boolean sendfile = Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT));
+		boolean permitted = !head && !sendfile;
+		if (permitted && !permits.tryAcquire()) {
+			log.warn("Rejected streaming " + path + ": all " + amppdPropertyConfig.getMediaStreamingMaxConcurrent() + " transfer slots are taken");
+			response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			response.setHeader(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+			return;
+		}
+
+		try {
+			response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+			response.setHeader(HttpHeaders.ETAG, etag);
+			response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+
+			if (isNotModified(request, etag, lastModified)) {
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+
+			// by default send the whole file
+			long start = 0, end = length - 1;
+			String range = request.getHeader(HttpHeaders.RANGE);
+			if (range != null && isRangeApplicable(request, etag, lastModified)) {
+				try {
+					List<HttpRange> ranges = HttpRange.parseRanges(range);
+					if (ranges.size() == 1) {
+						start = ranges.get(0).getRangeStart(length);
+						end = ranges.get(0).getRangeEnd(length);
+						if (start >= length || start > end) {
+							throw new IllegalArgumentException("Range starts beyond the end of file");
+						}
+						response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+						response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+					}
+				}
+				catch (IllegalArgumentException e) {
+					log.warn("Unsatisfiable range " + range + " for " + path + " with " + length + " bytes");
+					response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+					response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+					return;
+				}
+			}
+
+			long count = end - start + 1;
+			response.setContentType(contentType);
+			response.setContentLengthLong(count);
+			if (head || count <= 0) {
+				return;
+			}
+
+			// let the container send the file, the end position is exclusive
+			if (sendfile) {
+				request.setAttribute(SENDFILE_FILENAME, path.toString());
+				request.setAttribute(SENDFILE_START, Long.valueOf(start));
+				request.setAttribute(SENDFILE_END, Long.valueOf(end + 1));
+				log.debug("Handed over " + count + " bytes of " + path + " from position " + start + " to sendfile");
+				return;
+			}
+
+			transfer(path, start, count, response);
+		}
+		finally {
+			if (permitted) {
+				permits.release();
+			}
+		}
+	}
+
+	/*
+	 * Transfer count bytes of the given file starting at the given position to the given response.
+	 */
+	private void transfer(Path path, long position, long count, HttpServletResponse response) {
+		long start = System.currentTimeMillis();
+		long remaining = count;
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+			while (remaining > 0) {
+				long transferred = channel.transferTo(position, remaining, out);
+				if (transferred <= 0) {
+					break;
+				}
+				position += transferred;
+				remaining -= transferred;
+			}
+			log.debug("Streamed " + (count - remaining) + " bytes of " + path + " in " + (System.currentTimeMillis() - start) + " ms");
+		}
+		catch (IOException e) {
+			// most likely the client has aborted, which is common when seeking in media players
+			log.debug("Stopped streaming " + path + " after " + (count - remaining) + " bytes: " + e);
+		}
+	}
+
+	/*
+	 * Returns true if the If-None-Match or If-Modified-Since header of the given request indicates that the client's copy is still current.
+	 */
+	private boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+		String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+		if (ifNoneMatch != null) {
+			// weak comparison as specified for If-None-Match; If-Modified-Since is ignored when If-None-Match is present
+			for (String tag : ifNoneMatch.split(",")) {
+				tag = StringUtils.removeStart(tag.trim(), "W/");
+				if (tag.equals("*") || tag.equals(etag)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		long ifModifiedSince = getDateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+		return ifModifiedSince >= 0 && lastModified <= ifModifiedSince;
+	}
+
+	/*
+	 * Returns true if the Range header of the given request shall be applied, i.e. there is no If-Range header, or it matches the current file.
+	 */
+	private boolean isRangeApplicable(HttpServletRequest request, String etag, long lastModified) {
+		String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+		if (ifRange == null) {
+			return true;
+		}
+		// If-Range is either a strong entity tag or an HTTP date
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return ifRange.equals(etag);
+		}
+		return getDateHeader(request, HttpHeaders.IF_RANGE) == lastModified;
+	}
+
+	/*
+	 * Get the date value of the given header in the given request, or -1 if it's absent or malformed.
+	 */
+	private long getDateHeader(HttpServletRequest request, String name) {
+		try {
+			return request.getDateHeader(name);
+		}
+		catch (IllegalArgumentException e) {
+			return -1;
+		}
+	}
+
+	/*
+	 * Get the content type for the given filename based on its extension.
+	 */
+	private String getContentType(String filename) {
+		return MediaTypeFactory.getMediaType(filename).orElse(MediaType.APPLICATION_OCTET_STREAM).toString();
+	}
+
+}
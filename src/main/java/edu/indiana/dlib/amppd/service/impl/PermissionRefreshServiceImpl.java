@@ -28,6 +28,7 @@ import edu.indiana.dlib.amppd.repository.RoleAssignmentRepository;
 import edu.indiana.dlib.amppd.repository.RoleRepository;
 import edu.indiana.dlib.amppd.repository.UnitRepository;
 import edu.indiana.dlib.amppd.service.PermissionRefreshService;
+import edu.indiana.dlib.amppd.service.PermissionService;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -58,6 +59,9 @@ public class PermissionRefreshServiceImpl implements PermissionRefreshService {
 	@Autowired
 	private UnitRepository unitRepository;
 	
+	@Autowired
+	private PermissionService permissionService;
+	
 	
 	/**
 	 * @see edu.indiana.dlib.amppd.service.MgmRefreshService.refreshMgmTables()
@@ -69,6 +73,9 @@ public class PermissionRefreshServiceImpl implements PermissionRefreshService {
 		List<Action> actions = refreshAction();
 		refreshRoleAction(roles, actions);		
 //		initRoleAssignment();
+		
+		// discard permissions cached based on the old tables once the refresh is committed
+		permissionService.invalidatePermissions();
 	}
 
 	/**
@@ -1,33 +1,44 @@
 package edu.indiana.dlib.amppd.service.impl;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import edu.indiana.dlib.amppd.model.ac.Action;
-import edu.indiana.dlib.amppd.model.ac.Role;
 import edu.indiana.dlib.amppd.model.ac.Action.ActionType;
 import edu.indiana.dlib.amppd.model.ac.Action.TargetType;
-import edu.indiana.dlib.amppd.model.AmpUser;
+import edu.indiana.dlib.amppd.model.projection.RoleActionId;
+import edu.indiana.dlib.amppd.model.projection.RoleAssignmentId;
 import edu.indiana.dlib.amppd.repository.ActionRepository;
 import edu.indiana.dlib.amppd.repository.RoleAssignmentRepository;
 import edu.indiana.dlib.amppd.repository.RoleRepository;
 import edu.indiana.dlib.amppd.service.AmpUserService;
 import edu.indiana.dlib.amppd.service.PermissionService;
+import edu.indiana.dlib.amppd.web.UnitActions;
 import lombok.extern.slf4j.Slf4j;
 
 
 /**
  * Implementation of PermissionService.
+ * All actions and the actions granted to each role are loaded into memory on first use, each action being assigned a bit;
+ * the role assignments of each user are then loaded on the user's first check and combined into one action bitset
+ * for global scope and one for each unit, so that subsequent checks don't touch the DB.
+ * All cached permissions are discarded whenever roles, actions, role actions or role assignments change.
  * @author yingfeng
  */
 @Service
 @Slf4j
-public class PermissionServiceImpl implements PermissionService {		
+public class PermissionServiceImpl implements PermissionService {
 
 	@Autowired
 	private RoleRepository roleRepository;
@@ -40,38 +51,203 @@ public class PermissionServiceImpl implements PermissionService {
 
 	@Autowired
 	private AmpUserService ampUserService;
-	
-	
+
+	// incremented upon each invalidation, so that permissions loaded concurrently with a change are not cached
+	private final AtomicLong version = new AtomicLong();
+
+	// all actions and the actions granted to each role
+	private volatile ActionTable actionTable;
+
+	// permissions of each user, by username
+	private final Map<String, UserPermissions> userPermissions = new ConcurrentHashMap<String, UserPermissions>();
+
+	/*
+	 * All actions with their bit indexes, and the action bitset granted to each role.
+	 */
+	private static class ActionTable {
+		long version;
+		List<Action> actions = new ArrayList<Action>();				// actions indexed by bit
+		Map<Long, Integer> actionBits = new HashMap<Long, Integer>();	// action ID -> bit
+		Map<String, Integer> typeBits = new HashMap<String, Integer>();	// actionType/targetType -> bit
+		Map<String, Integer> urlBits = new HashMap<String, Integer>();	// httpMethod urlPattern -> bit
+		Map<Long, BitSet> roleActions = new HashMap<Long, BitSet>();	// role ID -> action bitset
+	}
+
+	/*
+	 * The action bitsets a user is allowed to perform globally and within each unit.
+	 */
+	private static class UserPermissions {
+		long version;
+		BitSet global = new BitSet();
+		Map<Long, BitSet> units = new HashMap<Long, BitSet>();
+
+		boolean has(int bit, Long unitId) {
+			if (global.get(bit)) {
+				return true;
+			}
+			BitSet unit = unitId == null ? null : units.get(unitId);
+			return unit != null && unit.get(bit);
+		}
+	}
+
 	public boolean hasPermsion(ActionType actionType, TargetType targetType, Long unitId) {
-		Action action = actionRepository.findFirstByActionTypeAndTargetType(actionType, targetType);
-		
-		boolean has = hasPermission(action, unitId);
+		ActionTable table = getActionTable();
+		Integer bit = table.typeBits.get(actionType + "/" + targetType);
+
+		boolean has = hasPermission(table, bit, unitId);
 		return has;
 	}
-	
+
 	public boolean hasPermsion(HttpMethod httpMethod, String urlPattern, Long unitId) {
-		Action action = actionRepository.findFirstByHttpMethodAndUrlPattern(httpMethod, urlPattern);
-		
-		boolean has = hasPermission(action, unitId);
+		ActionTable table = getActionTable();
+		Integer bit = table.urlBits.get(httpMethod + " " + urlPattern);
+
+		boolean has = hasPermission(table, bit, unitId);
 		return has;
 	}
-	
+
 	public boolean hasPermission(Action action, Long unitId) {
-		boolean has = false;
-		
-		AmpUser user = ampUserService.getCurrentUser();
-		Set<Role> roles = action.getRoles();		
-		List<Long> roleIds = new ArrayList<Long>();
-		
-		for (Role role : roles) {
-			roleIds.add(role.getId());
-		}
-		
-		has = roleAssignmentRepository.existsByUserIdAndRoleIdInAndUnitId(user.getId(), roleIds, unitId);
-		boolean hasGlobal = roleAssignmentRepository.existsByUserIdAndRoleIdInAndUnitIdIsNull(user.getId(), roleIds);
-		has = has || hasGlobal;
-				
+		ActionTable table = getActionTable();
+		Integer bit = action == null ? null : table.actionBits.get(action.getId());
+
+		boolean has = hasPermission(table, bit, unitId);
 		return has;
 	}
-	
+
+	/**
+	 * @see edu.indiana.dlib.amppd.service.PermissionService.getPermittedActions(List, List, List)
+	 */
+	@Override
+	public List<UnitActions> getPermittedActions(List<ActionType> actionTypes, List<TargetType> targetTypes, List<Long> unitIds) {
+		ActionTable table = getActionTable();
+		UserPermissions permissions = getUserPermissions(table);
+
+		// bits of the queried actions
+		List<Integer> bits = new ArrayList<Integer>();
+		for (int bit = 0; bit < table.actions.size(); bit++) {
+			Action action = table.actions.get(bit);
+			if ((actionTypes == null || actionTypes.contains(action.getActionType())) && (targetTypes == null || targetTypes.contains(action.getTargetType()))) {
+				bits.add(bit);
+			}
+		}
+
+		List<UnitActions> unitActions = new ArrayList<UnitActions>();
+		for (Long unitId : unitIds) {
+			List<Action> actions = new ArrayList<Action>();
+			for (int bit : bits) {
+				if (permissions.has(bit, unitId)) {
+					actions.add(table.actions.get(bit));
+				}
+			}
+			unitActions.add(new UnitActions(unitId, actions));
+		}
+
+		return unitActions;
+	}
+
+	/**
+	 * @see edu.indiana.dlib.amppd.service.PermissionService.invalidatePermissions()
+	 */
+	@Override
+	public void invalidatePermissions() {
+		// if called within a transaction, the changes are not visible to other transactions until committed
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					clearPermissions();
+				}
+			});
+		}
+		else {
+			clearPermissions();
+		}
+	}
+
+	/*
+	 * Check whether the current user can perform the action with the given bit in the given action table within the given unit.
+	 */
+	private boolean hasPermission(ActionTable table, Integer bit, Long unitId) {
+		if (bit == null) {
+			log.warn("Permission denied for non-existing action within unit " + unitId);
+			return false;
+		}
+		return getUserPermissions(table).has(bit, unitId);
+	}
+
+	/*
+	 * Discard all cached permissions.
+	 */
+	private void clearPermissions() {
+		version.incrementAndGet();
+		actionTable = null;
+		userPermissions.clear();
+		log.info("Invalidated all cached permissions");
+	}
+
+	/*
+	 * Get the cached action table, or load it if not cached yet.
+	 */
+	private ActionTable getActionTable() {
+		ActionTable table = actionTable;
+		long currentVersion = version.get();
+		if (table != null && table.version == currentVersion) {
+			return table;
+		}
+
+		table = new ActionTable();
+		table.version = currentVersion;
+		for (Action action : actionRepository.findAll()) {
+			int bit = table.actions.size();
+			table.actions.add(action);
+			table.actionBits.put(action.getId(), bit);
+			table.typeBits.put(action.getActionType() + "/" + action.getTargetType(), bit);
+			table.urlBits.put(action.getHttpMethod() + " " + action.getUrlPattern(), bit);
+		}
+		for (RoleActionId roleAction : roleRepository.findRoleActionIds()) {
+			Integer bit = table.actionBits.get(roleAction.getActionId());
+			if (bit != null) {
+				table.roleActions.computeIfAbsent(roleAction.getRoleId(), id -> new BitSet()).set(bit);
+			}
+		}
+
+		// don't cache the table if permissions have changed while loading
+		if (version.get() == currentVersion) {
+			actionTable = table;
+		}
+		log.info("Loaded " + table.actions.size() + " actions granted to " + table.roleActions.size() + " roles");
+		return table;
+	}
+
+	/*
+	 * Get the cached permissions of the current user, or load them based on the given action table if not cached yet.
+	 */
+	private UserPermissions getUserPermissions(ActionTable table) {
+		String username = ampUserService.getCurrentUsername();
+		UserPermissions permissions = userPermissions.get(username);
+		if (permissions != null && permissions.version == table.version) {
+			return permissions;
+		}
+
+		permissions = new UserPermissions();
+		permissions.version = table.version;
+		List<RoleAssignmentId> roleAssignments = roleAssignmentRepository.findRoleAssignmentIdsByUsername(username);
+		for (RoleAssignmentId roleAssignment : roleAssignments) {
+			BitSet actions = table.roleActions.get(roleAssignment.getRoleId());
+			if (actions == null) {
+				continue;
+			}
+			Long unitId = roleAssignment.getUnitId();
+			BitSet bits = unitId == null ? permissions.global : permissions.units.computeIfAbsent(unitId, id -> new BitSet());
+			bits.or(actions);
+		}
+
+		// don't cache the permissions if they have changed while loading
+		if (version.get() == table.version) {
+			userPermissions.put(username, permissions);
+		}
+		log.debug("Loaded permissions of user " + username + " from " + roleAssignments.size() + " role assignments");
+		return permissions;
+	}
+
 }
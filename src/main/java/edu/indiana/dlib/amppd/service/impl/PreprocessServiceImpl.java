@@ -1,25 +1,36 @@
 package edu.indiana.dlib.amppd.service.impl;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.Map;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import edu.indiana.dlib.amppd.config.AmppdPropertyConfig;
 import edu.indiana.dlib.amppd.exception.MediaConversionException;
 import edu.indiana.dlib.amppd.exception.PreprocessException;
-import edu.indiana.dlib.amppd.exception.StorageFileNotFoundException;
 import edu.indiana.dlib.amppd.model.Asset;
+import edu.indiana.dlib.amppd.model.MediaDescriptor;
+import edu.indiana.dlib.amppd.model.Primaryfile;
+import edu.indiana.dlib.amppd.model.Supplement;
 import edu.indiana.dlib.amppd.service.DataentityService;
 import edu.indiana.dlib.amppd.service.FileStorageService;
+import edu.indiana.dlib.amppd.service.MediaProbeService;
 import edu.indiana.dlib.amppd.service.PreprocessService;
+import edu.indiana.dlib.amppd.web.MediaProbeResult;
+import edu.indiana.dlib.amppd.web.PreprocessedMedia;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -30,6 +41,9 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class PreprocessServiceImpl implements PreprocessService {
 	
+	// number of assets to backfill media descriptor for in each transaction
+	public static final int BACKFILL_BATCH_SIZE = 500;
+	
 	@Autowired
 	private AmppdPropertyConfig amppdPropertyConfig;
 	
@@ -38,6 +52,15 @@ public class PreprocessServiceImpl implements PreprocessService {
 
 	@Autowired
 	private DataentityService dataentityService;
+	
+	@Autowired
+	private MediaProbeService mediaProbeService;
+	
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+	
+	@PersistenceContext
+	private EntityManager entityManager;
 
 	/**
 	 * @see edu.indiana.dlib.amppd.service.PreprocessServiceImpl.convertFlacToWav(String)
@@ -52,23 +75,29 @@ public class PreprocessServiceImpl implements PreprocessService {
 		}
 		
 		// ffmpeg with -y so that it forces overwrite if target file already exists; 
-		// otherwise the process will be blocked waiting for user to confirm overwriting
+		// otherwise the process will be blocked waiting for user to confirm overwriting;
+		// pass arguments separately so that paths with spaces are not split
 		String targetFilePath = FilenameUtils.getFullPath(sourceFilepath) + FilenameUtils.getBaseName(sourceFilepath) + ".wav";
-		String command = "ffmpeg -y -i " + fileStorageService.absolutePathName(sourceFilepath) + " " + fileStorageService.absolutePathName(targetFilePath);
+		ProcessBuilder pb = new ProcessBuilder("ffmpeg", "-nostdin", "-y", "-i", fileStorageService.absolutePathName(sourceFilepath), fileStorageService.absolutePathName(targetFilePath));
 		
+		File logFile = null;
 		try {
-			Process process = Runtime.getRuntime().exec(command);
-		    final int status = process.waitFor();
+			// ffmpeg writes its progress to stderr, which is redirected into a temporary file, 
+			// so that it can't fill up the pipe and block ffmpeg while we wait for it with timeout
+			logFile = File.createTempFile("ffmpeg", ".log");
+			pb.redirectErrorStream(true);
+			pb.redirectOutput(logFile);
+			
+			Process process = pb.start();
+			if (!process.waitFor(amppdPropertyConfig.getPreprocessTimeoutSeconds(), TimeUnit.SECONDS)) {
+				process.destroyForcibly();
+		    	throw new MediaConversionException("Exception while converting " + sourceFilepath + " to " + targetFilePath + ": ffmpeg timed out after " + amppdPropertyConfig.getPreprocessTimeoutSeconds() + " seconds");
+			}
+			
+		    final int status = process.exitValue();
 		    if (status != 0) {		    	
 				// capture the error outputs into log
-		    	BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream()));
-		    	StringBuilder builder = new StringBuilder();
-		    	String line = null;
-		    	while ( (line = reader.readLine()) != null) {
-		    		builder.append(line);
-		    		builder.append(System.getProperty("line.separator"));
-		    	}
-				log.error(builder.toString());
+				log.error(Files.readString(logFile.toPath()));
 		    	throw new MediaConversionException("Exception while converting " + sourceFilepath + " to " + targetFilePath + ": ffmpeg exited with status " + status);
 		    }
 		    
@@ -76,9 +105,21 @@ public class PreprocessServiceImpl implements PreprocessService {
 //			// fake a the wav file by copying the original flac file
 //			Files.copy(fileStorageService.resolve(sourceFilepath), fileStorageService.resolve(targetFilePath));
 		}
+		catch (MediaConversionException e) {
+			throw e;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MediaConversionException("Interrupted while converting " + sourceFilepath + " to " + targetFilePath, e);
+		}
 		catch (Exception e) {
 			throw new MediaConversionException("Exception while converting " + sourceFilepath + " to " + targetFilePath, e);
 		}
+		finally {
+			if (logFile != null) {
+				logFile.delete();
+			}
+		}
 		
 		log.info("Converted source flac file to target wav file: " + sourceFilepath + "->" + targetFilePath);
 		return targetFilePath;		
@@ -90,7 +131,13 @@ public class PreprocessServiceImpl implements PreprocessService {
 	@Override
 	public Asset convertFlac(Asset asset) {
 		String targetFilePath = convertFlacToWav(asset.getPathname());
-				
+		return updateConvertedPathname(asset, targetFilePath);
+	}
+	
+	/**
+	 * Update the given asset with the given pathname of the wav file converted from its flac file, if any.
+	 */
+	private Asset updateConvertedPathname(Asset asset, String targetFilePath) {
 		// if conversion happened, update the extension of originalFilename and pathname,
 		// the originalFilename's extension is used when computing asset file pathname,
 		// note that we do not remove the original flac file just in case of future use;
@@ -114,58 +161,23 @@ public class PreprocessServiceImpl implements PreprocessService {
 	@Override
 	public String retrieveMediaInfo(String filepath) {
 		String jsonpath = getMediaInfoJsonPath(filepath);
-		ProcessBuilder pb = new ProcessBuilder(
-				amppdPropertyConfig.getPythonPath(), 
-				amppdPropertyConfig.getMediaprobeDir() + "/media_probe.py", 
-				"--json", 
-				fileStorageService.absolutePathName(filepath));
-
-		// This is a hack to allow ProcessBuilder running on operating systems using /usr/local/bin to find ffprobe and pdfinfo for MediaProbe
-		Map<String, String> env = pb.environment();
-		String path = env.get("PATH");
-		if (path!=null && !path.contains("/usr/local/bin")) {
-			path = path.concat(":/usr/local/bin");
-			env.put("PATH", path);
-		}
-		
-		// merges the standard error to standard output
-		pb.redirectErrorStream(true);
-		
-		// redirect media_probe output into json file
-		// alternatively we can write the json output directly into asset, but creating the json file could be useful for other purpose
-		pb.redirectOutput(new File(fileStorageService.absolutePathName(jsonpath)));				
-		
+		String mediaInfo = mediaProbeService.probe(filepath);
+		saveMediaInfoJson(jsonpath, mediaInfo);
+		log.info("Retrieved media info for " + filepath + " into json file " + jsonpath);
+		return mediaInfo;		
+	}
+	
+	/*
+	 * Save the given media info into the given json file next to the media file.
+	 * Alternatively we can write the json output directly into asset only, but creating the json file could be useful for other purpose.
+	 */
+	private void saveMediaInfoJson(String jsonpath, String mediaInfo) {
 		try {
-			Process process = pb.start();
-		    final int status = process.waitFor();
-		    if (status != 0) {		    	
-				// capture the error outputs into log
-				log.error(fileStorageService.readTextFile(jsonpath));
-		    	throw new PreprocessException("Error while retrieving media info for " + filepath + ": MediaProbe exited with status " + status);
-		    }
-
-//			// workaround for local debugging in case ffmpeg/ffprobe is not available
-//			// fake a the json file by writing some string to it
-//			Files.write(fileStorageService.resolve(jsonpath), "{\"tags\": \"fake media info\"}".getBytes());
+			Files.writeString(Paths.get(fileStorageService.absolutePathName(jsonpath)), mediaInfo);
 		}
 		catch (IOException e) {
-			throw new PreprocessException("Error while retrieving media info for " + filepath, e);
-		}
-		catch (InterruptedException e) {
-			throw new PreprocessException("Error while retrieving media info for " + filepath, e);
-		}	
-		
-		// read the json file content into a string
-		String mediaInfo = null;
-		try {
-			mediaInfo = fileStorageService.readTextFile(jsonpath);
-		}
-		catch (StorageFileNotFoundException e) {
-			throw new PreprocessException("Error while reading media info from " + jsonpath + ": the json file does not exist");
+			throw new PreprocessException("Error while writing media info into " + jsonpath, e);
 		}
-		
-		log.info("Retrieved media info for " + filepath + " into json file " + jsonpath);
-		return mediaInfo;		
 	}
 	
 	/**
@@ -198,6 +210,143 @@ public class PreprocessServiceImpl implements PreprocessService {
 		return asset;
 	}
 	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.PreprocessService.preprocess(List<Asset>, boolean)
+	 */
+	@Override	
+	public <T extends Asset> List<T> preprocess(List<T> assets, boolean persist) {
+		List<T> failedAssets = new ArrayList<T>();
+		List<T> convertedAssets = new ArrayList<T>();
+		
+		// flac conversion is rarely needed and disk bound, so convert sequentially before probing all at once
+		for (T asset : assets) {
+			try {
+				convertFlac(asset);
+				convertedAssets.add(asset);
+			}
+			catch (Exception e) {
+				log.error("Failed to convert flac for asset " + asset.getId(), e);
+				failedAssets.add(asset);
+			}
+		}
+		
+		for (MediaProbeResult result : mediaProbeService.probe(convertedAssets)) {
+			@SuppressWarnings("unchecked")
+			T asset = (T)result.getAsset();
+			try {
+				if (!result.isSuccess() || StringUtils.isEmpty(result.getMediaInfo())) {
+					throw new PreprocessException("Error retrieving media info for Asset " + asset.getId() + ": " + (result.isSuccess() ? "the result is empty" : result.getError()));
+				}
+				saveMediaInfoJson(getMediaInfoJsonPath(asset.getPathname()), result.getMediaInfo());
+				asset.setMediaInfo(result.getMediaInfo());
+				if (persist) {
+					dataentityService.saveAsset(asset); 
+				}
+			}
+			catch (Exception e) {
+				log.error("Failed to preprocess asset " + asset.getId(), e);
+				failedAssets.add(asset);
+			}
+		}
+		
+		log.info("Successfully preprocessed " + (assets.size() - failedAssets.size()) + " assets, failed " + failedAssets.size() + " assets");
+		return failedAssets;
+	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.PreprocessService.preprocessMedia(String)
+	 */
+	@Override
+	public PreprocessedMedia preprocessMedia(String pathname) {
+		long start = System.currentTimeMillis();
+		String convertedPathname = convertFlacToWav(pathname);
+		String mediaInfo = retrieveMediaInfo(convertedPathname == null ? pathname : convertedPathname);
+		if (StringUtils.isEmpty(mediaInfo)) {
+			throw new PreprocessException("Error retrieving media info for " + pathname + ": the result is empty");
+		}
+		
+		log.info("Successfully preprocessed media file: " + pathname);
+		return new PreprocessedMedia(pathname, convertedPathname, mediaInfo, System.currentTimeMillis() - start);
+	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.PreprocessService.applyPreprocessedMedia(Asset, PreprocessedMedia, boolean)
+	 */
+	@Override
+	@Transactional
+	public Asset applyPreprocessedMedia(Asset asset, PreprocessedMedia media, boolean persist) {
+		updateConvertedPathname(asset, media.getConvertedPathname());
+		asset.setMediaInfo(media.getMediaInfo());
+		if (persist) {
+			asset = dataentityService.saveAsset(asset); 
+		}
+		log.info("Successfully applied preprocessed media to asset: " + asset.getId());
+		return asset;
+	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.PreprocessService.backfillMediaDescriptors()
+	 */
+	@Override
+	public int backfillMediaDescriptors() {
+		int count = backfillMediaDescriptors(Primaryfile.class) + backfillMediaDescriptors(Supplement.class);
+		log.info("Successfully backfilled media descriptors for " + count + " assets");
+		return count;
+	}
+	
+	/**
+	 * Backfill media descriptors for assets of the given entity class, one batch per transaction, keyed by ID,
+	 * with bulk updates so that the assets are not loaded as entities nor their auditing fields touched.
+	 */
+	private int backfillMediaDescriptors(Class<? extends Asset> clazz) {
+		String entity = clazz.getSimpleName();
+		String select = "select a.id, a.mediaInfo from " + entity + " a where a.mediaInfo is not null and a.mimeType is null and a.id > :lastId order by a.id";
+		String update = "update " + entity + " a set a.mimeType = :mimeType, a.mediaDuration = :duration, a.streamKinds = :streamKinds, a.containerFormat = :containerFormat where a.id = :id";
+		long[] lastId = {0L};
+		int count = 0;
+		
+		while (true) {
+			Integer n = transactionTemplate.execute(status -> {
+				@SuppressWarnings("unchecked")
+				List<Object[]> rows = entityManager.createQuery(select).setParameter("lastId", lastId[0]).setMaxResults(BACKFILL_BATCH_SIZE).getResultList();
+				int updated = 0;
+				for (Object[] row : rows) {
+					Long id = (Long)row[0];
+					lastId[0] = id;
+					MediaDescriptor descriptor = null;
+					try {
+						descriptor = MediaDescriptor.parse((String)row[1]);
+					}
+					catch (Exception e) {
+						// skip assets with invalid media info, which will be logged upon access
+						log.warn("Failed to parse media info for " + entity + " " + id + ": " + e.getMessage());
+					}
+					if (descriptor == null || descriptor.getMimeType() == null) {
+						continue;
+					}
+					updated += entityManager.createQuery(update)
+							.setParameter("mimeType", descriptor.getMimeType())
+							.setParameter("duration", descriptor.getDuration())
+							.setParameter("streamKinds", MediaDescriptor.joinStreamKinds(descriptor.getStreamKinds()))
+							.setParameter("containerFormat", descriptor.getContainerFormat())
+							.setParameter("id", id)
+							.executeUpdate();
+				}
+				return rows.isEmpty() ? null : updated;
+			});
+			
+			if (n == null) {
+				break;
+			}
+			count += n;
+		}
+		
+		if (count > 0) {
+			log.info("Backfilled media descriptors for " + count + " " + entity + "s");
+		}
+		return count;
+	}
+	
 	/**
 	 * @see edu.indiana.dlib.amppd.service.PreprocessService.getMediaInfoJsonPath(String)
 	 */
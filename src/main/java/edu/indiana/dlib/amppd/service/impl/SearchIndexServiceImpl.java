@@ -0,0 +1,386 @@
+package edu.indiana.dlib.amppd.service.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import edu.indiana.dlib.amppd.model.Collection;
+import edu.indiana.dlib.amppd.model.Dataentity;
+import edu.indiana.dlib.amppd.model.Item;
+import edu.indiana.dlib.amppd.model.Primaryfile;
+import edu.indiana.dlib.amppd.model.SearchEntry;
+import edu.indiana.dlib.amppd.model.Unit;
+import edu.indiana.dlib.amppd.model.projection.PrimaryfileSearchResult;
+import edu.indiana.dlib.amppd.repository.CollectionRepository;
+import edu.indiana.dlib.amppd.repository.ItemRepository;
+import edu.indiana.dlib.amppd.repository.PrimaryfileRepository;
+import edu.indiana.dlib.amppd.repository.SearchEntryRepository;
+import edu.indiana.dlib.amppd.repository.UnitRepository;
+import edu.indiana.dlib.amppd.service.SearchIndexService;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Implementation of SearchIndexService.
+ */
+@Service
+@Slf4j
+public class SearchIndexServiceImpl implements SearchIndexService {
+	
+	// number of entries to rebuild in each transaction
+	public static final int REBUILD_BATCH_SIZE = 1000;
+	
+	// types of the indexed dataentities
+	private static final String[] ENTITY_TYPES = { SearchEntry.TYPE_UNIT, SearchEntry.TYPE_COLLECTION, SearchEntry.TYPE_ITEM, SearchEntry.TYPE_PRIMARYFILE };
+	
+	// trigram indexes on the lower-cased text columns, which allow "like '%keyword%'" to use the index;
+	// these can't be declared via JPA, thus are created with native DDL if not existing yet
+	private static final String[] TRIGRAM_INDEX_DDLS = {
+			"create extension if not exists pg_trgm",
+			"create index if not exists search_entry_name_trgm on search_entry using gin (lower(name) gin_trgm_ops)",
+			"create index if not exists search_entry_description_trgm on search_entry using gin (lower(description) gin_trgm_ops)",
+			"create index if not exists search_entry_item_name_trgm on search_entry using gin (lower(item_name) gin_trgm_ops)",
+			"create index if not exists search_entry_collection_name_trgm on search_entry using gin (lower(collection_name) gin_trgm_ops)"
+	};
+	
+	@Autowired
+	private SearchEntryRepository searchEntryRepository;
+	
+	@Autowired
+	private UnitRepository unitRepository;
+	
+	@Autowired
+	private CollectionRepository collectionRepository;
+	
+	@Autowired
+	private ItemRepository itemRepository;
+	
+	@Autowired
+	private PrimaryfileRepository primaryfileRepository;
+	
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+	
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	/**
+	 * @see edu.indiana.dlib.amppd.service.SearchIndexService.indexEntity(Dataentity)
+	 */
+	@Override
+	@Transactional
+	public SearchEntry indexEntity(Dataentity dataentity) {
+		SearchEntry entry;
+		
+		if (dataentity instanceof Unit) {
+			entry = getEntry(SearchEntry.TYPE_UNIT, dataentity);
+			entry.setUnitId(dataentity.getId());
+		}
+		else if (dataentity instanceof Collection) {
+			Collection collection = (Collection)dataentity;
+			entry = getEntry(SearchEntry.TYPE_COLLECTION, collection);
+			setCollection(entry, collection);
+			searchEntryRepository.updateCollection(collection.getId(), entry.getUnitId(), collection.getName(), collection.getActive());
+		}
+		else if (dataentity instanceof Item) {
+			Item item = (Item)dataentity;
+			entry = getEntry(SearchEntry.TYPE_ITEM, item);
+			setItem(entry, item);
+			searchEntryRepository.updateItem(item.getId(), entry.getUnitId(), entry.getCollectionId(), entry.getCollectionName(), entry.getCollectionActive(), item.getName());
+		}
+		else if (dataentity instanceof Primaryfile) {
+			Primaryfile primaryfile = (Primaryfile)dataentity;
+			entry = getEntry(SearchEntry.TYPE_PRIMARYFILE, primaryfile);
+			setItem(entry, primaryfile.getItem());
+		}
+		else {
+			return null;
+		}
+		
+		entry = searchEntryRepository.save(entry);
+		log.debug("Successfully indexed " + entry.getEntityType() + " " + entry.getEntityId() + " for search");
+		return entry;
+	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.SearchIndexService.removeEntity(Dataentity)
+	 */
+	@Override
+	@Transactional
+	public int removeEntity(Dataentity dataentity) {
+		int count;
+		
+		// entries of all descendants carry the ID of the ancestor, so they are removed along with the entity itself
+		if (dataentity instanceof Unit) {
+			count = searchEntryRepository.deleteByUnitId(dataentity.getId());
+		}
+		else if (dataentity instanceof Collection) {
+			count = searchEntryRepository.deleteByCollectionId(dataentity.getId());
+		}
+		else if (dataentity instanceof Item) {
+			count = searchEntryRepository.deleteByItemId(dataentity.getId());
+		}
+		else if (dataentity instanceof Primaryfile) {
+			count = searchEntryRepository.deleteByEntityTypeAndEntityId(SearchEntry.TYPE_PRIMARYFILE, dataentity.getId());
+		}
+		else {
+			return 0;
+		}
+		
+		log.debug("Successfully removed " + count + " search entries for " + dataentity.getClass().getSimpleName() + " " + dataentity.getId());
+		return count;
+	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.SearchIndexService.refreshSearchIndex()
+	 */
+	@Override
+	public int refreshSearchIndex() {
+		// each DDL runs in its own transaction, so that failure of one (for ex, pg_trgm not available) doesn't abort the others;
+		// without the trigram indexes search still works correctly, only slower
+		for (String ddl : TRIGRAM_INDEX_DDLS) {
+			try {
+				transactionTemplate.executeWithoutResult(status -> entityManager.createNativeQuery(ddl).executeUpdate());
+			}
+			catch (Exception e) {
+				log.warn("Failed to create trigram index for search: " + ddl + ": " + e.getMessage());
+			}
+		}
+
+		// the index is maintained incrementally by the dataentity handlers, and only needs a rebuild 
+		// if entities were changed via other paths, or upon first deployment;
+		// matching counts don't rule out the former, as entities could have been renamed without being re-indexed
+		long entries = searchEntryRepository.count();
+		long entities = unitRepository.count() + collectionRepository.count() + itemRepository.count() + primaryfileRepository.count();
+		long stale = 0;
+		for (String entityType : ENTITY_TYPES) {
+			stale += countStaleEntities(entityType);
+		}
+		if (entries == entities && stale == 0) {
+			log.info("Search index is up to date with " + entries + " entries");
+			return 0;
+		}
+		
+		log.info("Search index has " + entries + " entries for " + entities + " dataentities, " + stale + " of which are out of date, rebuilding ...");
+		return rebuildSearchIndex();
+	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.SearchIndexService.rebuildSearchIndex()
+	 */
+	@Override
+	public int rebuildSearchIndex() {
+		// entries are updated in place rather than deleted and recreated, so that search keeps working on the old entries during the rebuild
+		int count = rebuild("select u.id, u.name, u.description from Unit u where u.id > :lastId order by u.id", row -> {
+			SearchEntry entry = newEntry(SearchEntry.TYPE_UNIT, row);
+			entry.setUnitId(entry.getEntityId());
+			return entry;
+		});
+		
+		count += rebuild("select c.id, c.name, c.description, c.unit.id, c.active from Collection c where c.id > :lastId order by c.id", row -> {
+			SearchEntry entry = newEntry(SearchEntry.TYPE_COLLECTION, row);
+			entry.setUnitId((Long)row[3]);
+			entry.setCollectionId(entry.getEntityId());
+			entry.setCollectionName(entry.getName());
+			entry.setCollectionActive((Boolean)row[4]);
+			return entry;
+		});
+		
+		count += rebuild("select i.id, i.name, i.description, c.unit.id, c.id, c.name, c.active from Item i join i.collection c where i.id > :lastId order by i.id", row -> {
+			SearchEntry entry = newEntry(SearchEntry.TYPE_ITEM, row);
+			setAncestors(entry, row);
+			entry.setItemId(entry.getEntityId());
+			entry.setItemName(entry.getName());
+			return entry;
+		});
+		
+		count += rebuild("select p.id, p.name, p.description, c.unit.id, c.id, c.name, c.active, i.id, i.name from Primaryfile p join p.item i join i.collection c where p.id > :lastId order by p.id", row -> {
+			SearchEntry entry = newEntry(SearchEntry.TYPE_PRIMARYFILE, row);
+			setAncestors(entry, row);
+			entry.setItemId((Long)row[7]);
+			entry.setItemName((String)row[8]);
+			return entry;
+		});
+		
+		// remove the entries of entities which no longer exist
+		int deleted = 0;
+		for (String entityType : ENTITY_TYPES) {
+			deleted += deleteStaleEntries(entityType);
+		}
+		
+		log.info("Successfully rebuilt search index with " + count + " entries, removed " + deleted + " entries of deleted dataentities");
+		return count;
+	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.SearchIndexService.searchPrimaryfiles(String, boolean, Pageable)
+	 */
+	@Override
+	public Page<PrimaryfileSearchResult> searchPrimaryfiles(String keyword, boolean activeOnly, Pageable pageable) {
+		return searchEntryRepository.findPrimaryfilesByCollectionOrItemOrFileName(keyword == null ? "" : keyword, activeOnly, pageable);
+	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.SearchIndexService.searchEntities(String, String, Pageable)
+	 */
+	@Override
+	public Page<SearchEntry> searchEntities(String entityType, String keyword, Pageable pageable) {
+		return searchEntryRepository.findByEntityTypeAndKeyword(entityType, keyword == null ? "" : keyword, pageable);
+	}
+	
+	/**
+	 * Rebuild the entries with the given JPQL query, which selects entity ID, name and description followed by the ancestor fields, 
+	 * paged by entity ID, and the given mapper, one batch per transaction; existing entries are updated, missing ones created.
+	 */
+	private int rebuild(String jpql, Function<Object[], SearchEntry> mapper) {
+		long[] lastId = {0L};
+		int count = 0;
+		
+		while (true) {
+			Integer n = transactionTemplate.execute(status -> {
+				@SuppressWarnings("unchecked")
+				List<Object[]> rows = entityManager.createQuery(jpql).setParameter("lastId", lastId[0]).setMaxResults(REBUILD_BATCH_SIZE).getResultList();
+				List<SearchEntry> entries = new ArrayList<SearchEntry>();
+				for (Object[] row : rows) {
+					entries.add(mapper.apply(row));
+					lastId[0] = (Long)row[0];
+				}
+				if (entries.isEmpty()) {
+					return 0;
+				}
+				
+				// reuse the IDs of the existing entries, so that they are updated rather than duplicated
+				String entityType = entries.get(0).getEntityType();
+				List<Long> entityIds = entries.stream().map(SearchEntry::getEntityId).collect(Collectors.toList());
+				Map<Long, Long> ids = new HashMap<Long, Long>();
+				searchEntryRepository.findByEntityTypeAndEntityIdIn(entityType, entityIds).forEach(e -> ids.put(e.getEntityId(), e.getId()));
+				entries.forEach(e -> e.setId(ids.get(e.getEntityId())));
+				searchEntryRepository.saveAll(entries);
+				entityManager.flush();
+				entityManager.clear();
+				return entries.size();
+			});
+			
+			if (n == 0) {
+				break;
+			}
+			count += n;
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Count the dataentities of the given type whose entries are missing, or don't match their current name, description, or ancestor fields.
+	 */
+	private long countStaleEntities(String entityType) {
+		String from = entityType + " e";
+		String matches = matches("s.name", "e.name") + matches("s.description", "e.description");
+		if (SearchEntry.TYPE_UNIT.equals(entityType)) {
+			matches += matches("s.unitId", "e.id");
+		}
+		else if (SearchEntry.TYPE_COLLECTION.equals(entityType)) {
+			matches += matches("s.unitId", "e.unit.id") + matches("s.collectionId", "e.id") + matches("s.collectionName", "e.name") + matches("s.collectionActive", "e.active");
+		}
+		else if (SearchEntry.TYPE_ITEM.equals(entityType)) {
+			from += " join e.collection c";
+			matches += matches("s.unitId", "c.unit.id") + matches("s.collectionId", "c.id") + matches("s.collectionName", "c.name") + matches("s.collectionActive", "c.active")
+					+ matches("s.itemId", "e.id") + matches("s.itemName", "e.name");
+		}
+		else if (SearchEntry.TYPE_PRIMARYFILE.equals(entityType)) {
+			from += " join e.item i join i.collection c";
+			matches += matches("s.unitId", "c.unit.id") + matches("s.collectionId", "c.id") + matches("s.collectionName", "c.name") + matches("s.collectionActive", "c.active")
+					+ matches("s.itemId", "i.id") + matches("s.itemName", "i.name");
+		}
+		
+		String jpql = "select count(e) from " + from + " where not exists (select s.id from SearchEntry s where s.entityType = :entityType and s.entityId = e.id" + matches + ")";
+		return transactionTemplate.execute(status -> entityManager.createQuery(jpql, Long.class).setParameter("entityType", entityType).getSingleResult());
+	}
+	
+	/**
+	 * Get the JPQL condition for the given entry field to match the given entity field, including both being null.
+	 */
+	private String matches(String entryField, String entityField) {
+		return " and (" + entryField + " = " + entityField + " or " + entryField + " is null and " + entityField + " is null)";
+	}
+	
+	/**
+	 * Delete the entries of the given type whose dataentities no longer exist.
+	 */
+	private int deleteStaleEntries(String entityType) {
+		return transactionTemplate.execute(status -> entityManager.createQuery(
+				"delete from SearchEntry s where s.entityType = :entityType and not exists (select e.id from " + entityType + " e where e.id = s.entityId)")
+				.setParameter("entityType", entityType).executeUpdate());
+	}
+	
+	/**
+	 * Get the existing entry for the given dataentity, or a new one if not indexed yet, with the name and description populated.
+	 */
+	private SearchEntry getEntry(String entityType, Dataentity dataentity) {
+		SearchEntry entry = searchEntryRepository.findFirstByEntityTypeAndEntityId(entityType, dataentity.getId()).orElse(new SearchEntry());
+		entry.setEntityType(entityType);
+		entry.setEntityId(dataentity.getId());
+		entry.setName(dataentity.getName());
+		entry.setDescription(dataentity.getDescription());
+		return entry;
+	}
+	
+	/**
+	 * Create a new entry of the given type from the given row starting with entity ID, name and description.
+	 */
+	private SearchEntry newEntry(String entityType, Object[] row) {
+		SearchEntry entry = new SearchEntry();
+		entry.setEntityType(entityType);
+		entry.setEntityId((Long)row[0]);
+		entry.setName((String)row[1]);
+		entry.setDescription((String)row[2]);
+		return entry;
+	}
+	
+	/**
+	 * Populate the unit and collection fields of the given entry from the given row, starting at index 3.
+	 */
+	private void setAncestors(SearchEntry entry, Object[] row) {
+		entry.setUnitId((Long)row[3]);
+		entry.setCollectionId((Long)row[4]);
+		entry.setCollectionName((String)row[5]);
+		entry.setCollectionActive((Boolean)row[6]);
+	}
+	
+	/**
+	 * Populate the unit and collection fields of the given entry from the given collection.
+	 */
+	private void setCollection(SearchEntry entry, Collection collection) {
+		entry.setUnitId(collection.getUnit() == null ? null : collection.getUnit().getId());
+		entry.setCollectionId(collection.getId());
+		entry.setCollectionName(collection.getName());
+		entry.setCollectionActive(collection.getActive());
+	}
+	
+	/**
+	 * Populate the unit, collection and item fields of the given entry from the given item.
+	 */
+	private void setItem(SearchEntry entry, Item item) {
+		if (item == null) {
+			return;
+		}
+		if (item.getCollection() != null) {
+			setCollection(entry, item.getCollection());
+		}
+		entry.setItemId(item.getId());
+		entry.setItemName(item.getName());
+	}
+	
+}
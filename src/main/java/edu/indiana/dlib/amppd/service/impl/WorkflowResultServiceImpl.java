@@ -1,14 +1,30 @@
 package edu.indiana.dlib.amppd.service.impl;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -17,8 +33,9 @@ import org.apache.commons.lang3.time.DateUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.supercsv.io.CsvMapWriter;
-import org.supercsv.io.ICsvMapWriter;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.supercsv.io.CsvListWriter;
+import org.supercsv.io.ICsvListWriter;
 import org.supercsv.prefs.CsvPreference;
 
 import com.github.jmchilton.blend4j.galaxy.HistoriesClient;
@@ -41,15 +58,20 @@ import edu.indiana.dlib.amppd.model.MgmVersion;
 import edu.indiana.dlib.amppd.model.Primaryfile;
 import edu.indiana.dlib.amppd.model.Unit;
 import edu.indiana.dlib.amppd.model.WorkflowResult;
+import edu.indiana.dlib.amppd.model.projection.PrimaryfileHistory;
 import edu.indiana.dlib.amppd.repository.MgmToolRepository;
 import edu.indiana.dlib.amppd.repository.MgmVersionRepository;
 import edu.indiana.dlib.amppd.repository.PrimaryfileRepository;
 import edu.indiana.dlib.amppd.repository.WorkflowResultRepository;
+import edu.indiana.dlib.amppd.service.GalaxyApiService;
+import edu.indiana.dlib.amppd.service.GalaxyDataService;
 import edu.indiana.dlib.amppd.service.JobService;
 import edu.indiana.dlib.amppd.service.MediaService;
 import edu.indiana.dlib.amppd.service.WorkflowResultService;
 import edu.indiana.dlib.amppd.service.WorkflowService;
+import edu.indiana.dlib.amppd.util.RateLimiter;
 import edu.indiana.dlib.amppd.web.GalaxyJobState;
+import edu.indiana.dlib.amppd.web.WorkflowResultFilterValues;
 import edu.indiana.dlib.amppd.web.WorkflowResultResponse;
 import edu.indiana.dlib.amppd.web.WorkflowResultSearchQuery;
 import lombok.extern.slf4j.Slf4j;
@@ -157,6 +179,35 @@ public class WorkflowResultServiceImpl implements WorkflowResultService {
 		put("e00f87158d92e09b", "c1cdcaa4ca03df29");		
 	}};
 
+	// statuses of the results whose outputs could still change in Galaxy
+	private static final List<GalaxyJobState> INCOMPLETE_STATUSES = Arrays.asList(
+			GalaxyJobState.SCHEDULED, GalaxyJobState.IN_PROGRESS, GalaxyJobState.PAUSED);
+	
+	// properties of WorkflowResult to export, in the order of EXPORT_HEADER, except for the URLs 
+	private static final String[] EXPORT_PROPERTIES = {
+			"id", "dateCreated", "submitter", "collectionId", "collectionName", "itemId", "itemName", "primaryfileId", "primaryfileName", 
+			"workflowName", "workflowStep", "outputId", "outputName", "status"};
+	
+	private static final String[] EXPORT_HEADER = {
+			"WorkflowResult ID", 
+			"Date", "Submitter", 
+			"Collection ID", 
+			"Collection", 
+			"Item ID", 
+			"Item", 
+			"Primaryfile ID", 
+			"Primaryfile", 
+			"Primaryfile URL", 
+			"Workflow", 
+			"Workflow Step", 
+			"Output ID", 
+			"Output", 
+			"Output URL", 
+			"Status"};
+	
+	// number of rows to fetch from DB and flush to response at a time when exporting
+	private static final int EXPORT_FETCH_SIZE = 1000;
+	
 	/*
 	 * Note: 
 	 * The lists/map below are used by the refresh process as a workaround to deal with the issue of irrelevant results 
@@ -253,12 +304,24 @@ public class WorkflowResultServiceImpl implements WorkflowResultService {
 	@Autowired
 	private JobService jobService;
 	
+	@Autowired
+	private GalaxyApiService galaxyApiService;
+	
+	@Autowired
+	private GalaxyDataService galaxyDataService;
+	
 	@Autowired
 	private WorkflowService workflowService;
 	
 	@Autowired
 	private MediaService mediaService;
 	
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+	
+	// lock shared by full and incremental refreshes of WorkflowResults, so that they never run at the same time
+	private final ReentrantLock refreshLock = new ReentrantLock();
+	
 	/**
 	 * @see edu.indiana.dlib.amppd.service.WorkflowResultService.getWorkflowResults(WorkflowResultSearchQuery)
 	 */
@@ -269,6 +332,16 @@ public class WorkflowResultServiceImpl implements WorkflowResultService {
 		return response;
 	}
 	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.WorkflowResultService.getWorkflowResultFilters(WorkflowResultSearchQuery, List<String>)
+	 */
+	@Override
+	public WorkflowResultFilterValues getWorkflowResultFilters(WorkflowResultSearchQuery query, List<String> facets){
+		WorkflowResultFilterValues filters = workflowResultRepository.findFilterValues(query, facets);
+		log.info("Successfully retrieved WorkflowResult filter values for " + (facets == null || facets.isEmpty() ? "all filters" : facets));
+		return filters;
+	}
+	
 	/**
 	 * @see edu.indiana.dlib.amppd.service.WorkflowResultService.getFinalWorkflowResults(Long)
 	 */
@@ -278,6 +351,16 @@ public class WorkflowResultServiceImpl implements WorkflowResultService {
 		log.info("Successfully retrieved " + results.size() + " final WorkflowResults for primaryfile " + primaryfileId);
 		return results;
 	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.WorkflowResultService.getFinalWorkflowResultsByItems(List<Long>)
+	 */
+	@Override
+	public List<WorkflowResult> getFinalWorkflowResultsByItems(List<Long> itemIds) {
+		List<WorkflowResult> results = refreshResultsStatus(workflowResultRepository.findByItemIdInAndIsFinalTrueOrderById(itemIds));
+		log.info("Successfully retrieved " + results.size() + " final WorkflowResults for " + itemIds.size() + " items");
+		return results;
+	}
 		
 	/**
 	 * @see edu.indiana.dlib.amppd.service.WorkflowResultService.addWorkflowResults(Invocation, Workflow, Primaryfile)
@@ -374,6 +457,48 @@ public class WorkflowResultServiceImpl implements WorkflowResultService {
 //				|| dataset.getState().equals("deleted") || dataset.getState().equals("discarded") ;
 	}
 
+	/**
+	 * Update the status and related fields of the specified WorkflowResult from the given dataset in Galaxy.
+	 * @return true if any field of the result has changed; false otherwise
+	 */
+	protected boolean updateResultFromDataset(WorkflowResult result, Dataset dataset) {
+		// update status which might have changed since last update
+		GalaxyJobState status = getJobStatus(dataset.getState());			
+		boolean changed = status != result.getStatus();
+		result.setStatus(status);
+
+		// when a job is in unfinished status, Galaxy sets all of its outputs as visible;
+		// upon job completion, Galaxy updates the visibility according to the definition in workflow;
+		// thus we need to also update relevant field during status refresh
+		boolean relevant = isRelevant(result, dataset);
+		changed = changed || !Objects.equals(relevant, result.getRelevant());
+		result.setRelevant(relevant);
+//		result.setRelevant(dataset.getVisible());
+		
+		// beside, we need to update the output path, as it might have been changed from null (when the job is scheduled
+		// but not running yet) to the output dateset file path (only when the job starts running does output dataset get created)
+		changed = changed || !Objects.equals(dataset.getFileName(), result.getOutputPath());
+		result.setOutputPath(dataset.getFileName());
+
+		// also, we should also update create/update timestamps from the dataset, 
+		// since these could change too as the status change;
+		// on the other hand, we don't set dateRefreshed here, to avoid conflict with the refresh table job, 
+		// which uses this field to distinguish recently refreshed WorkflowResults from obsolete ones;
+		// the dateUpdated field should be good enough to indicate the most recent update on the dataset status
+		changed = changed || !isSameTime(dataset.getCreateTime(), result.getDateCreated()) || !isSameTime(dataset.getUpdateTime(), result.getDateUpdated());
+		result.setDateCreated(dataset.getCreateTime());
+		result.setDateUpdated(dataset.getUpdateTime());
+		
+		return changed;
+	}
+	
+	/**
+	 * Return true if the given two dates represent the same time; this is needed as Timestamp.equals(Date) is always false. 
+	 */
+	protected boolean isSameTime(Date date1, Date date2) {
+		return date1 == null ? date2 == null : date2 != null && date1.getTime() == date2.getTime();
+	}
+	
 	/**
 	 * Refresh the status of the specified WorkflowResult from job status in galaxy, and also update output file path.
 	 * Note: This method is declared public instead of protected because @Transactional only applies to public methods.
@@ -386,30 +511,7 @@ public class WorkflowResultServiceImpl implements WorkflowResultService {
 			workflowResultRepository.delete(result);
 			log.warn("Deleted WorkflowResult for hidden/deleted Galaxy dataset: " + result);
 		}
-		else {
-			// update status which might have changed since last update
-			String state = dataset.getState();
-			GalaxyJobState status = getJobStatus(state);			
-			result.setStatus(status);
-
-			// when a job is in unfinished status, Galaxy sets all of its outputs as visible;
-			// upon job completion, Galaxy updates the visibility according to the definition in workflow;
-			// thus we need to also update relevant field during status refresh
-			result.setRelevant(isRelevant(result, dataset));
-//			result.setRelevant(dataset.getVisible());
-			
-			// beside, we need to update the output path, as it might have been changed from null (when the job is scheduled
-			// but not running yet) to the output dateset file path (only when the job starts running does output dataset get created)
-			result.setOutputPath(dataset.getFileName());
-
-			// also, we should also update create/update timestamps from the dataset, 
-			// since these could change too as the status change;
-			// on the other hand, we don't set dateRefreshed here, to avoid conflict with the refresh table job, 
-			// which uses this field to distinguish recently refreshed WorkflowResults from obsolete ones;
-			// the dateUpdated field should be good enough to indicate the most recent update on the dataset status
-			result.setDateCreated(dataset.getCreateTime());
-			result.setDateUpdated(dataset.getUpdateTime());
-			
+		else if (updateResultFromDataset(result, dataset)) {
 			workflowResultRepository.save(result);	
 		}
 		
@@ -418,22 +520,94 @@ public class WorkflowResultServiceImpl implements WorkflowResultService {
 			
 	/**
 	 * Refresh status of the specified WorkflowResults by retrieving corresponding output status from Galaxy.
+	 * Results are grouped by their output history, and all datasets of each history are retrieved in one Galaxy request; 
+	 * only the results with changed fields are saved, in JDBC batches, and those whose dataset is deleted in Galaxy are deleted.
 	 */
 	protected List<WorkflowResult> refreshResultsStatus(List<WorkflowResult> WorkflowResults) {
 		List<WorkflowResult> refreshedResults = new ArrayList<WorkflowResult>();
+		List<WorkflowResult> changedResults = new ArrayList<WorkflowResult>();
+		List<WorkflowResult> excludedResults = new ArrayList<WorkflowResult>();
+		RateLimiter rateLimiter = galaxyApiService.getRateLimiter();
+		
+		// group results by history; for legacy results without historyId, look up history from the invocation,
+		// each invocation only once during this refresh		
+		Map<String, String> invocationHistoryIds = new HashMap<String, String>();
+		Map<String, List<WorkflowResult>> historyResults = new LinkedHashMap<String, List<WorkflowResult>>();
+		for (WorkflowResult result : WorkflowResults) {
+			String historyId = result.getHistoryId();
+			if (StringUtils.isEmpty(historyId)) {
+				try {
+					historyId = invocationHistoryIds.computeIfAbsent(result.getInvocationId(), invocationId -> {
+						rateLimiter.acquire();
+						return jobService.getWorkflowsClient().showInvocation(result.getWorkflowId(), invocationId, false).getHistoryId();
+					});
+				}
+				catch(Exception e) {
+					throw new RuntimeException("Failed to find the history from Galaxy for WorkflowResult " + result.getId(), e);
+				}
+			}
+			historyResults.computeIfAbsent(historyId, id -> new ArrayList<WorkflowResult>()).add(result);
+		}
 		
-		for(WorkflowResult result : WorkflowResults) {
+		// retrieve all datasets of each history and update the results within from their datasets
+		for (Map.Entry<String, List<WorkflowResult>> entry : historyResults.entrySet()) {
+			String historyId = entry.getKey();
+			Map<String, Dataset> datasets = new HashMap<String, Dataset>();
 			try {
-				refreshedResults.add(refreshResultStatus(result));
+				rateLimiter.acquire();
+				for (Dataset dataset : galaxyDataService.showHistoryDatasets(historyId)) {
+					datasets.put(dataset.getId(), dataset);
+				}
 			}
 			catch(Exception e) {
-				throw new RuntimeException("Failed to refresh the status from Galaxy for WorkflowResult " + result.getId(), e);
+				throw new RuntimeException("Failed to refresh the status from Galaxy for WorkflowResults in history " + historyId, e);
 			}			
+			
+			for (WorkflowResult result : entry.getValue()) {
+				// a dataset missing from the history contents doesn't mean it's gone in Galaxy, as the response might be partial, 
+				// or the dataset might be created after the response; so look it up individually, and if it can't be found either, 
+				// leave the result as is, since only datasets reported by Galaxy as deleted shall have their results deleted
+				Dataset dataset = datasets.get(result.getOutputId());
+				if (dataset == null && (dataset = showResultDataset(result)) == null) {
+					log.warn("Skipping status refresh for WorkflowResult whose Galaxy dataset can't be retrieved: " + result);
+					refreshedResults.add(result);
+				}
+				else if (shouldExcludeDataset(dataset)) {
+					excludedResults.add(result);
+					log.warn("Deleting WorkflowResult for hidden/deleted Galaxy dataset: " + result);
+				}
+				else {
+					if (updateResultFromDataset(result, dataset)) {
+						changedResults.add(result);
+					}
+					refreshedResults.add(result);
+				}
+			}
 		}
-		
+
+		// persist all changes at once, so that Hibernate can send them in JDBC batches
+		workflowResultRepository.deleteAll(excludedResults);
+		workflowResultRepository.saveAll(changedResults);		
+		log.info("Refreshed status for " + WorkflowResults.size() + " WorkflowResults in " + historyResults.size() + " histories: " 
+				+ changedResults.size() + " updated, " + excludedResults.size() + " deleted, " 
+				+ (refreshedResults.size() - changedResults.size()) + " unchanged");
 		return refreshedResults;
 	}
 	
+	/*
+	 * Retrieve the output dataset of the specified WorkflowResult individually from Galaxy; return null if it can't be retrieved.
+	 */
+	private Dataset showResultDataset(WorkflowResult result) {
+		try {
+			galaxyApiService.getRateLimiter().acquire();
+			return jobService.showJobStepOutput(result.getWorkflowId(), result.getInvocationId(), result.getStepId(), result.getOutputId());
+		}
+		catch(Exception e) {
+			log.warn("Failed to retrieve the Galaxy dataset for WorkflowResult " + result.getId() + ": " + e.getMessage());
+			return null;
+		}
+	}
+	
 	/**
 	 * @see edu.indiana.dlib.amppd.service.WorkflowResultService.refreshIncompleteWorkflowResults()
 	 */
@@ -444,11 +618,8 @@ public class WorkflowResultServiceImpl implements WorkflowResultService {
 		// for jobs that are finished (COMPLETE, ERROR), their status won't change, so no need to refresh; in particular, 
 		// when an ERROR job is rerun in Galaxy, a new job will be created and only picked up when result table is refreshed;
 		// PAUSED jobs should have status refreshed, as the status can change to running when the workflow is resumed in Galaxy.
-		WorkflowResultSearchQuery query = new WorkflowResultSearchQuery();
-		GalaxyJobState[] filterByStatuses = {GalaxyJobState.SCHEDULED, GalaxyJobState.IN_PROGRESS, GalaxyJobState.PAUSED};
-		query.setFilterByStatuses(filterByStatuses);
-		WorkflowResultResponse response = workflowResultRepository.findByQuery(query);
-		List<WorkflowResult> refreshedResults = refreshResultsStatus(response.getRows());
+		List<WorkflowResult> results = workflowResultRepository.findByStatusIn(INCOMPLETE_STATUSES);
+		List<WorkflowResult> refreshedResults = refreshResultsStatus(results);
 		log.info("Successfully refreshed status for " + refreshedResults.size() + " WorkflowResults");
 		return refreshedResults;
 	}
@@ -457,69 +628,256 @@ public class WorkflowResultServiceImpl implements WorkflowResultService {
 	 * @see edu.indiana.dlib.amppd.service.WorkflowResultService.refreshWorkflowResultsIterative()
 	 */
 	@Override
-	@Transactional	
 	public List<WorkflowResult> refreshWorkflowResultsIterative() {		
-		List<WorkflowResult> allResults = new ArrayList<WorkflowResult>();
-		List<Primaryfile> primaryfiles = primaryfileRepository.findByItemCollectionActiveTrueAndHistoryIdNotNull();
-		log.info("Found " + primaryfiles.size() + " active primaryfiles with Galaxy history ...");
+		return refreshWorkflowResultsExclusively("iterative", true, this::doRefreshWorkflowResultsIterative);
+	}
+	
+	/*
+	 * Refresh WorkflowResults iteratively as in refreshWorkflowResultsIterative, with the refresh lock held.
+	 */
+	private List<WorkflowResult> doRefreshWorkflowResultsIterative() {		
+		List<WorkflowResult> allResults = Collections.synchronizedList(new ArrayList<WorkflowResult>());
+		List<Long> primaryfileIds = primaryfileRepository.findIdsByItemCollectionActiveTrueAndHistoryIdNotNull();
+		log.info("Found " + primaryfileIds.size() + " active primaryfiles with Galaxy history ...");
 
+		// get the update time of all histories before the refresh starts, to be recorded as the high-water mark for incremental refresh 
+		galaxyApiService.getRateLimiter().acquire();
+		Map<String, Date> historiesUpdateTime = galaxyDataService.showHistoriesUpdateTime();
+		
 //		// clear up workflow names cache in case they have been changed on galaxy side since last refresh 
 //		workflowService.clearWorkflowNamesCache();		
 		// TODO replace below code with above commented code once we upgrade to Galaxy 20.*		
 		// get all workflows as a work-around to retrieve invocations per workflow per primaryfile
+		galaxyApiService.getRateLimiter().acquire();
 		List<Workflow> workflows = workflowService.getWorkflowsClient().getWorkflows();		
 		
-		// record primaryfileIds for which workflowResults failed to be refreshed
-		List<Long> failedPrimaryfileIds = new ArrayList<Long>();
-		
 		// process Galaxy invocation details per primaryfile instead of retrieving all at once, in order to avoid timeout issue in Galaxy
-		for (Primaryfile primaryfile : primaryfiles) {
-			try {
-				// skip the primaryfile if all of its results have been recently refreshed;
-				// this allows rerun of the refresh to continue with unfinished primaryfiles in case of a failure
-				Date oldestDateRefreshed = workflowResultRepository.findOldestDateRefreshedByPrimaryfileId(primaryfile.getId());
-				if (isDateRefreshedRecent(oldestDateRefreshed, amppdPropertyConfig.getRefreshResultsTableMinutes())) {
-					log.info("Skipping primaryfile " + primaryfile.getId() + " as its results are recently refreshed.");
-					continue;
-				}
+		List<Long> failedPrimaryfileIds = refreshWorkflowResultsParallel(primaryfileIds, 
+				primaryfileId -> refreshWorkflowResultsForPrimaryfile(primaryfileId, workflows, historiesUpdateTime, allResults));
+		log.info("Successfully refreshed " + allResults.size() + " WorkflowResults iteratively.");
+		log.error("Failed to refresh WorkflowResults for " + failedPrimaryfileIds.size() + " primaryfiles.");
+		transactionTemplate.execute(status -> deleteObsoleteWorkflowResults(failedPrimaryfileIds));
+		return allResults;
+	}
+	
+	/**
+	 * @see edu.indiana.dlib.amppd.service.WorkflowResultService.refreshWorkflowResultsIncremental()
+	 */
+	@Override
+	public List<WorkflowResult> refreshWorkflowResultsIncremental() {		
+		// if a full refresh is in progress, skip this run rather than waiting, as the full refresh covers the changes
+		return refreshWorkflowResultsExclusively("incremental", false, this::doRefreshWorkflowResultsIncremental);
+	}
+	
+	/*
+	 * Refresh WorkflowResults incrementally as in refreshWorkflowResultsIncremental, with the refresh lock held.
+	 */
+	private List<WorkflowResult> doRefreshWorkflowResultsIncremental() {		
+		List<WorkflowResult> allResults = Collections.synchronizedList(new ArrayList<WorkflowResult>());
+		List<PrimaryfileHistory> primaryfiles = primaryfileRepository.findHistoriesByItemCollectionActiveTrueAndHistoryIdNotNull();
 
-//				// get all Galaxy invocations for the primaryfile and refresh results with them
-//				List<InvocationDetails> invocations = jobService.getWorkflowsClient().indexInvocationsDetails(galaxyPropertyConfig.getUsername(), null, primaryfile.getHistoryId());
-//				for (InvocationDetails invocation : invocations) {
-//					List<WorkflowResult> results = refreshWorkflowResults(invocation, null, primaryfile);
-//					allResults.addAll(results);
-//				}
-				/* TODO replace below code with above commented code once we upgrade to Galaxy 20.*
-				 *  retrieving all invocations for the primaryfile as above is more efficient; however
-				 *  we will not get the proper workflow name using workflow ID returned from invocations,
-				 *  due to the non-stored workflow ID issue in current Galaxy version;
-				 *  as a work-around, we loop through all workflows and retrieve invocations per workflow for this primaryfile,
-				 *  this way we have the stored workflow ID in hand
-				 */
-				for (Workflow workflow : workflows) {
-					List<InvocationDetails> invocations = jobService.getWorkflowsClient().indexInvocationsDetails(galaxyPropertyConfig.getUserId(), workflow.getId(), primaryfile.getHistoryId());
-					for (InvocationDetails invocation : invocations) {
-						List<WorkflowResult> results = refreshWorkflowResults(invocation, workflow, primaryfile);
-						allResults.addAll(results);
+		// get the update time of all histories in one call, and only refresh the primaryfiles whose history has been updated since last sync;
+		// primaryfiles whose history no longer exists in Galaxy are skipped, their results will be cleaned up by the next full refresh
+		galaxyApiService.getRateLimiter().acquire();
+		Map<String, Date> historiesUpdateTime = galaxyDataService.showHistoriesUpdateTime();
+		List<Long> primaryfileIds = new ArrayList<Long>();
+		for (PrimaryfileHistory primaryfile : primaryfiles) {
+			Date updateTime = historiesUpdateTime.get(primaryfile.getHistoryId());
+			if (updateTime != null && (primaryfile.getHistorySynced() == null || updateTime.after(primaryfile.getHistorySynced()))) {
+				primaryfileIds.add(primaryfile.getId());
+			}
+		}
+		log.info("Found " + primaryfileIds.size() + " out of " + primaryfiles.size() + " active primaryfiles with Galaxy history updated since last sync ...");
+		if (primaryfileIds.isEmpty()) {
+			return allResults;
+		}
+
+		// TODO same as in refreshWorkflowResultsIterative, retrieve invocations per workflow until we upgrade to Galaxy 20.*		
+		galaxyApiService.getRateLimiter().acquire();
+		List<Workflow> workflows = workflowService.getWorkflowsClient().getWorkflows();		
+		
+		// obsolete results are not deleted here, as results of unchanged datasets are not touched thus their dateRefreshed is not updated;
+		// deletion of results whose datasets have been purged from Galaxy is left to the periodic full refresh
+		List<Long> failedPrimaryfileIds = refreshWorkflowResultsParallel(primaryfileIds, 
+				primaryfileId -> syncWorkflowResultsForPrimaryfile(primaryfileId, workflows, historiesUpdateTime, allResults));
+		log.info("Successfully refreshed " + allResults.size() + " WorkflowResults incrementally.");
+		if (!failedPrimaryfileIds.isEmpty()) {
+			log.error("Failed to refresh WorkflowResults for " + failedPrimaryfileIds.size() + " primaryfiles.");
+		}
+		return allResults;
+	}
+	
+	/**
+	 * Run the given refresh of WorkflowResults in the given mode with the refresh lock held, so that no other refresh overlaps with it;
+	 * if the lock is held by another refresh, wait for it to finish if wait is true, or skip the refresh otherwise.
+	 * @return the WorkflowResults refreshed, or an empty list if skipped
+	 */
+	protected List<WorkflowResult> refreshWorkflowResultsExclusively(String mode, boolean wait, Supplier<List<WorkflowResult>> refresh) {
+		if (wait) {
+			refreshLock.lock();
+		}
+		else if (!refreshLock.tryLock()) {
+			log.info("Skipped " + mode + " refresh of WorkflowResults as another refresh is in progress.");
+			return new ArrayList<WorkflowResult>();
+		}
+		
+		try {
+			return refresh.get();
+		}
+		finally {
+			refreshLock.unlock();
+		}
+	}
+	
+	/**
+	 * Refresh WorkflowResults for the given primaryfiles with the given refresher, which refreshes one primaryfile and returns 
+	 * true if it's refreshed or false if it's skipped. Primaryfiles are spread across a bounded pool of workers, each refreshed
+	 * in its own transaction, while Galaxy calls from all workers are throttled by the shared rate limiter.
+	 * @return IDs of the primaryfiles for which WorkflowResults failed to be refreshed
+	 */
+	protected List<Long> refreshWorkflowResultsParallel(List<Long> primaryfileIds, Function<Long, Boolean> refresher) {
+		long startTime = System.currentTimeMillis();
+		long startCalls = galaxyApiService.getRateLimiter().getPermitsAcquired();
+		
+		// record primaryfileIds for which workflowResults failed to be refreshed
+		List<Long> failedPrimaryfileIds = Collections.synchronizedList(new ArrayList<Long>());
+		
+		// number of primaryfiles actually refreshed, i.e. not skipped
+		AtomicInteger refreshedCount = new AtomicInteger();
+		
+		int nthreads = Math.max(1, amppdPropertyConfig.getRefreshResultsTableThreads());
+		ExecutorService executor = Executors.newFixedThreadPool(nthreads);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (Long primaryfileId : primaryfileIds) {
+			futures.add(executor.submit(() -> {
+				try {
+					// each primaryfile is refreshed in its own transaction, so that a failure on one doesn't roll back the others
+					Boolean refreshed = transactionTemplate.execute(status -> refresher.apply(primaryfileId));
+					if (Boolean.TRUE.equals(refreshed)) {
+						refreshedCount.incrementAndGet();
 					}
 				}
-								
-				log.info("Successfully refreshed results for primaryfile " + primaryfile.getId() + ", total of " + allResults.size() + " results refreshed so far ...");				
+				catch (Exception e) {
+					// record primaryfileIds for which workflowResults failed to be refreshed and should not be deleted at the end
+					failedPrimaryfileIds.add(primaryfileId);
+					
+					// continue with the rest even if we fail on some primaryfile,
+					// as we can rerun the refresh to continue on the failed ones
+					log.error("Failed to refresh results for primaryfile " + primaryfileId, e);
+				}
+			}));
+		}
+		
+		// wait for all workers to finish
+		executor.shutdown();
+		for (Future<?> future : futures) {
+			try {
+				future.get();
 			}
-			catch (Exception e) {
-				// record primaryfileIds for which workflowResults failed to be refreshed and should not be deleted at the end
-				failedPrimaryfileIds.add(primaryfile.getId());
-				
-				// continue with the rest even if we fail on some primaryfile,
-				// as we can rerun the refresh to continue on the failed ones
-				log.error("Failed to refresh results for primaryfile " + primaryfile.getId(), e);
+			catch (InterruptedException e) {
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while refreshing WorkflowResults.", e);
+			}
+			catch (ExecutionException e) {
+				// shouldn't happen as each task catches all exceptions
+				log.error("Unexpected error while refreshing WorkflowResults.", e);
 			}
 		}
 				
-		log.info("Successfully refreshed " + allResults.size() + " WorkflowResults iteratively.");
-		log.error("Failed to refresh WorkflowResults for " + failedPrimaryfileIds.size() + " primaryfiles.");
-		deleteObsoleteWorkflowResults(failedPrimaryfileIds);
-		return allResults;
+		// report throughput of the refresh
+		double seconds = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+		long calls = galaxyApiService.getRateLimiter().getPermitsAcquired() - startCalls;
+		log.info(String.format("Refreshed %d out of %d primaryfiles with %d workers in %.1f seconds: %.2f primaryfiles/sec, %d Galaxy calls, %.2f Galaxy calls/sec.", 
+				refreshedCount.get(), primaryfileIds.size(), nthreads, seconds, refreshedCount.get() / seconds, calls, calls / seconds));		
+		return failedPrimaryfileIds;
+	}
+	
+	/**
+	 * Refresh WorkflowResults for the specified primaryfile by retrieving its invocations for each of the given workflows,
+	 * and add the refreshed results to the given list; skip the primaryfile if all of its results have been recently refreshed.
+	 * Upon success, record the update time of the primaryfile's history from the given map as its high-water mark.
+	 * This method is called within a transaction for each primaryfile by the workers in refreshWorkflowResultsIterative.
+	 * @return true if the primaryfile is refreshed; false if skipped
+	 */
+	protected Boolean refreshWorkflowResultsForPrimaryfile(Long primaryfileId, List<Workflow> workflows, Map<String, Date> historiesUpdateTime, List<WorkflowResult> allResults) {
+		// skip the primaryfile if all of its results have been recently refreshed;
+		// this allows rerun of the refresh to continue with unfinished primaryfiles in case of a failure
+		Date oldestDateRefreshed = workflowResultRepository.findOldestDateRefreshedByPrimaryfileId(primaryfileId);
+		if (isDateRefreshedRecent(oldestDateRefreshed, amppdPropertyConfig.getRefreshResultsTableMinutes())) {
+			log.info("Skipping primaryfile " + primaryfileId + " as its results are recently refreshed.");
+			return false;
+		}
+
+		// the primaryfile is loaded within the current transaction so that its parents can be lazily loaded
+		Primaryfile primaryfile = primaryfileRepository.findById(primaryfileId).orElseThrow(() -> new StorageException("Primaryfile <" + primaryfileId + "> does not exist!"));
+		
+//		// get all Galaxy invocations for the primaryfile and refresh results with them
+//		List<InvocationDetails> invocations = jobService.getWorkflowsClient().indexInvocationsDetails(galaxyPropertyConfig.getUsername(), null, primaryfile.getHistoryId());
+//		for (InvocationDetails invocation : invocations) {
+//			List<WorkflowResult> results = refreshWorkflowResults(invocation, null, primaryfile);
+//			allResults.addAll(results);
+//		}
+		/* TODO replace below code with above commented code once we upgrade to Galaxy 20.*
+		 *  retrieving all invocations for the primaryfile as above is more efficient; however
+		 *  we will not get the proper workflow name using workflow ID returned from invocations,
+		 *  due to the non-stored workflow ID issue in current Galaxy version;
+		 *  as a work-around, we loop through all workflows and retrieve invocations per workflow for this primaryfile,
+		 *  this way we have the stored workflow ID in hand
+		 */
+		int count = 0;
+		for (Workflow workflow : workflows) {
+			galaxyApiService.getRateLimiter().acquire();
+			List<InvocationDetails> invocations = jobService.getWorkflowsClient().indexInvocationsDetails(galaxyPropertyConfig.getUserId(), workflow.getId(), primaryfile.getHistoryId());
+			for (InvocationDetails invocation : invocations) {
+				List<WorkflowResult> results = refreshWorkflowResults(invocation, workflow, primaryfile);
+				allResults.addAll(results);
+				count += results.size();
+			}
+		}
+		
+		// all results of the primaryfile are now in sync with its history as of the time the refresh started
+		primaryfileRepository.updateHistorySynced(primaryfileId, historiesUpdateTime.get(primaryfile.getHistoryId()));
+						
+		log.info("Successfully refreshed " + count + " results for primaryfile " + primaryfile.getId() + ", total of " + allResults.size() + " results refreshed so far ...");
+		return true;
+	}
+	
+	/**
+	 * Incrementally sync WorkflowResults for the specified primaryfile with the datasets in its history updated since its high-water mark,
+	 * and add the refreshed results to the given list; then advance its high-water mark to its history update time in the given map.
+	 * This method is called within a transaction for each primaryfile by the workers in refreshWorkflowResultsIncremental.
+	 * @return true if the primaryfile is refreshed
+	 */
+	protected Boolean syncWorkflowResultsForPrimaryfile(Long primaryfileId, List<Workflow> workflows, Map<String, Date> historiesUpdateTime, List<WorkflowResult> allResults) {
+		// the primaryfile is loaded within the current transaction so that its parents can be lazily loaded
+		Primaryfile primaryfile = primaryfileRepository.findById(primaryfileId).orElseThrow(() -> new StorageException("Primaryfile <" + primaryfileId + "> does not exist!"));
+		
+		// retrieve all datasets updated since the high-water mark in one call, including the deleted/purged ones
+		galaxyApiService.getRateLimiter().acquire();
+		Map<String, Dataset> datasets = new HashMap<String, Dataset>();
+		for (Dataset dataset : galaxyDataService.showHistoryDatasets(primaryfile.getHistoryId(), primaryfile.getHistorySynced())) {
+			datasets.put(dataset.getId(), dataset);
+		}
+		
+		// the history could be updated without any dataset change, for ex, when it's renamed, in which case there is nothing to refresh 
+		int count = 0;
+		if (!datasets.isEmpty()) {
+			// TODO same as in refreshWorkflowResultsForPrimaryfile, retrieve invocations per workflow until we upgrade to Galaxy 20.*
+			for (Workflow workflow : workflows) {
+				galaxyApiService.getRateLimiter().acquire();
+				List<InvocationDetails> invocations = jobService.getWorkflowsClient().indexInvocationsDetails(galaxyPropertyConfig.getUserId(), workflow.getId(), primaryfile.getHistoryId());
+				for (InvocationDetails invocation : invocations) {
+					List<WorkflowResult> results = refreshWorkflowResults(invocation, workflow, primaryfile, datasets);
+					allResults.addAll(results);
+					count += results.size();
+				}
+			}
+		}
+		
+		primaryfileRepository.updateHistorySynced(primaryfileId, historiesUpdateTime.get(primaryfile.getHistoryId()));
+		log.info("Successfully synced " + count + " results out of " + datasets.size() + " updated datasets for primaryfile " + primaryfile.getId());
+		return true;
 	}
 	
 	/**
@@ -528,6 +886,13 @@ public class WorkflowResultServiceImpl implements WorkflowResultService {
 	@Override
 	@Deprecated
 	public List<WorkflowResult> refreshWorkflowResultsLumpsum(){
+		return refreshWorkflowResultsExclusively("lumpsum", true, this::doRefreshWorkflowResultsLumpsum);
+	}
+	
+	/*
+	 * Refresh WorkflowResults in lumpsum as in refreshWorkflowResultsLumpsum, with the refresh lock held.
+	 */
+	private List<WorkflowResult> doRefreshWorkflowResultsLumpsum(){
 		List<WorkflowResult> allResults = new ArrayList<WorkflowResult>();
 
 		// clear up workflow names cache in case they have been changed on galaxy side since last refresh 
@@ -565,6 +930,15 @@ public class WorkflowResultServiceImpl implements WorkflowResultService {
 	 */
 	@Transactional	
 	protected List<WorkflowResult> refreshWorkflowResults(InvocationDetails invocation, Workflow workflow, Primaryfile primaryfile) {
+		return refreshWorkflowResults(invocation, workflow, primaryfile, null);
+	}
+	
+	/**
+	 * Refresh WorkflowResults for the given invocation as above; if the given map of updated datasets is provided,
+	 * only refresh the outputs whose datasets are in the map, using the datasets from the map instead of retrieving them from Galaxy;
+	 * otherwise refresh all outputs of the invocation.
+	 */
+	protected List<WorkflowResult> refreshWorkflowResults(InvocationDetails invocation, Workflow workflow, Primaryfile primaryfile, Map<String, Dataset> updatedDatasets) {
 		List<WorkflowResult> results = new ArrayList<WorkflowResult>();
 		
 		// if the passed-in primaryfile is null, get primaryfile info by its ID from the passed-in invocation
@@ -626,7 +1000,16 @@ public class WorkflowResultServiceImpl implements WorkflowResultService {
 			for (String outputName : outputs.keySet()) {
 				JobInputOutput output = outputs.get(outputName);
 				String outputId = fixOutputId(output.getId());
-				Dataset dataset = jobService.showJobStepOutput(invocation.getWorkflowId(), invocation.getId(), step.getId(), outputId);
+				Dataset dataset;
+				if (updatedDatasets == null) {
+					galaxyApiService.getRateLimiter().acquire(2); // showJobStepOutput makes 2 Galaxy calls
+					dataset = jobService.showJobStepOutput(invocation.getWorkflowId(), invocation.getId(), step.getId(), outputId);
+				}
+				else {
+					// if the output's dataset hasn't changed since last sync, neither does its result, so skip it
+					dataset = updatedDatasets.get(outputId);
+					if (dataset == null) continue;
+				}
 				
 				// retrieve the result for this output if already existing in the WorkflowResult table
 				List<WorkflowResult> oldResults = workflowResultRepository.findByOutputId(outputId);		
@@ -1170,62 +1553,45 @@ public class WorkflowResultServiceImpl implements WorkflowResultService {
 //	}
 
 	/**
-	 * @see edu.indiana.dlib.amppd.service.WorkflowResultService.exportWorkflowResults(HttpServletResponse, WorkflowResultSearchQuery)
+	 * @see edu.indiana.dlib.amppd.service.WorkflowResultService.exportWorkflowResults(HttpServletResponse, WorkflowResultSearchQuery, boolean)
 	 */
 	@Override
-	public List<WorkflowResult> exportWorkflowResults(HttpServletResponse response, WorkflowResultSearchQuery query) {
+	@Transactional(readOnly = true)
+	public int exportWorkflowResults(HttpServletResponse response, WorkflowResultSearchQuery query, boolean gzip) {
 		log.info("Exporting current dashboard to CSV file ...");
+		long start = System.currentTimeMillis();
 		
-		try {
-			long totalResults = workflowResultRepository.count();
-			query.setResultsPerPage((int)totalResults);
-			query.setPageNum(1);
-			WorkflowResultResponse wresponse = getWorkflowResults(query);
+		// stream rows directly from DB cursor to response, flushing every EXPORT_FETCH_SIZE rows, 
+		// so that neither the result set nor the CSV content is held in memory
+		try (ICsvListWriter csvWriter = new CsvListWriter(new BufferedWriter(new OutputStreamWriter(
+				gzip ? new GZIPOutputStream(response.getOutputStream()) : response.getOutputStream(), 
+				StandardCharsets.UTF_8)), CsvPreference.STANDARD_PREFERENCE)) {
+			csvWriter.writeHeader(EXPORT_HEADER);
 			
-			ICsvMapWriter csvWriter = new CsvMapWriter(response.getWriter(), CsvPreference.STANDARD_PREFERENCE);			
-			String[] csvHeader = {
-					"WorkflowResult ID", 
-					"Date", "Submitter", 
-					"Collection ID", 
-					"Collection", 
-					"Item ID", 
-					"Item", 
-					"Primaryfile ID", 
-					"Primaryfile", 
-					"Primaryfile URL", 
-					"Workflow", 
-					"Workflow Step", 
-					"Output ID", 
-					"Output", 
-					"Output URL", 
-					"Status"};
-			csvWriter.writeHeader(csvHeader);
-
-			for (WorkflowResult r : wresponse.getRows()) {
-				Map<String, Object> output = new HashMap<String, Object>();
-				output.put(csvHeader[0], r.getId());
-				output.put(csvHeader[1], r.getDateCreated());
-				output.put(csvHeader[2], r.getSubmitter());
-				output.put(csvHeader[3], r.getCollectionId());
-				output.put(csvHeader[4], r.getCollectionName());
-				output.put(csvHeader[5], r.getItemId());
-				output.put(csvHeader[6], r.getItemName());
-				output.put(csvHeader[7], r.getPrimaryfileId());
-				output.put(csvHeader[8], r.getPrimaryfileName());
-				output.put(csvHeader[9], mediaService.getPrimaryfileMediaUrl(r.getPrimaryfileId()));
-				output.put(csvHeader[10], r.getWorkflowName());
-				output.put(csvHeader[11], r.getWorkflowStep());
-				output.put(csvHeader[12], r.getOutputId()); 
-				output.put(csvHeader[13], r.getOutputName()); 
-				output.put(csvHeader[14], mediaService.getWorkflowResultOutputUrl(r.getId())); 
-				output.put(csvHeader[15], r.getStatus());
-				csvWriter.write(output, csvHeader);				
-			}
+			int count = workflowResultRepository.scrollByQuery(query, EXPORT_PROPERTIES, EXPORT_FETCH_SIZE, r -> {
+				// r contains values of EXPORT_PROPERTIES, the URLs are composed from the IDs without any lookup
+				List<Object> row = Arrays.asList(
+						r[0], r[1], r[2], r[3], r[4], r[5], r[6], r[7], r[8], 
+						mediaService.getPrimaryfileMediaUrl((Long)r[7]), 
+						r[9], r[10], r[11], r[12], 
+						mediaService.getWorkflowResultOutputUrl((Long)r[0]), 
+						r[13]);
+				
+				try {
+					csvWriter.write(row);
+					if (csvWriter.getRowNumber() % EXPORT_FETCH_SIZE == 0) {
+						csvWriter.flush();
+					}
+				}
+				catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
 			
-			csvWriter.close();
-			log.info("Successfully exported current dashboard to CSV file.");
-			return wresponse.getRows();
-		} catch (IOException e) {
+			log.info("Successfully exported " + count + " WorkflowResults from current dashboard to CSV file in " + (System.currentTimeMillis() - start) + " ms.");
+			return count;
+		}
+		catch (IOException | UncheckedIOException e) {
 			throw new RuntimeException("Failed to export current dashboard to CSV file.", e);
 		}
 	}
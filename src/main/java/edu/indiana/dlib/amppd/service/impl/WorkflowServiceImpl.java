@@ -1,19 +1,31 @@
 package edu.indiana.dlib.amppd.service.impl;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Service;
 
+import org.codehaus.jackson.map.DeserializationConfig;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.SerializationConfig;
+
 import com.github.jmchilton.blend4j.galaxy.WorkflowsClient;
 import com.github.jmchilton.blend4j.galaxy.beans.Workflow;
 import com.github.jmchilton.blend4j.galaxy.beans.WorkflowDetails;
@@ -21,11 +33,13 @@ import com.github.jmchilton.blend4j.galaxy.beans.WorkflowInputDefinition;
 import com.github.jmchilton.blend4j.galaxy.beans.WorkflowStepDefinition;
 import com.sun.jersey.api.client.UniformInterfaceException;
 
+import edu.indiana.dlib.amppd.config.AmppdPropertyConfig;
 import edu.indiana.dlib.amppd.exception.GalaxyWorkflowException;
 import edu.indiana.dlib.amppd.model.MgmTool;
 import edu.indiana.dlib.amppd.repository.MgmToolRepository;
 import edu.indiana.dlib.amppd.service.GalaxyApiService;
 import edu.indiana.dlib.amppd.service.WorkflowService;
+import edu.indiana.dlib.amppd.util.CacheHelper;
 import edu.indiana.dlib.amppd.web.WorkflowFilterValues;
 import edu.indiana.dlib.amppd.web.WorkflowResponse;
 import lombok.Getter;
@@ -42,6 +56,25 @@ public class WorkflowServiceImpl implements WorkflowService {
 	// tag for published workflow
 	public static String PUBLISHED = "published";
 	
+	// names of the workflow metadata caches
+	public static final String WORKFLOW_NAMES_CACHE = "workflowNames";
+	public static final String WORKFLOW_LISTS_CACHE = "workflowLists";
+	public static final String WORKFLOW_DETAILS_CACHE = "workflowDetails";
+	
+	// mapper for copying cached workflow details; blend4j beans carry codehaus Jackson annotations for parsing Galaxy responses, 
+	// some of which are one way only (for ex, IDs are ignored upon serialization), so annotations are disabled both ways 
+	// in order for the copies to keep all bean properties of the details originally retrieved
+	private static final ObjectMapper DETAILS_MAPPER = new ObjectMapper()
+			.configure(SerializationConfig.Feature.USE_ANNOTATIONS, false)
+			.configure(DeserializationConfig.Feature.USE_ANNOTATIONS, false)
+			.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+	
+	@Autowired
+	private AmppdPropertyConfig amppdPropertyConfig;	
+	
+	@Autowired
+	private CacheManager cacheManager;	
+	
 	@Autowired
 	private MgmToolRepository mgmToolRepository;	
 	
@@ -51,18 +84,58 @@ public class WorkflowServiceImpl implements WorkflowService {
 	@Getter
 	private WorkflowsClient workflowsClient;
 		
-	// use hashmap to cache workflow names to avoid frequent query request to Galaxy in cases such as refreshing workflow results
-	private Map<String, String> workflowNames = new HashMap<String, String>();
+	// cache workflow names to avoid frequent query request to Galaxy in cases such as refreshing workflow results
+	private CacheHelper workflowNames;
 
-	// use following list to cache result of workflow for listing and once it is loaded we use it for filtering
-	private List<Workflow> workflowCache = new ArrayList<Workflow>();
-			
+	// cache workflow lists by hidden/deleted flags for listing, and once loaded we use them for filtering
+	private CacheHelper workflowLists;
+	
+	// cache parsed workflow details by workflow ID and retrieval options, to avoid querying Galaxy upon each job submission;
+	// details are cached as JSON, so that each caller gets its own copy to modify
+	private CacheHelper workflowDetails;
+	
+	// number of milliseconds after which a cached entry is considered stale and reloaded in the background
+	private long refreshMillis;
+	
+	// single thread executor reloading stale cache entries in the background
+	private ExecutorService refreshExecutor = Executors.newSingleThreadExecutor();
+	
+	// keys of cache entries currently being reloaded, to avoid queuing duplicate reloads
+	private Set<String> refreshing = ConcurrentHashMap.newKeySet();
+	
+	// incremented upon each invalidation, so that values loaded from Galaxy before an invalidation are not cached after it
+	private volatile long generation;
+	
+	/**
+	 * Value stored in the workflow metadata caches, along with the time it was loaded from Galaxy.
+	 */
+	private static class CachedValue {
+		private final Object value;
+		private final long loaded = System.currentTimeMillis();
+		
+		private CachedValue(Object value) {
+			this.value = value;
+		}
+	}
+	
 	/**
 	 * Initialize the WorkflowServiceImpl bean.
 	 */
 	@PostConstruct
 	public void init() {
 		workflowsClient = galaxyApiService.getGalaxyInstance().getWorkflowsClient();
+		workflowNames = (CacheHelper)cacheManager.getCache(WORKFLOW_NAMES_CACHE).getNativeCache();
+		workflowLists = (CacheHelper)cacheManager.getCache(WORKFLOW_LISTS_CACHE).getNativeCache();
+		workflowDetails = (CacheHelper)cacheManager.getCache(WORKFLOW_DETAILS_CACHE).getNativeCache();
+		refreshMillis = TimeUnit.MINUTES.toMillis(amppdPropertyConfig.getWorkflowCacheRefreshMinutes());
+	}	
+	
+	/**
+	 * Shut down the cache refresh executor upon destruction of the bean.
+	 */
+	@PreDestroy
+	public void destroy() {
+		refreshExecutor.shutdownNow();
 	}	
 	
 	/**
@@ -98,21 +171,12 @@ public class WorkflowServiceImpl implements WorkflowService {
 		// provided that special care is taken to handle the case when the published tag is used.
 		WorkflowResponse response = new WorkflowResponse();
 
-		// if all filtering values are null then we will clear cache and load new data from galaxy api call
-		if(showPublished == null &&
-				(tag == null || tag.length <= 0) &&
-				(name == null || name.length <= 0) &&
-				(annotations == null || annotations.length <= 0) &&
-				(creators == null || creators.length <= 0) &&
-				(dateRange == null  || dateRange.length <= 0)) {
-			clearWorkflowsCache();
-		}
-
-		// refreshing workflow cache data
-		if (workflowCache.size() <= 0) {
-			workflowCache = workflowsClient.getWorkflows(null, showHidden, showDeleted, null);
-		}
-		List <Workflow> filterWorkflows = filters(workflowCache, showPublished, tag, name, annotations, creators, dateRange);
+		// get workflows from cache, which is reloaded from Galaxy in the background once stale, 
+		// and invalidated upon workflow creation/edit
+		String key = showHidden + "/" + showDeleted;
+		List<Workflow> workflows = getCached(workflowLists, key, () -> 
+			Collections.unmodifiableList(workflowsClient.getWorkflows(null, showHidden, showDeleted, null)));
+		List <Workflow> filterWorkflows = filters(workflows, showPublished, tag, name, annotations, creators, dateRange);
 		WorkflowFilterValues filterBy = prepareFilters(filterWorkflows);
 		String published = showPublished == null ? "" : (showPublished ? "published " : "unpublished ");
 		String hidden = showHidden != null && showHidden ? "hidden " : ""; 
@@ -144,6 +208,40 @@ public class WorkflowServiceImpl implements WorkflowService {
 			includeInputDetails = true;
 		}		
 
+		String key = getDetailsKey(workflowId, instance, includeToolName, includeInputDetails);
+		boolean inst = instance, withToolName = includeToolName, withInputDetails = includeInputDetails;
+		byte[] json = getCached(workflowDetails, key, () -> writeDetails(retrieveWorkflow(workflowId, inst, withToolName, withInputDetails)));
+		return readDetails(json);
+	}
+	
+	/**
+	 * Serialize the given workflow details into JSON for caching.
+	 */
+	private byte[] writeDetails(WorkflowDetails details) {
+		try {
+			return DETAILS_MAPPER.writeValueAsBytes(details);
+		}
+		catch (IOException e) {
+			throw new GalaxyWorkflowException("Failed to serialize workflow " + details.getId() + " for caching.", e);
+		}
+	}
+	
+	/**
+	 * Deserialize a new copy of workflow details from the given cached JSON.
+	 */
+	private WorkflowDetails readDetails(byte[] json) {
+		try {
+			return DETAILS_MAPPER.readValue(json, WorkflowDetails.class);
+		}
+		catch (IOException e) {
+			throw new GalaxyWorkflowException("Failed to deserialize cached workflow details.", e);
+		}
+	}
+	
+	/**
+	 * Retrieve details of the given workflow from Galaxy, and populate tool names and input details as specified.
+	 */
+	private WorkflowDetails retrieveWorkflow(String workflowId, boolean instance, boolean includeToolName, boolean includeInputDetails) {
 		String store = instance ? "" : "stored ";
 		String withtn = includeToolName ? " with" : " without";
 		String withid = includeInputDetails ? " with" : " without";
@@ -192,9 +290,16 @@ public class WorkflowServiceImpl implements WorkflowService {
 	 * @see edu.indiana.dlib.amppd.service.WorkflowService.getWorkflowName(String)
 	 */
 	public String getWorkflowName(String workflowId) {
-		String workflowName = workflowNames.get(workflowId);		
-		if (workflowName != null) return workflowName;
-		
+		// if the workflow can't be found in Galaxy, use its ID as name as a temporary solution
+		String workflowName = getCached(workflowNames, workflowId, () -> retrieveWorkflowName(workflowId));
+		return workflowName != null ? workflowName : workflowId;
+	}
+	
+	/**
+	 * Retrieve the name of the given workflow from Galaxy, or null if not found.
+	 */
+	private String retrieveWorkflowName(String workflowId) {
+		String workflowName;
 		try {
 			/* Note: 
 			 * It appears that when calling showWorkflowInstance, i.e. getting Workflow with supposedly storedWorkflowId
@@ -212,19 +317,17 @@ public class WorkflowServiceImpl implements WorkflowService {
 				workflowName = workflow.getName();
 			}
 			else {
-				// if the workflow can't be found in Galaxy, use its ID as name as a temporary solution.
-				workflowName = workflowId;
 				log.warn("Can't find workflow " + workflowId + " in Galaxy; will use the ID as its name");
+				return null;
 			}
 		}
 		catch(UniformInterfaceException e) {
 			// when Galaxy can't find the workflow by the given ID, it throws exception (instead of returning null);
 			// this is likely because the ID is not a StoredWorkflow ID; in this case use workflow ID as name
-			workflowName = workflowId;
 			log.warn("Can't find workflow " + workflowId + " in Galaxy; will use the ID as its name\n" + e.getMessage());
+			return null;
 		}
 		
-		workflowNames.put(workflowId, workflowName);
 		log.info("Storing workflow name in local cache: " + workflowId + ": " + workflowName);
 		return workflowName;
 	}		
@@ -233,7 +336,10 @@ public class WorkflowServiceImpl implements WorkflowService {
 	 * @see edu.indiana.dlib.amppd.service.WorkflowService.clearWorkflowNamesCache()
 	 */
 	public void clearWorkflowNamesCache() {
-		workflowNames.clear();
+		synchronized (this) {
+			generation++;
+			workflowNames.clear();
+		}
 		log.info("Workflow names cache has been cleared up.");
 	}
 	
@@ -248,10 +354,107 @@ public class WorkflowServiceImpl implements WorkflowService {
 	 * @see edu.indiana.dlib.amppd.service.WorkflowService.clearWorkflowsCache()
 	 */
 	public void clearWorkflowsCache() {
-		workflowCache.clear();
+		synchronized (this) {
+			generation++;
+			workflowLists.clear();
+			workflowDetails.clear();
+		}
 		log.info("Workflows cache has been cleared up.");
 	}
 
+	/**
+	 * @see edu.indiana.dlib.amppd.service.WorkflowService.invalidateWorkflow(String)
+	 */
+	public void invalidateWorkflow(String workflowId) {
+		synchronized (this) {
+			generation++;
+			
+			// workflow lists could contain the workflow
+			workflowLists.clear();
+			
+			if (workflowId != null) {
+				workflowNames.remove(workflowId);
+				for (boolean instance : new boolean[] {false, true}) {
+					for (boolean includeToolName : new boolean[] {false, true}) {
+						for (boolean includeInputDetails : new boolean[] {false, true}) {
+							workflowDetails.remove(getDetailsKey(workflowId, instance, includeToolName, includeInputDetails));
+						}
+					}
+				}
+			}
+		}
+		
+		log.info("Successfully invalidated cached metadata for workflow " + workflowId);
+	}
+
+	/**
+	 * Get the value with the given key from the given cache; if not cached, load it synchronously with the given loader.
+	 * If the cached value is stale, return it and reload it in the background, so that callers never wait on Galaxy for a cached workflow;
+	 * if the reload fails or finds nothing, for ex because the workflow has been deleted in Galaxy, the entry is removed.
+	 * Null values, i.e. failed lookups, are never cached; neither are values loaded before an invalidation which happened during the load.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> T getCached(CacheHelper cache, String key, Supplier<T> loader) {
+		CachedValue cached = (CachedValue)cache.get(key);
+		if (cached == null) {
+			long gen = generation;
+			T value = loader.get();
+			if (value != null) {
+				putIfCurrent(cache, key, value, gen);
+			}
+			return value;
+		}
+		
+		String refreshKey = cache.getName() + ":" + key;
+		if (System.currentTimeMillis() - cached.loaded > refreshMillis && refreshing.add(refreshKey)) {
+			refreshExecutor.execute(() -> {
+				try {
+					long gen = generation;
+					T value = loader.get();
+					if (value == null) {
+						cache.remove(key);
+						log.warn("Failed to find " + refreshKey + " upon refreshing workflow metadata cache, removed it");
+						return;
+					}
+					if (putIfCurrent(cache, key, value, gen)) {
+						log.debug("Successfully refreshed " + refreshKey + " in workflow metadata cache");
+					}
+					else {
+						log.debug("Discarded refreshed " + refreshKey + " as workflow metadata cache has been invalidated during the refresh");
+					}
+				}
+				catch (Exception e) {
+					cache.remove(key);
+					log.warn("Failed to refresh " + refreshKey + " in workflow metadata cache, removed it: " + e.getMessage());
+				}
+				finally {
+					refreshing.remove(refreshKey);
+				}
+			});
+		}
+		return (T)cached.value;
+	}
+	
+	/**
+	 * Put the given value with the given key into the given cache, unless any invalidation has happened since the given generation,
+	 * in which case the value could be stale.
+	 * @return true if the value is put into the cache
+	 */
+	private synchronized boolean putIfCurrent(CacheHelper cache, String key, Object value, long gen) {
+		if (generation != gen) {
+			return false;
+		}
+		cache.put(key, new CachedValue(value));
+		return true;
+	}
+	
+	/**
+	 * Get the cache key for workflow details with the given workflow ID and retrieval options.
+	 */
+	private String getDetailsKey(String workflowId, boolean instance, boolean includeToolName, boolean includeInputDetails) {
+		return workflowId + "/" + instance + "/" + includeToolName + "/" + includeInputDetails;
+	}
+
 	/**
 	 * Returns true if the input of the given format should be fed from a primaryfile.  
 	 */
@@ -1,112 +1,305 @@
 package edu.indiana.dlib.amppd.util;
 
-import java.util.ArrayList;
-import org.apache.commons.collections4.MapIterator;
-import org.apache.commons.collections4.map.LRUMap;
-import org.springframework.stereotype.Service;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
-@Service
+/**
+ * A bounded in-memory cache with per-entry time-to-live, safe for concurrent use.
+ * Entries are spread over lock-striped segments, each an LRU map holding its share of maxItems, so that threads accessing
+ * different segments don't block each other; when a segment is full, its least recently used entry is evicted.
+ * An entry expires when it hasn't been accessed (or refreshed by get) for its time-to-live; expired entries are removed
+ * lazily upon access, and by a sweep of the segment at most once per sweep interval upon put, so no background thread is needed.
+ * Hit, miss, put, eviction and expiration counts are tracked for metrics.
+ */
 public class CacheHelper {
- 
-    private LRUMap cacheMap;
- 
-    protected class CacheObject<T> {
-        public long lastAccessed = System.currentTimeMillis();
-        public T value;
-        public long timeToLive;
-        protected CacheObject(T value, long timeToLive) {
-            this.value = value;
-            this.timeToLive = timeToLive * 1000;
-        }
-    }
- 
-    public CacheHelper() {
-    	init(100);
-    }
-    public CacheHelper(long timeToLive, final long timerInterval, int maxItems) {
-        init(maxItems);
-    }	
-    public void init(int maxItems) {
-        cacheMap = new LRUMap(maxItems);
-
-        Thread t = new Thread(new Runnable() {
-            public void run() {
-                while (true) {
-                    try {
-                        Thread.sleep(30 * 1000);
-                    } catch (InterruptedException ex) {
-                    }
-                    cleanup();
-                }
-            }
-        });
-
-        t.setDaemon(true);
-        t.start();
-    }
-    public void put(String key, Object value, long timeToLive) {
-        synchronized (cacheMap) {
-        	cacheMap.put(key, new CacheObject(value, timeToLive));
-        }
-    }
- 
-    @SuppressWarnings("unchecked")
-    public Object get(String key, boolean refresh) {
-        synchronized (cacheMap) {
-        	CacheObject c = (CacheObject) cacheMap.get(key);
- 
-            if (c == null)
-                return null;
-            else {
-                if(refresh) c.lastAccessed = System.currentTimeMillis();
-                return c.value;
-            }
-        }
-    }
- 
-    public void remove(String key) {
-        synchronized (cacheMap) {
-        	System.out.println("Removing " + key + " from cache");
-        	cacheMap.remove(key);
-        }
-    }
- 
-    public int size() {
-        synchronized (cacheMap) {
-            return cacheMap.size();
-        }
-    }
- 
-    @SuppressWarnings("unchecked")
-    public void cleanup() {
- 
-        long now = System.currentTimeMillis();
-        ArrayList<String> deleteKey = null;
- 
-        synchronized (cacheMap) {
-            MapIterator itr = cacheMap.mapIterator();
- 
-            deleteKey = new ArrayList<String>((cacheMap.size() / 2) + 1);
-            String key = null;
-            CacheObject c = null;
- 
-            while (itr.hasNext()) {
-                key = (String) itr.next();
-                c = (CacheObject) itr.getValue();
-            	System.out.println("now: " + now + " last: " + (c.timeToLive + c.lastAccessed));
-                if (c != null && (now > (c.timeToLive + c.lastAccessed))) {
-                	System.out.println("Expiring " + key + " from cache");
-                    deleteKey.add(key);
-                }
-            }
-        }
- 
-        for (String key : deleteKey) {
-            synchronized (cacheMap) {
-            	cacheMap.remove(key);
-            }
- 
-            Thread.yield();
-        }
-    }
-}
\ No newline at end of file
+
+	// max number of segments, i.e. locks
+	public static final int MAX_SEGMENTS = 16;
+
+	// min number of items per segment, so that small caches use fewer segments and keep close to a true LRU
+	public static final int MIN_SEGMENT_ITEMS = 8;
+
+	private final String name;
+	private final long timeToLive;		// default time-to-live in milliseconds
+	private final long sweepInterval;	// min interval between sweeps of a segment in milliseconds
+	private final int maxItems;
+	private final Segment[] segments;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder puts = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+
+	protected static class CacheObject {
+		public final Object value;
+		public final long timeToLive;
+		public volatile long lastAccessed = System.currentTimeMillis();
+
+		protected CacheObject(Object value, long timeToLive) {
+			this.value = value;
+			this.timeToLive = timeToLive;
+		}
+
+		protected boolean isExpired(long now) {
+			return now - lastAccessed > timeToLive;
+		}
+	}
+
+	/**
+	 * A segment of the cache, guarded by its own lock.
+	 */
+	private class Segment {
+		private final LinkedHashMap<Object, CacheObject> map;
+		private long lastSweep = System.currentTimeMillis();
+
+		private Segment(int maxItems) {
+			map = new LinkedHashMap<Object, CacheObject>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Object, CacheObject> eldest) {
+					if (size() <= maxItems) {
+						return false;
+					}
+					// an expired eldest entry counts as expiration rather than eviction
+					if (eldest.getValue().isExpired(System.currentTimeMillis())) {
+						expirations.increment();
+					}
+					else {
+						evictions.increment();
+					}
+					return true;
+				}
+			};
+		}
+
+		/**
+		 * Remove all expired entries in the segment; must be called while holding the segment lock.
+		 */
+		private int sweep(long now) {
+			int count = 0;
+			Iterator<CacheObject> itr = map.values().iterator();
+			while (itr.hasNext()) {
+				if (itr.next().isExpired(now)) {
+					itr.remove();
+					count++;
+				}
+			}
+			lastSweep = now;
+			expirations.add(count);
+			return count;
+		}
+	}
+
+	/**
+	 * Create a CacheHelper with default of 100 max items, 1 hour time-to-live and 30 seconds sweep interval.
+	 */
+	public CacheHelper() {
+		this("default", 3600, 30, 100);
+	}
+
+	/**
+	 * Create a CacheHelper with the given default time-to-live, sweep interval, and max number of items.
+	 * @param timeToLive default time-to-live of entries in seconds
+	 * @param timerInterval min interval between sweeps of expired entries in seconds
+	 * @param maxItems max number of items in the cache
+	 */
+	public CacheHelper(long timeToLive, long timerInterval, int maxItems) {
+		this("default", timeToLive, timerInterval, maxItems);
+	}
+
+	/**
+	 * Create a CacheHelper with the given name, default time-to-live, sweep interval, and max number of items.
+	 * Note that maxItems is divided among the segments, with their bounds adding up to maxItems, so the bound is per segment;
+	 * each segment holds at least MIN_SEGMENT_ITEMS items, thus a cache with fewer than twice that many items uses a single segment.
+	 * @param name name of the cache
+	 * @param timeToLive default time-to-live of entries in seconds
+	 * @param timerInterval min interval between sweeps of expired entries in seconds
+	 * @param maxItems max number of items in the cache
+	 */
+	public CacheHelper(String name, long timeToLive, long timerInterval, int maxItems) {
+		if (maxItems <= 0) {
+			throw new IllegalArgumentException("Cache " + name + " must allow at least one item: " + maxItems);
+		}
+		this.name = name;
+		this.timeToLive = TimeUnit.SECONDS.toMillis(timeToLive);
+		this.sweepInterval = TimeUnit.SECONDS.toMillis(timerInterval);
+		this.maxItems = maxItems;
+
+		// spread the remainder over the first segments, so that the total bound is exactly maxItems
+		int nsegments = Math.max(1, Math.min(MAX_SEGMENTS, maxItems / MIN_SEGMENT_ITEMS));
+		segments = new CacheHelper.Segment[nsegments];
+		for (int i = 0; i < nsegments; i++) {
+			segments[i] = new Segment(maxItems / nsegments + (i < maxItems % nsegments ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Get the segment for the given key.
+	 */
+	private Segment segmentFor(Object key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[(h & 0x7fffffff) % segments.length];
+	}
+
+	/**
+	 * Put the given value with the given key into the cache, with the default time-to-live.
+	 */
+	public void put(Object key, Object value) {
+		put(key, new CacheObject(value, timeToLive));
+	}
+
+	/**
+	 * Put the given value with the given key into the cache, with the given time-to-live in seconds.
+	 */
+	public void put(Object key, Object value, long timeToLive) {
+		put(key, new CacheObject(value, TimeUnit.SECONDS.toMillis(timeToLive)));
+	}
+
+	private void put(Object key, CacheObject c) {
+		Segment segment = segmentFor(key);
+		long now = System.currentTimeMillis();
+		synchronized (segment) {
+			segment.map.put(key, c);
+			// amortize expiry over puts, so that entries no longer accessed don't linger until evicted
+			if (now - segment.lastSweep > sweepInterval) {
+				segment.sweep(now);
+			}
+		}
+		puts.increment();
+	}
+
+	/**
+	 * Get the value with the given key from the cache, refreshing its last access time.
+	 */
+	public Object get(Object key) {
+		return get(key, true);
+	}
+
+	/**
+	 * Get the value with the given key from the cache, refreshing its last access time if refresh is true.
+	 * @return the value, or null if the key doesn't exist or has expired
+	 */
+	public Object get(Object key, boolean refresh) {
+		Segment segment = segmentFor(key);
+		long now = System.currentTimeMillis();
+		CacheObject c;
+		synchronized (segment) {
+			c = segment.map.get(key);
+			if (c != null && c.isExpired(now)) {
+				segment.map.remove(key);
+				expirations.increment();
+				c = null;
+			}
+		}
+
+		if (c == null) {
+			misses.increment();
+			return null;
+		}
+		if (refresh) {
+			c.lastAccessed = now;
+		}
+		hits.increment();
+		return c.value;
+	}
+
+	/**
+	 * Get the value with the given key from the cache; if not found, load it with the given loader and put it into the cache.
+	 * The loader is called outside of the segment lock, so concurrent misses on the same key may load it more than once.
+	 */
+	public Object get(Object key, Function<Object, Object> loader) {
+		Object value = get(key, true);
+		if (value == null) {
+			value = loader.apply(key);
+			if (value != null) {
+				put(key, value);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Remove the value with the given key from the cache.
+	 */
+	public void remove(Object key) {
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			segment.map.remove(key);
+		}
+	}
+
+	/**
+	 * Remove all entries from the cache.
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.map.clear();
+			}
+		}
+	}
+
+	/**
+	 * Return the current number of entries in the cache, including expired ones not yet removed.
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.map.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Remove all expired entries from the cache.
+	 * @return the number of entries removed
+	 */
+	public int cleanup() {
+		long now = System.currentTimeMillis();
+		int count = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				count += segment.sweep(now);
+			}
+		}
+		return count;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getMaxItems() {
+		return maxItems;
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	public long getPutCount() {
+		return puts.sum();
+	}
+
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	public long getExpirationCount() {
+		return expirations.sum();
+	}
+
+}
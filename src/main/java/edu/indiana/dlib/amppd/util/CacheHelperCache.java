@@ -0,0 +1,73 @@
+package edu.indiana.dlib.amppd.util;
+
+import java.util.concurrent.Callable;
+
+import org.springframework.cache.support.AbstractValueAdaptingCache;
+
+/**
+ * Spring Cache backed by a CacheHelper, so that CacheHelper can be used via Spring caching annotations and CacheManager.
+ * Null values are allowed and stored as the null placeholder.
+ */
+public class CacheHelperCache extends AbstractValueAdaptingCache {
+
+	private final CacheHelper cache;
+
+	/**
+	 * Create a CacheHelperCache backed by the given CacheHelper.
+	 */
+	public CacheHelperCache(CacheHelper cache) {
+		super(true);
+		this.cache = cache;
+	}
+
+	@Override
+	public String getName() {
+		return cache.getName();
+	}
+
+	@Override
+	public CacheHelper getNativeCache() {
+		return cache;
+	}
+
+	@Override
+	protected Object lookup(Object key) {
+		return cache.get(key, true);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T get(Object key, Callable<T> valueLoader) {
+		Object value = lookup(key);
+		if (value != null) {
+			return (T) fromStoreValue(value);
+		}
+
+		// load outside of the cache lock, so a slow loader doesn't block other keys in the same segment
+		T loaded;
+		try {
+			loaded = valueLoader.call();
+		}
+		catch (Exception e) {
+			throw new ValueRetrievalException(key, valueLoader, e);
+		}
+		put(key, loaded);
+		return loaded;
+	}
+
+	@Override
+	public void put(Object key, Object value) {
+		cache.put(key, toStoreValue(value));
+	}
+
+	@Override
+	public void evict(Object key) {
+		cache.remove(key);
+	}
+
+	@Override
+	public void clear() {
+		cache.clear();
+	}
+
+}
@@ -0,0 +1,52 @@
+package edu.indiana.dlib.amppd.util;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.AbstractCacheManager;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * CacheManager creating CacheHelperCaches on demand, all with the same time-to-live, sweep interval and max number of items.
+ * Each cache is bound to the meter registry upon creation, so that its statistics are published as cache metrics.
+ */
+@Slf4j
+public class CacheHelperCacheManager extends AbstractCacheManager {
+
+	private final long timeToLive;
+	private final long sweepInterval;
+	private final int maxItems;
+	private final MeterRegistry registry;
+
+	/**
+	 * Create a CacheHelperCacheManager with the given time-to-live and sweep interval in seconds, max number of items per cache,
+	 * and the meter registry to bind caches to.
+	 */
+	public CacheHelperCacheManager(long timeToLive, long sweepInterval, int maxItems, MeterRegistry registry) {
+		this.timeToLive = timeToLive;
+		this.sweepInterval = sweepInterval;
+		this.maxItems = maxItems;
+		this.registry = registry;
+	}
+
+	@Override
+	protected Collection<? extends Cache> loadCaches() {
+		// caches are created on first use
+		return Collections.emptyList();
+	}
+
+	@Override
+	protected Cache getMissingCache(String name) {
+		CacheHelperCache cache = new CacheHelperCache(new CacheHelper(name, timeToLive, sweepInterval, maxItems));
+		if (registry != null) {
+			new CacheHelperMeterBinder(cache.getNativeCache(), Tags.of("cacheManager", "cacheManager")).bindTo(registry);
+		}
+		log.info("Successfully created cache " + name + " with max " + maxItems + " items and " + timeToLive + " seconds time-to-live");
+		return cache;
+	}
+
+}
@@ -0,0 +1,57 @@
+package edu.indiana.dlib.amppd.util;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.binder.cache.CacheMeterBinder;
+
+/**
+ * Publishes the statistics of a CacheHelper as the standard cache metrics (cache.gets, cache.puts, cache.evictions, cache.size),
+ * plus the number of expired entries removed.
+ */
+public class CacheHelperMeterBinder extends CacheMeterBinder {
+
+	private final CacheHelper cache;
+
+	/**
+	 * Create a CacheHelperMeterBinder for the given cache with the given tags.
+	 */
+	public CacheHelperMeterBinder(CacheHelper cache, Iterable<Tag> tags) {
+		super(cache, cache.getName(), tags);
+		this.cache = cache;
+	}
+
+	@Override
+	protected Long size() {
+		return (long) cache.size();
+	}
+
+	@Override
+	protected long hitCount() {
+		return cache.getHitCount();
+	}
+
+	@Override
+	protected Long missCount() {
+		return cache.getMissCount();
+	}
+
+	@Override
+	protected Long evictionCount() {
+		return cache.getEvictionCount();
+	}
+
+	@Override
+	protected long putCount() {
+		return cache.getPutCount();
+	}
+
+	@Override
+	protected void bindImplementationSpecificMetrics(MeterRegistry registry) {
+		FunctionCounter.builder("cache.expirations", cache, CacheHelper::getExpirationCount)
+			.tags(getTagsWithCacheName())
+			.description("The number of entries removed from the cache upon expiration")
+			.register(registry);
+	}
+
+}
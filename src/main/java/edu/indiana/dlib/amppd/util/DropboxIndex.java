@@ -0,0 +1,371 @@
+package edu.indiana.dlib.amppd.util;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An in-memory index of the files in the dropbox, organized as unit sub-directory -> collection sub-directory -> filename -> file info,
+ * where filename is relative to the collection sub-directory, with '/' as separator for files in nested directories.
+ * The index is built by one walk of the dropbox tree, which reads the file attributes along the way, and replaced as a whole by periodic rescans;
+ * in between it's kept current by a WatchService registered on all dropbox directories, where watching is supported by the file system.
+ * Note that changes made on other NFS clients are not seen by the WatchService, so callers should probe the file system upon a miss.
+ */
+@Slf4j
+public class DropboxIndex implements Closeable {
+
+	private final Path root;
+	private final ScheduledExecutorService scheduler;
+	private WatchService watchService;
+	private final Map<WatchKey, Path> watchKeys = new ConcurrentHashMap<WatchKey, Path>();
+	private volatile boolean watchFailed;
+	private volatile boolean ready;
+	private volatile Map<String, Map<String, Map<String, FileInfo>>> units = new ConcurrentHashMap<String, Map<String, Map<String, FileInfo>>>();
+	// paths updated while a rescan is in progress, to be re-applied onto its result, or null if no rescan is in progress
+	private Set<Path> pendingUpdates;
+
+	/**
+	 * Size and last modified time of an indexed file.
+	 */
+	public static class FileInfo {
+		public final long size;
+		public final long lastModified;
+
+		protected FileInfo(long size, long lastModified) {
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+	}
+
+	/**
+	 * Create a DropboxIndex for the dropbox at the given root directory, watched for changes if watch is true, and rescanned
+	 * every given number of seconds, or never if it's not positive. The initial scan runs in the background.
+	 */
+	public DropboxIndex(Path root, boolean watch, long rescanSeconds) {
+		this.root = root;
+
+		if (watch) {
+			try {
+				watchService = root.getFileSystem().newWatchService();
+			}
+			catch (IOException | UnsupportedOperationException e) {
+				log.warn("Dropbox " + root + " can't be watched, the index will be refreshed by rescans only: " + e.getMessage());
+			}
+		}
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "dropbox-index");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.execute(this::rescan);
+		if (rescanSeconds > 0) {
+			scheduler.scheduleWithFixedDelay(this::rescan, rescanSeconds, rescanSeconds, TimeUnit.SECONDS);
+		}
+
+		if (watchService != null) {
+			Thread watcher = new Thread(this::watch, "dropbox-watcher");
+			watcher.setDaemon(true);
+			watcher.start();
+		}
+	}
+
+	/**
+	 * Returns true if the initial scan has completed.
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * Get the indexed files in the given collection sub-directory under the given unit sub-directory, keyed by filename;
+	 * or null if the collection sub-directory is not indexed, either because it doesn't exist or it hasn't been seen yet.
+	 */
+	public Map<String, FileInfo> getFiles(String unitDir, String collectionDir) {
+		Map<String, Map<String, FileInfo>> collections = units.get(unitDir);
+		Map<String, FileInfo> files = collections == null ? null : collections.get(collectionDir);
+		return files == null ? null : Collections.unmodifiableMap(files);
+	}
+
+	/**
+	 * Rescan the given collection sub-directory under the given unit sub-directory and replace its files in the index.
+	 * @return the files in the collection sub-directory, or null if it doesn't exist or can't be read
+	 */
+	public Map<String, FileInfo> refresh(String unitDir, String collectionDir) {
+		Path dir = root.resolve(unitDir).resolve(collectionDir);
+		recordUpdate(dir);
+		if (!Files.isDirectory(dir)) {
+			remove(root.relativize(dir));
+			return null;
+		}
+
+		Map<String, Map<String, Map<String, FileInfo>>> scanned = new ConcurrentHashMap<String, Map<String, Map<String, FileInfo>>>();
+		try {
+			scan(dir, scanned);
+		}
+		catch (IOException e) {
+			log.error("Failed to scan dropbox sub-directory " + dir, e);
+			return null;
+		}
+
+		Map<String, FileInfo> files = scanned.get(unitDir).get(collectionDir);
+		units.computeIfAbsent(unitDir, k -> new ConcurrentHashMap<String, Map<String, FileInfo>>()).put(collectionDir, files);
+		return Collections.unmodifiableMap(files);
+	}
+
+	/**
+	 * Update the index for the file or directory at the given path after it's been added, changed or removed;
+	 * paths outside of the collection sub-directories are ignored, except for unit and collection sub-directories themselves.
+	 */
+	public void update(Path path) {
+		Path rel = relativize(path);
+		if (rel == null) {
+			return;
+		}
+
+		recordUpdate(path);
+		try {
+			BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+			if (attrs.isDirectory()) {
+				scan(path, units);
+			}
+			else if (attrs.isRegularFile() && rel.getNameCount() > 2) {
+				put(units, rel, attrs);
+			}
+		}
+		catch (NoSuchFileException e) {
+			remove(rel);
+		}
+		catch (IOException e) {
+			log.warn("Failed to update dropbox index for " + path + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Rescan the whole dropbox and replace the index with the result; 
+	 * updates made while the rescan is in progress are re-applied onto the result, as the walk may have missed them.
+	 */
+	public void rescan() {
+		long start = System.currentTimeMillis();
+		Map<String, Map<String, Map<String, FileInfo>>> scanned = new ConcurrentHashMap<String, Map<String, Map<String, FileInfo>>>();
+		synchronized (this) {
+			pendingUpdates = ConcurrentHashMap.newKeySet();
+		}
+		
+		Set<Path> updated = null;
+		try {
+			if (Files.isDirectory(root)) {
+				scan(root, scanned);
+			}
+			
+			// publish the result and stop recording updates at once, so that each update either is recorded or goes to the new index
+			synchronized (this) {
+				units = scanned;
+				updated = pendingUpdates;
+			}
+			ready = true;
+			log.info("Indexed " + scanned.size() + " unit sub-directories in dropbox " + root + " in " + (System.currentTimeMillis() - start) + "ms");
+		}
+		catch (IOException | RuntimeException e) {
+			log.error("Failed to scan dropbox " + root, e);
+		}
+		finally {
+			synchronized (this) {
+				pendingUpdates = null;
+			}
+		}
+		
+		if (updated != null) {
+			updated.forEach(this::update);
+		}
+	}
+
+	/**
+	 * Stop watching and rescanning the dropbox.
+	 */
+	@Override
+	public void close() throws IOException {
+		scheduler.shutdownNow();
+		if (watchService != null) {
+			watchService.close();
+		}
+	}
+
+	/*
+	 * Walk the file tree starting at the given directory and add all directories and files into the given index.
+	 */
+	private void scan(Path start, Map<String, Map<String, Map<String, FileInfo>>> index) throws IOException {
+		Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+				Path rel = relativize(dir);
+				if (rel != null) {
+					Map<String, Map<String, FileInfo>> collections = index.computeIfAbsent(rel.getName(0).toString(), k -> new ConcurrentHashMap<String, Map<String, FileInfo>>());
+					if (rel.getNameCount() > 1) {
+						collections.computeIfAbsent(rel.getName(1).toString(), k -> new ConcurrentHashMap<String, FileInfo>());
+					}
+				}
+				register(dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				Path rel = relativize(file);
+				if (attrs.isRegularFile() && rel != null && rel.getNameCount() > 2) {
+					put(index, rel, attrs);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				// skip the unreadable file rather than failing the whole scan
+				log.warn("Failed to read dropbox file " + file + ": " + e.getMessage());
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/*
+	 * Record the given path as updated if a rescan is in progress.
+	 */
+	private synchronized void recordUpdate(Path path) {
+		if (pendingUpdates != null) {
+			pendingUpdates.add(path);
+		}
+	}
+
+	/*
+	 * Register the given directory with the watch service, if any.
+	 */
+	private void register(Path dir) {
+		if (watchService == null) {
+			return;
+		}
+
+		try {
+			watchKeys.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+		}
+		catch (IOException | UnsupportedOperationException | ClosedWatchServiceException e) {
+			// usually caused by the OS limit on watches, which applies to all directories, so only log it once
+			if (!watchFailed) {
+				watchFailed = true;
+				log.warn("Failed to watch dropbox directory " + dir + ", changes to unwatched directories will be picked up by rescans: " + e.getMessage());
+			}
+		}
+	}
+
+	/*
+	 * Process the watch events until the watch service is closed.
+	 */
+	private void watch() {
+		while (true) {
+			WatchKey key;
+			try {
+				key = watchService.take();
+			}
+			catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+
+			Path dir = watchKeys.get(key);
+			for (WatchEvent<?> event : key.pollEvents()) {
+				try {
+					if (event.kind() == OVERFLOW) {
+						// some events are lost, only a rescan can catch up
+						scheduler.execute(this::rescan);
+					}
+					else if (dir != null) {
+						update(dir.resolve((Path)event.context()));
+					}
+				}
+				catch (RuntimeException e) {
+					log.error("Failed to process dropbox watch event " + event.kind() + " in " + dir, e);
+				}
+			}
+
+			if (!key.reset()) {
+				watchKeys.remove(key);
+			}
+		}
+	}
+
+	/*
+	 * Remove the entry with the given path relative to the dropbox root from the index, including all entries under it.
+	 */
+	private void remove(Path rel) {
+		if (rel.getNameCount() == 1) {
+			units.remove(rel.getName(0).toString());
+			return;
+		}
+
+		Map<String, Map<String, FileInfo>> collections = units.get(rel.getName(0).toString());
+		if (collections == null) {
+			return;
+		}
+		if (rel.getNameCount() == 2) {
+			collections.remove(rel.getName(1).toString());
+			return;
+		}
+
+		Map<String, FileInfo> files = collections.get(rel.getName(1).toString());
+		if (files != null) {
+			String filename = getFilename(rel);
+			files.keySet().removeIf(name -> name.equals(filename) || name.startsWith(filename + "/"));
+		}
+	}
+
+	/*
+	 * Put the file with the given path relative to the dropbox root and attributes into the given index.
+	 */
+	private static void put(Map<String, Map<String, Map<String, FileInfo>>> index, Path rel, BasicFileAttributes attrs) {
+		index.computeIfAbsent(rel.getName(0).toString(), k -> new ConcurrentHashMap<String, Map<String, FileInfo>>())
+			.computeIfAbsent(rel.getName(1).toString(), k -> new ConcurrentHashMap<String, FileInfo>())
+			.put(getFilename(rel), new FileInfo(attrs.size(), attrs.lastModifiedTime().toMillis()));
+	}
+
+	/*
+	 * Get the filename relative to the collection sub-directory for the given path relative to the dropbox root.
+	 */
+	private static String getFilename(Path rel) {
+		return rel.subpath(2, rel.getNameCount()).toString().replace(File.separatorChar, '/');
+	}
+
+	/*
+	 * Get the given path relative to the dropbox root, or null if it's the root itself or not within the dropbox.
+	 */
+	private Path relativize(Path path) {
+		if (!path.startsWith(root) || path.equals(root)) {
+			return null;
+		}
+		return root.relativize(path);
+	}
+
+}
@@ -0,0 +1,98 @@
+package edu.indiana.dlib.amppd.util;
+
+import java.net.SocketTimeoutException;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.api.client.filter.ClientFilter;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Jersey client filter applied to all blend4j requests to Galaxy: it sets connect/read timeouts,
+ * retries idempotent requests failed with IO error other than timeout or 502/503/504 with exponential backoff,
+ * and records per-endpoint latency and errors into GalaxyHttpMetrics.
+ * Timeouts are not retried, as a request Galaxy couldn't respond to within the read timeout would most likely time out again,
+ * holding the caller for several times the timeout.
+ */
+@Slf4j
+public class GalaxyClientFilter extends ClientFilter {
+
+	private final int connectTimeout;
+	private final int readTimeout;
+	private final int maxRetries;
+	private final long retryBackoff;
+	private final GalaxyHttpMetrics metrics;
+
+	/**
+	 * Create a GalaxyClientFilter with the given timeouts in milliseconds, max number of retries,
+	 * initial backoff in milliseconds, and metrics to record into.
+	 */
+	public GalaxyClientFilter(int connectTimeout, int readTimeout, int maxRetries, long retryBackoff, GalaxyHttpMetrics metrics) {
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.maxRetries = maxRetries;
+		this.retryBackoff = retryBackoff;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+		// the default URLConnection handler reads timeouts from request properties
+		request.getProperties().put(ClientConfig.PROPERTY_CONNECT_TIMEOUT, connectTimeout);
+		request.getProperties().put(ClientConfig.PROPERTY_READ_TIMEOUT, readTimeout);
+
+		String method = request.getMethod();
+		String path = request.getURI().getPath();
+		boolean idempotent = "GET".equals(method) || "HEAD".equals(method);
+
+		for (int attempt = 0; ; attempt++) {
+			long start = System.nanoTime();
+			ClientResponse response;
+			try {
+				response = getNext().handle(request);
+			}
+			catch (ClientHandlerException e) {
+				metrics.record(method, path, GalaxyHttpMetrics.STATUS_IO_ERROR, System.nanoTime() - start);
+				if (!idempotent || attempt >= maxRetries || e.getCause() instanceof SocketTimeoutException) {
+					throw e;
+				}
+				log.warn("Retrying Galaxy request " + method + " " + path + " after IO error: " + e.getMessage());
+				backoff(attempt);
+				continue;
+			}
+
+			int status = response.getStatus();
+			metrics.record(method, path, status, System.nanoTime() - start);
+			if (!idempotent || attempt >= maxRetries || !isRetriable(status)) {
+				return response;
+			}
+			response.close();
+			log.warn("Retrying Galaxy request " + method + " " + path + " after status " + status);
+			backoff(attempt);
+		}
+	}
+
+	/**
+	 * Return true if the given response status indicates a transient Galaxy/proxy failure worth retrying.
+	 */
+	public static boolean isRetriable(int status) {
+		return status == 502 || status == 503 || status == 504;
+	}
+
+	/**
+	 * Sleep for the backoff before the retry following the given attempt, doubling on each attempt.
+	 */
+	private void backoff(int attempt) {
+		try {
+			Thread.sleep(retryBackoff << attempt);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ClientHandlerException("Interrupted while waiting to retry Galaxy request", e);
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+package edu.indiana.dlib.amppd.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Records latency and outcome of HTTP requests sent to Galaxy as a Micrometer timer, tagged per endpoint,
+ * so that per-endpoint latency and error rate are available through the actuator metrics endpoint.
+ * Endpoints are normalized by replacing Galaxy encoded IDs with {id} and collapsing static resources,
+ * to keep the number of distinct tags bounded.
+ */
+public class GalaxyHttpMetrics {
+
+	public static final String METRIC_NAME = "galaxy.http.requests";
+
+	// status recorded for requests that failed without a response, i.e. with IO error
+	public static final int STATUS_IO_ERROR = 0;
+
+	// Galaxy encoded IDs are 16 hex digits
+	private static final Pattern GALAXY_ID = Pattern.compile("/[0-9a-f]{16}(?=/|$)");
+
+	private static final String GALAXY_STATIC = "/static/";
+
+	private final MeterRegistry registry;
+
+	/**
+	 * Create a GalaxyHttpMetrics recording into the given registry.
+	 */
+	public GalaxyHttpMetrics(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * Record a Galaxy request with the given method, path, response status and duration.
+	 * @param method HTTP method of the request
+	 * @param path URL path of the request, with or without query string
+	 * @param status HTTP status of the response, or STATUS_IO_ERROR if no response was received
+	 * @param nanos duration of the request in nanoseconds
+	 */
+	public void record(String method, String path, int status, long nanos) {
+		Timer.builder(METRIC_NAME)
+			.description("Latency of HTTP requests sent to Galaxy")
+			.tag("method", method)
+			.tag("endpoint", getEndpoint(path))
+			.tag("status", String.valueOf(status))
+			.tag("outcome", getOutcome(status))
+			.register(registry)
+			.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Get the normalized endpoint for the given request path.
+	 */
+	public static String getEndpoint(String path) {
+		String endpoint = StringUtils.substringBefore(path, "?");
+		if (endpoint.contains(GALAXY_STATIC)) {
+			return StringUtils.substringBefore(endpoint, GALAXY_STATIC) + GALAXY_STATIC + "**";
+		}
+		return GALAXY_ID.matcher(endpoint).replaceAll("/{id}");
+	}
+
+	/**
+	 * Get the outcome for the given response status.
+	 */
+	public static String getOutcome(int status) {
+		if (status == STATUS_IO_ERROR) {
+			return "IO_ERROR";
+		}
+		if (status >= 500) {
+			return "SERVER_ERROR";
+		}
+		if (status >= 400) {
+			return "CLIENT_ERROR";
+		}
+		return "SUCCESS";
+	}
+
+}
@@ -0,0 +1,140 @@
+package edu.indiana.dlib.amppd.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import edu.indiana.dlib.amppd.exception.StorageException;
+
+/**
+ * A local disk cache of the Galaxy static assets proxied for the workflow editor, so that the large and rarely changing
+ * static bundles are not fetched from Galaxy each time the editor loads.
+ * Each asset is cached by its path and content encoding variant, along with its ETag. A cached asset is served without contacting
+ * Galaxy until the revalidation interval has passed, or it's requested with a different query string (which Galaxy uses for cache busting);
+ * after that it's revalidated with Galaxy by a conditional request on its ETag.
+ * The index of cached assets is kept in memory, so the assets are stored in a sub-directory owned by the cache, which is cleaned upon creation;
+ * nothing else in the configured directory is touched.
+ */
+public class GalaxyStaticCache {
+
+	// content encoding variants of cached assets
+	public static final String GZIP = "gzip";
+	public static final String IDENTITY = "identity";
+
+	// sub-directory of the configured directory where the assets are stored
+	public static final String ASSETS_SUBDIR = "amppd-galaxy-static-assets";
+
+	private final Path dir;
+	private final long revalidateInterval;	// in milliseconds
+	private final Map<String, Asset> assets = new ConcurrentHashMap<String, Asset>();
+
+	/**
+	 * A cached asset and the response headers it's served with.
+	 */
+	public static class Asset {
+		public final Path file;
+		public final String etag;
+		public final String contentType;
+		public final String contentEncoding;
+		public volatile String query;
+		public volatile long validated = System.currentTimeMillis();
+
+		protected Asset(Path file, String etag, String contentType, String contentEncoding, String query) {
+			this.file = file;
+			this.etag = etag;
+			this.contentType = contentType;
+			this.contentEncoding = contentEncoding;
+			this.query = query;
+		}
+	}
+
+	/**
+	 * Create a GalaxyStaticCache storing assets in its own sub-directory of the given directory, to be revalidated after the given number of seconds.
+	 */
+	public GalaxyStaticCache(String dir, long revalidateSeconds) {
+		this.dir = Paths.get(dir).resolve(ASSETS_SUBDIR);
+		this.revalidateInterval = TimeUnit.SECONDS.toMillis(revalidateSeconds);
+
+		// assets left from previous runs are not indexed, thus can't be used
+		try {
+			Files.createDirectories(this.dir);
+			FileUtils.cleanDirectory(this.dir.toFile());
+		}
+		catch (IOException e) {
+			throw new StorageException("Failed to initialize Galaxy static cache directory " + this.dir, e);
+		}
+	}
+
+	/**
+	 * Get the content encoding variant to cache for a request with the given Accept-Encoding header.
+	 */
+	public static String getVariant(String acceptEncoding) {
+		return StringUtils.containsIgnoreCase(acceptEncoding, GZIP) ? GZIP : IDENTITY;
+	}
+
+	/**
+	 * Get the cached asset with the given path and content encoding variant, or null if it's not cached.
+	 */
+	public Asset get(String path, String variant) {
+		return assets.get(getKey(path, variant));
+	}
+
+	/**
+	 * Returns true if the given cached asset can be served for a request with the given query string without revalidation.
+	 */
+	public boolean isFresh(Asset asset, String query) {
+		return StringUtils.equals(asset.query, query) && System.currentTimeMillis() - asset.validated < revalidateInterval;
+	}
+
+	/**
+	 * Mark the given cached asset as validated for requests with the given query string.
+	 */
+	public void validated(Asset asset, String query) {
+		asset.query = query;
+		asset.validated = System.currentTimeMillis();
+	}
+
+	/**
+	 * Create a temporary file in the cache directory to receive an asset; it's either put into the cache or deleted afterwards.
+	 */
+	public Path createTempFile() throws IOException {
+		return Files.createTempFile(dir, "asset", ".tmp");
+	}
+
+	/**
+	 * Put the asset received in the given temporary file into the cache, with the given path, content encoding variant, query string and response headers,
+	 * replacing the previously cached one if any.
+	 * @return the cached asset
+	 */
+	public Asset put(String path, String variant, String query, Path tempFile, String etag, String contentType, String contentEncoding) throws IOException {
+		// readers of the replaced file keep reading its old content, as the move is atomic
+		// and the file is replaced rather than overwritten
+		String key = getKey(path, variant);
+		Path file = dir.resolve(DigestUtils.sha1Hex(key));
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		Asset asset = new Asset(file, etag, contentType, contentEncoding, query);
+		assets.put(key, asset);
+		return asset;
+	}
+
+	/**
+	 * Return the number of cached assets.
+	 */
+	public int size() {
+		return assets.size();
+	}
+
+	private String getKey(String path, String variant) {
+		return variant + " " + path;
+	}
+
+}
@@ -0,0 +1,81 @@
+package edu.indiana.dlib.amppd.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A simple thread-safe rate limiter which spaces out permits evenly at the configured rate.
+ * A non-positive rate means unlimited, in which case acquire returns immediately.
+ * The limiter also counts the total number of permits acquired, which can be used to compute call throughput.
+ */
+public class RateLimiter {
+
+	// interval between two permits in nanoseconds, 0 if unlimited
+	private final long intervalNanos;
+
+	// the earliest time the next permit can be granted
+	private long nextFreeNanos;
+
+	// total number of permits acquired since creation
+	private final AtomicLong permitsAcquired = new AtomicLong();
+
+	/**
+	 * Create a RateLimiter allowing the given number of permits per second.
+	 * @param permitsPerSecond the given number of permits per second, non-positive for unlimited
+	 */
+	public RateLimiter(double permitsPerSecond) {
+		intervalNanos = permitsPerSecond > 0 ? (long)(TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0;
+		nextFreeNanos = System.nanoTime();
+	}
+
+	/**
+	 * Acquire one permit, blocking until it's available.
+	 */
+	public void acquire() {
+		acquire(1);
+	}
+
+	/**
+	 * Acquire the given number of permits, blocking until they are available.
+	 * @param permits the given number of permits
+	 */
+	public void acquire(int permits) {
+		permitsAcquired.addAndGet(permits);
+		if (intervalNanos == 0) {
+			return;
+		}
+
+		// reserve the time slot for the permits, then wait outside the lock until it comes
+		long waitNanos;
+		synchronized (this) {
+			long now = System.nanoTime();
+			long start = Math.max(now, nextFreeNanos);
+			nextFreeNanos = start + intervalNanos * permits;
+			waitNanos = start - now;
+		}
+
+		if (waitNanos > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Return the total number of permits acquired since creation.
+	 */
+	public long getPermitsAcquired() {
+		return permitsAcquired.get();
+	}
+
+	/**
+	 * Return true if the limiter doesn't limit the rate.
+	 */
+	public boolean isUnlimited() {
+		return intervalNanos == 0;
+	}
+
+}
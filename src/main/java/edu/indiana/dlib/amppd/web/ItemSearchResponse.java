@@ -10,5 +10,6 @@ import lombok.Data;
 public class ItemSearchResponse {
 	private boolean success;
 	private String error;
+	private long total;		// total number of primaryfiles matched across all pages
 	private List<ItemSearchResult> rows;
 }
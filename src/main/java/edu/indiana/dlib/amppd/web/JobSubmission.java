@@ -0,0 +1,63 @@
+package edu.indiana.dlib.amppd.web;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import lombok.Data;
+
+/**
+ * Progress of an asynchronous submission of multiple AMP jobs, along with the CreateJobResponse for each job processed so far.
+ * Responses are added in the order jobs are processed, which is not necessarily the order of the inputs.
+ */
+@Data
+public class JobSubmission {
+	private String id;
+	private String workflowId;		// null if the submission only stages primaryfiles for jobs
+	private String submittedBy;
+	private Date dateSubmitted;
+	private volatile Date dateFinished;	// null while the submission is still in progress
+	private int total;				// total number of jobs in the submission
+	private int succeeded;			// number of jobs successfully created so far
+	private int failed;				// number of jobs failed to be created so far
+	private List<CreateJobResponse> responses = new CopyOnWriteArrayList<CreateJobResponse>();
+
+	public JobSubmission() {
+	}
+
+	public JobSubmission(String id, String workflowId, String submittedBy, int total) {
+		this.id = id;
+		this.workflowId = workflowId;
+		this.submittedBy = submittedBy;
+		this.total = total;
+		this.dateSubmitted = new Date();
+		if (total == 0) {
+			dateFinished = dateSubmitted;
+		}
+	}
+
+	/**
+	 * Add the given response of a processed job and update the progress accordingly.
+	 * @param response
+	 */
+	public synchronized void addResponse(CreateJobResponse response) {
+		responses.add(response);
+		if (Boolean.TRUE.equals(response.getSuccess())) {
+			succeeded++;
+		}
+		else {
+			failed++;
+		}
+		if (succeeded + failed >= total) {
+			dateFinished = new Date();
+		}
+	}
+
+	/**
+	 * Return true if all jobs in the submission have been processed.
+	 */
+	public boolean isFinished() {
+		return dateFinished != null;
+	}
+
+}
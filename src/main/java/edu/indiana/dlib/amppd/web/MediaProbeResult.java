@@ -0,0 +1,23 @@
+package edu.indiana.dlib.amppd.web;
+
+import edu.indiana.dlib.amppd.model.Asset;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Result of probing the media file of an asset in a bulk probe, either the media info or the error if probing failed.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MediaProbeResult {
+	private Asset asset;
+	private String mediaInfo;	// media info JSON, or null if probing failed
+	private String error;		// error message if probing failed
+	private long probeTime;		// milliseconds spent on probing, including waiting for an available worker
+	
+	public boolean isSuccess() {
+		return error == null;
+	}
+}
@@ -0,0 +1,18 @@
+package edu.indiana.dlib.amppd.web;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Result of pre-processing a media file independent of any asset, which can be applied to the asset created for the file later.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PreprocessedMedia {
+	private String sourcePathname;		// pathname of the original media file
+	private String convertedPathname;	// pathname of the wav file converted from the original flac file, or null if no conversion happened
+	private String mediaInfo;			// media info JSON retrieved from the (converted) media file
+	private long preprocessTime;		// milliseconds spent on pre-processing
+}
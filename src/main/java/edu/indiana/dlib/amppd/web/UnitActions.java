@@ -0,0 +1,19 @@
+package edu.indiana.dlib.amppd.web;
+
+import java.util.List;
+
+import edu.indiana.dlib.amppd.model.ac.Action;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The actions the current user is allowed to perform within a unit, as returned by a bulk permission check.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UnitActions {
+	private Long unitId;			// ID of the unit, or null for global scope
+	private List<Action> actions;	// the allowed actions among the queried ones
+}
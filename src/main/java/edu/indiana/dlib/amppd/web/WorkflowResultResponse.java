@@ -9,5 +9,7 @@ import lombok.Data;
 public class WorkflowResultResponse {
 	private List<WorkflowResult> rows;
 	private int totalResults;
+	private boolean totalResultsEstimated;	// true if totalResults is not exact: either a table statistics estimate or a lower bound capped at the count limit
+	private String continuationToken;		// for keyset pagination, the token to retrieve the next page, null if no more pages
 	private WorkflowResultFilterValues filters;
 }
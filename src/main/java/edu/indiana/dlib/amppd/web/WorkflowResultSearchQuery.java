@@ -8,6 +8,8 @@ import lombok.Data;
 public class WorkflowResultSearchQuery {
 	public WorkflowResultSearchQuery(){
 		filterOnly = false;
+		keyset = false;
+		estimateCount = false;
 		pageNum = 1;
 		sortRule = new WorkflowResultSortRule();
 		sortRule.setColumnName("id");
@@ -32,6 +34,9 @@ public class WorkflowResultSearchQuery {
 	}
 	
 	private boolean filterOnly;		
+	private boolean keyset;				// use keyset pagination with continuationToken instead of offset pagination with pageNum
+	private String continuationToken;	// opaque position after the previous page returned in WorkflowResultResponse, null for the first page
+	private boolean estimateCount;		// return an estimated total count instead of the exact one, which is expensive on large tables
 	private int pageNum;
 	private int resultsPerPage;
 	private WorkflowResultSortRule sortRule;
@@ -0,0 +1,38 @@
+# Long-lived MediaProbe worker used by MediaProbeServiceImpl.
+# Runs media_probe.py in-process for each request read from stdin, so that the interpreter startup and module imports
+# are paid once per worker instead of once per media file.
+# Each request is a JSON line {"path": "<media file>"}; each response is a JSON line prefixed with the marker below,
+# {"status": <exit status>, "output": "<stdout of media_probe>", "error": "<stderr of media_probe>"};
+# any other output lines are to be ignored.
+import io
+import json
+import os
+import runpy
+import sys
+import traceback
+from contextlib import redirect_stderr, redirect_stdout
+
+MARKER = "@@MEDIAPROBE@@ "
+
+script = sys.argv[1]
+sys.path.insert(0, os.path.dirname(os.path.abspath(script)))
+out = sys.stdout
+
+for line in sys.stdin:
+    if not line.strip():
+        continue
+    buf = io.StringIO()
+    err = io.StringIO()
+    status = 0
+    try:
+        request = json.loads(line)
+        sys.argv = [script, "--json", request["path"]]
+        with redirect_stdout(buf), redirect_stderr(err):
+            runpy.run_path(script, run_name="__main__")
+    except SystemExit as e:
+        status = e.code if isinstance(e.code, int) else (0 if e.code is None else 1)
+    except BaseException:
+        traceback.print_exc(file=err)
+        status = 1
+    out.write(MARKER + json.dumps({"status": status, "output": buf.getvalue(), "error": err.getvalue()}) + "\n")
+    out.flush()
@@ -0,0 +1,39 @@
+package edu.indiana.dlib.amppd.model;
+
+import java.util.Arrays;
+
+import org.json.JSONException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MediaDescriptorTests {
+
+	private static final String MEDIA_INFO_AUDIO_MP4 = "{\"container\": {\"mime_type\": \"video/mp4\", \"duration\": 12.5, \"format_name\": \"mov,mp4,m4a,3gp,3g2,mj2\"}, \"streams\": {\"audio\": [{\"codec_name\": \"aac\"}]}}";
+	private static final String MEDIA_INFO_VIDEO_MP4 = "{\"container\": {\"mime_type\": \"video/mp4\", \"duration\": 3.0}, \"streams\": {\"video\": [{}], \"audio\": [{}]}}";
+
+	@Test
+	public void shouldParseAudioOnlyMp4AsAudio() throws JSONException {
+		MediaDescriptor descriptor = MediaDescriptor.parse(MEDIA_INFO_AUDIO_MP4);
+		Assert.assertEquals("audio/mp4", descriptor.getMimeType());
+		Assert.assertEquals(12.5, descriptor.getDuration(), 0);
+		Assert.assertEquals(Arrays.asList("audio"), descriptor.getStreamKinds());
+		Assert.assertEquals("mov,mp4,m4a,3gp,3g2,mj2", descriptor.getContainerFormat());
+		Assert.assertTrue(descriptor.hasAudio());
+		Assert.assertFalse(descriptor.hasVideo());
+	}
+
+	@Test
+	public void shouldPopulateDescriptorFieldsOnSetMediaInfo() {
+		Primaryfile primaryfile = new Primaryfile();
+		primaryfile.setMediaInfo(MEDIA_INFO_VIDEO_MP4);
+		Assert.assertEquals("video/mp4", primaryfile.getMimeType());
+		Assert.assertEquals("audio,video", primaryfile.getStreamKinds());
+		Assert.assertEquals(3.0, primaryfile.getMediaDuration(), 0);
+		Assert.assertNull(primaryfile.getContainerFormat());
+		
+		primaryfile.setMediaInfo("invalid");
+		Assert.assertNull(primaryfile.getMimeType());
+		Assert.assertNull(primaryfile.getMediaDescriptor());
+	}
+
+}
@@ -0,0 +1,101 @@
+package edu.indiana.dlib.amppd.repository;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import edu.indiana.dlib.amppd.model.WorkflowResult;
+import edu.indiana.dlib.amppd.web.GalaxyJobState;
+import edu.indiana.dlib.amppd.web.WorkflowResultResponse;
+import edu.indiana.dlib.amppd.web.WorkflowResultSearchQuery;
+import edu.indiana.dlib.amppd.web.WorkflowResultSortRule;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class WorkflowResultRepositoryTests {
+
+	// a primaryfile ID no real WorkflowResult has, so that the queries only see the results created here
+	public static final Long PRIMARYFILE_ID = -1l;
+
+	// microseconds of the results within the same millisecond, with ties
+	public static final int[] MICROS = {100, 200, 200, 300, 300, 300};
+
+	@Autowired
+	private WorkflowResultRepository workflowResultRepository;
+
+	private List<WorkflowResult> results = new ArrayList<WorkflowResult>();
+
+	@Before
+	public void setup() {
+		for (int micros : MICROS) {
+			WorkflowResult result = new WorkflowResult();
+			result.setPrimaryfileId(PRIMARYFILE_ID);
+			result.setOutputId(UUID.randomUUID().toString());
+			result.setStatus(GalaxyJobState.COMPLETE);
+			result.setDateCreated(Timestamp.from(Instant.parse("2022-01-01T00:00:00Z").plusNanos(micros * 1000l)));
+			results.add(workflowResultRepository.save(result));
+		}
+	}
+
+	@After
+	public void cleanup() {
+		workflowResultRepository.deleteAll(results);
+	}
+
+	@Test
+	public void shouldTraverseKeysetPagesWithTiedTimestamps() {
+		for (boolean descending : new boolean[] {false, true}) {
+			WorkflowResultSearchQuery query = getQuery(descending);
+			List<Long> expected = new ArrayList<Long>();
+			workflowResultRepository.findByQuery(query).getRows().forEach(row -> expected.add(row.getId()));
+			Assert.assertEquals(MICROS.length, expected.size());
+
+			// pages retrieved by continuation token shall cover all results in the same order, without any skipped or repeated
+			query.setKeyset(true);
+			query.setResultsPerPage(2);
+			List<Long> ids = new ArrayList<Long>();
+			int npages = 0;
+			WorkflowResultResponse page;
+			do {
+				page = workflowResultRepository.findByQuery(query);
+				page.getRows().forEach(row -> ids.add(row.getId()));
+				query.setContinuationToken(page.getContinuationToken());
+				npages++;
+			} while (page.getContinuationToken() != null);
+
+			Assert.assertEquals(expected, ids);
+			Assert.assertEquals(MICROS.length / 2, npages);
+		}
+	}
+
+	@Test
+	public void shouldReturnExactCountBelowEstimateLimit() {
+		WorkflowResultSearchQuery query = getQuery(false);
+		query.setEstimateCount(true);
+		WorkflowResultResponse response = workflowResultRepository.findByQuery(query);
+		Assert.assertEquals(MICROS.length, response.getTotalResults());
+		Assert.assertFalse(response.isTotalResultsEstimated());
+	}
+
+	private WorkflowResultSearchQuery getQuery(boolean descending) {
+		WorkflowResultSearchQuery query = new WorkflowResultSearchQuery();
+		query.setFilterByFiles(new Long[] {PRIMARYFILE_ID});
+		WorkflowResultSortRule sort = new WorkflowResultSortRule();
+		sort.setColumnName(WorkflowResultRepositoryCustomImpl.DATE_PROPERTY);
+		sort.setOrderByDescending(descending);
+		query.setSortRule(sort);
+		return query;
+	}
+
+}
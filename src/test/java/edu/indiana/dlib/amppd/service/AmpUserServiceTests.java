@@ -127,6 +127,26 @@ public class AmpUserServiceTests {
 		  }
     }
 	
+	@Test
+	public void shouldRefreshCachedUserUponActivation() throws Exception{
+	 	AmpUser user = getAmpUser();
+	 	ampUserService.registerAmpUser(user);
+	 	AmpUser cachedUser = ampUserService.getCachedUser(user.getUsername());
+	 	Assert.assertNotNull(cachedUser);
+	 	Assert.assertFalse(cachedUser.getStatus()==AmpUser.State.ACTIVATED);
+	 	
+	 	// each call gets its own copy of the snapshot, so changing one doesn't affect the others
+	 	cachedUser.setStatus(AmpUser.State.ACTIVATED);
+	 	AmpUser otherCachedUser = ampUserService.getCachedUser(user.getUsername());
+	 	Assert.assertNotSame(cachedUser, otherCachedUser);
+	 	Assert.assertEquals(user.getUsername(), otherCachedUser.getUsername());
+	 	Assert.assertFalse(otherCachedUser.getStatus()==AmpUser.State.ACTIVATED);
+
+	 	ampUserService.activateUser(user.getUsername());
+	 	cachedUser = ampUserService.getCachedUser(user.getUsername());
+	 	Assert.assertTrue(cachedUser.getStatus()==AmpUser.State.ACTIVATED);
+    }
+
 	private AmpUser getAmpUser() {
         Random rand = new Random(); 
         int rand_int1 = rand.nextInt(1000); 
@@ -1,5 +1,6 @@
 package edu.indiana.dlib.amppd.service;
 
+import java.io.ByteArrayOutputStream;
 import java.util.List;
 
 import org.junit.Assert;
@@ -13,6 +14,7 @@ import org.springframework.test.context.junit4.SpringRunner;
 
 import com.github.jmchilton.blend4j.galaxy.beans.Invocation;
 import com.github.jmchilton.blend4j.galaxy.beans.Workflow;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import edu.indiana.dlib.amppd.model.BagContent;
 import edu.indiana.dlib.amppd.model.Collection;
@@ -134,5 +136,32 @@ public class BagServiceTests {
 		Assert.assertEquals(ibag.getItemId(), item.getId());		
 	}
 	
+	@Test
+	public void shouldWriteCollectionBagSameAsAssembled() throws Exception {
+		Collection collection = primaryfile.getItem().getCollection();		
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int count = bagService.writeCollectionBag(collection.getId(), out);
+		Assert.assertEquals(count, 1);
+		
+		CollectionBag cbagWritten = new ObjectMapper().readValue(out.toByteArray(), CollectionBag.class);
+		CollectionBag cbag = bagService.getCollectionBag(collection.getId());
+		Assert.assertEquals(cbagWritten, cbag);
+		
+		// child bags are excluded from equals, so compare them level by level
+		Assert.assertEquals(cbagWritten.getItemBags().size(), cbag.getItemBags().size());
+		for (int i = 0; i < cbag.getItemBags().size(); i++) {
+			ItemBag ibagWritten = cbagWritten.getItemBags().get(i);
+			ItemBag ibag = cbag.getItemBags().get(i);
+			Assert.assertEquals(ibagWritten, ibag);
+			Assert.assertEquals(ibagWritten.getPrimaryfileBags().size(), ibag.getPrimaryfileBags().size());
+			for (int j = 0; j < ibag.getPrimaryfileBags().size(); j++) {
+				PrimaryfileBag pbagWritten = ibagWritten.getPrimaryfileBags().get(j);
+				PrimaryfileBag pbag = ibag.getPrimaryfileBags().get(j);
+				Assert.assertEquals(pbagWritten, pbag);
+				Assert.assertEquals(pbagWritten.getBagContents(), pbag.getBagContents());
+			}
+		}
+	}
 
 }
@@ -0,0 +1,102 @@
+package edu.indiana.dlib.amppd.service;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.indiana.dlib.amppd.exception.StorageException;
+import edu.indiana.dlib.amppd.model.Collection;
+import edu.indiana.dlib.amppd.model.Item;
+import edu.indiana.dlib.amppd.model.Unit;
+import edu.indiana.dlib.amppd.model.WorkflowResult;
+import edu.indiana.dlib.amppd.repository.CollectionRepository;
+import edu.indiana.dlib.amppd.repository.ItemRepository;
+import edu.indiana.dlib.amppd.repository.PrimaryfileRepository;
+import edu.indiana.dlib.amppd.service.impl.BagServiceImpl;
+
+/**
+ * Tests streaming of CollectionBags by BagServiceImpl with mocked repositories, including failures in the middle of the stream.
+ */
+public class BagStreamTests {
+
+	public static final Long COLLECTION_ID = 1l;
+
+	private BagServiceImpl bagService;
+	private WorkflowResultService workflowResultService;
+
+	@Before
+	public void setup() {
+		Unit unit = new Unit();
+		unit.setName("unit");
+		Collection collection = new Collection();
+		collection.setId(COLLECTION_ID);
+		collection.setName("collection");
+		collection.setUnit(unit);
+
+		// more items than one batch, so that the bag is assembled in two batches
+		List<Item> items = new ArrayList<Item>();
+		for (long i = 1; i <= BagServiceImpl.ITEM_BATCH_SIZE + 1; i++) {
+			Item item = new Item();
+			item.setId(i);
+			item.setName("item" + i);
+			items.add(item);
+		}
+
+		CollectionRepository collectionRepository = Mockito.mock(CollectionRepository.class);
+		ItemRepository itemRepository = Mockito.mock(ItemRepository.class);
+		PrimaryfileRepository primaryfileRepository = Mockito.mock(PrimaryfileRepository.class);
+		workflowResultService = Mockito.mock(WorkflowResultService.class);
+		Mockito.when(collectionRepository.findById(COLLECTION_ID)).thenReturn(Optional.of(collection));
+		Mockito.when(itemRepository.findByCollectionIdOrderById(COLLECTION_ID)).thenReturn(items);
+
+		bagService = new BagServiceImpl();
+		ReflectionTestUtils.setField(bagService, "collectionRepository", collectionRepository);
+		ReflectionTestUtils.setField(bagService, "itemRepository", itemRepository);
+		ReflectionTestUtils.setField(bagService, "primaryfileRepository", primaryfileRepository);
+		ReflectionTestUtils.setField(bagService, "workflowResultService", workflowResultService);
+		ReflectionTestUtils.setField(bagService, "mediaService", Mockito.mock(MediaService.class));
+		ReflectionTestUtils.setField(bagService, "objectMapper", new ObjectMapper());
+	}
+
+	@Test
+	public void shouldWriteCompleteBag() throws Exception {
+		Mockito.when(workflowResultService.getFinalWorkflowResultsByItems(Mockito.anyList())).thenReturn(new ArrayList<WorkflowResult>());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Assert.assertEquals(BagServiceImpl.ITEM_BATCH_SIZE + 1, bagService.writeCollectionBag(COLLECTION_ID, out));
+
+		JsonNode bag = new ObjectMapper().readTree(out.toByteArray());
+		Assert.assertEquals(BagServiceImpl.ITEM_BATCH_SIZE + 1, bag.get("itemBags").size());
+		Assert.assertFalse(bag.has("error"));
+	}
+
+	@Test
+	public void shouldEndBagWithErrorUponFailureInTheMiddle() throws Exception {
+		// the second batch fails after the first one has been written
+		StorageException error = new StorageException("database gone");
+		Mockito.when(workflowResultService.getFinalWorkflowResultsByItems(Mockito.anyList())).thenReturn(new ArrayList<WorkflowResult>()).thenThrow(error);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			bagService.writeCollectionBag(COLLECTION_ID, out);
+			Assert.fail("StorageException expected");
+		}
+		catch (StorageException e) {
+			Assert.assertSame(error, e);
+		}
+
+		// the partial bag is still valid JSON, but explicitly marked as failed
+		JsonNode bag = new ObjectMapper().readTree(out.toByteArray());
+		Assert.assertEquals(BagServiceImpl.ITEM_BATCH_SIZE, bag.get("itemBags").size());
+		Assert.assertTrue(bag.get("error").asText().contains("database gone"));
+	}
+
+}
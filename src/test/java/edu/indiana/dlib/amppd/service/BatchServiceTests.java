@@ -28,7 +28,10 @@ import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 
 import edu.indiana.dlib.amppd.config.AmppdPropertyConfig;
+import edu.indiana.dlib.amppd.exception.StorageException;
 import edu.indiana.dlib.amppd.model.AmpUser;
+import edu.indiana.dlib.amppd.model.Batch;
+import edu.indiana.dlib.amppd.model.Batch.BatchStatus;
 import edu.indiana.dlib.amppd.repository.AmpUserRepository;
 import edu.indiana.dlib.amppd.repository.BatchFileRepository;
 import edu.indiana.dlib.amppd.repository.BatchRepository;
@@ -204,7 +207,64 @@ public class BatchServiceTests {
         
         
         Assert.assertTrue(!response.hasProcessingErrors());
+        Assert.assertEquals(BatchStatus.COMPLETE, response.getBatch().getStatus());
         
+        // resuming a completed batch has no rows left to process
+        response = batchService.resumeBatch(response.getBatch().getId(), ampUsername);
+        Assert.assertTrue(response.isSuccess());
+        Assert.assertEquals(BatchStatus.COMPLETE, batchRepository.findById(response.getBatch().getId()).get().getStatus());
+        
+	}
+	
+	// TODO remove ignore once we have ffmpeg and MediaProbe installed on Bamboo
+	@Ignore
+	@Test
+	public void shouldResumeFailedRows() throws Exception {
+		String fileName = "batch_manifest_for_testing.csv";
+		ClassLoader classLoader = ClassLoader.getSystemClassLoader();
+        File file = new File(classLoader.getResource(fileName).getFile());
+        String content = new String(Files.readAllBytes(file.toPath()));
+        Optional<AmpUser> users = ampUserRepository.findByUsername(ampUsername);
+        
+        BatchValidationResponse response = manifestService.validate("Test Unit", "Test File", users.get(), content);
+        Assert.assertFalse(response.hasErrors());
+        
+        // move away the primaryfile of the second row after validation, so that the row fails when processed
+        Path collectionPath = dropboxService.getSubDirPath("Test Unit", "Music Library");
+        Path missing = collectionPath.resolve("vad9596b.mp4");
+        Path moved = Files.move(missing, Files.createTempDirectory("batch").resolve("vad9596b.mp4"));
+        
+        response = batchService.processBatch(response, ampUsername);
+        Long batchId = response.getBatch().getId();
+        Assert.assertTrue(response.hasProcessingErrors());
+        Assert.assertEquals(BatchStatus.INCOMPLETE, batchRepository.findById(batchId).get().getStatus());
+        Assert.assertEquals(2, pfRepository.count());
+        
+        // once the file is back, resuming the batch processes only the failed row
+        Files.move(moved, missing);
+        response = batchService.resumeBatch(batchId, ampUsername);
+        Assert.assertTrue(response.isSuccess());
+        Assert.assertEquals(BatchStatus.COMPLETE, batchRepository.findById(batchId).get().getStatus());
+        Assert.assertEquals(3, pfRepository.count());
+        Assert.assertEquals(1, itemRepository.count());
+	}
+	
+	@Test(expected = StorageException.class)
+	public void shouldNotResumeBatchBeingProcessed() throws Exception {
+		String fileName = "batch_manifest_for_testing.csv";
+		ClassLoader classLoader = ClassLoader.getSystemClassLoader();
+        File file = new File(classLoader.getResource(fileName).getFile());
+        String content = new String(Files.readAllBytes(file.toPath()));
+        Optional<AmpUser> users = ampUserRepository.findByUsername(ampUsername);
+        
+        BatchValidationResponse response = manifestService.validate("Test Unit", "Test File", users.get(), content);
+        Assert.assertFalse(response.hasErrors());
+        
+        // a batch still being processed shall be rejected rather than processed twice
+        Batch batch = batchRepository.findById(response.getBatch().getId()).get();
+        batch.setStatus(BatchStatus.PROCESSING);
+        batchRepository.save(batch);
+        batchService.resumeBatch(batch.getId(), ampUsername);
 	}
 	
 	@Test
@@ -0,0 +1,167 @@
+package edu.indiana.dlib.amppd.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import edu.indiana.dlib.amppd.model.AmpUser;
+import edu.indiana.dlib.amppd.model.Collection;
+import edu.indiana.dlib.amppd.model.Unit;
+import edu.indiana.dlib.amppd.repository.BatchFileRepository;
+import edu.indiana.dlib.amppd.repository.BatchRepository;
+import edu.indiana.dlib.amppd.repository.BatchSupplementFileRepository;
+import edu.indiana.dlib.amppd.repository.CollectionRepository;
+import edu.indiana.dlib.amppd.repository.PrimaryfileRepository;
+import edu.indiana.dlib.amppd.repository.UnitRepository;
+import edu.indiana.dlib.amppd.service.impl.BatchValidationServiceImpl;
+import edu.indiana.dlib.amppd.util.DropboxIndex.FileInfo;
+import edu.indiana.dlib.amppd.web.BatchValidationResponse;
+
+/**
+ * Tests validation of batch manifests by BatchValidationServiceImpl with mocked repositories and drop box.
+ */
+public class BatchValidationTests {
+
+	public static final String UNIT = "Test Unit";
+	public static final String COLLECTION = "Test Collection";
+	public static final String HEADER = "Collection Name,Source ID Label,Source ID,Item Title,Item Desciption,Primary File,Primary File Label,Primary File Description,Supplemental File Type,Supplemental File,Supplemental File Label,Supp File Desc\n";
+
+	private BatchValidationServiceImpl batchValidationService;
+	private DropboxService dropboxService;
+	private BatchRepository batchRepository;
+	private Map<String, FileInfo> dropboxFiles = new HashMap<String, FileInfo>();
+
+	@Before
+	public void setup() {
+		Unit unit = new Unit();
+		unit.setId(1l);
+		unit.setName(UNIT);
+		Collection collection = new Collection();
+		collection.setId(1l);
+		collection.setName(COLLECTION);
+		collection.setUnit(unit);
+		for (String filename : new String[] {"a.mp4", "b.mp4", "a.pdf"}) {
+			dropboxFiles.put(filename, null);
+		}
+
+		UnitRepository unitRepository = Mockito.mock(UnitRepository.class);
+		CollectionRepository collectionRepository = Mockito.mock(CollectionRepository.class);
+		PrimaryfileRepository primaryfileRepository = Mockito.mock(PrimaryfileRepository.class);
+		batchRepository = Mockito.mock(BatchRepository.class);
+		dropboxService = Mockito.mock(DropboxService.class);
+		Mockito.when(unitRepository.findByName(UNIT)).thenReturn(Arrays.asList(unit));
+		Mockito.when(collectionRepository.findByUnitIdAndNameIn(Mockito.eq(unit.getId()), Mockito.anyList())).thenReturn(Arrays.asList(collection));
+		Mockito.when(primaryfileRepository.findNameCollectionsByCollectionIdIn(Mockito.anyList())).thenReturn(new ArrayList<>());
+		Mockito.when(dropboxService.listFiles(UNIT, COLLECTION)).thenAnswer(invocation -> dropboxFiles);
+		Mockito.when(dropboxService.fileExists(Mockito.eq(UNIT), Mockito.eq(COLLECTION), Mockito.anyString())).thenAnswer(invocation -> dropboxFiles.containsKey(invocation.getArgument(2)));
+
+		batchValidationService = new BatchValidationServiceImpl();
+		ReflectionTestUtils.setField(batchValidationService, "unitRepository", unitRepository);
+		ReflectionTestUtils.setField(batchValidationService, "collectionRepository", collectionRepository);
+		ReflectionTestUtils.setField(batchValidationService, "primaryfileRepository", primaryfileRepository);
+		ReflectionTestUtils.setField(batchValidationService, "batchRepository", batchRepository);
+		ReflectionTestUtils.setField(batchValidationService, "batchFileRepository", Mockito.mock(BatchFileRepository.class));
+		ReflectionTestUtils.setField(batchValidationService, "batchSupplementFileRepository", Mockito.mock(BatchSupplementFileRepository.class));
+		ReflectionTestUtils.setField(batchValidationService, "dropboxService", dropboxService);
+	}
+
+	@Test
+	public void shouldBeValid() {
+		BatchValidationResponse response = validate(
+				row("id1", "Item", "a.mp4", "Part 1", "", "", ""),
+				row("id1", "Item", "b.mp4", "Part 2", "", "", ""),
+				row("id1", "Item", "", "", "item", "a.pdf", "Program"));
+		Assert.assertEquals(new ArrayList<String>(), response.getValidationErrors());
+		Assert.assertTrue(response.isSuccess());
+		Assert.assertEquals(3, response.getBatch().getBatchFiles().size());
+		Mockito.verify(batchRepository).save(response.getBatch());
+	}
+
+	@Test
+	public void shouldBeInvalidWithoutRows() {
+		BatchValidationResponse response = batchValidationService.validate(UNIT, "manifest.csv", new AmpUser(), HEADER);
+		Assert.assertEquals(Arrays.asList("Invalid file. No rows supplied."), response.getValidationErrors());
+	}
+
+	@Test
+	public void shouldBeInvalidWithDuplicatePrimaryfileNameByExternalId() {
+		// rows with the same external ID belong to the same item regardless of item title
+		BatchValidationResponse response = validate(
+				row("id1", "Item 1", "a.mp4", "Part 1", "", "", ""),
+				row("id1", "Item 2", "b.mp4", "Part 1", "", "", ""),
+				row("id2", "Item 1", "b.mp4", "Part 1", "", "", ""));
+		Assert.assertEquals(Arrays.asList(
+				"Row: 1: Duplicate primaryfile name Part 1",
+				"Row: 2: Duplicate primaryfile name Part 1"),
+				response.getValidationErrors());
+		Assert.assertFalse(response.isSuccess());
+	}
+
+	@Test
+	public void shouldBeInvalidWithDuplicatePrimaryfileNameByItemName() {
+		// rows without external ID belong to the item with the same title, with or without external ID
+		BatchValidationResponse response = validate(
+				row("", "Item 1", "a.mp4", "Part 1", "", "", ""),
+				row("", "Item 1", "b.mp4", "Part 1", "", "", ""),
+				row("id1", "Item 2", "a.mp4", "Part 2", "", "", ""),
+				row("", "Item 2", "b.mp4", "Part 2", "", "", ""),
+				row("", "Item 3", "b.mp4", "Part 1", "", "", ""));
+		Assert.assertEquals(Arrays.asList(
+				"Row: 1: Duplicate primaryfile name Part 1",
+				"Row: 2: Duplicate primaryfile name Part 1",
+				"Row: 3: Duplicate primaryfile name Part 2",
+				"Row: 4: Duplicate primaryfile name Part 2"),
+				response.getValidationErrors());
+	}
+
+	@Test
+	public void shouldBeInvalidWithMissingSupplement() {
+		BatchValidationResponse response = validate(
+				row("id1", "Item", "a.mp4", "Part 1", "primary", "missing.pdf", "Program"),
+				row("id1", "Item", "", "", "item", "missing.vtt", "Transcript"),
+				row("id1", "Item", "", "", "item", "a.pdf", "Poster"));
+		Assert.assertEquals(Arrays.asList(
+				"Row: 1: Primaryfile Supplement file missing.pdf does not exist in the dropbox",
+				"Row: 2: Item Supplement file missing.vtt does not exist in the dropbox"),
+				response.getValidationErrors());
+	}
+
+	@Test
+	public void shouldBeInvalidWithMissingDropbox() {
+		dropboxFiles = null;
+		BatchValidationResponse response = validate(
+				row("id1", "Item", "a.mp4", "Part 1", "", "", ""),
+				row("id1", "Item", "b.mp4", "Part 2", "", "", ""));
+		Assert.assertEquals(Arrays.asList(
+				"Row 1: Invalid drop box " + COLLECTION,
+				"Row 2: Invalid drop box " + COLLECTION),
+				response.getValidationErrors());
+
+		// the drop box is listed once for all rows of the collection
+		Mockito.verify(dropboxService, Mockito.times(1)).listFiles(UNIT, COLLECTION);
+		Mockito.verify(dropboxService, Mockito.never()).fileExists(Mockito.anyString(), Mockito.anyString(), Mockito.anyString());
+	}
+
+	private BatchValidationResponse validate(String... rows) {
+		String content = HEADER + Arrays.stream(rows).collect(Collectors.joining("\n"));
+		return batchValidationService.validate(UNIT, "manifest.csv", new AmpUser(), content);
+	}
+
+	/*
+	 * A manifest row in the test collection with the given values, using the external source only along with an external ID.
+	 */
+	private String row(String externalId, String itemName, String primaryfileFilename, String primaryfileName, String supplementType, String supplementFilename, String supplementName) {
+		String externalSource = externalId.isEmpty() ? "" : "MCO ID";
+		return String.join(",", COLLECTION, externalSource, externalId, itemName, "", primaryfileFilename, primaryfileName, "", supplementType, supplementFilename, supplementName, "");
+	}
+
+}
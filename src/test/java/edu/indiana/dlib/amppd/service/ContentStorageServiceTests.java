@@ -0,0 +1,118 @@
+package edu.indiana.dlib.amppd.service;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.apache.commons.io.FilenameUtils;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import edu.indiana.dlib.amppd.config.AmppdPropertyConfig;
+import edu.indiana.dlib.amppd.model.MediaBlob;
+import edu.indiana.dlib.amppd.model.Primaryfile;
+import edu.indiana.dlib.amppd.util.TestHelper;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class ContentStorageServiceTests {
+
+	public static final String TEST_DIR_NAME = "test";
+	
+	@Autowired
+    private ContentStorageService contentStorageService;
+
+	@Autowired
+    private FileStorageService fileStorageService;
+
+	@Autowired
+    private AmppdPropertyConfig amppdPropertyConfig;
+
+	@Autowired
+    private TestHelper testHelper;
+
+	@Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @After
+    public void cleanup() {
+    	// clean up unit test directory after unit tests done
+        fileStorageService.delete(TEST_DIR_NAME);
+    }
+
+    @Test
+    public void shouldShareBlobAmongSameContent() throws Exception {
+    	byte[] content = ("Test Content " + System.currentTimeMillis()).getBytes();
+    	String digest1 = contentStorageService.store(new ByteArrayInputStream(content), TEST_DIR_NAME + "/test1.txt");
+    	String digest2 = contentStorageService.store(new ByteArrayInputStream(content), TEST_DIR_NAME + "/test2.txt");
+    	
+    	// both files are stored in one blob with 2 references
+    	Assert.assertEquals(digest1, digest2);
+    	MediaBlob blob = contentStorageService.getBlob(digest1);
+    	Assert.assertEquals(2, blob.getRefCount().intValue());
+    	Path blobPath = fileStorageService.resolve(blob.getPathname());
+    	Assert.assertTrue(Files.isSameFile(blobPath, fileStorageService.resolve(TEST_DIR_NAME + "/test1.txt")));
+    	Assert.assertTrue(Files.isSameFile(blobPath, fileStorageService.resolve(TEST_DIR_NAME + "/test2.txt")));
+    	Assert.assertArrayEquals(content, Files.readAllBytes(fileStorageService.resolve(TEST_DIR_NAME + "/test2.txt")));
+    	
+    	// the blob is deleted once all references are released
+    	contentStorageService.release(digest1);
+    	Assert.assertEquals(1, contentStorageService.getBlob(digest1).getRefCount().intValue());
+    	contentStorageService.release(digest2);
+    	Assert.assertNull(contentStorageService.getBlob(digest1));
+    	Assert.assertFalse(Files.exists(blobPath));
+    }
+
+    @Test
+    public void shouldReleaseBlobOnlyUponCommit() throws Exception {
+    	byte[] content = ("Test Content " + System.currentTimeMillis()).getBytes();
+    	String digest = contentStorageService.store(new ByteArrayInputStream(content), TEST_DIR_NAME + "/test1.txt");
+    	TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    	
+    	// the reference is kept if the caller's transaction rolls back
+    	transactionTemplate.executeWithoutResult(status -> {
+    		contentStorageService.release(digest);
+    		Assert.assertEquals(1, contentStorageService.getBlob(digest).getRefCount().intValue());
+    		status.setRollbackOnly();
+    	});
+    	Assert.assertEquals(1, contentStorageService.getBlob(digest).getRefCount().intValue());
+    	
+    	// the reference is released once the caller's transaction commits
+    	transactionTemplate.executeWithoutResult(status -> {
+    		contentStorageService.release(digest);
+    		Assert.assertNotNull(contentStorageService.getBlob(digest));
+    	});
+    	Assert.assertNull(contentStorageService.getBlob(digest));
+    }
+
+    @Test
+    public void shouldStoreConvertedContentUponFlacUpload() throws Exception {
+    	boolean enabled = amppdPropertyConfig.isContentAddressedStorage();
+    	amppdPropertyConfig.setContentAddressedStorage(true);
+    	try {
+    		String filename = TestHelper.TEST_AUDIO + ".flac";
+    		Primaryfile primaryfile = testHelper.ensurePrimaryfile("Unit for flac blob", "Collection for flac blob", "Item for flac blob", "Primaryfile for flac blob");
+    		MockMultipartFile file = new MockMultipartFile(filename, filename, "audio/flac", new ClassPathResource(filename).getInputStream());
+    		primaryfile = (Primaryfile)fileStorageService.uploadAsset(primaryfile, file);
+
+    		// the blob holds the converted wav file, which is the primaryfile's media file, rather than the uploaded flac file
+    		Assert.assertEquals("wav", FilenameUtils.getExtension(primaryfile.getPathname()));
+    		MediaBlob blob = contentStorageService.getBlob(primaryfile.getContentDigest());
+    		Assert.assertEquals("wav", FilenameUtils.getExtension(blob.getPathname()));
+    		Assert.assertTrue(Files.isSameFile(fileStorageService.resolve(blob.getPathname()), fileStorageService.resolve(primaryfile.getPathname())));
+    	}
+    	finally {
+    		amppdPropertyConfig.setContentAddressedStorage(enabled);
+    	}
+    }
+
+}
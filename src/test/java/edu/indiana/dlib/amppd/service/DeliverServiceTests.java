@@ -0,0 +1,216 @@
+package edu.indiana.dlib.amppd.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import edu.indiana.dlib.amppd.config.AvalonPropertyConfig;
+import edu.indiana.dlib.amppd.model.AvalonDelivery;
+import edu.indiana.dlib.amppd.model.BagContent;
+import edu.indiana.dlib.amppd.model.Collection;
+import edu.indiana.dlib.amppd.model.CollectionBag;
+import edu.indiana.dlib.amppd.model.ItemBag;
+import edu.indiana.dlib.amppd.model.PrimaryfileBag;
+import edu.indiana.dlib.amppd.repository.AvalonDeliveryRepository;
+import edu.indiana.dlib.amppd.repository.CollectionRepository;
+import edu.indiana.dlib.amppd.service.impl.DeliverServiceImpl;
+import edu.indiana.dlib.amppd.web.AvalonMediaObject;
+import edu.indiana.dlib.amppd.web.AvalonRelatedItems;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class DeliverServiceTests {
+
+	public static final Long COLLECTION_ID = 1l;
+	public static final Long ITEM_ID = 1l;
+	public static final String MEDIA_OBJECT_ID = "mo1";
+
+	@Autowired
+	private DeliverService deliverService;
+
+	@Autowired
+	private AvalonPropertyConfig avalonPropertyConfig;
+
+	@MockBean
+	private CollectionRepository collectionRepository;
+
+	@MockBean
+	private AvalonDeliveryRepository avalonDeliveryRepository;
+
+	@MockBean
+	private BagService bagService;
+
+	@MockBean(name = "avalonRestTemplate")
+	private RestTemplate restTemplate;
+
+	private Long retryBackoff;
+
+	@Before
+	public void setup() {
+		// keep the backoff short so that retries don't slow down the tests
+		retryBackoff = avalonPropertyConfig.getRetryBackoff();
+		avalonPropertyConfig.setRetryBackoff(1l);
+
+		// set up a dummy Avalon collection with one item containing one final result
+		Collection collection = new Collection();
+		collection.setId(COLLECTION_ID);
+		collection.setExternalSource(DeliverServiceImpl.AVALON);
+		collection.setExternalId("c1");
+		Mockito.when(collectionRepository.findById(COLLECTION_ID)).thenReturn(Optional.of(collection));
+
+		BagContent content = new BagContent();
+		content.setResultId(1l);
+		content.setOutputName("transcript");
+		content.setDateCreated(new Date(0));
+		PrimaryfileBag pbag = new PrimaryfileBag();
+		pbag.setPrimaryfileName("primaryfile");
+		pbag.setBagContents(Arrays.asList(content));
+		ItemBag ibag = new ItemBag();
+		ibag.setItemId(ITEM_ID);
+		ibag.setExternalSource(DeliverServiceImpl.AVALON);
+		ibag.setExternalId(MEDIA_OBJECT_ID);
+		ibag.setPrimaryfileBags(Arrays.asList(pbag));
+		CollectionBag cbag = new CollectionBag();
+		cbag.setCollectionId(COLLECTION_ID);
+		cbag.setItemBags(Arrays.asList(ibag));
+		Mockito.when(bagService.getCollectionBag(COLLECTION_ID)).thenReturn(cbag);
+
+		Mockito.when(avalonDeliveryRepository.findByItemIdIn(Mockito.anyList())).thenReturn(new ArrayList<AvalonDelivery>());
+	}
+
+	@After
+	public void cleanup() {
+		avalonPropertyConfig.setRetryBackoff(retryBackoff);
+	}
+
+	@Test
+	public void shouldRetryUponServerError() {
+		Mockito.when(exchange())
+			.thenThrow(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE))
+			.thenThrow(new ResourceAccessException("timeout"))
+			.thenReturn(ResponseEntity.ok(getMediaObject()));
+
+		List<AvalonRelatedItems> ariss = deliverService.deliverAvalonCollection(COLLECTION_ID, false);
+		Assert.assertEquals(1, ariss.size());
+		Mockito.verify(restTemplate, Mockito.times(3)).exchange(Mockito.anyString(), Mockito.eq(HttpMethod.PUT), Mockito.any(HttpEntity.class), Mockito.eq(AvalonMediaObject.class));
+
+		AvalonDelivery delivery = getSavedDelivery();
+		Assert.assertEquals(AvalonDelivery.Status.DELIVERED, delivery.getStatus());
+		Assert.assertEquals(3, delivery.getAttempts());
+		Assert.assertNull(delivery.getError());
+	}
+
+	@Test
+	public void shouldFailAfterMaxRetries() {
+		Mockito.when(exchange()).thenThrow(new HttpServerErrorException(HttpStatus.BAD_GATEWAY));
+
+		List<AvalonRelatedItems> ariss = deliverService.deliverAvalonCollection(COLLECTION_ID, false);
+		Assert.assertTrue(ariss.isEmpty());
+		int attempts = avalonPropertyConfig.getMaxRetries() + 1;
+		Mockito.verify(restTemplate, Mockito.times(attempts)).exchange(Mockito.anyString(), Mockito.eq(HttpMethod.PUT), Mockito.any(HttpEntity.class), Mockito.eq(AvalonMediaObject.class));
+
+		AvalonDelivery delivery = getSavedDelivery();
+		Assert.assertEquals(AvalonDelivery.Status.FAILED, delivery.getStatus());
+		Assert.assertEquals(attempts, delivery.getAttempts());
+		Assert.assertNotNull(delivery.getError());
+	}
+
+	@Test
+	public void shouldSkipUnchangedItemUnlessForced() {
+		Mockito.when(exchange()).thenReturn(ResponseEntity.ok(getMediaObject()));
+		Assert.assertEquals(1, deliverService.deliverAvalonCollection(COLLECTION_ID, false).size());
+
+		// with the last delivery recorded, the unchanged item is skipped, unless forced
+		AvalonDelivery delivery = getSavedDelivery();
+		Mockito.when(avalonDeliveryRepository.findByItemIdIn(Mockito.anyList())).thenReturn(new ArrayList<AvalonDelivery>(Arrays.asList(delivery)));
+		Assert.assertTrue(deliverService.deliverAvalonCollection(COLLECTION_ID, false).isEmpty());
+		Assert.assertTrue(deliverService.deliverAvalonCollection(COLLECTION_ID, null).isEmpty());
+		Mockito.verify(restTemplate, Mockito.times(1)).exchange(Mockito.anyString(), Mockito.eq(HttpMethod.PUT), Mockito.any(HttpEntity.class), Mockito.eq(AvalonMediaObject.class));
+
+		Assert.assertEquals(1, deliverService.deliverAvalonCollection(COLLECTION_ID, true).size());
+		Mockito.verify(restTemplate, Mockito.times(2)).exchange(Mockito.anyString(), Mockito.eq(HttpMethod.PUT), Mockito.any(HttpEntity.class), Mockito.eq(AvalonMediaObject.class));
+	}
+
+	@Test
+	public void shouldFailUponUnexpectedError() {
+		Mockito.when(exchange()).thenThrow(new IllegalStateException("unexpected"));
+
+		Assert.assertTrue(deliverService.deliverAvalonCollection(COLLECTION_ID, false).isEmpty());
+		AvalonDelivery delivery = getSavedDelivery();
+		Assert.assertEquals(AvalonDelivery.Status.FAILED, delivery.getStatus());
+		Assert.assertEquals(1, delivery.getAttempts());
+		Assert.assertTrue(delivery.getError().contains("unexpected"));
+	}
+
+	@Test
+	public void shouldUpdateDeliveryCreatedConcurrently() {
+		Mockito.when(exchange()).thenReturn(ResponseEntity.ok(getMediaObject()));
+
+		// another delivery of the same item has created the row after the state was retrieved
+		AvalonDelivery existing = new AvalonDelivery();
+		existing.setId(2l);
+		existing.setItemId(ITEM_ID);
+		Mockito.when(avalonDeliveryRepository.findByItemId(ITEM_ID)).thenReturn(Optional.of(existing));
+		DataIntegrityViolationException duplicate = new DataIntegrityViolationException("duplicate key");
+		Mockito.when(avalonDeliveryRepository.save(Mockito.argThat(d -> d.getId() == null))).thenThrow(duplicate);
+
+		Assert.assertEquals(1, deliverService.deliverAvalonCollection(COLLECTION_ID, false).size());
+		AvalonDelivery delivery = getSavedDelivery();
+		Assert.assertEquals(existing.getId(), delivery.getId());
+		Assert.assertEquals(AvalonDelivery.Status.DELIVERED, delivery.getStatus());
+	}
+
+	@Test
+	public void shouldNotSkipItemDeliveredWithoutExternalId() {
+		Mockito.when(exchange()).thenReturn(ResponseEntity.ok(getMediaObject()));
+		Assert.assertEquals(1, deliverService.deliverAvalonCollection(COLLECTION_ID, false).size());
+
+		// a recorded delivery without media object ID doesn't match the item's
+		AvalonDelivery delivery = getSavedDelivery();
+		delivery.setExternalId(null);
+		Mockito.when(avalonDeliveryRepository.findByItemIdIn(Mockito.anyList())).thenReturn(new ArrayList<AvalonDelivery>(Arrays.asList(delivery)));
+		Assert.assertEquals(1, deliverService.deliverAvalonCollection(COLLECTION_ID, false).size());
+	}
+
+	private ResponseEntity<AvalonMediaObject> exchange() {
+		return restTemplate.exchange(Mockito.anyString(), Mockito.eq(HttpMethod.PUT), Mockito.any(HttpEntity.class), Mockito.eq(AvalonMediaObject.class));
+	}
+
+	private AvalonMediaObject getMediaObject() {
+		AvalonMediaObject amo = new AvalonMediaObject();
+		amo.setId(MEDIA_OBJECT_ID);
+		return amo;
+	}
+
+	private AvalonDelivery getSavedDelivery() {
+		ArgumentCaptor<AvalonDelivery> captor = ArgumentCaptor.forClass(AvalonDelivery.class);
+		Mockito.verify(avalonDeliveryRepository, Mockito.atLeastOnce()).save(captor.capture());
+		AvalonDelivery delivery = captor.getValue();
+		Assert.assertEquals(ITEM_ID, delivery.getItemId());
+		Assert.assertEquals(MEDIA_OBJECT_ID, delivery.getExternalId());
+		return delivery;
+	}
+
+}
@@ -108,6 +108,23 @@ public class DropboxServiceTests {
     	assertTrue(Files.exists(path));    	
     }
     
+    @Test
+    public void shouldConfirmFileExistsOnFileSystem() throws Exception {
+    	Collection collection = testHelper.ensureCollection("Test Unit", "Test Collection");
+    	Path path = dropboxService.createSubdir(collection);
+    	String unitName = collection.getUnit().getName();
+    	Path file = Files.write(path.resolve("shouldConfirmFileExists.mp4"), new byte[] {1});
+    	
+    	// a file dropped after the index was refreshed is found and indexed
+    	assertTrue(dropboxService.fileExists(unitName, collection.getName(), "shouldConfirmFileExists.mp4"));
+    	assertTrue(dropboxService.listFiles(unitName, collection.getName()).containsKey("shouldConfirmFileExists.mp4"));
+    	
+    	// a file removed after it was indexed is not reported as existing, and is removed from the index
+    	Files.delete(file);
+    	assertFalse(dropboxService.fileExists(unitName, collection.getName(), "shouldConfirmFileExists.mp4"));
+    	assertFalse(dropboxService.listFiles(unitName, collection.getName()).containsKey("shouldConfirmFileExists.mp4"));
+    }
+    
     @Test
     public void shouldDeleteSubdirForCollection() {
     	Collection collection = testHelper.ensureCollection("Test Unit", "Test Collection");    	
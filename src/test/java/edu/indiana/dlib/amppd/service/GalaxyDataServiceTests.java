@@ -3,7 +3,11 @@ package edu.indiana.dlib.amppd.service;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
+import org.apache.commons.lang3.time.DateUtils;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -14,6 +18,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import com.github.jmchilton.blend4j.galaxy.beans.Dataset;
 import com.github.jmchilton.blend4j.galaxy.beans.GalaxyObject;
 import com.github.jmchilton.blend4j.galaxy.beans.History;
 import com.github.jmchilton.blend4j.galaxy.beans.Library;
@@ -105,6 +110,19 @@ public class GalaxyDataServiceTests {
     	Assert.assertNotNull(dataset.getUrl());
     }
     
+    @Test
+    public void shouldReturnSharedHistoryUpdateTime() {
+    	Map<String, Date> updateTimes = galaxyDataService.showHistoriesUpdateTime();
+    	Assert.assertNotNull(updateTimes.get(galaxyDataService.getSharedHistory().getId()));
+    }
+
+    @Test
+    public void shouldReturnNoDatasetUpdatedInFuture() {
+    	Date future = DateUtils.addDays(new Date(), 1);
+    	List<Dataset> datasets = galaxyDataService.showHistoryDatasets(galaxyDataService.getSharedHistory().getId(), future);
+    	Assert.assertTrue(datasets.isEmpty());
+    }
+    
     @Test(expected = GalaxyDataException.class)
     public void shouldThrowExceptionUploadingToNonExistingLibrary() {
     	galaxyDataService.uploadFileToGalaxy(testFile, "bar");
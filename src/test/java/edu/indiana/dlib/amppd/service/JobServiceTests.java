@@ -1,5 +1,7 @@
 package edu.indiana.dlib.amppd.service;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -18,6 +20,9 @@ import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import com.github.jmchilton.blend4j.galaxy.beans.Dataset;
@@ -28,6 +33,7 @@ import com.github.jmchilton.blend4j.galaxy.beans.WorkflowOutputs;
 
 import edu.indiana.dlib.amppd.exception.GalaxyWorkflowException;
 import edu.indiana.dlib.amppd.exception.StorageException;
+import edu.indiana.dlib.amppd.model.AmpUser;
 import edu.indiana.dlib.amppd.model.Bundle;
 import edu.indiana.dlib.amppd.model.Primaryfile;
 import edu.indiana.dlib.amppd.repository.BundleRepository;
@@ -35,6 +41,7 @@ import edu.indiana.dlib.amppd.repository.PrimaryfileRepository;
 import edu.indiana.dlib.amppd.util.TestHelper;
 import edu.indiana.dlib.amppd.web.CreateJobParameters;
 import edu.indiana.dlib.amppd.web.CreateJobResponse;
+import edu.indiana.dlib.amppd.web.JobSubmission;
 
 // TODO remove ignore once we have Galaxy Bootstrap working on Bamboo
 @Ignore
@@ -240,6 +247,81 @@ public class JobServiceTests {
     	Assert.assertNotNull(result);
     }
     
+    @Test
+    public void shouldStagePrimaryfilesForJobs() {
+    	jobService.stagePrimaryfilesForJobs(primaryfile.getItem().getCollection().getId());
+    	
+    	// afterwards the primaryfile shall have its dataset and history in Galaxy
+		Primaryfile pf = primaryfileRepository.findById(primaryfile.getId()).orElseThrow(() -> new StorageException("Primaryfile <" + primaryfile.getId() + "> does not exist!"));
+    	Assert.assertNotNull(pf.getDatasetId());
+    	Assert.assertNotNull(pf.getHistoryId());
+    	
+    	// and staging again shall have nothing left to stage in the collection
+    	Assert.assertEquals(0, jobService.stagePrimaryfilesForJobs(primaryfile.getItem().getCollection().getId()));
+    }
+    
+    @Test
+    public void shouldStagePrimaryfilesForJobsAsync() {
+    	jobService.stagePrimaryfilesForJobs(primaryfile.getItem().getCollection().getId());
+    	
+    	// with everything in the collection staged, the staging submission shall finish right away with nothing to stage
+    	JobSubmission submission = jobService.stagePrimaryfilesForJobsAsync(Collections.singleton(primaryfile.getItem().getCollection().getId()));
+    	Assert.assertNull(submission.getWorkflowId());
+    	Assert.assertEquals(0, submission.getTotal());
+    	Assert.assertTrue(jobService.getJobSubmission(submission.getId()).isFinished());
+    }
+    
+    @Test
+    public void shouldCreateJobsAsync() throws InterruptedException {    	               	
+    	// create a dummy bundle with one valid and one invalid primaryfile
+    	Bundle bundle = new Bundle();
+    	bundle.setId(BUNDLE_ID);
+    	bundle.setPrimaryfiles(new HashSet<Primaryfile>());
+    	Mockito.when(bundleRepository.findById(BUNDLE_ID)).thenReturn(Optional.of(bundle));     	     	
+    	bundle.getPrimaryfiles().add(primaryfile);
+    	Primaryfile pf = new Primaryfile();
+    	pf.setId(0l);;
+    	bundle.getPrimaryfiles().add(pf);
+    	
+    	JobSubmission submission = jobService.createJobsAsync(workflowDetails.getId(), bundle.getId(), new CreateJobParameters[0]);
+    	Assert.assertNotNull(submission.getId());
+    	Assert.assertEquals(2, submission.getTotal());
+    	
+    	// poll the submission until it finishes
+    	for (int i = 0; i < 60 && !jobService.getJobSubmission(submission.getId()).isFinished(); i++) {
+    		Thread.sleep(1000);
+    	}
+    	
+    	// one job shall succeed and the other fail, each with a response
+    	submission = jobService.getJobSubmission(submission.getId());
+    	Assert.assertTrue(submission.isFinished());
+    	Assert.assertEquals(1, submission.getSucceeded());
+    	Assert.assertEquals(1, submission.getFailed());
+    	Assert.assertEquals(2, submission.getResponses().size());
+    }
+    
+    @Test(expected = StorageException.class)
+    public void shouldThrowStorageExceptionForNonExistingSubmission() {
+    	jobService.getJobSubmission("0");
+    }
+    
+    @Test(expected = StorageException.class)
+    public void shouldThrowStorageExceptionForSubmissionByOtherUser() {
+    	JobSubmission submission = jobService.createJobsAsync(workflowDetails.getId(), new Long[0], new CreateJobParameters[0]);
+    	Assert.assertNotNull(jobService.getJobSubmission(submission.getId()));
+    	
+    	// the submission shall not be visible to a different user
+    	AmpUser user = new AmpUser();
+    	user.setUsername("other@example.com");
+    	SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(user, null, new ArrayList<GrantedAuthority>()));
+    	try {
+    		jobService.getJobSubmission(submission.getId());
+    	}
+    	finally {
+    		SecurityContextHolder.clearContext();
+    	}
+    }
+    
     @Test
     public void shouldListJobs() {
     	// before running any AMP job on the workflow-primaryfile, record the current number of invocations
@@ -0,0 +1,123 @@
+package edu.indiana.dlib.amppd.service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.AdditionalAnswers;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import edu.indiana.dlib.amppd.config.AmppdPropertyConfig;
+import edu.indiana.dlib.amppd.exception.PreprocessException;
+import edu.indiana.dlib.amppd.service.impl.MediaProbeServiceImpl;
+
+/**
+ * Tests MediaProbeServiceImpl against fake MediaProbe scripts, so that neither MediaProbe nor ffmpeg is needed.
+ */
+public class MediaProbeServiceTests {
+
+	public static final String MEDIA_INFO = "{\"container\": \"mp4\"}";
+
+	private MediaProbeServiceImpl mediaProbeService;
+
+	@After
+	public void cleanup() throws Exception {
+		if (mediaProbeService != null) {
+			mediaProbeService.destroy();
+		}
+		assertNoWorkerAlive();
+	}
+
+	@Test
+	public void shouldReuseWorker() throws Exception {
+		mediaProbeService = createService("print('" + MEDIA_INFO + "')", 10);
+		Assert.assertEquals(MEDIA_INFO, mediaProbeService.probe("a.mp4").trim());
+		Assert.assertEquals(MEDIA_INFO, mediaProbeService.probe("b.mp4").trim());
+		Assert.assertEquals(1, getIdleWorkers().size());
+		Assert.assertFalse((Boolean)ReflectionTestUtils.getField(mediaProbeService, "workersDisabled"));
+	}
+
+	@Test
+	public void shouldDestroyWorkerUponTimeout() throws Exception {
+		mediaProbeService = createService("import time\ntime.sleep(30)", 1);
+		try {
+			mediaProbeService.probe("a.mp4");
+			Assert.fail("PreprocessException expected");
+		}
+		catch (PreprocessException e) {
+			Assert.assertTrue(e.getMessage().contains("timed out"));
+		}
+		Assert.assertTrue(getIdleWorkers().isEmpty());
+		assertNoWorkerAlive();
+	}
+
+	@Test
+	public void shouldDestroyWorkerUponInvalidResponse() throws Exception {
+		// write a malformed response directly to the worker's stdout
+		mediaProbeService = createService("import sys\nsys.__stdout__.write('" + MediaProbeServiceImpl.RESPONSE_MARKER + "garbage\\n')\nsys.__stdout__.flush()", 10);
+		try {
+			mediaProbeService.probe("a.mp4");
+			Assert.fail("PreprocessException expected");
+		}
+		catch (PreprocessException e) {
+			Assert.assertTrue(e.getMessage().contains("Error while retrieving media info"));
+		}
+		Assert.assertTrue(getIdleWorkers().isEmpty());
+		assertNoWorkerAlive();
+	}
+
+	@Test
+	public void shouldFallBackToProcessWhenWorkerDies() throws Exception {
+		// the script kills the worker it runs in, i.e. when its stdout is redirected, but succeeds as a one-off process
+		mediaProbeService = createService("import io, os, sys\nif isinstance(sys.stdout, io.StringIO):\n    os._exit(1)\nprint('" + MEDIA_INFO + "')", 10);
+		Assert.assertEquals(MEDIA_INFO, mediaProbeService.probe("a.mp4").trim());
+		Assert.assertTrue((Boolean)ReflectionTestUtils.getField(mediaProbeService, "workersDisabled"));
+
+		// subsequent probes go to one-off processes directly
+		Assert.assertEquals(MEDIA_INFO, mediaProbeService.probe("b.mp4").trim());
+		Assert.assertTrue(getIdleWorkers().isEmpty());
+	}
+
+	/*
+	 * Create a MediaProbeServiceImpl running the given python code as the MediaProbe script, with the given timeout.
+	 */
+	private MediaProbeServiceImpl createService(String script, int timeoutSeconds) throws Exception {
+		Path dir = Files.createTempDirectory("mediaprobe");
+		Files.writeString(dir.resolve("media_probe.py"), script + "\n");
+
+		AmppdPropertyConfig config = new AmppdPropertyConfig();
+		config.setPythonPath("python3");
+		config.setMediaprobeDir(dir.toString());
+		config.setMediaprobeWorkers(1);
+		config.setPreprocessTimeoutSeconds(timeoutSeconds);
+
+		FileStorageService fileStorageService = Mockito.mock(FileStorageService.class);
+		Mockito.when(fileStorageService.absolutePathName(Mockito.anyString())).then(AdditionalAnswers.returnsFirstArg());
+
+		MediaProbeServiceImpl service = new MediaProbeServiceImpl();
+		ReflectionTestUtils.setField(service, "amppdPropertyConfig", config);
+		ReflectionTestUtils.setField(service, "fileStorageService", fileStorageService);
+		service.init();
+		return service;
+	}
+
+	private Deque<?> getIdleWorkers() {
+		return (Deque<?>)ReflectionTestUtils.getField(mediaProbeService, "idleWorkers");
+	}
+
+	/*
+	 * Assert that no worker process is left running, allowing some time for destroyed ones to exit.
+	 */
+	private void assertNoWorkerAlive() throws Exception {
+		for (ProcessHandle child : ProcessHandle.current().children().toArray(ProcessHandle[]::new)) {
+			child.onExit().get(5, TimeUnit.SECONDS);
+		}
+		Assert.assertEquals(0, ProcessHandle.current().children().filter(ProcessHandle::isAlive).count());
+	}
+
+}
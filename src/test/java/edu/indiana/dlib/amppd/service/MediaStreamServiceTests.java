@@ -0,0 +1,92 @@
+package edu.indiana.dlib.amppd.service;
+
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import edu.indiana.dlib.amppd.model.Primaryfile;
+import edu.indiana.dlib.amppd.util.TestHelper;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class MediaStreamServiceTests {
+
+	@Autowired
+	private MediaStreamService mediaStreamService;
+
+	@Autowired
+	private FileStorageService fileStorageService;
+
+	@Autowired
+	private TestHelper testHelper;
+
+	private Primaryfile primaryfile;
+	private byte[] content;
+
+	@Before
+	public void setup() throws Exception {
+		primaryfile = testHelper.ensureTestAudio();
+		content = Files.readAllBytes(fileStorageService.resolve(primaryfile.getPathname()));
+	}
+
+	@Test
+	public void shouldStreamWholeFile() {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		mediaStreamService.streamPrimaryfile(primaryfile.getId(), new MockHttpServletRequest("GET", "/"), response);
+
+		Assert.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+		Assert.assertEquals("bytes", response.getHeader(HttpHeaders.ACCEPT_RANGES));
+		Assert.assertNotNull(response.getHeader(HttpHeaders.ETAG));
+		Assert.assertArrayEquals(content, response.getContentAsByteArray());
+	}
+
+	@Test
+	public void shouldStreamRange() {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+		request.addHeader(HttpHeaders.RANGE, "bytes=10-19");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		mediaStreamService.streamPrimaryfile(primaryfile.getId(), request, response);
+
+		Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+		Assert.assertEquals("bytes 10-19/" + content.length, response.getHeader(HttpHeaders.CONTENT_RANGE));
+		Assert.assertArrayEquals(Arrays.copyOfRange(content, 10, 20), response.getContentAsByteArray());
+	}
+
+	@Test
+	public void shouldRejectUnsatisfiableRange() {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+		request.addHeader(HttpHeaders.RANGE, "bytes=" + content.length + "-");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		mediaStreamService.streamPrimaryfile(primaryfile.getId(), request, response);
+
+		Assert.assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatus());
+		Assert.assertEquals("bytes */" + content.length, response.getHeader(HttpHeaders.CONTENT_RANGE));
+	}
+
+	@Test
+	public void shouldReturnNotModifiedForMatchingEtag() {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		mediaStreamService.streamPrimaryfile(primaryfile.getId(), new MockHttpServletRequest("GET", "/"), response);
+
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+		request.addHeader(HttpHeaders.IF_NONE_MATCH, response.getHeader(HttpHeaders.ETAG));
+		response = new MockHttpServletResponse();
+		mediaStreamService.streamPrimaryfile(primaryfile.getId(), request, response);
+
+		Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+		Assert.assertEquals(0, response.getContentAsByteArray().length);
+	}
+
+}
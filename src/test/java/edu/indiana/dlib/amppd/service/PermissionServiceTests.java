@@ -0,0 +1,176 @@
+package edu.indiana.dlib.amppd.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.http.HttpMethod;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import edu.indiana.dlib.amppd.handler.PermissionHandler;
+import edu.indiana.dlib.amppd.model.ac.Action;
+import edu.indiana.dlib.amppd.model.ac.Action.ActionType;
+import edu.indiana.dlib.amppd.model.ac.Action.TargetType;
+import edu.indiana.dlib.amppd.model.ac.Role;
+import edu.indiana.dlib.amppd.model.ac.RoleAssignment;
+import edu.indiana.dlib.amppd.model.projection.RoleActionId;
+import edu.indiana.dlib.amppd.model.projection.RoleAssignmentId;
+import edu.indiana.dlib.amppd.repository.ActionRepository;
+import edu.indiana.dlib.amppd.repository.RoleAssignmentRepository;
+import edu.indiana.dlib.amppd.repository.RoleRepository;
+import edu.indiana.dlib.amppd.service.impl.PermissionServiceImpl;
+import edu.indiana.dlib.amppd.web.UnitActions;
+
+/**
+ * Tests the cached action bitsets of PermissionServiceImpl with mocked repositories, and their invalidation by PermissionHandler.
+ */
+public class PermissionServiceTests {
+
+	public static final String USERNAME = "user";
+	public static final Long UNIT_ID1 = 10l;
+	public static final Long UNIT_ID2 = 20l;
+	public static final Long UNIT_ID3 = 30l;
+
+	private PermissionServiceImpl permissionService;
+	private PermissionHandler permissionHandler;
+	private RoleRepository roleRepository;
+	private RoleAssignmentRepository roleAssignmentRepository;
+	private Action readCollection;
+	private Action updateCollection;
+	private Action deleteUnit;
+
+	@Before
+	public void setup() {
+		readCollection = getAction(1l, ActionType.Read, TargetType.Collection, HttpMethod.GET);
+		updateCollection = getAction(2l, ActionType.Update, TargetType.Collection, HttpMethod.PATCH);
+		deleteUnit = getAction(3l, ActionType.Delete, TargetType.Unit, HttpMethod.DELETE);
+
+		// role 1 can read collections, role 2 can read and update collections, role 3 can delete units;
+		// the user has role 1 globally, role 2 in unit 1 and role 3 in unit 2
+		ActionRepository actionRepository = Mockito.mock(ActionRepository.class);
+		roleRepository = Mockito.mock(RoleRepository.class);
+		roleAssignmentRepository = Mockito.mock(RoleAssignmentRepository.class);
+		AmpUserService ampUserService = Mockito.mock(AmpUserService.class);
+		Mockito.when(actionRepository.findAll()).thenReturn(Arrays.asList(readCollection, updateCollection, deleteUnit));
+		Mockito.when(roleRepository.findRoleActionIds()).thenReturn(Arrays.asList(
+				getRoleAction(1l, readCollection), getRoleAction(2l, readCollection), getRoleAction(2l, updateCollection), getRoleAction(3l, deleteUnit)));
+		Mockito.when(roleAssignmentRepository.findRoleAssignmentIdsByUsername(USERNAME)).thenReturn(Arrays.asList(
+				getRoleAssignment(1l, null), getRoleAssignment(2l, UNIT_ID1), getRoleAssignment(3l, UNIT_ID2)));
+		Mockito.when(ampUserService.getCurrentUsername()).thenReturn(USERNAME);
+
+		permissionService = new PermissionServiceImpl();
+		ReflectionTestUtils.setField(permissionService, "actionRepository", actionRepository);
+		ReflectionTestUtils.setField(permissionService, "roleRepository", roleRepository);
+		ReflectionTestUtils.setField(permissionService, "roleAssignmentRepository", roleAssignmentRepository);
+		ReflectionTestUtils.setField(permissionService, "ampUserService", ampUserService);
+
+		permissionHandler = new PermissionHandler();
+		ReflectionTestUtils.setField(permissionHandler, "permissionService", permissionService);
+	}
+
+	@Test
+	public void shouldAllowSameActionsAsSingleChecks() {
+		List<Long> unitIds = Arrays.asList(UNIT_ID1, UNIT_ID2, UNIT_ID3);
+		List<UnitActions> unitActions = permissionService.getPermittedActions(null, null, unitIds);
+		Assert.assertEquals(unitIds, unitActions.stream().map(UnitActions::getUnitId).collect(Collectors.toList()));
+		Assert.assertEquals(Arrays.asList(readCollection, updateCollection), unitActions.get(0).getActions());
+		Assert.assertEquals(Arrays.asList(readCollection, deleteUnit), unitActions.get(1).getActions());
+		Assert.assertEquals(Arrays.asList(readCollection), unitActions.get(2).getActions());
+
+		// the bulk check agrees with each single check, whichever way the action is identified
+		for (UnitActions unit : unitActions) {
+			for (Action action : Arrays.asList(readCollection, updateCollection, deleteUnit)) {
+				boolean allowed = unit.getActions().contains(action);
+				Assert.assertEquals(allowed, permissionService.hasPermission(action, unit.getUnitId()));
+				Assert.assertEquals(allowed, permissionService.hasPermsion(action.getActionType(), action.getTargetType(), unit.getUnitId()));
+				Assert.assertEquals(allowed, permissionService.hasPermsion(action.getHttpMethod(), action.getUrlPattern(), unit.getUnitId()));
+			}
+		}
+
+		// only the queried actions are returned
+		unitActions = permissionService.getPermittedActions(Arrays.asList(ActionType.Update, ActionType.Delete), Arrays.asList(TargetType.Collection), unitIds);
+		Assert.assertEquals(Arrays.asList(updateCollection), unitActions.get(0).getActions());
+		Assert.assertEquals(new ArrayList<Action>(), unitActions.get(1).getActions());
+
+		// all checks are answered from the permissions loaded once
+		Mockito.verify(roleAssignmentRepository, Mockito.times(1)).findRoleAssignmentIdsByUsername(USERNAME);
+	}
+
+	@Test
+	public void shouldInvalidatePermissionsUponRoleAssignmentChangeAfterCommit() {
+		Assert.assertFalse(permissionService.hasPermission(deleteUnit, UNIT_ID1));
+
+		// the user is assigned role 3 in unit 1 within a transaction
+		Mockito.when(roleAssignmentRepository.findRoleAssignmentIdsByUsername(USERNAME)).thenReturn(Arrays.asList(
+				getRoleAssignment(1l, null), getRoleAssignment(2l, UNIT_ID1), getRoleAssignment(3l, UNIT_ID1), getRoleAssignment(3l, UNIT_ID2)));
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			permissionHandler.handleAfterCreate(new RoleAssignment());
+
+			// the cached permissions are still used until the transaction commits
+			Assert.assertFalse(permissionService.hasPermission(deleteUnit, UNIT_ID1));
+			TransactionSynchronizationUtils.invokeAfterCommit(TransactionSynchronizationManager.getSynchronizations());
+		}
+		finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+
+		Assert.assertTrue(permissionService.hasPermission(deleteUnit, UNIT_ID1));
+		Mockito.verify(roleAssignmentRepository, Mockito.times(2)).findRoleAssignmentIdsByUsername(USERNAME);
+	}
+
+	@Test
+	public void shouldInvalidatePermissionsUponRoleChange() {
+		Assert.assertFalse(permissionService.hasPermission(deleteUnit, UNIT_ID3));
+
+		// role 1 is granted the delete action outside of any transaction
+		Mockito.when(roleRepository.findRoleActionIds()).thenReturn(Arrays.asList(
+				getRoleAction(1l, readCollection), getRoleAction(1l, deleteUnit), getRoleAction(2l, readCollection), getRoleAction(2l, updateCollection), getRoleAction(3l, deleteUnit)));
+		permissionHandler.handleAfterLinkSave(new Role(), deleteUnit);
+		Assert.assertTrue(permissionService.hasPermission(deleteUnit, UNIT_ID3));
+	}
+
+	@Test
+	public void shouldInvalidatePermissionsUponActionRoleLinkChange() {
+		Assert.assertTrue(permissionService.hasPermission(updateCollection, UNIT_ID1));
+
+		// role 2 is revoked from the update action via the action side of the link
+		Mockito.when(roleRepository.findRoleActionIds()).thenReturn(Arrays.asList(
+				getRoleAction(1l, readCollection), getRoleAction(2l, readCollection), getRoleAction(3l, deleteUnit)));
+		permissionHandler.handleAfterLinkDelete(updateCollection, new Role());
+		Assert.assertFalse(permissionService.hasPermission(updateCollection, UNIT_ID1));
+	}
+
+	private Action getAction(Long id, ActionType actionType, TargetType targetType, HttpMethod httpMethod) {
+		Action action = new Action();
+		action.setId(id);
+		action.setName(actionType + " " + targetType);
+		action.setActionType(actionType);
+		action.setTargetType(targetType);
+		action.setHttpMethod(httpMethod);
+		action.setUrlPattern("/" + targetType.toString().toLowerCase() + "s/[0-9]+");
+		return action;
+	}
+
+	private RoleActionId getRoleAction(Long roleId, Action action) {
+		return new RoleActionId() {
+			public Long getRoleId() { return roleId; }
+			public Long getActionId() { return action.getId(); }
+		};
+	}
+
+	private RoleAssignmentId getRoleAssignment(Long roleId, Long unitId) {
+		return new RoleAssignmentId() {
+			public Long getRoleId() { return roleId; }
+			public Long getUnitId() { return unitId; }
+		};
+	}
+
+}
@@ -1,5 +1,7 @@
 package edu.indiana.dlib.amppd.service;
 
+import java.util.List;
+
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.Assert;
@@ -94,4 +96,17 @@ public class PreprocessServiceTests {
 		Assert.assertTrue(mediaInfo.contains("audio"));		
 		Assert.assertFalse(mediaInfo.contains("video"));		
 	}	
+	
+	@Test
+    public void shouldPreprocessPrimaryfilesInBulk() {
+		Asset audio = testHelper.ensurePrimaryfile(TestHelper.TEST_AUDIO, "mp3");
+		Asset video = testHelper.ensurePrimaryfile(TestHelper.TEST_VIDEO, "mp4");
+
+		// media info of both should have been retrieved
+		List<Asset> failed = preprocessService.preprocess(List.of(audio, video), true);
+		Assert.assertTrue(failed.isEmpty());
+		Assert.assertTrue(audio.getMediaInfo().contains("audio"));		
+		Assert.assertFalse(audio.getMediaInfo().contains("video"));		
+		Assert.assertTrue(video.getMediaInfo().contains("video"));		
+	}	
 }
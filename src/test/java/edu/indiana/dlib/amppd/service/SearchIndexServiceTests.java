@@ -0,0 +1,106 @@
+package edu.indiana.dlib.amppd.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import edu.indiana.dlib.amppd.model.Item;
+import edu.indiana.dlib.amppd.model.Primaryfile;
+import edu.indiana.dlib.amppd.model.SearchEntry;
+import edu.indiana.dlib.amppd.model.projection.PrimaryfileSearchResult;
+import edu.indiana.dlib.amppd.repository.ItemRepository;
+import edu.indiana.dlib.amppd.repository.SearchEntryRepository;
+import edu.indiana.dlib.amppd.util.TestHelper;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class SearchIndexServiceTests {
+
+	@Autowired
+	private SearchIndexService searchIndexService;
+
+	@Autowired
+	private TestHelper testHelper;   
+
+	@Autowired
+	private ItemRepository itemRepository;
+
+	@Autowired
+	private SearchEntryRepository searchEntryRepository;
+
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+
+	@Test
+	public void shouldFindIndexedPrimaryfileByItemName() {
+		Primaryfile primaryfile = testHelper.ensurePrimaryfile("TestUnit", "TestCollection", "TestSearchItem", "TestSearchPrimaryfile");
+		searchIndexService.indexEntity(primaryfile);
+		
+		Page<PrimaryfileSearchResult> results = searchIndexService.searchPrimaryfiles("testsearchitem", false, PageRequest.of(0, 10));
+		Assert.assertTrue(results.getContent().stream().anyMatch(p -> p.getPrimaryfileId().equals(primaryfile.getId())));
+		
+		searchIndexService.removeEntity(primaryfile);
+		Page<SearchEntry> entries = searchIndexService.searchEntities(SearchEntry.TYPE_PRIMARYFILE, "TestSearchPrimaryfile", PageRequest.of(0, 10));
+		Assert.assertTrue(entries.getContent().stream().noneMatch(e -> e.getEntityId().equals(primaryfile.getId())));
+	}
+
+	@Test
+	public void shouldRebuildIndexUponEntityRenamedWithoutIndexing() {
+		Item item = testHelper.ensureItem("TestUnit", "TestCollection", "TestStaleItem");
+		searchIndexService.indexEntity(item);
+		String name = "TestRenamedItem" + System.currentTimeMillis();
+		transactionTemplate.executeWithoutResult(status -> itemRepository.updateName(name, item.getId()));
+		
+		// entry counts still match, but the stale item name is detected
+		Assert.assertTrue(searchIndexService.refreshSearchIndex() > 0);
+		Page<SearchEntry> entries = searchIndexService.searchEntities(SearchEntry.TYPE_ITEM, name, PageRequest.of(0, 10));
+		Assert.assertTrue(entries.getContent().stream().anyMatch(e -> e.getEntityId().equals(item.getId())));
+		Assert.assertEquals(0, searchIndexService.refreshSearchIndex());
+	}
+
+	@Test
+	public void shouldRebuildIndexUponAncestorRenamedWithoutIndexing() {
+		Primaryfile primaryfile = testHelper.ensurePrimaryfile("TestUnit", "TestCollection", "TestStaleAncestorItem", "TestStaleAncestorPrimaryfile");
+		searchIndexService.indexEntity(primaryfile);
+		Item item = primaryfile.getItem();
+		String name = "TestRenamedAncestorItem" + System.currentTimeMillis();
+		transactionTemplate.executeWithoutResult(status -> itemRepository.updateName(name, item.getId()));
+		
+		// bring the item's own entry up to date, leaving only the primaryfile entry with the stale item name
+		SearchEntry entry = searchEntryRepository.findFirstByEntityTypeAndEntityId(SearchEntry.TYPE_ITEM, item.getId()).get();
+		entry.setName(name);
+		entry.setItemName(name);
+		searchEntryRepository.save(entry);
+		
+		Assert.assertTrue(searchIndexService.refreshSearchIndex() > 0);
+		Page<PrimaryfileSearchResult> results = searchIndexService.searchPrimaryfiles(name, false, PageRequest.of(0, 10));
+		Assert.assertTrue(results.getContent().stream().anyMatch(p -> p.getPrimaryfileId().equals(primaryfile.getId())));
+		Assert.assertEquals(0, searchIndexService.refreshSearchIndex());
+	}
+
+	@Test
+	public void shouldKeepEntriesAndRemoveStaleOnesUponRebuild() {
+		Primaryfile primaryfile = testHelper.ensurePrimaryfile("TestUnit", "TestCollection", "TestRebuildItem", "TestRebuildPrimaryfile");
+		searchIndexService.indexEntity(primaryfile);
+		Long entryId = searchEntryRepository.findFirstByEntityTypeAndEntityId(SearchEntry.TYPE_PRIMARYFILE, primaryfile.getId()).get().getId();
+		
+		// an entry of a primaryfile which no longer exists
+		SearchEntry stale = new SearchEntry();
+		stale.setEntityType(SearchEntry.TYPE_PRIMARYFILE);
+		stale.setEntityId(-1l);
+		stale.setName("TestDeletedPrimaryfile");
+		searchEntryRepository.save(stale);
+		
+		// existing entries are updated in place rather than recreated, and the stale one is removed
+		searchIndexService.rebuildSearchIndex();
+		Assert.assertEquals(entryId, searchEntryRepository.findFirstByEntityTypeAndEntityId(SearchEntry.TYPE_PRIMARYFILE, primaryfile.getId()).get().getId());
+		Assert.assertFalse(searchEntryRepository.findFirstByEntityTypeAndEntityId(SearchEntry.TYPE_PRIMARYFILE, -1l).isPresent());
+	}
+
+}
@@ -1,5 +1,7 @@
 package edu.indiana.dlib.amppd.service;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -27,6 +29,7 @@ import edu.indiana.dlib.amppd.repository.WorkflowResultRepository;
 import edu.indiana.dlib.amppd.repository.WorkflowResultRepositoryCustomImpl;
 import edu.indiana.dlib.amppd.util.TestHelper;
 import edu.indiana.dlib.amppd.web.CreateJobResponse;
+import edu.indiana.dlib.amppd.web.WorkflowResultFilterValues;
 import edu.indiana.dlib.amppd.web.WorkflowResultResponse;
 import edu.indiana.dlib.amppd.web.WorkflowResultSearchQuery;
 import edu.indiana.dlib.amppd.web.WorkflowResultSortRule;
@@ -151,6 +154,60 @@ public class WorkflowResultServiceTests {
     	Assert.assertTrue(returnedPrimaryFile);
     	
 	}
+	
+	@Test
+	public void shouldReturnOnlyRequestedFilters() {
+		jobService.createJob(workflowDetails, primaryfile.getId(), new HashMap<String, Map<String, String>>());
+		
+		// filtering by the primaryfile shall not narrow down the files filter itself
+    	WorkflowResultSearchQuery query = new WorkflowResultSearchQuery();
+    	Long[] files = {primaryfile.getId()};
+    	query.setFilterByFiles(files);
+    	WorkflowResultFilterValues filters = workflowResultService.getWorkflowResultFilters(query, Arrays.asList("files", "statuses"));
+    	
+    	Assert.assertFalse(filters.getFiles().isEmpty());
+    	Assert.assertFalse(filters.getStatuses().isEmpty());
+    	Assert.assertNull(filters.getUnits());
+    	Assert.assertNull(filters.getWorkflows());
+    	Assert.assertNull(filters.getDateFilter());
+	}
+	
+	@Test
+	public void shouldReturnContiguousKeysetPages() {
+		jobService.createJob(workflowDetails, primaryfile.getId(), new HashMap<String, Map<String, String>>());
+		
+		// pages retrieved by continuation token shall cover all results in order without overlap
+    	WorkflowResultSearchQuery query = new WorkflowResultSearchQuery();
+    	WorkflowResultResponse all = workflowResultService.getWorkflowResults(query);
+    	query.setKeyset(true);
+    	query.setResultsPerPage(1);
+    	List<Long> ids = new ArrayList<Long>();
+    	WorkflowResultResponse page;
+    	do {
+    		page = workflowResultService.getWorkflowResults(query);
+    		page.getRows().forEach(row -> ids.add(row.getId()));
+    		query.setContinuationToken(page.getContinuationToken());
+    	} while (page.getContinuationToken() != null);
+    	
+    	Assert.assertEquals(all.getTotalResults(), ids.size());
+    	for (int i = 0; i < ids.size(); i++) {
+    		Assert.assertEquals(all.getRows().get(i).getId(), ids.get(i));
+    	}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowExceptionForInvalidContinuationToken() {
+    	WorkflowResultSearchQuery query = new WorkflowResultSearchQuery();
+    	query.setKeyset(true);
+    	query.setContinuationToken("foo");
+		workflowResultService.getWorkflowResults(query);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowExceptionForInvalidFilter() {
+		workflowResultService.getWorkflowResultFilters(new WorkflowResultSearchQuery(), Arrays.asList("foo"));
+	}
+	
 	private void validateResult(WorkflowResult result) {
 		Assert.assertNotNull(result.getOutputName());
     	Assert.assertNotNull(result.getItemName());
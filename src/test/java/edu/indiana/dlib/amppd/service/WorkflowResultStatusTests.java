@@ -0,0 +1,111 @@
+package edu.indiana.dlib.amppd.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.github.jmchilton.blend4j.galaxy.beans.Dataset;
+
+import edu.indiana.dlib.amppd.exception.GalaxyWorkflowException;
+import edu.indiana.dlib.amppd.model.WorkflowResult;
+import edu.indiana.dlib.amppd.repository.WorkflowResultRepository;
+import edu.indiana.dlib.amppd.web.GalaxyJobState;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class WorkflowResultStatusTests {
+
+	public static final String HISTORY_ID = "h1";
+	public static final String OUTPUT_ID1 = "o1";
+	public static final String OUTPUT_ID2 = "o2";
+
+	@Autowired
+	private WorkflowResultService workflowResultService;
+
+	@MockBean
+	private WorkflowResultRepository workflowResultRepository;
+
+	@MockBean
+	private GalaxyDataService galaxyDataService;
+
+	@MockBean
+	private JobService jobService;
+
+	private WorkflowResult result1;
+	private WorkflowResult result2;
+
+	@Before
+	public void setup() {
+		// two scheduled results in the same history
+		result1 = getResult(1l, OUTPUT_ID1);
+		result2 = getResult(2l, OUTPUT_ID2);
+		Mockito.when(workflowResultRepository.findByStatusIn(Mockito.anyList())).thenReturn(Arrays.asList(result1, result2));
+	}
+
+	@Test
+	public void shouldLookUpDatasetMissingFromHistory() {
+		// the history contents miss the second output, which can still be found individually
+		Mockito.when(galaxyDataService.showHistoryDatasets(HISTORY_ID)).thenReturn(Arrays.asList(getDataset(OUTPUT_ID1, false)));
+		Mockito.when(jobService.showJobStepOutput(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.eq(OUTPUT_ID2))).thenReturn(getDataset(OUTPUT_ID2, false));
+
+		List<WorkflowResult> results = workflowResultService.refreshIncompleteWorkflowResults();
+		Assert.assertEquals(2, results.size());
+		Assert.assertEquals(GalaxyJobState.IN_PROGRESS, result1.getStatus());
+		Assert.assertEquals(GalaxyJobState.IN_PROGRESS, result2.getStatus());
+		Mockito.verify(workflowResultRepository).deleteAll(new ArrayList<WorkflowResult>());
+		Mockito.verify(workflowResultRepository).saveAll(Arrays.asList(result1, result2));
+	}
+
+	@Test
+	public void shouldKeepResultWhoseDatasetCannotBeRetrieved() {
+		// the history contents miss the second output, which can't be found individually either
+		Mockito.when(galaxyDataService.showHistoryDatasets(HISTORY_ID)).thenReturn(Arrays.asList(getDataset(OUTPUT_ID1, false)));
+		Mockito.when(jobService.showJobStepOutput(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.eq(OUTPUT_ID2))).thenThrow(new GalaxyWorkflowException("not found"));
+
+		List<WorkflowResult> results = workflowResultService.refreshIncompleteWorkflowResults();
+		Assert.assertEquals(2, results.size());
+		Assert.assertEquals(GalaxyJobState.SCHEDULED, result2.getStatus());
+		Mockito.verify(workflowResultRepository).deleteAll(new ArrayList<WorkflowResult>());
+		Mockito.verify(workflowResultRepository).saveAll(Arrays.asList(result1));
+	}
+
+	@Test
+	public void shouldDeleteResultOfDeletedDataset() {
+		// the second output is reported as deleted in the history contents
+		Mockito.when(galaxyDataService.showHistoryDatasets(HISTORY_ID)).thenReturn(Arrays.asList(getDataset(OUTPUT_ID1, false), getDataset(OUTPUT_ID2, true)));
+
+		List<WorkflowResult> results = workflowResultService.refreshIncompleteWorkflowResults();
+		Assert.assertEquals(Arrays.asList(result1), results);
+		Mockito.verify(jobService, Mockito.never()).showJobStepOutput(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+		Mockito.verify(workflowResultRepository).deleteAll(Arrays.asList(result2));
+	}
+
+	private WorkflowResult getResult(Long id, String outputId) {
+		WorkflowResult result = new WorkflowResult();
+		result.setId(id);
+		result.setHistoryId(HISTORY_ID);
+		result.setOutputId(outputId);
+		result.setStatus(GalaxyJobState.SCHEDULED);
+		return result;
+	}
+
+	private Dataset getDataset(String id, boolean deleted) {
+		Dataset dataset = new Dataset();
+		dataset.setId(id);
+		dataset.setState("running");
+		dataset.setDeleted(deleted);
+		dataset.setVisible(true);
+		return dataset;
+	}
+
+}
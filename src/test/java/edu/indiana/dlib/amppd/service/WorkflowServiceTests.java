@@ -1,8 +1,11 @@
 package edu.indiana.dlib.amppd.service;
 
 import com.github.jmchilton.blend4j.galaxy.beans.Workflow;
+import com.github.jmchilton.blend4j.galaxy.beans.WorkflowDetails;
 import edu.indiana.dlib.amppd.util.TestHelper;
 import edu.indiana.dlib.amppd.web.WorkflowResponse;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.SerializationConfig;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -30,6 +33,9 @@ public class WorkflowServiceTests {
     	// prepare the workflow for testing
     	workflow = testHelper.ensureTestWorkflow();  
     	workflowPublished = testHelper.ensureTestWorkflowPublished();  
+    	
+    	// the test workflows might have just been imported directly into Galaxy, bypassing the cached workflow lists
+    	workflowService.clearWorkflowsCache();
  	}
 		
     @Test
@@ -118,4 +124,51 @@ public class WorkflowServiceTests {
     	Assert.assertEquals(workflowService.workflowNamesCacheSize(), (Integer)1);
     }
     
+    @Test
+    public void shouldCacheWorkflowDetailsUntilInvalidated() {
+    	// each retrieval gets its own copy of the cached details, so changes by one caller don't leak into the cache
+    	WorkflowDetails details = workflowService.showWorkflow(workflow.getId(), null, null, null);
+    	String name = details.getName();
+    	details.setName(name + " changed");
+    	WorkflowDetails detailsCached = workflowService.showWorkflow(workflow.getId(), null, null, null);
+    	Assert.assertNotSame(details, detailsCached);
+    	Assert.assertEquals(name, detailsCached.getName());
+    	Assert.assertEquals(details.getSteps().keySet(), detailsCached.getSteps().keySet());
+    	
+    	// after invalidation, details are retrieved from Galaxy again
+    	workflowService.invalidateWorkflow(workflow.getId());
+    	WorkflowDetails detailsReloaded = workflowService.showWorkflow(workflow.getId(), null, null, null);
+    	Assert.assertEquals(details.getId(), detailsReloaded.getId());
+    }
+    
+    @Test
+    public void shouldKeepAllPropertiesInCachedWorkflowDetails() {
+    	// without tool names or input details populated, the cached copy shall be identical to the details retrieved from Galaxy
+    	WorkflowDetails details = workflowService.getWorkflowsClient().showWorkflow(workflow.getId());
+    	workflowService.invalidateWorkflow(workflow.getId());
+    	workflowService.showWorkflow(workflow.getId(), false, false, false);
+    	WorkflowDetails detailsCached = workflowService.showWorkflow(workflow.getId(), false, false, false);
+    	Assert.assertEquals(details.getId(), detailsCached.getId());
+    	Assert.assertEquals(details.getUrl(), detailsCached.getUrl());
+    	
+    	// compare all bean properties, including those which blend4j annotations ignore upon serialization
+    	ObjectMapper mapper = new ObjectMapper()
+    			.configure(SerializationConfig.Feature.USE_ANNOTATIONS, false)
+    			.configure(SerializationConfig.Feature.FAIL_ON_EMPTY_BEANS, false);
+    	Assert.assertEquals(mapper.valueToTree(details), mapper.valueToTree(detailsCached));
+    	Assert.assertEquals(details.getSteps().get("0").getType(), detailsCached.getSteps().get("0").getType());
+    }
+    
+    @Test
+    public void shouldNotCacheWorkflowNameNotFound() {
+    	String workflowId = "nonexistent" + System.currentTimeMillis();
+    	Assert.assertEquals(workflowId, workflowService.getWorkflowName(workflowId));
+    	Assert.assertEquals(workflowId, workflowService.getWorkflowName(workflowId));
+    	workflowService.clearWorkflowNamesCache();
+    	workflowService.getWorkflowName(workflow.getId());
+    	Assert.assertEquals(workflowService.workflowNamesCacheSize(), (Integer)1);
+    	workflowService.getWorkflowName(workflowId);
+    	Assert.assertEquals(workflowService.workflowNamesCacheSize(), (Integer)1);
+    }
+    
 }
@@ -0,0 +1,70 @@
+package edu.indiana.dlib.amppd.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CacheHelperTests {
+
+	@Test
+	public void shouldCountHitsAndMisses() {
+		CacheHelper cache = new CacheHelper("test", 3600, 60, 100);
+		cache.put("a", 1);
+		Assert.assertEquals(1, cache.get("a"));
+		Assert.assertNull(cache.get("b"));
+		Assert.assertEquals(2, cache.get("b", key -> 2));
+		Assert.assertEquals(2, cache.get("b"));
+		Assert.assertEquals(2, cache.getHitCount());
+		Assert.assertEquals(2, cache.getMissCount());
+		Assert.assertEquals(2, cache.getPutCount());
+		Assert.assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void shouldExpireEntries() throws InterruptedException {
+		CacheHelper cache = new CacheHelper("test", 3600, 60, 100);
+		cache.put("a", 1, 0);
+		cache.put("b", 2, 0);
+		cache.put("c", 3);
+		Thread.sleep(10);
+		Assert.assertNull(cache.get("a"));
+		Assert.assertEquals(1, cache.cleanup());
+		Assert.assertEquals(3, cache.get("c"));
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals(2, cache.getExpirationCount());
+	}
+
+	@Test
+	public void shouldEvictLeastRecentlyUsedWhenFull() {
+		// a single segment, so the bound is exact
+		CacheHelper cache = new CacheHelper("test", 3600, 60, 1);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		Assert.assertNull(cache.get("a"));
+		Assert.assertEquals(2, cache.get("b"));
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals(1, cache.getEvictionCount());
+
+		// the total number of entries never exceeds maxItems, even when it doesn't divide evenly among the segments
+		cache = new CacheHelper("test", 3600, 60, 100);
+		for (int i = 0; i < 1000; i++) {
+			cache.put(i, i);
+		}
+		Assert.assertTrue(cache.size() <= 100);
+		Assert.assertEquals(1000 - cache.size(), cache.getEvictionCount());
+	}
+
+	@Test
+	public void shouldKeepAllItemsOfSmallCacheInOneSegment() {
+		// a small cache uses a single segment, so it holds exactly maxItems regardless of how keys hash
+		CacheHelper cache = new CacheHelper("test", 3600, 60, 10);
+		for (int i = 0; i < 10; i++) {
+			cache.put(i * CacheHelper.MAX_SEGMENTS, i);
+		}
+		Assert.assertEquals(10, cache.size());
+		Assert.assertEquals(0, cache.getEvictionCount());
+		cache.put(-1, -1);
+		Assert.assertEquals(10, cache.size());
+		Assert.assertNull(cache.get(0));
+	}
+
+}
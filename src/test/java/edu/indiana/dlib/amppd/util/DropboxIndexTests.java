@@ -0,0 +1,71 @@
+package edu.indiana.dlib.amppd.util;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.dlib.amppd.util.DropboxIndex.FileInfo;
+
+public class DropboxIndexTests {
+
+	@Test
+	public void shouldIndexFilesUponScan() throws Exception {
+		Path root = Files.createTempDirectory("dropbox");
+		Path collection = Files.createDirectories(root.resolve("unit").resolve("collection"));
+		Files.write(collection.resolve("a.mp4"), new byte[] {1, 2, 3});
+		Files.write(Files.createDirectories(collection.resolve("sub")).resolve("b.mp4"), new byte[] {1});
+		Files.createDirectories(root.resolve("unit").resolve("empty"));
+
+		try (DropboxIndex index = createIndex(root)) {
+			Map<String, FileInfo> files = index.getFiles("unit", "collection");
+			Assert.assertEquals(2, files.size());
+			Assert.assertEquals(3, files.get("a.mp4").size);
+			Assert.assertEquals(1, files.get("sub/b.mp4").size);
+			Assert.assertTrue(index.getFiles("unit", "empty").isEmpty());
+			Assert.assertNull(index.getFiles("unit", "none"));
+		}
+	}
+
+	@Test
+	public void shouldUpdateFilesUponChange() throws Exception {
+		Path root = Files.createTempDirectory("dropbox");
+		Path collection = Files.createDirectories(root.resolve("unit").resolve("collection"));
+
+		try (DropboxIndex index = createIndex(root)) {
+			Path file = Files.write(collection.resolve("a.mp4"), new byte[] {1, 2, 3});
+			index.update(file);
+			Assert.assertEquals(3, index.getFiles("unit", "collection").get("a.mp4").size);
+
+			Files.delete(file);
+			index.update(file);
+			Assert.assertTrue(index.getFiles("unit", "collection").isEmpty());
+
+			Path dir = Files.createDirectories(root.resolve("unit").resolve("new"));
+			Files.write(dir.resolve("b.mp4"), new byte[] {1});
+			Assert.assertNull(index.getFiles("unit", "new"));
+			Assert.assertTrue(index.refresh("unit", "new").containsKey("b.mp4"));
+			Assert.assertNotNull(index.getFiles("unit", "new"));
+
+			Files.delete(dir.resolve("b.mp4"));
+			Files.delete(dir);
+			Assert.assertNull(index.refresh("unit", "new"));
+			Assert.assertNull(index.getFiles("unit", "new"));
+		}
+	}
+
+	/*
+	 * Create a DropboxIndex without watching or periodic rescans, and wait for its initial scan.
+	 */
+	private DropboxIndex createIndex(Path root) throws InterruptedException {
+		DropboxIndex index = new DropboxIndex(root, false, 0);
+		for (int i = 0; i < 100 && !index.isReady(); i++) {
+			Thread.sleep(50);
+		}
+		Assert.assertTrue(index.isReady());
+		return index;
+	}
+
+}
@@ -0,0 +1,72 @@
+package edu.indiana.dlib.amppd.util;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class GalaxyClientFilterTests {
+
+	public static final int MAX_RETRIES = 3;
+	public static final String URL = "http://localhost/api/histories";
+
+	@Test
+	public void shouldRetryIdempotentRequestUponConnectionError() {
+		AtomicInteger attempts = new AtomicInteger();
+		Client client = createClient(attempts, new ConnectException("Connection refused"));
+		try {
+			client.resource(URL).get(ClientResponse.class);
+			Assert.fail("ClientHandlerException expected");
+		}
+		catch (ClientHandlerException e) {
+			Assert.assertEquals(MAX_RETRIES + 1, attempts.get());
+		}
+	}
+
+	@Test
+	public void shouldNotRetryUponReadTimeout() {
+		AtomicInteger attempts = new AtomicInteger();
+		Client client = createClient(attempts, new SocketTimeoutException("Read timed out"));
+		try {
+			client.resource(URL).get(ClientResponse.class);
+			Assert.fail("ClientHandlerException expected");
+		}
+		catch (ClientHandlerException e) {
+			Assert.assertEquals(1, attempts.get());
+		}
+	}
+
+	@Test
+	public void shouldNotRetryNonIdempotentRequest() {
+		AtomicInteger attempts = new AtomicInteger();
+		Client client = createClient(attempts, new ConnectException("Connection refused"));
+		try {
+			client.resource(URL).post(ClientResponse.class);
+			Assert.fail("ClientHandlerException expected");
+		}
+		catch (ClientHandlerException e) {
+			Assert.assertEquals(1, attempts.get());
+		}
+	}
+
+	/*
+	 * Create a client with a GalaxyClientFilter, whose requests all fail with the given IO error, counted into the given attempts.
+	 */
+	private Client createClient(AtomicInteger attempts, Exception error) {
+		Client client = new Client(request -> {
+			attempts.incrementAndGet();
+			throw new ClientHandlerException(error);
+		});
+		client.addFilter(new GalaxyClientFilter(1000, 1000, MAX_RETRIES, 1, new GalaxyHttpMetrics(new SimpleMeterRegistry())));
+		return client;
+	}
+
+}
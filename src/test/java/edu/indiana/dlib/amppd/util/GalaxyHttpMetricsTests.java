@@ -0,0 +1,33 @@
+package edu.indiana.dlib.amppd.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class GalaxyHttpMetricsTests {
+
+	@Test
+	public void shouldNormalizeEndpoint() {
+		Assert.assertEquals("/api/histories/{id}/contents", GalaxyHttpMetrics.getEndpoint("/api/histories/f2db41e1fa331b3e/contents?v=dev"));
+		Assert.assertEquals("/api/workflows/{id}", GalaxyHttpMetrics.getEndpoint("/api/workflows/ebfb8f50c6abde6d"));
+		Assert.assertEquals("/amppd/galaxy/static/**", GalaxyHttpMetrics.getEndpoint("/amppd/galaxy/static/scripts/bundled/analysis.bundled.js"));
+		Assert.assertEquals("/api/datatypes/types_and_mapping", GalaxyHttpMetrics.getEndpoint("/api/datatypes/types_and_mapping"));
+	}
+
+	@Test
+	public void shouldRecordRequestsPerEndpointAndOutcome() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		GalaxyHttpMetrics metrics = new GalaxyHttpMetrics(registry);
+		metrics.record("GET", "/api/histories/f2db41e1fa331b3e/contents", 200, 1000000);
+		metrics.record("GET", "/api/histories/ebfb8f50c6abde6d/contents", 200, 3000000);
+		metrics.record("GET", "/api/histories/ebfb8f50c6abde6d/contents", GalaxyHttpMetrics.STATUS_IO_ERROR, 1000000);
+
+		Timer success = registry.find(GalaxyHttpMetrics.METRIC_NAME).tag("endpoint", "/api/histories/{id}/contents").tag("outcome", "SUCCESS").timer();
+		Timer error = registry.find(GalaxyHttpMetrics.METRIC_NAME).tag("endpoint", "/api/histories/{id}/contents").tag("outcome", "IO_ERROR").timer();
+		Assert.assertEquals(2, success.count());
+		Assert.assertEquals(1, error.count());
+	}
+
+}
@@ -0,0 +1,54 @@
+package edu.indiana.dlib.amppd.util;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GalaxyStaticCacheTests {
+
+	@Test
+	public void shouldCacheAssetPerVariant() throws Exception {
+		Path dir = Files.createTempDirectory("galaxy-static");
+		GalaxyStaticCache cache = new GalaxyStaticCache(dir.toString(), 3600);
+
+		Path tempFile = cache.createTempFile();
+		Files.write(tempFile, "bundle".getBytes(StandardCharsets.UTF_8));
+		GalaxyStaticCache.Asset asset = cache.put("/static/app.js", GalaxyStaticCache.GZIP, "v=1", tempFile, "\"v1\"", "application/javascript", "gzip");
+
+		Assert.assertFalse(Files.exists(tempFile));
+		Assert.assertEquals("bundle", new String(Files.readAllBytes(asset.file), StandardCharsets.UTF_8));
+		Assert.assertSame(asset, cache.get("/static/app.js", GalaxyStaticCache.getVariant("gzip, deflate, br")));
+		Assert.assertNull(cache.get("/static/app.js", GalaxyStaticCache.getVariant(null)));
+		Assert.assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void shouldRevalidateUponNewQueryOrInterval() throws Exception {
+		Path dir = Files.createTempDirectory("galaxy-static");
+		GalaxyStaticCache cache = new GalaxyStaticCache(dir.toString(), 3600);
+		GalaxyStaticCache.Asset asset = cache.put("/static/app.js", GalaxyStaticCache.IDENTITY, "v=1", cache.createTempFile(), "\"v1\"", null, null);
+
+		Assert.assertTrue(cache.isFresh(asset, "v=1"));
+		Assert.assertFalse(cache.isFresh(asset, "v=2"));
+		cache.validated(asset, "v=2");
+		Assert.assertTrue(cache.isFresh(asset, "v=2"));
+
+		asset.validated = 0;
+		Assert.assertFalse(cache.isFresh(asset, "v=2"));
+	}
+
+	@Test
+	public void shouldCleanOwnDirectoryOnlyUponCreation() throws Exception {
+		Path dir = Files.createTempDirectory("galaxy-static");
+		Path assetsDir = Files.createDirectories(dir.resolve(GalaxyStaticCache.ASSETS_SUBDIR));
+		Files.write(assetsDir.resolve("leftover"), new byte[] {1});
+		Files.write(dir.resolve("other"), new byte[] {1});
+		new GalaxyStaticCache(dir.toString(), 3600);
+		Assert.assertEquals(0, assetsDir.toFile().list().length);
+		Assert.assertTrue(Files.exists(dir.resolve("other")));
+	}
+
+}
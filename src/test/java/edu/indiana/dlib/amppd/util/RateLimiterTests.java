@@ -0,0 +1,33 @@
+package edu.indiana.dlib.amppd.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RateLimiterTests {
+
+	@Test
+	public void shouldNotBlockWhenUnlimited() {
+		RateLimiter limiter = new RateLimiter(0);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 1000; i++) {
+			limiter.acquire();
+		}
+		Assert.assertTrue(limiter.isUnlimited());
+		Assert.assertEquals(1000, limiter.getPermitsAcquired());
+		Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+	}
+
+	@Test
+	public void shouldSpaceOutPermits() {
+		// 10 permits per second, the last batch can only start after the first 4 permits, i.e. 0.4 second later
+		RateLimiter limiter = new RateLimiter(10);
+		long start = System.currentTimeMillis();
+		limiter.acquire();
+		limiter.acquire(3);
+		limiter.acquire(3);
+		Assert.assertFalse(limiter.isUnlimited());
+		Assert.assertEquals(7, limiter.getPermitsAcquired());
+		Assert.assertTrue(System.currentTimeMillis() - start >= 350);
+	}
+
+}